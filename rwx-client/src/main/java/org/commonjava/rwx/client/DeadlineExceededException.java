@@ -0,0 +1,43 @@
+/**
+ * Copyright (C) 2010 Red Hat, Inc. (http://github.com/Commonjava/commonjava)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.commonjava.rwx.client;
+
+import org.commonjava.rwx.error.XmlRpcException;
+
+import java.time.Duration;
+
+/**
+ * A call did not complete, i.e., its response was not received and parsed, within its deadline.
+ */
+public class DeadlineExceededException
+                extends XmlRpcException
+{
+
+    private static final long serialVersionUID = 1L;
+
+    private final Duration deadline;
+
+    public DeadlineExceededException( final Duration deadline, final Throwable cause )
+    {
+        super( "Call did not complete within its deadline of {}", cause, deadline );
+        this.deadline = deadline;
+    }
+
+    public Duration getDeadline()
+    {
+        return deadline;
+    }
+}
@@ -0,0 +1,409 @@
+/**
+ * Copyright (C) 2010 Red Hat, Inc. (http://github.com/Commonjava/commonjava)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.commonjava.rwx.client;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Send calls of idempotent methods (see {@link #setHedgedMethods(Collection)}) a second time, to the next endpoint,
+ * when the first attempt has not answered within the {@link #getPercentile()} of the method's recent latencies. The
+ * attempt answering first wins and the other is cancelled, so a slow replica costs a call at most about the
+ * percentile latency. The request is sent from the same {@link RenderedRequest}, it is not rendered again.
+ *
+ * Hedges are rate limited: every hedged method call earns {@link #getHedgeRatio()} of a hedge, up to
+ * {@link #getHedgeBurst()} hedges, so a backend which is slow for all calls gets at most that ratio of extra load. A
+ * method is not hedged before {@link #getMinSamples()} of its latencies are recorded, unless an initial delay is set.
+ * The latency of every call, hedged or not, is tracked per method (see {@link #getLatencyTracker()}), once per call:
+ * it is the time from the call until the first response starts to arrive, or until the call is cancelled, so a slow
+ * attempt which loses to a hedge counts with the time it ran rather than the hedge's own latency. Calls go to the
+ * endpoints in turn. Thread-safe.
+ */
+public final class HedgingTransport
+                implements XmlRpcTransport
+{
+    public static final double DEFAULT_PERCENTILE = 95;
+
+    public static final int DEFAULT_MIN_SAMPLES = 20;
+
+    public static final double DEFAULT_HEDGE_RATIO = 0.05;
+
+    public static final int DEFAULT_HEDGE_BURST = 10;
+
+    private static final AtomicInteger TRANSPORT_COUNT = new AtomicInteger();
+
+    private final List<XmlRpcTransport> transports;
+
+    private final LatencyTracker latencies = new LatencyTracker();
+
+    private final ScheduledThreadPoolExecutor timer;
+
+    private final AtomicInteger next = new AtomicInteger();
+
+    private final AtomicLong hedgeCount = new AtomicLong();
+
+    private volatile Set<String> hedgedMethods = Collections.emptySet();
+
+    private volatile double percentile = DEFAULT_PERCENTILE;
+
+    private volatile int minSamples = DEFAULT_MIN_SAMPLES;
+
+    private volatile Duration initialDelay;
+
+    private double hedgeRatio = DEFAULT_HEDGE_RATIO;
+
+    private int hedgeBurst = DEFAULT_HEDGE_BURST;
+
+    private double hedgeTokens = DEFAULT_HEDGE_BURST;
+
+    /**
+     * @param transports the endpoints, e.g., {@link HttpTransport}s of the replicas of a hub; with a single one,
+     * hedges go to the same endpoint
+     */
+    public HedgingTransport( List<? extends XmlRpcTransport> transports )
+    {
+        if ( transports.isEmpty() )
+        {
+            throw new IllegalArgumentException( "No transports" );
+        }
+        this.transports = Collections.unmodifiableList( new ArrayList<>( transports ) );
+
+        String name = "rwx-hedging-" + TRANSPORT_COUNT.incrementAndGet();
+        this.timer = new ScheduledThreadPoolExecutor( 1, r -> {
+            Thread t = new Thread( r, name );
+            t.setDaemon( true );
+            return t;
+        } );
+        this.timer.setRemoveOnCancelPolicy( true );
+    }
+
+    public List<XmlRpcTransport> getTransports()
+    {
+        return transports;
+    }
+
+    public LatencyTracker getLatencyTracker()
+    {
+        return latencies;
+    }
+
+    /**
+     * @return the number of hedges sent
+     */
+    public long getHedgeCount()
+    {
+        return hedgeCount.get();
+    }
+
+    public Set<String> getHedgedMethods()
+    {
+        return hedgedMethods;
+    }
+
+    /**
+     * Set the methods which may be hedged: idempotent ones, e.g., getBuild or listTags. None by default.
+     */
+    public void setHedgedMethods( Collection<String> methods )
+    {
+        this.hedgedMethods = Collections.unmodifiableSet( new HashSet<>( methods ) );
+    }
+
+    public double getPercentile()
+    {
+        return percentile;
+    }
+
+    /**
+     * Set the percentile of the method's recent latencies after which a call is hedged, 95 by default.
+     */
+    public void setPercentile( double percentile )
+    {
+        if ( percentile <= 0 || percentile > 100 )
+        {
+            throw new IllegalArgumentException( "Invalid percentile: " + percentile );
+        }
+        this.percentile = percentile;
+    }
+
+    public int getMinSamples()
+    {
+        return minSamples;
+    }
+
+    public void setMinSamples( int minSamples )
+    {
+        this.minSamples = minSamples;
+    }
+
+    public Duration getInitialDelay()
+    {
+        return initialDelay;
+    }
+
+    /**
+     * Set the delay after which a call is hedged while too few latencies of its method are recorded. By default
+     * such calls are not hedged.
+     */
+    public void setInitialDelay( Duration initialDelay )
+    {
+        this.initialDelay = initialDelay;
+    }
+
+    public synchronized double getHedgeRatio()
+    {
+        return hedgeRatio;
+    }
+
+    public synchronized int getHedgeBurst()
+    {
+        return hedgeBurst;
+    }
+
+    /**
+     * Limit the hedges.
+     *
+     * @param ratio the hedges allowed per hedged method call, e.g., 0.05 for at most 5% extra calls
+     * @param burst the hedges allowed at once, also the hedges allowed from the start
+     */
+    public synchronized void setHedgeBudget( double ratio, int burst )
+    {
+        if ( ratio < 0 || burst < 0 )
+        {
+            throw new IllegalArgumentException( "Invalid hedge budget: " + ratio + ", " + burst );
+        }
+        this.hedgeRatio = ratio;
+        this.hedgeBurst = burst;
+        this.hedgeTokens = Math.min( hedgeTokens, burst );
+    }
+
+    @Override
+    public CompletableFuture<InputStream> send( RenderedRequest request, Duration timeout )
+    {
+        long start = System.nanoTime();
+        String method = request.getMethodName();
+        int primary = Math.floorMod( next.getAndIncrement(), transports.size() );
+        if ( method == null || !hedgedMethods.contains( method ) )
+        {
+            return timed( method, start, transports.get( primary ).send( request, timeout ) );
+        }
+
+        earnHedge();
+        Duration delay = hedgeDelay( method );
+        if ( delay == null || ( timeout != null && delay.compareTo( timeout ) >= 0 ) )
+        {
+            return timed( method, start, transports.get( primary ).send( request, timeout ) );
+        }
+
+        Race race = new Race();
+        race.add( transports.get( primary ).send( request, timeout ) );
+        ScheduledFuture<?> hedge = timer.schedule( () -> {
+            if ( !race.result.isDone() && spendHedge() )
+            {
+                hedgeCount.incrementAndGet();
+                Duration left = timeout == null ?
+                                null :
+                                Duration.ofNanos( Math.max( 1, timeout.toNanos() - ( System.nanoTime() - start ) ) );
+                int secondary = ( primary + 1 ) % transports.size();
+                race.add( transports.get( secondary ).send( request, left ) );
+            }
+        }, delay.toNanos(), TimeUnit.NANOSECONDS );
+        race.result.whenComplete( ( body, error ) -> hedge.cancel( false ) );
+        return timed( method, start, race.result );
+    }
+
+    /**
+     * Record the call's latency when its first response is in, or the time it ran if it is cancelled, e.g., as its
+     * deadline passed, which is at least as long.
+     */
+    private CompletableFuture<InputStream> timed( String method, long start, CompletableFuture<InputStream> call )
+    {
+        if ( method != null )
+        {
+            call.whenComplete( ( body, error ) -> {
+                if ( error == null || cancelled( error ) )
+                {
+                    latencies.record( method, System.nanoTime() - start );
+                }
+            } );
+        }
+        return call;
+    }
+
+    /**
+     * Cancelling a future of the HTTP client may fail it with the exchange's CancellationException first.
+     */
+    private static boolean cancelled( Throwable error )
+    {
+        return error instanceof CancellationException || error instanceof CompletionException
+                        && error.getCause() instanceof CancellationException;
+    }
+
+    private Duration hedgeDelay( String method )
+    {
+        if ( latencies.getCount( method ) < minSamples )
+        {
+            return initialDelay;
+        }
+        return latencies.getPercentile( method, percentile );
+    }
+
+    private synchronized void earnHedge()
+    {
+        hedgeTokens = Math.min( hedgeBurst, hedgeTokens + hedgeRatio );
+    }
+
+    private synchronized boolean spendHedge()
+    {
+        if ( hedgeTokens < 1 )
+        {
+            return false;
+        }
+        hedgeTokens--;
+        return true;
+    }
+
+    /**
+     * Close the endpoints' transports.
+     */
+    @Override
+    public void close() throws IOException
+    {
+        timer.shutdownNow();
+        IOException error = null;
+        for ( XmlRpcTransport transport : transports )
+        {
+            try
+            {
+                transport.close();
+            }
+            catch ( IOException e )
+            {
+                error = e;
+            }
+        }
+        if ( error != null )
+        {
+            throw error;
+        }
+    }
+
+    /**
+     * The attempts of a call: the first response wins and the others are cancelled, which aborts their exchanges,
+     * the call fails only when all attempts have failed.
+     */
+    private static final class Race
+    {
+        private final CompletableFuture<InputStream> result = new CompletableFuture<>();
+
+        private final List<CompletableFuture<InputStream>> attempts = new ArrayList<>();
+
+        private int running;
+
+        private Throwable error;
+
+        Race()
+        {
+            result.whenComplete( ( body, e ) -> {
+                if ( result.isCancelled() )
+                {
+                    cancelAll();
+                }
+            } );
+        }
+
+        void add( CompletableFuture<InputStream> attempt )
+        {
+            synchronized ( this )
+            {
+                if ( result.isDone() )
+                {
+                    attempt.cancel( true );
+                    return;
+                }
+                attempts.add( attempt );
+                running++;
+            }
+            attempt.whenComplete( this::done );
+        }
+
+        private void done( InputStream body, Throwable failure )
+        {
+            if ( failure == null )
+            {
+                if ( result.complete( body ) )
+                {
+                    cancelAll();
+                }
+                else
+                {
+                    closeQuietly( body );
+                }
+                return;
+            }
+
+            Throwable last;
+            synchronized ( this )
+            {
+                if ( error == null )
+                {
+                    error = failure;
+                }
+                last = --running == 0 ? error : null;
+            }
+            if ( last != null )
+            {
+                result.completeExceptionally( last );
+            }
+        }
+
+        private void cancelAll()
+        {
+            List<CompletableFuture<InputStream>> all;
+            synchronized ( this )
+            {
+                all = new ArrayList<>( attempts );
+            }
+            all.forEach( attempt -> attempt.cancel( true ) );
+        }
+
+        private static void closeQuietly( InputStream in )
+        {
+            try
+            {
+                in.close();
+            }
+            catch ( IOException e )
+            {
+                // the loser's response is not needed
+            }
+        }
+    }
+}
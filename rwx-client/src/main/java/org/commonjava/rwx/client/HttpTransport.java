@@ -0,0 +1,125 @@
+/**
+ * Copyright (C) 2010 Red Hat, Inc. (http://github.com/Commonjava/commonjava)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.commonjava.rwx.client;
+
+import org.commonjava.rwx.error.XmlRpcException;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.time.Duration;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+
+/**
+ * Send XML-RPC requests as HTTP POST with the JDK HttpClient. The client keeps connections alive and reuses them for
+ * later calls, and speaks HTTP/2 with servers which offer it (ALPN for https, upgrade for plain http), where all
+ * calls share one connection. The request is published from its rendered chunks with a Content-Length, and the
+ * response body is handed over as a stream as soon as the status is in. Cancelling the returned future aborts the
+ * exchange, e.g., on a passed deadline or for a hedged call which lost. Thread-safe.
+ */
+public final class HttpTransport
+                implements XmlRpcTransport
+{
+    public static final Duration DEFAULT_CONNECT_TIMEOUT = Duration.ofSeconds( 10 );
+
+    private final URI endpoint;
+
+    private final HttpClient client;
+
+    public HttpTransport( URI endpoint )
+    {
+        this( endpoint, HttpClient.newBuilder()
+                                  .version( HttpClient.Version.HTTP_2 )
+                                  .connectTimeout( DEFAULT_CONNECT_TIMEOUT )
+                                  .build() );
+    }
+
+    /**
+     * @param client the client to send with, e.g., one configured with an SSLContext, proxy or executor
+     */
+    public HttpTransport( URI endpoint, HttpClient client )
+    {
+        this.endpoint = endpoint;
+        this.client = client;
+    }
+
+    public URI getEndpoint()
+    {
+        return endpoint;
+    }
+
+    @Override
+    public CompletableFuture<InputStream> send( RenderedRequest request, Duration timeout )
+    {
+        HttpRequest.Builder builder = HttpRequest.newBuilder( endpoint )
+                                                 .header( "Content-Type", "text/xml" )
+                                                 .POST( HttpRequest.BodyPublishers.fromPublisher(
+                                                                 HttpRequest.BodyPublishers.ofByteArrays(
+                                                                                 request.getChunks() ),
+                                                                 request.getLength() ) );
+        if ( timeout != null )
+        {
+            builder.timeout( timeout );
+        }
+        CompletableFuture<HttpResponse<InputStream>> exchange =
+                        client.sendAsync( builder.build(), HttpResponse.BodyHandlers.ofInputStream() );
+        CompletableFuture<InputStream> result = exchange.thenApply( this::body );
+        result.whenComplete( ( body, error ) -> {
+            if ( result.isCancelled() )
+            {
+                // cancelling the dependent future alone leaves the exchange running, abort it and close a body
+                // which made it in anyway so its connection is released
+                exchange.cancel( true );
+                exchange.thenAccept( response -> closeQuietly( response.body() ) );
+            }
+        } );
+        return result;
+    }
+
+    private InputStream body( HttpResponse<InputStream> response )
+    {
+        // XML-RPC faults come with 200 as well, anything else is not an XML-RPC response
+        if ( response.statusCode() != 200 )
+        {
+            closeQuietly( response.body() );
+            throw new CompletionException(
+                            new XmlRpcException( "HTTP status {} from {}", response.statusCode(), endpoint ) );
+        }
+        return response.body();
+    }
+
+    private static void closeQuietly( InputStream body )
+    {
+        try
+        {
+            body.close();
+        }
+        catch ( IOException e )
+        {
+            // the connection is dropped anyway
+        }
+    }
+
+    @Override
+    public String toString()
+    {
+        return "HttpTransport{" + endpoint + "}";
+    }
+}
@@ -0,0 +1,134 @@
+/**
+ * Copyright (C) 2010 Red Hat, Inc. (http://github.com/Commonjava/commonjava)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.commonjava.rwx.client;
+
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Latencies of the recent calls of each method, the last {@link #getWindow()} per method, from which percentiles
+ * are taken, e.g., to decide when a call is slow. Thread-safe.
+ */
+public final class LatencyTracker
+{
+    public static final int DEFAULT_WINDOW = 256;
+
+    private final int window;
+
+    private final Map<String, Samples> methods = new ConcurrentHashMap<>();
+
+    public LatencyTracker()
+    {
+        this( DEFAULT_WINDOW );
+    }
+
+    public LatencyTracker( int window )
+    {
+        if ( window < 1 )
+        {
+            throw new IllegalArgumentException( "Window must be positive: " + window );
+        }
+        this.window = window;
+    }
+
+    public int getWindow()
+    {
+        return window;
+    }
+
+    public void record( String method, Duration latency )
+    {
+        record( method, latency.toNanos() );
+    }
+
+    public void record( String method, long nanos )
+    {
+        methods.computeIfAbsent( method, m -> new Samples( window ) ).add( nanos );
+    }
+
+    /**
+     * @return the number of latencies recorded for the method, including those which dropped out of the window
+     */
+    public long getCount( String method )
+    {
+        Samples samples = methods.get( method );
+        return samples == null ? 0 : samples.count();
+    }
+
+    /**
+     * @param percentile between 0 and 100, e.g., 95
+     * @return the percentile of the method's recent latencies, or null if there are none
+     */
+    public Duration getPercentile( String method, double percentile )
+    {
+        if ( percentile < 0 || percentile > 100 )
+        {
+            throw new IllegalArgumentException( "Invalid percentile: " + percentile );
+        }
+        Samples samples = methods.get( method );
+        return samples == null ? null : samples.percentile( percentile );
+    }
+
+    public Set<String> getMethods()
+    {
+        return Collections.unmodifiableSet( methods.keySet() );
+    }
+
+    /**
+     * Ring of the latest latencies of a method.
+     */
+    private static final class Samples
+    {
+        private final long[] nanos;
+
+        private long count;
+
+        Samples( int window )
+        {
+            nanos = new long[window];
+        }
+
+        synchronized void add( long latency )
+        {
+            nanos[(int) ( count++ % nanos.length )] = latency;
+        }
+
+        synchronized long count()
+        {
+            return count;
+        }
+
+        Duration percentile( double percentile )
+        {
+            long[] sorted;
+            synchronized ( this )
+            {
+                if ( count == 0 )
+                {
+                    return null;
+                }
+                sorted = Arrays.copyOf( nanos, (int) Math.min( count, nanos.length ) );
+            }
+            Arrays.sort( sorted );
+            int rank = (int) Math.ceil( percentile / 100 * sorted.length );
+            return Duration.ofNanos( sorted[Math.max( 0, rank - 1 )] );
+        }
+    }
+}
@@ -0,0 +1,279 @@
+/**
+ * Copyright (C) 2010 Red Hat, Inc. (http://github.com/Commonjava/commonjava)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.commonjava.rwx.client;
+
+import org.commonjava.rwx.api.MultiCall;
+import org.commonjava.rwx.core.Registry;
+import org.commonjava.rwx.error.XmlRpcException;
+import org.commonjava.rwx.model.MethodCall;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Send calls made close together as one multicall request: calls are collected until {@link #getMaxBatchSize()}
+ * are pending or {@link #getMaxDelay()} has passed since the first one, and sent as a single call of
+ * system.multicall (or Koji's multiCall, see {@link #MultiCallBatcher(RWXClient, String)}). Each caller's future is
+ * completed with its own result, bound to its @Response class, or its own fault.
+ *
+ * The batch is sent as a {@link MultiCall}, so each future completes as soon as its entry of the response is parsed.
+ * A batch of a single call is sent as a plain call. If the multicall itself fails, e.g., its deadline passes, all
+ * its calls not completed yet fail with the same exception. Thread-safe.
+ */
+public class MultiCallBatcher
+{
+    public static final int DEFAULT_MAX_BATCH_SIZE = 100;
+
+    public static final Duration DEFAULT_MAX_DELAY = Duration.ofMillis( 5 );
+
+    private final RWXClient client;
+
+    private final String multicallMethod;
+
+    private volatile int maxBatchSize = DEFAULT_MAX_BATCH_SIZE;
+
+    private volatile Duration maxDelay = DEFAULT_MAX_DELAY;
+
+    private volatile Duration deadline;
+
+    private List<Slot<?>> pending = new ArrayList<>();
+
+    private ScheduledFuture<?> scheduledFlush;
+
+    public MultiCallBatcher( RWXClient client )
+    {
+        this( client, MultiCall.SYSTEM_MULTICALL );
+    }
+
+    /**
+     * @param multicallMethod the multicall method of the server, e.g., multiCall for Koji
+     */
+    public MultiCallBatcher( RWXClient client, String multicallMethod )
+    {
+        this.client = client;
+        this.multicallMethod = multicallMethod;
+    }
+
+    public int getMaxBatchSize()
+    {
+        return maxBatchSize;
+    }
+
+    public void setMaxBatchSize( int maxBatchSize )
+    {
+        if ( maxBatchSize < 1 )
+        {
+            throw new IllegalArgumentException( "Batch size must be positive: " + maxBatchSize );
+        }
+        this.maxBatchSize = maxBatchSize;
+    }
+
+    public Duration getMaxDelay()
+    {
+        return maxDelay;
+    }
+
+    /**
+     * Set how long the first call of a batch waits for more calls to join it.
+     */
+    public void setMaxDelay( Duration maxDelay )
+    {
+        if ( maxDelay.isNegative() )
+        {
+            throw new IllegalArgumentException( "Delay must not be negative: " + maxDelay );
+        }
+        this.maxDelay = maxDelay;
+    }
+
+    public Duration getDeadline()
+    {
+        return deadline == null ? client.getDefaultDeadline() : deadline;
+    }
+
+    /**
+     * Set the deadline of the multicall requests, counted from when a batch is sent. By default it is the client's
+     * default deadline.
+     */
+    public void setDeadline( Duration deadline )
+    {
+        this.deadline = deadline;
+    }
+
+    /**
+     * Add the call to the current batch.
+     *
+     * @param request a MethodCall or an object with a @Request renderer
+     * @param type the @Response class to parse the call's result to
+     * @return the future of the call's result, which fails with XmlRpcFaultException if its slot is a fault
+     */
+    public <T> CompletableFuture<T> call( Object request, Class<T> type )
+    {
+        Slot<T> slot;
+        try
+        {
+            slot = new Slot<>( toCall( request ), type );
+        }
+        catch ( XmlRpcException | RuntimeException e )
+        {
+            CompletableFuture<T> failed = new CompletableFuture<>();
+            failed.completeExceptionally( e );
+            return failed;
+        }
+
+        List<Slot<?>> full = null;
+        synchronized ( this )
+        {
+            pending.add( slot );
+            if ( pending.size() >= maxBatchSize )
+            {
+                full = take();
+            }
+            else if ( pending.size() == 1 )
+            {
+                scheduledFlush = client.getTimer().schedule( this::flush, maxDelay.toNanos(), TimeUnit.NANOSECONDS );
+            }
+        }
+        if ( full != null )
+        {
+            send( full );
+        }
+        return slot.future;
+    }
+
+    /**
+     * Send the pending calls now, without waiting for the delay to pass.
+     */
+    public void flush()
+    {
+        List<Slot<?>> batch;
+        synchronized ( this )
+        {
+            batch = take();
+        }
+        if ( !batch.isEmpty() )
+        {
+            send( batch );
+        }
+    }
+
+    private List<Slot<?>> take()
+    {
+        if ( scheduledFlush != null )
+        {
+            scheduledFlush.cancel( false );
+            scheduledFlush = null;
+        }
+        List<Slot<?>> batch = pending;
+        pending = new ArrayList<>();
+        return batch;
+    }
+
+    private void send( List<Slot<?>> batch )
+    {
+        Duration deadline = getDeadline();
+        if ( batch.size() == 1 )
+        {
+            Slot<?> slot = batch.get( 0 );
+            slot.sendAlone( client, deadline );
+            return;
+        }
+
+        MultiCall multiCall = new MultiCall( multicallMethod );
+        batch.forEach( slot -> slot.addTo( multiCall ) );
+
+        // slots complete as their entries are parsed, a later failure only fails the rest
+        client.callAsync( multiCall, deadline ).whenComplete( ( done, error ) -> {
+            if ( error != null )
+            {
+                Throwable cause = unwrap( error );
+                batch.forEach( slot -> slot.future.completeExceptionally( cause ) );
+            }
+        } );
+    }
+
+    private static MethodCall toCall( Object request ) throws XmlRpcException
+    {
+        Object call = request instanceof MethodCall ? request : Registry.getInstance().renderTo( request );
+        if ( !( call instanceof MethodCall ) )
+        {
+            throw new XmlRpcException( "Not a request: {}", request.getClass().getName() );
+        }
+        return (MethodCall) call;
+    }
+
+    private static Throwable unwrap( Throwable error )
+    {
+        return error instanceof CompletionException && error.getCause() != null ? error.getCause() : error;
+    }
+
+    /**
+     * A call waiting for its result.
+     */
+    private static final class Slot<T>
+    {
+        private final MethodCall call;
+
+        private final Class<T> type;
+
+        private final CompletableFuture<T> future = new CompletableFuture<>();
+
+        Slot( MethodCall call, Class<T> type )
+        {
+            this.call = call;
+            this.type = type;
+        }
+
+        void sendAlone( RWXClient client, Duration deadline )
+        {
+            client.callAsync( call, type, deadline ).whenComplete( ( result, error ) -> {
+                if ( error != null )
+                {
+                    future.completeExceptionally( unwrap( error ) );
+                }
+                else
+                {
+                    future.complete( result );
+                }
+            } );
+        }
+
+        void addTo( MultiCall multiCall )
+        {
+            try
+            {
+                multiCall.add( call, type, slot -> {
+                    try
+                    {
+                        future.complete( slot.get() );
+                    }
+                    catch ( XmlRpcException e )
+                    {
+                        future.completeExceptionally( e );
+                    }
+                } );
+            }
+            catch ( XmlRpcException e )
+            {
+                future.completeExceptionally( e );
+            }
+        }
+    }
+}
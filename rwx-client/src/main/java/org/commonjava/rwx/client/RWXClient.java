@@ -0,0 +1,571 @@
+/**
+ * Copyright (C) 2010 Red Hat, Inc. (http://github.com/Commonjava/commonjava)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.commonjava.rwx.client;
+
+import org.commonjava.rwx.api.MultiCall;
+import org.commonjava.rwx.api.RWXMapper;
+import org.commonjava.rwx.core.Registry;
+import org.commonjava.rwx.error.CoercionException;
+import org.commonjava.rwx.error.XmlRpcException;
+import org.commonjava.rwx.model.MethodCall;
+import org.commonjava.rwx.model.MethodResponse;
+import org.commonjava.rwx.model.RpcObject;
+import org.commonjava.rwx.util.RpcDigest;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URI;
+import java.net.http.HttpTimeoutException;
+import java.time.Duration;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Call XML-RPC methods: render the request with {@link RWXMapper}, send it with an {@link XmlRpcTransport} (HTTP by
+ * default, see {@link HttpTransport}) and parse the response while it arrives.
+ *
+ * Every call has a deadline covering sending, waiting and parsing; when it passes, the call fails with
+ * {@link DeadlineExceededException} and the response stream is closed. Faults are thrown as XmlRpcFaultException.
+ *
+ * The blocking {@link #call(Object, Class)} runs entirely on the calling thread and only waits on
+ * java.util.concurrent primitives, never inside a monitor, so it scales with virtual threads: one virtual thread per
+ * call is the simplest way to make many calls at once. {@link #callAsync(Object, Class)} returns a CompletableFuture
+ * instead; its response is parsed on the executor (see {@link #setExecutor(Executor)}).
+ *
+ * Calls of the methods set with {@link #setCoalescedMethods(Collection)} are coalesced: while a call is in flight,
+ * equal calls, i.e., with the same {@link RpcDigest}, wait for its response instead of being sent too. Thread-safe.
+ */
+public class RWXClient
+                implements Closeable
+{
+    public static final Duration DEFAULT_DEADLINE = Duration.ofSeconds( 60 );
+
+    // more than this after the response is not read, the connection is dropped instead
+    private static final long MAX_DRAIN = 64 * 1024;
+
+    private static final AtomicInteger CLIENT_COUNT = new AtomicInteger();
+
+    private final XmlRpcTransport transport;
+
+    private final ScheduledThreadPoolExecutor timer;
+
+    private final ExecutorService ownExecutor;
+
+    private volatile Executor executor;
+
+    private volatile RWXMapper mapper = new RWXMapper();
+
+    private volatile Duration defaultDeadline = DEFAULT_DEADLINE;
+
+    private volatile Set<String> coalescedMethods = Collections.emptySet();
+
+    private final SingleFlight flights = new SingleFlight();
+
+    /**
+     * Call the endpoint over HTTP, see {@link HttpTransport}.
+     */
+    public RWXClient( URI endpoint )
+    {
+        this( new HttpTransport( endpoint ) );
+    }
+
+    public RWXClient( XmlRpcTransport transport )
+    {
+        this.transport = transport;
+
+        String name = "rwx-client-" + CLIENT_COUNT.incrementAndGet();
+        this.timer = new ScheduledThreadPoolExecutor( 1, r -> daemon( r, name + "-timer" ) );
+        this.timer.setRemoveOnCancelPolicy( true );
+        AtomicInteger threads = new AtomicInteger();
+        this.ownExecutor = Executors.newCachedThreadPool( r -> daemon( r, name + "-" + threads.incrementAndGet() ) );
+        this.executor = ownExecutor;
+    }
+
+    private static Thread daemon( Runnable r, String name )
+    {
+        Thread t = new Thread( r, name );
+        t.setDaemon( true );
+        return t;
+    }
+
+    public XmlRpcTransport getTransport()
+    {
+        return transport;
+    }
+
+    public RWXMapper getMapper()
+    {
+        return mapper;
+    }
+
+    /**
+     * Set the mapper rendering requests and parsing responses, e.g., one with a response or parse cache.
+     */
+    public void setMapper( RWXMapper mapper )
+    {
+        this.mapper = mapper;
+    }
+
+    public Duration getDefaultDeadline()
+    {
+        return defaultDeadline;
+    }
+
+    public void setDefaultDeadline( Duration defaultDeadline )
+    {
+        this.defaultDeadline = checkDeadline( defaultDeadline );
+    }
+
+    public Executor getExecutor()
+    {
+        return executor;
+    }
+
+    /**
+     * Set the executor parsing the responses of asynchronous calls, e.g., a virtual thread per task executor. The
+     * parser blocks while it waits for the rest of the response, so the executor should not be a small pool. By
+     * default a cached pool of daemon threads is used.
+     */
+    public void setExecutor( Executor executor )
+    {
+        this.executor = executor == null ? ownExecutor : executor;
+    }
+
+    public Set<String> getCoalescedMethods()
+    {
+        return coalescedMethods;
+    }
+
+    /**
+     * Set the methods whose equal calls in flight at the same time share one request and one parse, e.g., getBuild
+     * or listTags. Only methods without side effects should be coalesced. Every caller of a call in flight gets its
+     * own copy of the response, and a caller joining it fails with it, including when the deadline of the call it
+     * joined passes. None by default.
+     */
+    public void setCoalescedMethods( Collection<String> methods )
+    {
+        this.coalescedMethods = Collections.unmodifiableSet( new HashSet<>( methods ) );
+    }
+
+    public <T> T call( Object request, Class<T> type ) throws XmlRpcException
+    {
+        return call( request, type, defaultDeadline );
+    }
+
+    /**
+     * Call the method and wait for the response.
+     *
+     * @param request a MethodCall or an object with a @Request renderer
+     * @param type the @Response class to parse the response to
+     * @param deadline time for the whole call
+     * @throws DeadlineExceededException if the call did not complete in time
+     * @throws XmlRpcException if the call fails, XmlRpcFaultException if the response is a fault
+     */
+    public <T> T call( Object request, Class<T> type, Duration deadline ) throws XmlRpcException
+    {
+        MethodCall coalesced = coalescedCall( request );
+        if ( coalesced != null )
+        {
+            return await( coalesce( coalesced, type, deadline ) );
+        }
+
+        long deadlineNanos = System.nanoTime() + checkDeadline( deadline ).toNanos();
+        RenderedRequest rendered = RenderedRequest.render( mapper, request );
+
+        CompletableFuture<InputStream> sent = transport.send( rendered, remaining( deadlineNanos ) );
+        InputStream body;
+        try
+        {
+            body = sent.get( Math.max( 0, deadlineNanos - System.nanoTime() ), TimeUnit.NANOSECONDS );
+        }
+        catch ( TimeoutException e )
+        {
+            sent.cancel( true );
+            throw new DeadlineExceededException( deadline, e );
+        }
+        catch ( ExecutionException e )
+        {
+            throw failure( e.getCause(), deadlineNanos, deadline );
+        }
+        catch ( InterruptedException e )
+        {
+            sent.cancel( true );
+            Thread.currentThread().interrupt();
+            throw new XmlRpcException( "Interrupted while waiting for the response", e );
+        }
+        RWXMapper mapper = this.mapper;
+        return parse( body, in -> mapper.parse( in, type ), deadlineNanos, deadline );
+    }
+
+    public <T> CompletableFuture<T> callAsync( Object request, Class<T> type )
+    {
+        return callAsync( request, type, defaultDeadline );
+    }
+
+    /**
+     * Call the method without waiting. The request is rendered on the calling thread, the response is parsed on
+     * the executor. Cancelling the returned future gives up the call.
+     *
+     * @return the future of the parsed response, which fails with the exceptions {@link #call(Object, Class,
+     * Duration)} throws
+     */
+    public <T> CompletableFuture<T> callAsync( Object request, Class<T> type, Duration deadline )
+    {
+        MethodCall coalesced;
+        try
+        {
+            coalesced = coalescedCall( request );
+        }
+        catch ( XmlRpcException e )
+        {
+            CompletableFuture<T> failed = new CompletableFuture<>();
+            failed.completeExceptionally( e );
+            return failed;
+        }
+        if ( coalesced != null )
+        {
+            return coalesce( coalesced, type, deadline );
+        }
+
+        RWXMapper mapper = this.mapper;
+        return send( request, in -> mapper.parse( in, type ), deadline );
+    }
+
+    /**
+     * Call the method without waiting and without binding the response to a @Response class, e.g., to take apart
+     * a multicall response.
+     *
+     * @return the future of the parsed response tree, which fails with XmlRpcFaultException if it is a fault
+     */
+    public CompletableFuture<MethodResponse> callTreeAsync( Object request, Duration deadline )
+    {
+        RWXMapper mapper = this.mapper;
+        return send( request, in -> parseTree( mapper, in ), deadline );
+    }
+
+    /**
+     * Send the multicall without waiting. Its slots are bound, and their listeners notified, on the executor as
+     * the response is parsed, each as soon as its entry is read.
+     *
+     * @return the future of the multicall, completed when the whole response is parsed
+     */
+    public CompletableFuture<MultiCall> callAsync( MultiCall multiCall, Duration deadline )
+    {
+        return send( multiCall.toRequest(), in -> {
+            multiCall.parse( in );
+            return multiCall;
+        }, deadline );
+    }
+
+    /**
+     * @return the MethodCall of the request if its method is coalesced, otherwise null
+     */
+    private MethodCall coalescedCall( Object request ) throws XmlRpcException
+    {
+        Set<String> methods = coalescedMethods;
+        if ( methods.isEmpty() )
+        {
+            return null;
+        }
+        Object call = request instanceof MethodCall ? request : Registry.getInstance().renderTo( request );
+        if ( !( call instanceof MethodCall ) )
+        {
+            throw new XmlRpcException( "Not a request: {}", request.getClass().getName() );
+        }
+        return methods.contains( ( (MethodCall) call ).getMethodName() ) ? (MethodCall) call : null;
+    }
+
+    private <T> CompletableFuture<T> coalesce( MethodCall call, Class<T> type, Duration deadline )
+    {
+        RWXMapper mapper = this.mapper;
+        RpcDigest key;
+        try
+        {
+            key = RpcDigest.of( call );
+        }
+        catch ( CoercionException e )
+        {
+            // no canonical form, e.g., a NaN param, so it cannot be matched
+            return send( call, in -> mapper.parse( in, type ), deadline );
+        }
+
+        CompletableFuture<T> result = new CompletableFuture<>();
+        ScheduledFuture<?> expiry = timer.schedule(
+                        () -> result.completeExceptionally( new DeadlineExceededException( deadline, null ) ),
+                        checkDeadline( deadline ).toNanos(), TimeUnit.NANOSECONDS );
+        BodyReader<MethodResponse> reader = in -> parseTree( mapper, in );
+        flights.join( key, () -> send( call, reader, deadline ) ).whenComplete( ( response, error ) -> {
+            expiry.cancel( false );
+            if ( error != null )
+            {
+                result.completeExceptionally( error instanceof CompletionException && error.getCause() != null ?
+                                                              error.getCause() :
+                                                              error );
+                return;
+            }
+            try
+            {
+                result.complete( Registry.getInstance().parseAs( response, type ) );
+            }
+            catch ( RuntimeException e )
+            {
+                result.completeExceptionally( e );
+            }
+        } );
+        return result;
+    }
+
+    private static <T> T await( CompletableFuture<T> future ) throws XmlRpcException
+    {
+        try
+        {
+            return future.get();
+        }
+        catch ( ExecutionException e )
+        {
+            if ( e.getCause() instanceof XmlRpcException )
+            {
+                throw (XmlRpcException) e.getCause();
+            }
+            throw new XmlRpcException( "Call failed: {}", e.getCause(), e.getCause().getMessage() );
+        }
+        catch ( InterruptedException e )
+        {
+            future.cancel( true );
+            Thread.currentThread().interrupt();
+            throw new XmlRpcException( "Interrupted while waiting for the response", e );
+        }
+    }
+
+    /**
+     * Parse the response tree through the mapper, so compressed responses are detected and its parse cache is used
+     * as for calls bound to a @Response class.
+     */
+    private static MethodResponse parseTree( RWXMapper mapper, InputStream in ) throws XmlRpcException
+    {
+        RpcObject parsed = mapper.parseTree( in );
+        if ( !( parsed instanceof MethodResponse ) )
+        {
+            throw new XmlRpcException( "Not a method response: {}", parsed );
+        }
+        return (MethodResponse) parsed;
+    }
+
+    private <T> CompletableFuture<T> send( Object request, BodyReader<T> reader, Duration deadline )
+    {
+        CompletableFuture<T> result = new CompletableFuture<>();
+        long deadlineNanos = System.nanoTime() + checkDeadline( deadline ).toNanos();
+        RenderedRequest rendered;
+        try
+        {
+            rendered = RenderedRequest.render( mapper, request );
+        }
+        catch ( XmlRpcException e )
+        {
+            result.completeExceptionally( e );
+            return result;
+        }
+
+        CompletableFuture<InputStream> sent = transport.send( rendered, remaining( deadlineNanos ) );
+        ScheduledFuture<?> expiry = timer.schedule( () -> {
+            if ( result.completeExceptionally( new DeadlineExceededException( deadline, null ) ) )
+            {
+                sent.cancel( true );
+            }
+        }, Math.max( 0, deadlineNanos - System.nanoTime() ), TimeUnit.NANOSECONDS );
+
+        result.whenComplete( ( r, e ) -> {
+            expiry.cancel( false );
+            if ( result.isCancelled() )
+            {
+                sent.cancel( true );
+            }
+        } );
+
+        sent.whenComplete( ( body, error ) -> {
+            if ( error != null )
+            {
+                result.completeExceptionally( failure( error, deadlineNanos, deadline ) );
+                return;
+            }
+            if ( result.isDone() )
+            {
+                closeQuietly( body );
+                return;
+            }
+            try
+            {
+                executor.execute( () -> {
+                    try
+                    {
+                        result.complete( parse( body, reader, deadlineNanos, deadline ) );
+                    }
+                    catch ( XmlRpcException | RuntimeException e )
+                    {
+                        result.completeExceptionally( e );
+                    }
+                } );
+            }
+            catch ( RuntimeException e )
+            {
+                closeQuietly( body );
+                result.completeExceptionally( e );
+            }
+        } );
+        return result;
+    }
+
+    /**
+     * Parse the response body, closing it when the deadline passes so that a stalled response does not block the
+     * parser forever.
+     */
+    private <T> T parse( InputStream body, BodyReader<T> reader, long deadlineNanos, Duration deadline )
+                    throws XmlRpcException
+    {
+        AtomicBoolean expired = new AtomicBoolean();
+        ScheduledFuture<?> expiry = timer.schedule( () -> {
+            expired.set( true );
+            closeQuietly( body );
+        }, Math.max( 0, deadlineNanos - System.nanoTime() ), TimeUnit.NANOSECONDS );
+
+        try (InputStream in = body)
+        {
+            T parsed = reader.read( in );
+            drain( in );
+            return parsed;
+        }
+        catch ( XmlRpcException e )
+        {
+            if ( expired.get() )
+            {
+                throw new DeadlineExceededException( deadline, e );
+            }
+            throw e;
+        }
+        catch ( IOException e )
+        {
+            throw new XmlRpcException( "Failed to close response", e );
+        }
+        finally
+        {
+            expiry.cancel( false );
+        }
+    }
+
+    /**
+     * Read what is left after the root element, e.g., a trailing newline. The HTTP client only reuses a connection
+     * whose response body was read to the end.
+     */
+    private static void drain( InputStream in ) throws IOException
+    {
+        byte[] buf = new byte[512];
+        long left = MAX_DRAIN;
+        int n;
+        while ( left > 0 && ( n = in.read( buf ) ) >= 0 )
+        {
+            left -= n;
+        }
+    }
+
+    private static XmlRpcException failure( Throwable error, long deadlineNanos, Duration deadline )
+    {
+        Throwable cause = error;
+        while ( cause instanceof CompletionException && cause.getCause() != null )
+        {
+            cause = cause.getCause();
+        }
+        if ( cause instanceof DeadlineExceededException )
+        {
+            return (DeadlineExceededException) cause;
+        }
+        if ( cause instanceof HttpTimeoutException || System.nanoTime() - deadlineNanos >= 0 )
+        {
+            return new DeadlineExceededException( deadline, cause );
+        }
+        if ( cause instanceof XmlRpcException )
+        {
+            return (XmlRpcException) cause;
+        }
+        return new XmlRpcException( "Call failed: {}", cause, cause.getMessage() );
+    }
+
+    private static Duration remaining( long deadlineNanos )
+    {
+        return Duration.ofNanos( Math.max( 1, deadlineNanos - System.nanoTime() ) );
+    }
+
+    private static Duration checkDeadline( Duration deadline )
+    {
+        if ( deadline == null || deadline.isNegative() || deadline.isZero() )
+        {
+            throw new IllegalArgumentException( "Deadline must be positive: " + deadline );
+        }
+        return deadline;
+    }
+
+    private static void closeQuietly( InputStream in )
+    {
+        try
+        {
+            in.close();
+        }
+        catch ( IOException e )
+        {
+            // nothing left to read
+        }
+    }
+
+    /**
+     * Get the timer the client schedules deadlines on, e.g., to schedule work for the same client.
+     */
+    ScheduledExecutorService getTimer()
+    {
+        return timer;
+    }
+
+    @FunctionalInterface
+    private interface BodyReader<T>
+    {
+        T read( InputStream in ) throws XmlRpcException;
+    }
+
+    /**
+     * Close the transport and stop the client's threads. Calls in progress fail.
+     */
+    @Override
+    public void close() throws IOException
+    {
+        timer.shutdownNow();
+        ownExecutor.shutdownNow();
+        transport.close();
+    }
+}
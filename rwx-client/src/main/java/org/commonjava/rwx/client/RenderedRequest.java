@@ -0,0 +1,205 @@
+/**
+ * Copyright (C) 2010 Red Hat, Inc. (http://github.com/Commonjava/commonjava)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.commonjava.rwx.client;
+
+import org.commonjava.rwx.anno.Request;
+import org.commonjava.rwx.api.RWXMapper;
+import org.commonjava.rwx.error.XmlRpcException;
+import org.commonjava.rwx.model.MethodCall;
+
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.SequenceInputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.Iterator;
+import java.util.List;
+
+/**
+ * An XML-RPC request rendered to UTF-8 once, so that it can be sent as is, also more than once. The bytes are held
+ * in chunks of {@link #CHUNK_SIZE} rather than one array, so a large request needs no contiguous copy, and are
+ * handed to the transport chunk by chunk. Immutable.
+ */
+public final class RenderedRequest
+{
+    public static final int CHUNK_SIZE = 16 * 1024;
+
+    private final List<byte[]> chunks;
+
+    private final long length;
+
+    private final String methodName;
+
+    private RenderedRequest( List<byte[]> chunks, long length, String methodName )
+    {
+        this.chunks = Collections.unmodifiableList( chunks );
+        this.length = length;
+        this.methodName = methodName;
+    }
+
+    /**
+     * Render the request, a MethodCall or an object with a @Request renderer, with the mapper's settings, e.g., its
+     * canonical mode and fragment store.
+     */
+    public static RenderedRequest render( RWXMapper mapper, Object request ) throws XmlRpcException
+    {
+        ChunkOutputStream out = new ChunkOutputStream();
+        mapper.render( request, out );
+        String methodName;
+        if ( request instanceof MethodCall )
+        {
+            methodName = ( (MethodCall) request ).getMethodName();
+        }
+        else
+        {
+            Request anno = request.getClass().getAnnotation( Request.class );
+            methodName = anno == null ? null : anno.method();
+        }
+        return new RenderedRequest( out.finish(), out.length, methodName );
+    }
+
+    /**
+     * Wrap an already rendered request. The array is not copied and must not be modified afterwards.
+     */
+    public static RenderedRequest of( byte[] xml )
+    {
+        return of( xml, null );
+    }
+
+    /**
+     * As {@link #of(byte[])}, for a call of the method.
+     */
+    public static RenderedRequest of( byte[] xml, String methodName )
+    {
+        return new RenderedRequest( Collections.singletonList( xml ), xml.length, methodName );
+    }
+
+    /**
+     * @return the name of the method called, e.g., for a transport to treat methods differently, or null if unknown
+     */
+    public String getMethodName()
+    {
+        return methodName;
+    }
+
+    public long getLength()
+    {
+        return length;
+    }
+
+    /**
+     * @return the chunks in order, all but the last one are {@link #CHUNK_SIZE} long; they must not be modified
+     */
+    public List<byte[]> getChunks()
+    {
+        return chunks;
+    }
+
+    public InputStream openStream()
+    {
+        Iterator<byte[]> it = chunks.iterator();
+        return new SequenceInputStream( new Enumeration<InputStream>()
+        {
+            @Override
+            public boolean hasMoreElements()
+            {
+                return it.hasNext();
+            }
+
+            @Override
+            public InputStream nextElement()
+            {
+                return new ByteArrayInputStream( it.next() );
+            }
+        } );
+    }
+
+    public byte[] toByteArray()
+    {
+        byte[] bytes = new byte[(int) length];
+        int pos = 0;
+        for ( byte[] chunk : chunks )
+        {
+            System.arraycopy( chunk, 0, bytes, pos, chunk.length );
+            pos += chunk.length;
+        }
+        return bytes;
+    }
+
+    /**
+     * Collects the rendered bytes in fixed size chunks, no chunk is copied once it is full.
+     */
+    private static final class ChunkOutputStream
+                    extends OutputStream
+    {
+        private final List<byte[]> chunks = new ArrayList<>();
+
+        private byte[] current = new byte[CHUNK_SIZE];
+
+        private int pos;
+
+        private long length;
+
+        @Override
+        public void write( int b )
+        {
+            if ( pos == CHUNK_SIZE )
+            {
+                next();
+            }
+            current[pos++] = (byte) b;
+            length++;
+        }
+
+        @Override
+        public void write( byte[] b, int off, int len )
+        {
+            while ( len > 0 )
+            {
+                if ( pos == CHUNK_SIZE )
+                {
+                    next();
+                }
+                int n = Math.min( len, CHUNK_SIZE - pos );
+                System.arraycopy( b, off, current, pos, n );
+                pos += n;
+                off += n;
+                len -= n;
+                length += n;
+            }
+        }
+
+        private void next()
+        {
+            chunks.add( current );
+            current = new byte[CHUNK_SIZE];
+            pos = 0;
+        }
+
+        List<byte[]> finish()
+        {
+            if ( pos > 0 )
+            {
+                chunks.add( pos == CHUNK_SIZE ? current : Arrays.copyOf( current, pos ) );
+            }
+            current = null;
+            return chunks;
+        }
+    }
+}
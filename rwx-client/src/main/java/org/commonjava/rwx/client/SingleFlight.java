@@ -0,0 +1,81 @@
+/**
+ * Copyright (C) 2010 Red Hat, Inc. (http://github.com/Commonjava/commonjava)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.commonjava.rwx.client;
+
+import org.commonjava.rwx.model.MethodResponse;
+import org.commonjava.rwx.util.ParseUtils;
+import org.commonjava.rwx.util.RpcDigest;
+
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Supplier;
+
+/**
+ * In-flight calls keyed by the {@link RpcDigest} of their MethodCall, so that an equal call made while one is in
+ * flight waits for its response instead of being sent again. Every caller, the one which started the flight
+ * included, gets its own deep copy of the parsed response tree, so no two callers share mutable values and none of
+ * them can change the tree while the others are copied from it.
+ */
+final class SingleFlight
+{
+    private final Map<RpcDigest, CompletableFuture<MethodResponse>> flights = new ConcurrentHashMap<>();
+
+    /**
+     * Join the flight of the call, starting it if there is none.
+     *
+     * @param call sends the call, invoked only if there is no flight of it
+     * @return the future of the caller's response; cancelling it does not cancel the flight
+     */
+    CompletableFuture<MethodResponse> join( RpcDigest key, Supplier<CompletableFuture<MethodResponse>> call )
+    {
+        CompletableFuture<MethodResponse> started = new CompletableFuture<>();
+        CompletableFuture<MethodResponse> flight = flights.putIfAbsent( key, started );
+        if ( flight != null )
+        {
+            return flight.thenApply( SingleFlight::copy );
+        }
+
+        CompletableFuture<MethodResponse> sent;
+        try
+        {
+            sent = call.get();
+        }
+        catch ( RuntimeException e )
+        {
+            sent = new CompletableFuture<>();
+            sent.completeExceptionally( e );
+        }
+        sent.whenComplete( ( response, error ) -> {
+            // calls made from now on start a new flight
+            flights.remove( key, started );
+            if ( error != null )
+            {
+                started.completeExceptionally( error );
+            }
+            else
+            {
+                started.complete( response );
+            }
+        } );
+        return started.thenApply( SingleFlight::copy );
+    }
+
+    static MethodResponse copy( MethodResponse response )
+    {
+        return (MethodResponse) ParseUtils.copyTree( response );
+    }
+}
@@ -0,0 +1,44 @@
+/**
+ * Copyright (C) 2010 Red Hat, Inc. (http://github.com/Commonjava/commonjava)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.commonjava.rwx.client;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.time.Duration;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Sends rendered XML-RPC requests, e.g., over HTTP (see {@link HttpTransport}), for {@link RWXClient}.
+ */
+public interface XmlRpcTransport
+                extends Closeable
+{
+    /**
+     * Send the request. The future completes with the response body as soon as it starts to arrive, so that it is
+     * parsed while the rest comes in; the caller closes it. It completes exceptionally with an IOException or
+     * XmlRpcException if the request cannot be sent or the response is not an XML-RPC response.
+     *
+     * @param request the rendered request, which may be sent more than once
+     * @param timeout time left for the call, the transport should give up waiting for the response after it
+     */
+    CompletableFuture<InputStream> send( RenderedRequest request, Duration timeout );
+
+    @Override
+    default void close() throws IOException
+    {
+    }
+}
@@ -0,0 +1,233 @@
+/**
+ * Copyright (C) 2010 Red Hat, Inc. (http://github.com/Commonjava/commonjava)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.commonjava.rwx.client;
+
+import org.commonjava.rwx.core.Registry;
+import org.commonjava.rwx.test.generated.Test_Registry;
+import org.commonjava.rwx.test.koji.GetBuildRequest;
+import org.commonjava.rwx.test.koji.GetBuildResponse;
+import org.commonjava.rwx.test.koji.ListTagsRequest;
+import org.commonjava.rwx.test.koji.ListTagsResponse;
+import org.junit.After;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+
+import static junit.framework.TestCase.assertEquals;
+import static junit.framework.TestCase.assertNull;
+import static junit.framework.TestCase.assertTrue;
+
+public class HedgingTransportTest
+{
+    private static final String NVR = "org.dashbuilder-dashbuilder-parent-metadata-0.4.0.Final-1";
+
+    private volatile long slowMillis;
+
+    private volatile byte[] slowBody;
+
+    private StandInServer slow;
+
+    private StandInServer fast;
+
+    private HedgingTransport transport;
+
+    private RWXClient client;
+
+    @BeforeClass
+    public static void register()
+    {
+        Registry.setInstance( new Test_Registry() );
+    }
+
+    @After
+    public void tearDown() throws IOException
+    {
+        slowMillis = 0;
+        slowBody = null;
+        if ( client != null )
+        {
+            client.close();
+        }
+        if ( slow != null )
+        {
+            slow.close();
+        }
+        if ( fast != null )
+        {
+            fast.close();
+        }
+    }
+
+    @Test
+    public void hedgeTest() throws Exception
+    {
+        start();
+        transport.setMinSamples( 20 );
+
+        // every other call goes to the slow replica, which is fast while latencies are gathered; enough of them for
+        // the percentile to leave out the first call, which warms the client up
+        for ( int i = 0; i < 20; i++ )
+        {
+            client.call( new GetBuildRequest( NVR ), GetBuildResponse.class );
+        }
+        assertEquals( 0, transport.getHedgeCount() );
+        assertEquals( 20, transport.getLatencyTracker().getCount( "getBuild" ) );
+
+        slowMillis = 3000;
+        long start = System.nanoTime();
+        for ( int i = 0; i < 4; i++ )
+        {
+            assertEquals( NVR, client.call( new GetBuildRequest( NVR ), GetBuildResponse.class )
+                                      .getBuildInfo()
+                                      .getNvr() );
+        }
+        assertTrue( System.nanoTime() - start < Duration.ofMillis( 2000 ).toNanos() );
+
+        // the two calls to the slow replica were hedged to the fast one
+        assertTrue( String.valueOf( transport.getHedgeCount() ), transport.getHedgeCount() >= 2 );
+        assertEquals( 10 + 4, fast.getCalls().size() );
+    }
+
+    /**
+     * A hedged call counts from its start, not from the hedge, and the slow attempt which lost is aborted.
+     */
+    @Test
+    public void hedgedLatencyTest() throws Exception
+    {
+        start();
+        transport.setInitialDelay( Duration.ofMillis( 200 ) );
+        slowMillis = 1000;
+        // a body too large to sit in socket buffers, so writing it fails unless the client still reads
+        slowBody = new byte[16 * 1024 * 1024];
+
+        client.call( new GetBuildRequest( NVR ), GetBuildResponse.class );
+        assertEquals( 1, transport.getHedgeCount() );
+        assertEquals( 1, transport.getLatencyTracker().getCount( "getBuild" ) );
+        Duration latency = transport.getLatencyTracker().getPercentile( "getBuild", 100 );
+        assertTrue( String.valueOf( latency ), latency.compareTo( Duration.ofMillis( 200 ) ) >= 0 );
+
+        long wait = System.nanoTime() + Duration.ofSeconds( 10 ).toNanos();
+        while ( slow.getAborted() < 1 && System.nanoTime() < wait )
+        {
+            Thread.sleep( 20 );
+        }
+        assertEquals( "Exchanges aborted on the slow replica", 1, slow.getAborted() );
+    }
+
+    /**
+     * A call cancelled by its caller is recorded with the time it ran.
+     */
+    @Test
+    public void cancelledLatencyTest() throws Exception
+    {
+        start();
+        slowMillis = 3000;
+
+        CompletableFuture<ListTagsResponse> call = client.callAsync( new ListTagsRequest( NVR ),
+                                                                     ListTagsResponse.class, Duration.ofMinutes( 1 ) );
+        Thread.sleep( 200 );
+        call.cancel( true );
+        assertEquals( 1, transport.getLatencyTracker().getCount( "listTags" ) );
+        Duration latency = transport.getLatencyTracker().getPercentile( "listTags", 100 );
+        assertTrue( String.valueOf( latency ), latency.compareTo( Duration.ofMillis( 200 ) ) >= 0 );
+    }
+
+    @Test
+    public void notHedgedTest() throws Exception
+    {
+        start();
+        transport.setInitialDelay( Duration.ofMillis( 10 ) );
+        slowMillis = 300;
+
+        long start = System.nanoTime();
+        client.call( new ListTagsRequest( NVR ), ListTagsResponse.class );
+        assertTrue( System.nanoTime() - start >= Duration.ofMillis( 300 ).toNanos() );
+
+        assertEquals( 0, transport.getHedgeCount() );
+        assertEquals( 0, fast.getCalls().size() );
+        assertEquals( 1, transport.getLatencyTracker().getCount( "listTags" ) );
+    }
+
+    @Test
+    public void hedgeBudgetTest() throws Exception
+    {
+        start();
+        transport.setInitialDelay( Duration.ofMillis( 10 ) );
+        transport.setHedgeBudget( 0, 1 );
+        slowMillis = 300;
+
+        for ( int i = 0; i < 4; i++ )
+        {
+            client.call( new GetBuildRequest( NVR ), GetBuildResponse.class );
+        }
+
+        // only the first call to the slow replica was hedged, the second one had to wait
+        assertEquals( 1, transport.getHedgeCount() );
+        assertEquals( 2, slow.getCalls().size() );
+        assertEquals( 3, fast.getCalls().size() );
+    }
+
+    @Test
+    public void latencyTrackerTest()
+    {
+        LatencyTracker tracker = new LatencyTracker( 100 );
+        assertNull( tracker.getPercentile( "getBuild", 95 ) );
+
+        for ( int i = 1; i <= 200; i++ )
+        {
+            tracker.record( "getBuild", Duration.ofMillis( i ) );
+        }
+        // only the last 100 are kept: 101..200
+        assertEquals( 200, tracker.getCount( "getBuild" ) );
+        assertEquals( Duration.ofMillis( 195 ), tracker.getPercentile( "getBuild", 95 ) );
+        assertEquals( Duration.ofMillis( 150 ), tracker.getPercentile( "getBuild", 50 ) );
+        assertEquals( Duration.ofMillis( 200 ), tracker.getPercentile( "getBuild", 100 ) );
+        assertEquals( Collections.singleton( "getBuild" ), tracker.getMethods() );
+    }
+
+    private void start() throws IOException
+    {
+        slow = new StandInServer( call -> {
+            Thread.sleep( slowMillis );
+            return slowBody != null ? slowBody : StandInServer.response( answer( call.getMethodName() ) );
+        } );
+        fast = new StandInServer( call -> StandInServer.response( answer( call.getMethodName() ) ) );
+        transport = new HedgingTransport( Arrays.asList( new HttpTransport( slow.getEndpoint() ),
+                                                         new HttpTransport( fast.getEndpoint() ) ) );
+        transport.setHedgedMethods( Collections.singleton( "getBuild" ) );
+        client = new RWXClient( transport );
+    }
+
+    private static Object answer( String method )
+    {
+        if ( method.equals( "listTags" ) )
+        {
+            return Collections.emptyList();
+        }
+        Map<String, Object> info = new LinkedHashMap<>();
+        info.put( "build_id", 513598 );
+        info.put( "package_id", 48475 );
+        info.put( "nvr", NVR );
+        return info;
+    }
+}
@@ -0,0 +1,200 @@
+/**
+ * Copyright (C) 2010 Red Hat, Inc. (http://github.com/Commonjava/commonjava)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.commonjava.rwx.client;
+
+import org.commonjava.rwx.api.MultiCall;
+import org.commonjava.rwx.core.Registry;
+import org.commonjava.rwx.error.XmlRpcException;
+import org.commonjava.rwx.error.XmlRpcFaultException;
+import org.commonjava.rwx.model.MethodCall;
+import org.commonjava.rwx.test.generated.Test_Registry;
+import org.commonjava.rwx.test.koji.GetBuildRequest;
+import org.commonjava.rwx.test.koji.GetBuildResponse;
+import org.junit.After;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+
+import static junit.framework.TestCase.assertEquals;
+import static junit.framework.TestCase.assertTrue;
+import static junit.framework.TestCase.fail;
+
+public class MultiCallBatcherTest
+{
+    private static final String NVR = "org.dashbuilder-dashbuilder-parent-metadata-0.4.0.Final-1";
+
+    private StandInServer server;
+
+    private RWXClient client;
+
+    @BeforeClass
+    public static void register()
+    {
+        Registry.setInstance( new Test_Registry() );
+    }
+
+    @After
+    public void tearDown() throws IOException
+    {
+        if ( client != null )
+        {
+            client.close();
+        }
+        if ( server != null )
+        {
+            server.close();
+        }
+    }
+
+    @Test
+    public void batchTest() throws Exception
+    {
+        start( call -> StandInServer.response( buildInfo( (String) call.getParams().get( 0 ) ) ) );
+        MultiCallBatcher batcher = new MultiCallBatcher( client, "multiCall" );
+        batcher.setMaxDelay( Duration.ofMillis( 200 ) );
+
+        List<CompletableFuture<GetBuildResponse>> futures = new ArrayList<>();
+        for ( int i = 0; i < 10; i++ )
+        {
+            futures.add( batcher.call( new GetBuildRequest( "build-" + i ), GetBuildResponse.class ) );
+        }
+        for ( int i = 0; i < 10; i++ )
+        {
+            assertEquals( "build-" + i, futures.get( i ).get().getBuildInfo().getNvr() );
+        }
+
+        assertEquals( 1, server.getCalls().size() );
+        MethodCall call = server.getCalls().get( 0 );
+        assertEquals( "multiCall", call.getMethodName() );
+        assertEquals( 10, ( (List<?>) call.getParams().get( 0 ) ).size() );
+    }
+
+    @Test
+    public void maxBatchSizeTest() throws Exception
+    {
+        start( call -> StandInServer.response( buildInfo( (String) call.getParams().get( 0 ) ) ) );
+        MultiCallBatcher batcher = new MultiCallBatcher( client );
+        batcher.setMaxBatchSize( 5 );
+        batcher.setMaxDelay( Duration.ofMillis( 50 ) );
+
+        List<CompletableFuture<GetBuildResponse>> futures = new ArrayList<>();
+        for ( int i = 0; i < 12; i++ )
+        {
+            futures.add( batcher.call( new GetBuildRequest( "build-" + i ), GetBuildResponse.class ) );
+        }
+        for ( int i = 0; i < 12; i++ )
+        {
+            assertEquals( "build-" + i, futures.get( i ).get().getBuildInfo().getNvr() );
+        }
+
+        // two full batches are sent at once, the remaining two calls when the delay passes
+        assertEquals( 3, server.getCalls().size() );
+        for ( MethodCall call : server.getCalls() )
+        {
+            assertEquals( MultiCall.SYSTEM_MULTICALL, call.getMethodName() );
+        }
+    }
+
+    @Test
+    public void slotFaultTest() throws Exception
+    {
+        start( call -> {
+            String nvr = (String) call.getParams().get( 0 );
+            if ( nvr.equals( "missing" ) )
+            {
+                throw StandInServer.slotFault( 1000, "No such build: " + nvr );
+            }
+            return StandInServer.response( buildInfo( nvr ) );
+        } );
+        MultiCallBatcher batcher = new MultiCallBatcher( client );
+        batcher.setMaxDelay( Duration.ofMillis( 200 ) );
+
+        CompletableFuture<GetBuildResponse> first =
+                        batcher.call( new GetBuildRequest( "first" ), GetBuildResponse.class );
+        CompletableFuture<GetBuildResponse> missing =
+                        batcher.call( new GetBuildRequest( "missing" ), GetBuildResponse.class );
+        CompletableFuture<GetBuildResponse> last =
+                        batcher.call( new GetBuildRequest( "last" ), GetBuildResponse.class );
+        batcher.flush();
+
+        assertEquals( "first", first.get().getBuildInfo().getNvr() );
+        assertEquals( "last", last.get().getBuildInfo().getNvr() );
+        try
+        {
+            missing.get();
+            fail( "Fault expected" );
+        }
+        catch ( ExecutionException e )
+        {
+            assertTrue( String.valueOf( e.getCause() ), e.getCause() instanceof XmlRpcFaultException );
+            assertTrue( e.getCause().getMessage(), e.getCause().getMessage().contains( "No such build: missing" ) );
+        }
+        assertEquals( 1, server.getCalls().size() );
+    }
+
+    @Test
+    public void batchFailureTest() throws Exception
+    {
+        start( call -> StandInServer.response( buildInfo( NVR ) ) );
+        server.setHandler( call -> 503 );
+        MultiCallBatcher batcher = new MultiCallBatcher( client );
+        batcher.setMaxDelay( Duration.ofMillis( 200 ) );
+
+        List<CompletableFuture<GetBuildResponse>> futures = new ArrayList<>();
+        for ( int i = 0; i < 3; i++ )
+        {
+            futures.add( batcher.call( new GetBuildRequest( "build-" + i ), GetBuildResponse.class ) );
+        }
+        batcher.flush();
+
+        for ( CompletableFuture<GetBuildResponse> future : futures )
+        {
+            try
+            {
+                future.get();
+                fail( "HTTP error expected" );
+            }
+            catch ( ExecutionException e )
+            {
+                assertTrue( String.valueOf( e.getCause() ), e.getCause() instanceof XmlRpcException );
+                assertTrue( e.getCause().getMessage(), e.getCause().getMessage().contains( "503" ) );
+            }
+        }
+    }
+
+    private void start( StandInServer.Handler handler ) throws IOException
+    {
+        server = new StandInServer( StandInServer.multicall( handler ) );
+        client = new RWXClient( server.getEndpoint() );
+    }
+
+    private static Map<String, Object> buildInfo( String nvr )
+    {
+        Map<String, Object> info = new LinkedHashMap<>();
+        info.put( "build_id", 513598 );
+        info.put( "package_id", 48475 );
+        info.put( "nvr", nvr );
+        return info;
+    }
+}
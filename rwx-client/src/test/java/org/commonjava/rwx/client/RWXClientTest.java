@@ -0,0 +1,343 @@
+/**
+ * Copyright (C) 2010 Red Hat, Inc. (http://github.com/Commonjava/commonjava)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.commonjava.rwx.client;
+
+import org.commonjava.rwx.api.MultiCall;
+import org.commonjava.rwx.api.RWXMapper;
+import org.commonjava.rwx.core.Registry;
+import org.commonjava.rwx.error.XmlRpcException;
+import org.commonjava.rwx.error.XmlRpcFaultException;
+import org.commonjava.rwx.model.MethodCall;
+import org.commonjava.rwx.test.generated.Test_Registry;
+import org.commonjava.rwx.test.koji.GetBuildRequest;
+import org.commonjava.rwx.test.koji.GetBuildResponse;
+import org.commonjava.rwx.test.koji.KojiBuildInfo;
+import org.commonjava.rwx.test.simple.CachedNVR;
+import org.commonjava.rwx.test.simple.CachedNVRRequest;
+import org.commonjava.rwx.util.RenderUtils;
+import org.junit.After;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+
+import static junit.framework.TestCase.assertEquals;
+import static junit.framework.TestCase.assertTrue;
+import static junit.framework.TestCase.fail;
+
+public class RWXClientTest
+{
+    private static final String NVR = "org.dashbuilder-dashbuilder-parent-metadata-0.4.0.Final-1";
+
+    private StandInServer server;
+
+    private RWXClient client;
+
+    @BeforeClass
+    public static void register()
+    {
+        Registry.setInstance( new Test_Registry() );
+    }
+
+    @After
+    public void tearDown() throws IOException
+    {
+        if ( client != null )
+        {
+            client.close();
+        }
+        if ( server != null )
+        {
+            server.close();
+        }
+    }
+
+    @Test
+    public void callTest() throws Exception
+    {
+        start( call -> StandInServer.response( buildInfo( (String) call.getParams().get( 0 ) ) ) );
+
+        GetBuildResponse response = client.call( new GetBuildRequest( NVR ), GetBuildResponse.class );
+        assertBuildInfo( response.getBuildInfo() );
+
+        MethodCall call = server.getCalls().get( 0 );
+        assertEquals( "getBuild", call.getMethodName() );
+        assertEquals( NVR, call.getParams().get( 0 ) );
+
+        // plain MethodCall trees are rendered as well
+        MethodCall tree = new MethodCall();
+        tree.setMethodName( "getBuild" );
+        tree.setParams( Collections.singletonList( NVR ) );
+        assertBuildInfo( client.call( tree, GetBuildResponse.class ).getBuildInfo() );
+    }
+
+    @Test
+    public void keepAliveTest() throws Exception
+    {
+        start( call -> StandInServer.response( buildInfo( NVR ) ) );
+
+        for ( int i = 0; i < 20; i++ )
+        {
+            client.call( new GetBuildRequest( NVR ), GetBuildResponse.class );
+        }
+        assertEquals( 20, server.getCalls().size() );
+        // the first call offers an HTTP/2 upgrade, which the stand-in declines, the rest share one connection
+        assertTrue( "Connections: " + server.getClientPorts(), server.getClientPorts().size() <= 2 );
+    }
+
+    @Test
+    public void asyncTest() throws Exception
+    {
+        start( call -> StandInServer.response( buildInfo( (String) call.getParams().get( 0 ) ) ) );
+
+        List<CompletableFuture<GetBuildResponse>> futures = new ArrayList<>();
+        for ( int i = 0; i < 50; i++ )
+        {
+            futures.add( client.callAsync( new GetBuildRequest( NVR ), GetBuildResponse.class ) );
+        }
+        for ( CompletableFuture<GetBuildResponse> future : futures )
+        {
+            assertBuildInfo( future.get().getBuildInfo() );
+        }
+        assertEquals( 50, server.getCalls().size() );
+    }
+
+    @Test
+    public void faultTest() throws Exception
+    {
+        start( call -> StandInServer.fault( 1000, "No such build" ) );
+        try
+        {
+            client.call( new GetBuildRequest( NVR ), GetBuildResponse.class );
+            fail( "Fault expected" );
+        }
+        catch ( XmlRpcFaultException e )
+        {
+            assertTrue( e.getMessage(), e.getMessage().contains( "No such build" ) );
+        }
+
+        try
+        {
+            client.callAsync( new GetBuildRequest( NVR ), GetBuildResponse.class ).get();
+            fail( "Fault expected" );
+        }
+        catch ( ExecutionException e )
+        {
+            assertTrue( e.getCause() instanceof XmlRpcFaultException );
+        }
+
+        server.setHandler( call -> 503 );
+        try
+        {
+            client.call( new GetBuildRequest( NVR ), GetBuildResponse.class );
+            fail( "HTTP error expected" );
+        }
+        catch ( XmlRpcException e )
+        {
+            assertTrue( e.getMessage(), e.getMessage().contains( "503" ) );
+        }
+    }
+
+    @Test
+    public void deadlineTest() throws Exception
+    {
+        // warm the client up so the calls below reach the server before their deadline
+        start( call -> StandInServer.response( buildInfo( NVR ) ) );
+        client.call( new GetBuildRequest( NVR ), GetBuildResponse.class );
+
+        // a body too large to sit in socket buffers, so writing it fails unless the client still reads
+        server.setHandler( call -> {
+            Thread.sleep( 1000 );
+            return new byte[16 * 1024 * 1024];
+        } );
+
+        long start = System.nanoTime();
+        try
+        {
+            client.call( new GetBuildRequest( NVR ), GetBuildResponse.class, Duration.ofMillis( 200 ) );
+            fail( "Deadline should pass" );
+        }
+        catch ( DeadlineExceededException e )
+        {
+            assertEquals( Duration.ofMillis( 200 ), e.getDeadline() );
+        }
+
+        try
+        {
+            client.callAsync( new GetBuildRequest( NVR ), GetBuildResponse.class, Duration.ofMillis( 200 ) ).get();
+            fail( "Deadline should pass" );
+        }
+        catch ( ExecutionException e )
+        {
+            assertTrue( String.valueOf( e.getCause() ), e.getCause() instanceof DeadlineExceededException );
+        }
+        assertTrue( System.nanoTime() - start < Duration.ofMillis( 1000 ).toNanos() );
+        awaitAborted( 2 );
+
+        // a cancelled call well within its deadline, so no HTTP timeout is there to abort the exchange
+        CompletableFuture<GetBuildResponse> cancelled =
+                        client.callAsync( new GetBuildRequest( NVR ), GetBuildResponse.class, Duration.ofMinutes( 1 ) );
+        Thread.sleep( 200 );
+        cancelled.cancel( true );
+        awaitAborted( 3 );
+    }
+
+    private void awaitAborted( int expected ) throws InterruptedException
+    {
+        long wait = System.nanoTime() + Duration.ofSeconds( 10 ).toNanos();
+        while ( server.getAborted() < expected && System.nanoTime() < wait )
+        {
+            Thread.sleep( 20 );
+        }
+        assertEquals( "Exchanges aborted on the server", expected, server.getAborted() );
+    }
+
+    /**
+     * The deadline covers parsing too: a server which sends the headers and then stalls is given up on.
+     */
+    @Test
+    public void stalledBodyTest() throws Exception
+    {
+        XmlRpcTransport stalling = ( request, timeout ) -> CompletableFuture.completedFuture( new InputStream()
+        {
+            private final byte[] head = "<?xml version=\"1.0\"?><methodResponse><params>".getBytes();
+
+            private int pos;
+
+            private volatile boolean closed;
+
+            @Override
+            public int read() throws IOException
+            {
+                if ( pos < head.length )
+                {
+                    return head[pos++];
+                }
+                while ( !closed )
+                {
+                    try
+                    {
+                        Thread.sleep( 10 );
+                    }
+                    catch ( InterruptedException e )
+                    {
+                        throw new IOException( e );
+                    }
+                }
+                throw new IOException( "Stream closed" );
+            }
+
+            @Override
+            public void close()
+            {
+                closed = true;
+            }
+        } );
+
+        try (RWXClient stalled = new RWXClient( stalling ))
+        {
+            stalled.call( new GetBuildRequest( NVR ), GetBuildResponse.class, Duration.ofMillis( 200 ) );
+            fail( "Deadline should pass" );
+        }
+        catch ( DeadlineExceededException e )
+        {
+            // expected
+        }
+    }
+
+    @Test
+    public void renderedRequestTest() throws Exception
+    {
+        MethodCall call = new MethodCall();
+        call.setMethodName( "big" );
+        StringBuilder sb = new StringBuilder();
+        for ( int i = 0; i < 10000; i++ )
+        {
+            sb.append( "chunk " ).append( i ).append( '\n' );
+        }
+        call.setParams( Collections.singletonList( sb.toString() ) );
+
+        RenderedRequest rendered = RenderedRequest.render( new RWXMapper(), call );
+        assertTrue( rendered.getChunks().size() > 1 );
+        assertEquals( RenderedRequest.CHUNK_SIZE, rendered.getChunks().get( 0 ).length );
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try (InputStream in = rendered.openStream())
+        {
+            in.transferTo( out );
+        }
+        assertEquals( rendered.getLength(), out.size() );
+        assertEquals( new String( rendered.toByteArray() ), out.toString() );
+        assertTrue( out.toString().contains( "chunk 9999" ) );
+    }
+
+    /**
+     * A MethodCall, e.g., a multicall, is rendered with the mapper's settings too, so its @RenderCache parts are
+     * written from the mapper's fragment store.
+     */
+    @Test
+    public void renderedMultiCallTest() throws Exception
+    {
+        RWXMapper mapper = new RWXMapper();
+        mapper.setFragmentCacheSize( 10 );
+        MultiCall multiCall = new MultiCall();
+        multiCall.add( new CachedNVRRequest( new CachedNVR( "multi", "1.0", "1" ) ), Map.class );
+        multiCall.add( new CachedNVRRequest( new CachedNVR( "multi", "1.0", "1" ) ), Map.class );
+
+        RenderedRequest rendered = RenderedRequest.render( mapper, multiCall.toRequest() );
+        assertEquals( 1, mapper.getFragmentCache().getHitCount() );
+        assertEquals( MultiCall.SYSTEM_MULTICALL, rendered.getMethodName() );
+        assertEquals( RenderUtils.toXMLString( multiCall.toRequest() ), new String( rendered.toByteArray(),
+                                                                                   StandardCharsets.UTF_8 ) );
+    }
+
+    private void start( StandInServer.Handler handler ) throws IOException
+    {
+        server = new StandInServer( handler );
+        client = new RWXClient( server.getEndpoint() );
+    }
+
+    private static Map<String, Object> buildInfo( String nvr )
+    {
+        Map<String, Object> info = new LinkedHashMap<>();
+        info.put( "build_id", 513598 );
+        info.put( "package_id", 48475 );
+        info.put( "package_name", "org.dashbuilder-dashbuilder-parent-metadata" );
+        info.put( "version", "0.4.0.Final" );
+        info.put( "release", "1" );
+        info.put( "nvr", nvr );
+        return info;
+    }
+
+    private static void assertBuildInfo( KojiBuildInfo info )
+    {
+        assertEquals( 513598, info.getBuildId() );
+        assertEquals( 48475, info.getPackageId() );
+        assertEquals( "0.4.0.Final", info.getVersion() );
+        assertEquals( NVR, info.getNvr() );
+    }
+}
@@ -0,0 +1,269 @@
+/**
+ * Copyright (C) 2010 Red Hat, Inc. (http://github.com/Commonjava/commonjava)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.commonjava.rwx.client;
+
+import org.commonjava.rwx.core.Registry;
+import org.commonjava.rwx.error.XmlRpcFaultException;
+import org.commonjava.rwx.model.MethodCall;
+import org.commonjava.rwx.model.MethodResponse;
+import org.commonjava.rwx.test.generated.Test_Registry;
+import org.commonjava.rwx.test.koji.GetBuildRequest;
+import org.commonjava.rwx.test.koji.GetBuildResponse;
+import org.commonjava.rwx.test.koji.ListTagsRequest;
+import org.commonjava.rwx.test.koji.ListTagsResponse;
+import org.commonjava.rwx.util.RenderUtils;
+import org.commonjava.rwx.util.RpcDigest;
+import org.junit.After;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.GZIPOutputStream;
+
+import static junit.framework.TestCase.assertEquals;
+import static junit.framework.TestCase.assertNotSame;
+import static junit.framework.TestCase.assertTrue;
+import static junit.framework.TestCase.fail;
+
+public class SingleFlightTest
+{
+    private static final String NVR = "org.dashbuilder-dashbuilder-parent-metadata-0.4.0.Final-1";
+
+    private final CountDownLatch release = new CountDownLatch( 1 );
+
+    private StandInServer server;
+
+    private RWXClient client;
+
+    @BeforeClass
+    public static void register()
+    {
+        Registry.setInstance( new Test_Registry() );
+    }
+
+    @After
+    public void tearDown() throws IOException
+    {
+        release.countDown();
+        if ( client != null )
+        {
+            client.close();
+        }
+        if ( server != null )
+        {
+            server.close();
+        }
+    }
+
+    @Test
+    public void coalesceTest() throws Exception
+    {
+        start( call -> {
+            release.await( 10, TimeUnit.SECONDS );
+            return StandInServer.response( buildInfo( (String) call.getParams().get( 0 ) ) );
+        } );
+
+        List<CompletableFuture<GetBuildResponse>> futures = new ArrayList<>();
+        for ( int i = 0; i < 20; i++ )
+        {
+            futures.add( client.callAsync( new GetBuildRequest( NVR ), GetBuildResponse.class ) );
+        }
+        CompletableFuture<GetBuildResponse> other =
+                        client.callAsync( new GetBuildRequest( "other" ), GetBuildResponse.class );
+        release.countDown();
+
+        GetBuildResponse first = futures.get( 0 ).get();
+        for ( CompletableFuture<GetBuildResponse> future : futures )
+        {
+            GetBuildResponse response = future.get();
+            assertEquals( NVR, response.getBuildInfo().getNvr() );
+            if ( response != first )
+            {
+                assertNotSame( first.getBuildInfo(), response.getBuildInfo() );
+            }
+        }
+        assertEquals( "other", other.get().getBuildInfo().getNvr() );
+
+        // one call per distinct request
+        assertEquals( 2, server.getCalls().size() );
+
+        // once the response is in, an equal call is sent again
+        client.call( new GetBuildRequest( NVR ), GetBuildResponse.class );
+        assertEquals( 3, server.getCalls().size() );
+    }
+
+    @Test
+    public void blockingCallTest() throws Exception
+    {
+        start( call -> {
+            release.await( 10, TimeUnit.SECONDS );
+            return StandInServer.response( buildInfo( (String) call.getParams().get( 0 ) ) );
+        } );
+
+        ExecutorService threads = Executors.newFixedThreadPool( 10 );
+        CountDownLatch started = new CountDownLatch( 10 );
+        try
+        {
+            List<Future<GetBuildResponse>> results = new ArrayList<>();
+            for ( int i = 0; i < 10; i++ )
+            {
+                results.add( threads.submit( () -> {
+                    started.countDown();
+                    return client.call( new GetBuildRequest( NVR ), GetBuildResponse.class );
+                } ) );
+            }
+            started.await();
+            Thread.sleep( 200 );
+            release.countDown();
+
+            for ( Future<GetBuildResponse> result : results )
+            {
+                assertEquals( NVR, result.get().getBuildInfo().getNvr() );
+            }
+        }
+        finally
+        {
+            threads.shutdownNow();
+        }
+        assertEquals( 1, server.getCalls().size() );
+    }
+
+    @Test
+    public void notCoalescedTest() throws Exception
+    {
+        start( call -> {
+            release.await( 10, TimeUnit.SECONDS );
+            return StandInServer.response( Collections.emptyList() );
+        } );
+
+        List<CompletableFuture<ListTagsResponse>> futures = new ArrayList<>();
+        for ( int i = 0; i < 5; i++ )
+        {
+            futures.add( client.callAsync( new ListTagsRequest( NVR ), ListTagsResponse.class ) );
+        }
+        release.countDown();
+        for ( CompletableFuture<ListTagsResponse> future : futures )
+        {
+            future.get();
+        }
+        assertEquals( 5, server.getCalls().size() );
+    }
+
+    @Test
+    public void sharedFaultTest() throws Exception
+    {
+        start( call -> {
+            release.await( 10, TimeUnit.SECONDS );
+            return StandInServer.fault( 1000, "No such build" );
+        } );
+
+        List<CompletableFuture<GetBuildResponse>> futures = new ArrayList<>();
+        for ( int i = 0; i < 5; i++ )
+        {
+            futures.add( client.callAsync( new GetBuildRequest( NVR ), GetBuildResponse.class ) );
+        }
+        release.countDown();
+        for ( CompletableFuture<GetBuildResponse> future : futures )
+        {
+            try
+            {
+                future.get();
+                fail( "Fault expected" );
+            }
+            catch ( ExecutionException e )
+            {
+                assertTrue( String.valueOf( e.getCause() ), e.getCause() instanceof XmlRpcFaultException );
+            }
+        }
+        assertEquals( 1, server.getCalls().size() );
+    }
+
+    @Test
+    public void copiedForEveryCallerTest() throws Exception
+    {
+        MethodCall call = new MethodCall();
+        call.setMethodName( "getBuild" );
+        call.setParams( Collections.singletonList( NVR ) );
+        RpcDigest key = RpcDigest.of( call );
+
+        SingleFlight flights = new SingleFlight();
+        CompletableFuture<MethodResponse> sent = new CompletableFuture<>();
+        CompletableFuture<MethodResponse> leader = flights.join( key, () -> sent );
+        CompletableFuture<MethodResponse> joiner = flights.join( key, () -> {
+            throw new AssertionError( "Joined call sent again" );
+        } );
+
+        MethodResponse response = new MethodResponse();
+        response.setParams( Collections.singletonList( buildInfo( NVR ) ) );
+        sent.complete( response );
+
+        // the caller which started the flight does not get the tree the others are copied from
+        assertNotSame( response, leader.get() );
+        assertNotSame( response.getParams().get( 0 ), leader.get().getParams().get( 0 ) );
+        assertNotSame( leader.get().getParams().get( 0 ), joiner.get().getParams().get( 0 ) );
+        assertEquals( response.getParams(), leader.get().getParams() );
+        assertEquals( response.getParams(), joiner.get().getParams() );
+    }
+
+    @Test
+    public void compressedResponseTest() throws Exception
+    {
+        start( call -> {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            try (GZIPOutputStream gzip = new GZIPOutputStream( out ))
+            {
+                RenderUtils.writeXML( StandInServer.response( buildInfo( NVR ) ), gzip );
+            }
+            return out.toByteArray();
+        } );
+
+        // coalesced calls parse the tree through the mapper, which detects the compression
+        assertEquals( NVR, client.call( new GetBuildRequest( NVR ), GetBuildResponse.class ).getBuildInfo().getNvr() );
+        MethodResponse tree = client.callTreeAsync( new GetBuildRequest( NVR ), Duration.ofSeconds( 10 ) ).get();
+        assertEquals( NVR, ( (Map<?, ?>) tree.getParams().get( 0 ) ).get( "nvr" ) );
+    }
+
+    private void start( StandInServer.Handler handler ) throws IOException
+    {
+        server = new StandInServer( handler );
+        client = new RWXClient( server.getEndpoint() );
+        client.setCoalescedMethods( Arrays.asList( "getBuild" ) );
+    }
+
+    private static Map<String, Object> buildInfo( String nvr )
+    {
+        Map<String, Object> info = new LinkedHashMap<>();
+        info.put( "build_id", 513598 );
+        info.put( "package_id", 48475 );
+        info.put( "nvr", nvr );
+        return info;
+    }
+}
@@ -0,0 +1,270 @@
+/**
+ * Copyright (C) 2010 Red Hat, Inc. (http://github.com/Commonjava/commonjava)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.commonjava.rwx.client;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import org.commonjava.rwx.api.RWXMapper;
+import org.commonjava.rwx.core.XmlRpcParser;
+import org.commonjava.rwx.error.XmlRpcException;
+import org.commonjava.rwx.error.XmlRpcFaultException;
+import org.commonjava.rwx.model.Fault;
+import org.commonjava.rwx.model.MethodCall;
+import org.commonjava.rwx.model.MethodResponse;
+import org.commonjava.rwx.util.RenderUtils;
+
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * In-JVM XML-RPC server standing in for a real one, e.g., a Koji hub, in client tests. Each call is parsed to a
+ * MethodCall and answered by the handler.
+ */
+public final class StandInServer
+                implements Closeable
+{
+    /**
+     * Answer a call with a MethodResponse tree, an object with a @Response renderer, an XML string or bytes sent
+     * as is, e.g., a compressed payload, or an Integer sent as HTTP status without body. The handler may block,
+     * e.g., to simulate a slow server.
+     */
+    public interface Handler
+    {
+        Object handle( MethodCall call ) throws Exception;
+    }
+
+    private final HttpServer server;
+
+    private final ExecutorService executor = Executors.newCachedThreadPool();
+
+    private final List<MethodCall> calls = new CopyOnWriteArrayList<>();
+
+    private final Set<Integer> clientPorts = Collections.newSetFromMap( new ConcurrentHashMap<>() );
+
+    private final AtomicInteger aborted = new AtomicInteger();
+
+    private volatile Handler handler;
+
+    public StandInServer( Handler handler ) throws IOException
+    {
+        this.handler = handler;
+        server = HttpServer.create( new InetSocketAddress( InetAddress.getLoopbackAddress(), 0 ), 0 );
+        server.createContext( "/RPC2", this::exchange );
+        server.setExecutor( executor );
+        server.start();
+    }
+
+    public URI getEndpoint()
+    {
+        return URI.create( "http://127.0.0.1:" + server.getAddress().getPort() + "/RPC2" );
+    }
+
+    public void setHandler( Handler handler )
+    {
+        this.handler = handler;
+    }
+
+    public List<MethodCall> getCalls()
+    {
+        return calls;
+    }
+
+    /**
+     * @return the ports the client connected from, one per connection
+     */
+    public Set<Integer> getClientPorts()
+    {
+        return clientPorts;
+    }
+
+    /**
+     * @return the number of exchanges the client dropped before the response was written, e.g., as its deadline
+     * passed
+     */
+    public int getAborted()
+    {
+        return aborted.get();
+    }
+
+    private void exchange( HttpExchange exchange ) throws IOException
+    {
+        clientPorts.add( exchange.getRemoteAddress().getPort() );
+        try
+        {
+            Object response;
+            try (InputStream in = exchange.getRequestBody())
+            {
+                MethodCall call = (MethodCall) new XmlRpcParser( in ).parse();
+                calls.add( call );
+                response = handler.handle( call );
+            }
+            catch ( Exception e )
+            {
+                response = 500;
+            }
+
+            if ( response instanceof Integer )
+            {
+                exchange.sendResponseHeaders( (Integer) response, -1 );
+                return;
+            }
+            byte[] body = render( response );
+            exchange.getResponseHeaders().add( "Content-Type", "text/xml" );
+            exchange.sendResponseHeaders( 200, body.length );
+            try (OutputStream out = exchange.getResponseBody())
+            {
+                out.write( body );
+            }
+        }
+        catch ( IOException e )
+        {
+            // the client gave up, e.g., its deadline passed
+            aborted.incrementAndGet();
+        }
+        finally
+        {
+            exchange.close();
+        }
+    }
+
+    private static byte[] render( Object response ) throws IOException
+    {
+        if ( response instanceof String )
+        {
+            return ( (String) response ).getBytes( StandardCharsets.UTF_8 );
+        }
+        if ( response instanceof byte[] )
+        {
+            return (byte[]) response;
+        }
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try
+        {
+            if ( response instanceof MethodResponse )
+            {
+                RenderUtils.writeXML( response, out );
+            }
+            else
+            {
+                new RWXMapper().render( response, out );
+            }
+        }
+        catch ( XmlRpcException e )
+        {
+            throw new IOException( e );
+        }
+        return out.toByteArray();
+    }
+
+    /**
+     * A response with the single param value.
+     */
+    public static MethodResponse response( Object value )
+    {
+        MethodResponse response = new MethodResponse();
+        response.setParams( Collections.singletonList( value ) );
+        return response;
+    }
+
+    /**
+     * Wrap the handler to answer system.multicall and multiCall: each inner call is passed to the handler, its
+     * result is added as a one element array, and a fault from {@link #slotFault(int, String)} or a thrown
+     * exception as a fault struct.
+     */
+    @SuppressWarnings( "unchecked" )
+    public static Handler multicall( Handler handler )
+    {
+        return call -> {
+            if ( !"system.multicall".equals( call.getMethodName() ) && !"multiCall".equals( call.getMethodName() ) )
+            {
+                return handler.handle( call );
+            }
+            List<Object> results = new ArrayList<>();
+            for ( Object entry : (List<Object>) call.getParams().get( 0 ) )
+            {
+                Map<String, Object> struct = (Map<String, Object>) entry;
+                MethodCall inner = new MethodCall();
+                inner.setMethodName( (String) struct.get( "methodName" ) );
+                inner.setParams( (List<Object>) struct.get( "params" ) );
+                try
+                {
+                    results.add( Collections.singletonList( ( (MethodResponse) handler.handle( inner ) ).getParams()
+                                                                                                      .get( 0 ) ) );
+                }
+                catch ( XmlRpcFaultException e )
+                {
+                    results.add( e.getFault().getValue() );
+                }
+                catch ( Exception e )
+                {
+                    results.add( faultStruct( 1, String.valueOf( e ) ) );
+                }
+            }
+            return response( results );
+        };
+    }
+
+    /**
+     * A fault for handlers wrapped by {@link #multicall(Handler)} to throw.
+     */
+    public static XmlRpcFaultException slotFault( int code, String message )
+    {
+        Fault fault = new Fault();
+        fault.setValue( faultStruct( code, message ) );
+        return new XmlRpcFaultException( fault );
+    }
+
+    private static Map<String, Object> faultStruct( int code, String message )
+    {
+        Map<String, Object> struct = new LinkedHashMap<>();
+        struct.put( "faultCode", code );
+        struct.put( "faultString", message );
+        return struct;
+    }
+
+    public static String fault( int code, String message )
+    {
+        return "<?xml version=\"1.0\"?><methodResponse><fault><value><struct>"
+                        + "<member><name>faultCode</name><value><int>" + code + "</int></value></member>"
+                        + "<member><name>faultString</name><value><string>" + message
+                        + "</string></value></member></struct></value></fault></methodResponse>";
+    }
+
+    @Override
+    public void close()
+    {
+        server.stop( 0 );
+        executor.shutdownNow();
+    }
+}
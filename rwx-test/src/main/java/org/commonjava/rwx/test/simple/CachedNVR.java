@@ -0,0 +1,75 @@
+/**
+ * Copyright (C) 2010 Red Hat, Inc. (http://github.com/Commonjava/commonjava)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.commonjava.rwx.test.simple;
+
+import org.commonjava.rwx.anno.DataKey;
+import org.commonjava.rwx.anno.RenderCache;
+import org.commonjava.rwx.anno.StructPart;
+
+@RenderCache
+@StructPart
+public class CachedNVR
+{
+    @DataKey( "name" )
+    private String name;
+
+    @DataKey( "version" )
+    private String version;
+
+    @DataKey( "release" )
+    private String release;
+
+    public CachedNVR()
+    {
+    }
+
+    public CachedNVR( String name, String version, String release )
+    {
+        this.name = name;
+        this.version = version;
+        this.release = release;
+    }
+
+    public String getName()
+    {
+        return name;
+    }
+
+    public void setName( String name )
+    {
+        this.name = name;
+    }
+
+    public String getVersion()
+    {
+        return version;
+    }
+
+    public void setVersion( String version )
+    {
+        this.version = version;
+    }
+
+    public String getRelease()
+    {
+        return release;
+    }
+
+    public void setRelease( String release )
+    {
+        this.release = release;
+    }
+}
@@ -0,0 +1,61 @@
+/**
+ * Copyright (C) 2010 Red Hat, Inc. (http://github.com/Commonjava/commonjava)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.commonjava.rwx.test.simple;
+
+import org.commonjava.rwx.anno.DataKey;
+import org.commonjava.rwx.anno.RenderCache;
+import org.commonjava.rwx.anno.StructPart;
+
+@RenderCache( identity = true )
+@StructPart
+public class CachedTag
+{
+    @DataKey( "name" )
+    private String name;
+
+    @DataKey( "id" )
+    private int id;
+
+    public CachedTag()
+    {
+    }
+
+    public CachedTag( String name, int id )
+    {
+        this.name = name;
+        this.id = id;
+    }
+
+    public String getName()
+    {
+        return name;
+    }
+
+    public void setName( String name )
+    {
+        this.name = name;
+    }
+
+    public int getId()
+    {
+        return id;
+    }
+
+    public void setId( int id )
+    {
+        this.id = id;
+    }
+}
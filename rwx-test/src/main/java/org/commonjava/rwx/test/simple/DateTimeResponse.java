@@ -0,0 +1,80 @@
+/**
+ * Copyright (C) 2010 Red Hat, Inc. (http://github.com/Commonjava/commonjava)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.commonjava.rwx.test.simple;
+
+import org.commonjava.rwx.anno.DataIndex;
+import org.commonjava.rwx.anno.Response;
+
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.OffsetDateTime;
+import java.util.Date;
+
+@Response
+public class DateTimeResponse
+{
+    @DataIndex( 0 )
+    private Date date;
+
+    @DataIndex( 1 )
+    private Instant instant;
+
+    @DataIndex( 2 )
+    private LocalDateTime localDateTime;
+
+    @DataIndex( 3 )
+    private OffsetDateTime offsetDateTime;
+
+    public Date getDate()
+    {
+        return date;
+    }
+
+    public void setDate( Date date )
+    {
+        this.date = date;
+    }
+
+    public Instant getInstant()
+    {
+        return instant;
+    }
+
+    public void setInstant( Instant instant )
+    {
+        this.instant = instant;
+    }
+
+    public LocalDateTime getLocalDateTime()
+    {
+        return localDateTime;
+    }
+
+    public void setLocalDateTime( LocalDateTime localDateTime )
+    {
+        this.localDateTime = localDateTime;
+    }
+
+    public OffsetDateTime getOffsetDateTime()
+    {
+        return offsetDateTime;
+    }
+
+    public void setOffsetDateTime( OffsetDateTime offsetDateTime )
+    {
+        this.offsetDateTime = offsetDateTime;
+    }
+}
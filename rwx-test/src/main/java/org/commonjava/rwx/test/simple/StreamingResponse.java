@@ -0,0 +1,82 @@
+/**
+ * Copyright (C) 2010 Red Hat, Inc. (http://github.com/Commonjava/commonjava)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.commonjava.rwx.test.simple;
+
+import org.commonjava.rwx.anno.DataIndex;
+import org.commonjava.rwx.anno.Response;
+import org.commonjava.rwx.test.koji.KojiNVR;
+
+import java.util.Iterator;
+import java.util.stream.Stream;
+
+/**
+ * Array sources which are consumed while rendering, e.g., rows from a database cursor.
+ */
+@Response
+public class StreamingResponse
+{
+    @DataIndex( 0 )
+    private Iterator<KojiNVR> builds;
+
+    @DataIndex( 1 )
+    private Stream<String> names;
+
+    @DataIndex( 2 )
+    private Iterable<Integer> ids;
+
+    @DataIndex( 3 )
+    private StreamingStruct struct;
+
+    public Iterator<KojiNVR> getBuilds()
+    {
+        return builds;
+    }
+
+    public void setBuilds( Iterator<KojiNVR> builds )
+    {
+        this.builds = builds;
+    }
+
+    public Stream<String> getNames()
+    {
+        return names;
+    }
+
+    public void setNames( Stream<String> names )
+    {
+        this.names = names;
+    }
+
+    public Iterable<Integer> getIds()
+    {
+        return ids;
+    }
+
+    public void setIds( Iterable<Integer> ids )
+    {
+        this.ids = ids;
+    }
+
+    public StreamingStruct getStruct()
+    {
+        return struct;
+    }
+
+    public void setStruct( StreamingStruct struct )
+    {
+        this.struct = struct;
+    }
+}
@@ -0,0 +1,52 @@
+/**
+ * Copyright (C) 2010 Red Hat, Inc. (http://github.com/Commonjava/commonjava)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.commonjava.rwx.test.simple;
+
+import org.commonjava.rwx.anno.DataKey;
+import org.commonjava.rwx.anno.StructPart;
+import org.commonjava.rwx.test.koji.KojiNVR;
+
+import java.util.Iterator;
+
+@StructPart
+public class StreamingStruct
+{
+    @DataKey( "nvrs" )
+    private Iterable<KojiNVR> nvrs;
+
+    @DataKey( "tags" )
+    private Iterator<String> tags;
+
+    public Iterable<KojiNVR> getNvrs()
+    {
+        return nvrs;
+    }
+
+    public void setNvrs( Iterable<KojiNVR> nvrs )
+    {
+        this.nvrs = nvrs;
+    }
+
+    public Iterator<String> getTags()
+    {
+        return tags;
+    }
+
+    public void setTags( Iterator<String> tags )
+    {
+        this.tags = tags;
+    }
+}
@@ -15,18 +15,26 @@
  */
 package org.commonjava.rwx.test.koji;
 
+import org.commonjava.rwx.api.MultiCall;
 import org.commonjava.rwx.api.RWXMapper;
 import org.commonjava.rwx.core.Registry;
+import org.commonjava.rwx.error.XmlRpcFaultException;
+import org.commonjava.rwx.model.MethodCall;
 import org.commonjava.rwx.test.AbstractTest;
 import org.junit.Test;
 
 import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
+import java.util.zip.GZIPOutputStream;
 
 import static junit.framework.TestCase.assertEquals;
+import static junit.framework.TestCase.assertFalse;
+import static junit.framework.TestCase.assertNull;
 import static junit.framework.TestCase.assertTrue;
+import static junit.framework.TestCase.fail;
 
 /**
  * Created by ruhan on 8/2/17.
@@ -190,4 +198,128 @@ public class KojiMultiCallTest
         assertEquals( 8829, data2_1Map.get( "id" ) );
     }
 
+    @Test
+    public void typedMultiCall_renderTest() throws Exception
+    {
+        MultiCall multiCall = new MultiCall( "multiCall" );
+        multiCall.add( new GetBuildRequest( "org.dashbuilder-dashbuilder-parent-metadata-0.4.0.Final-1" ),
+                       KojiBuildInfo.class );
+        multiCall.add( new ListTagsRequest( "org.jbpm-jbpm-parent-metadata-0.4.0.Final-1" ), ListTagsResponse.class );
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        multiCall.render( out );
+        MultiCallRequest parsed =
+                        new RWXMapper().parse( new ByteArrayInputStream( out.toByteArray() ), MultiCallRequest.class );
+
+        assertMultiCallRequest( parsed );
+    }
+
+    @Test
+    public void typedMultiCall_parseTest() throws Exception
+    {
+        List<Integer> order = new ArrayList<>();
+        MultiCall multiCall = new MultiCall( "multiCall" );
+        MultiCall.Slot<KojiBuildInfo> build =
+                        multiCall.add( new GetBuildRequest( "org.dashbuilder-dashbuilder-parent-metadata-0.4.0.Final-1" ),
+                                       KojiBuildInfo.class, slot -> order.add( slot.getIndex() ) );
+        MultiCall.Slot<ListTagsResponse> tags =
+                        multiCall.add( new ListTagsRequest( "org.jbpm-jbpm-parent-metadata-0.4.0.Final-1" ),
+                                       ListTagsResponse.class, slot -> {
+                                           // notified before the rest of the response is read
+                                           assertTrue( build.isDone() );
+                                           order.add( slot.getIndex() );
+                                       } );
+        assertFalse( build.isDone() );
+
+        multiCall.parse( getXMLStream( "kojiMulticallResponse" ) );
+
+        assertEquals( 2, order.size() );
+        assertEquals( 0, (int) order.get( 0 ) );
+        assertEquals( 1, (int) order.get( 1 ) );
+
+        KojiBuildInfo buildInfo = build.get();
+        assertEquals( 48475, buildInfo.getPackageId() );
+        assertEquals( 513598, buildInfo.getBuildId() );
+        assertEquals( "org.dashbuilder-dashbuilder-parent-metadata", buildInfo.getPackageName() );
+
+        List<KojiTagInfo> tagInfos = tags.get().getTags();
+        assertEquals( 4, tagInfos.size() );
+        assertEquals( "jb-bxms-6.3-candidate", tagInfos.get( 0 ).getName() );
+        assertEquals( 8829, tagInfos.get( 0 ).getId() );
+    }
+
+    @Test
+    public void typedMultiCall_faultTest() throws Exception
+    {
+        String response = "<?xml version='1.0'?><methodResponse><params><param><value><array><data>"
+                        + "<value><struct><member><name>faultCode</name><value><int>1000</int></value></member>"
+                        + "<member><name>faultString</name><value><string>No such build</string></value></member>"
+                        + "</struct></value>"
+                        + "<value><array><data><value><string>ok</string></value></data></array></value>"
+                        + "</data></array></value></param></params></methodResponse>";
+
+        MultiCall multiCall = new MultiCall();
+        MultiCall.Slot<KojiBuildInfo> build = multiCall.add( new GetBuildRequest( "missing" ), KojiBuildInfo.class );
+        MultiCall.Slot<String> other = multiCall.add( new GetBuildRequest( "other" ), String.class );
+
+        multiCall.parse( new ByteArrayInputStream( response.getBytes() ) );
+
+        assertTrue( build.isFault() );
+        assertEquals( 1000, ( (Map<String, Object>) build.getFault().getValue() ).get( "faultCode" ) );
+        try
+        {
+            build.get();
+            fail( "Fault expected" );
+        }
+        catch ( XmlRpcFaultException e )
+        {
+            assertTrue( e.getMessage(), e.getMessage().contains( "No such build" ) );
+        }
+
+        assertFalse( other.isFault() );
+        assertNull( other.getFault() );
+        assertEquals( "ok", other.get() );
+    }
+
+    @Test
+    public void typedMultiCall_compressedTest() throws Exception
+    {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try (GZIPOutputStream gzip = new GZIPOutputStream( out ))
+        {
+            gzip.write( getXMLString( "kojiMulticallResponse" ).getBytes() );
+        }
+
+        MultiCall multiCall = new MultiCall( "multiCall" );
+        MultiCall.Slot<KojiBuildInfo> build =
+                        multiCall.add( new GetBuildRequest( "org.dashbuilder-dashbuilder-parent-metadata-0.4.0.Final-1" ),
+                                       KojiBuildInfo.class );
+        MultiCall.Slot<ListTagsResponse> tags =
+                        multiCall.add( new ListTagsRequest( "org.jbpm-jbpm-parent-metadata-0.4.0.Final-1" ),
+                                       ListTagsResponse.class );
+
+        multiCall.parse( new ByteArrayInputStream( out.toByteArray() ) );
+
+        assertEquals( 513598, build.get().getBuildId() );
+        assertEquals( 4, tags.get().getTags().size() );
+    }
+
+    @Test
+    public void renderedTreeTest() throws Exception
+    {
+        MultiCallRequest request = new MultiCallRequest();
+        List<MultiCallObj> multiObjs = new ArrayList<>();
+        multiObjs.add( new MultiCallObj( "getBuild" ) );
+        request.setMultiCallObjs( multiObjs );
+
+        MethodCall call = (MethodCall) Registry.getInstance().renderTo( request );
+        List<?> rendered = (List<?>) call.getParams().get( 0 );
+
+        // the tree holds the elements as rendered, not a view of the request's list
+        multiObjs.get( 0 ).setMethodName( "listTags" );
+        multiObjs.add( new MultiCallObj( "getTag" ) );
+        assertEquals( 1, rendered.size() );
+        assertEquals( "getBuild", ( (Map<?, ?>) rendered.get( 0 ) ).get( "methodName" ) );
+        assertTrue( rendered.get( 0 ) == rendered.get( 0 ) );
+    }
 }
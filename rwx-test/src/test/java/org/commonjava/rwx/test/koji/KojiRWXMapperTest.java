@@ -16,11 +16,18 @@
 package org.commonjava.rwx.test.koji;
 
 import org.commonjava.rwx.api.RWXMapper;
+import org.commonjava.rwx.core.ResponseCache;
 import org.commonjava.rwx.test.AbstractTest;
+import org.commonjava.rwx.util.JsonXmlRpcTranscoder;
+import org.commonjava.rwx.util.XmlRpcJsonTranscoder;
 import org.junit.Test;
 
 import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
 import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import static junit.framework.TestCase.assertEquals;
 import static junit.framework.TestCase.assertNull;
@@ -105,6 +112,115 @@ public class KojiRWXMapperTest
         assertGetBuildResponse( rounded );
     }
 
+    @Test
+    public void cachedResponseTest() throws Exception
+    {
+        ResponseCache cache = new ResponseCache( 100, 1024 * 1024 );
+        cache.setTtl( "getBuild", 1, TimeUnit.HOURS );
+        RWXMapper mapper = new RWXMapper();
+        mapper.setResponseCache( cache );
+
+        AtomicInteger loads = new AtomicInteger();
+        String source = getXMLString( "kojiGetBuildResponse" );
+        for ( int i = 0; i < 3; i++ )
+        {
+            GetBuildResponse parsed = mapper.parseResponse(
+                            new GetBuildRequest( "org.dashbuilder-dashbuilder-parent-metadata-0.4.0.Final-1" ), () -> {
+                                loads.incrementAndGet();
+                                return new ByteArrayInputStream( source.getBytes() );
+                            }, GetBuildResponse.class );
+            assertGetBuildResponse( parsed );
+        }
+        assertEquals( 1, loads.get() );
+        assertEquals( 2, cache.getHitCount() );
+
+        mapper.parseResponse( new GetBuildRequest( "foo-1.0-1" ), () -> new ByteArrayInputStream( source.getBytes() ),
+                              GetBuildResponse.class );
+        assertEquals( 2, cache.size() );
+    }
+
+    @Test
+    public void parseCacheTest() throws Exception
+    {
+        RWXMapper mapper = new RWXMapper();
+        mapper.setParseCacheSize( 16 );
+        String xml = getXMLString( "kojiGetBuildResponse" );
+        byte[] source = xml.getBytes();
+
+        GetBuildResponse first = mapper.parse( new ByteArrayInputStream( source ), GetBuildResponse.class );
+        GetBuildResponse second = mapper.parse( new ByteArrayInputStream( source ), GetBuildResponse.class );
+        assertGetBuildResponse( first );
+        assertGetBuildResponse( second );
+        assertEquals( 1, mapper.getParseCache().getHitCount() );
+
+        // every hit is parsed to a new object, so changing one does not change the others
+        assertTrue( first != second );
+        assertTrue( first.getBuildInfo() != second.getBuildInfo() );
+        first.getBuildInfo().setName( "changed" );
+        assertGetBuildResponse( mapper.parse( new ByteArrayInputStream( source ), GetBuildResponse.class ) );
+        assertEquals( 2, mapper.getParseCache().getHitCount() );
+
+        // other bytes are parsed again
+        byte[] changed = source.clone();
+        changed[changed.length - 1] = ' ';
+        assertGetBuildResponse( mapper.parse( new ByteArrayInputStream( changed ), GetBuildResponse.class ) );
+        assertEquals( 2, mapper.getParseCache().getHitCount() );
+        assertEquals( 2, mapper.getParseCache().size() );
+
+        // chars are cached too
+        assertGetBuildResponse( mapper.parse( xml, GetBuildResponse.class ) );
+        assertGetBuildResponse( mapper.parse( xml, GetBuildResponse.class ) );
+        assertEquals( 3, mapper.getParseCache().getHitCount() );
+
+        // payloads over the limit are not cached
+        mapper.setParseCacheMaxPayload( 100 );
+        GetBuildResponse large = mapper.parse( new ByteArrayInputStream( source ), GetBuildResponse.class );
+        assertGetBuildResponse( large );
+        assertGetBuildResponse( mapper.parse( xml, GetBuildResponse.class ) );
+        assertEquals( 3, mapper.getParseCache().getHitCount() );
+    }
+
+    @Test
+    public void jsonTranscodeTest() throws Exception
+    {
+        XmlRpcJsonTranscoder transcoder = new XmlRpcJsonTranscoder();
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        transcoder.transcode( getXMLStream( "kojiGetBuildResponse" ), out );
+        String json = new String( out.toByteArray(), StandardCharsets.UTF_8 );
+
+        assertTrue( json.startsWith( "{\"params\":[{\"package_name\":\"org.dashbuilder-dashbuilder-parent-metadata\"," ) );
+        assertTrue( json.contains( "\"extra\":null," ) );
+        assertTrue( json.contains( "\"build_id\":513598," ) );
+        assertTrue( json.endsWith( "}]}" ) );
+
+        out.reset();
+        transcoder.transcode( getXMLStream( "simpleFault" ), out );
+        assertEquals( "{\"fault\":{\"faultCode\":101,\"faultString\":\"foo\"}}",
+                      new String( out.toByteArray(), StandardCharsets.UTF_8 ) );
+    }
+
+    @Test
+    public void jsonToXmlRpcTest() throws Exception
+    {
+        ByteArrayOutputStream json = new ByteArrayOutputStream();
+        new XmlRpcJsonTranscoder().transcode( getXMLStream( "kojiGetBuildResponse" ), json );
+
+        ByteArrayOutputStream xml = new ByteArrayOutputStream();
+        JsonXmlRpcTranscoder transcoder = new JsonXmlRpcTranscoder();
+        transcoder.transcode( new ByteArrayInputStream( json.toByteArray() ), xml );
+        GetBuildResponse parsed =
+                        new RWXMapper().parse( new ByteArrayInputStream( xml.toByteArray() ), GetBuildResponse.class );
+        assertGetBuildResponse( parsed );
+
+        xml.reset();
+        String request = "{\"methodName\":\"getBuild\","
+                        + "\"params\":[\"org.dashbuilder-dashbuilder-parent-metadata-0.4.0.Final-1\"]}";
+        transcoder.transcode( new ByteArrayInputStream( request.getBytes( StandardCharsets.UTF_8 ) ), xml );
+        GetBuildRequest call =
+                        new RWXMapper().parse( new ByteArrayInputStream( xml.toByteArray() ), GetBuildRequest.class );
+        assertEquals( "org.dashbuilder-dashbuilder-parent-metadata-0.4.0.Final-1", call.getNvr() );
+    }
+
     private void assertGetBuildResponse( GetBuildResponse response )
     {
         KojiBuildInfo buildInfo = response.getBuildInfo();
@@ -0,0 +1,242 @@
+/**
+ * Copyright (C) 2010 Red Hat, Inc. (http://github.com/Commonjava/commonjava)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.commonjava.rwx.test.koji;
+
+import org.commonjava.rwx.api.RWXMapper;
+import org.apache.commons.io.IOUtils;
+import org.commonjava.rwx.error.XmlRpcException;
+import org.commonjava.rwx.test.AbstractTest;
+import org.commonjava.rwx.test.simple.CachedNVR;
+import org.commonjava.rwx.test.simple.CachedNVRRequest;
+import org.commonjava.rwx.util.CompressionUtils;
+import org.commonjava.rwx.vocab.ContentEncoding;
+import org.commonjava.rwx.vocab.PayloadFormat;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.StringWriter;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+
+import static junit.framework.TestCase.assertEquals;
+import static junit.framework.TestCase.assertTrue;
+
+public class KojiRenderTargetTest
+                extends AbstractTest
+{
+    @Test
+    public void renderToTargetsTest() throws Exception
+    {
+        MultiCallRequest request = getMultiCallRequest( 2000 );
+        RWXMapper mapper = new RWXMapper();
+        String expected = mapper.render( request );
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        mapper.setRenderBufferSize( 64 );
+        mapper.render( request, out );
+        assertEquals( expected, new String( out.toByteArray(), StandardCharsets.UTF_8 ) );
+
+        StringWriter writer = new StringWriter();
+        mapper.render( request, writer );
+        assertEquals( expected, writer.toString() );
+
+        StringBuilder sb = new StringBuilder();
+        mapper.render( request, sb );
+        assertEquals( expected, sb.toString() );
+
+        MultiCallRequest parsed = mapper.parse( new ByteArrayInputStream( out.toByteArray() ), MultiCallRequest.class );
+        assertEquals( 2000, parsed.getMultiCallObjs().size() );
+        assertEquals( "getBuild", parsed.getMultiCallObjs().get( 1999 ).getMethodName() );
+    }
+
+    @Test
+    public void nioTargetsTest() throws Exception
+    {
+        // big enough for several rounds of gathering writes
+        MultiCallRequest request = getMultiCallRequest( 20000 );
+        RWXMapper mapper = new RWXMapper();
+        String expected = mapper.render( request );
+        byte[] expectedBytes = expected.getBytes( StandardCharsets.UTF_8 );
+
+        Path file = Files.createTempFile( "rwx", ".xml" );
+        try
+        {
+            mapper.render( request, file );
+            assertTrue( Arrays.equals( expectedBytes, Files.readAllBytes( file ) ) );
+
+            MultiCallRequest parsed = mapper.parse( file, MultiCallRequest.class );
+            assertEquals( 20000, parsed.getMultiCallObjs().size() );
+
+            try (FileChannel channel = FileChannel.open( file, StandardOpenOption.READ ))
+            {
+                parsed = mapper.parse( channel, MultiCallRequest.class );
+                assertEquals( "getBuild", parsed.getMultiCallObjs().get( 19999 ).getMethodName() );
+            }
+
+            // a channel without gathering writes
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            mapper.render( request, Channels.newChannel( out ) );
+            assertTrue( Arrays.equals( expectedBytes, out.toByteArray() ) );
+
+            ByteBuffer buffer = ByteBuffer.allocateDirect( expectedBytes.length + 10 );
+            buffer.position( 10 );
+            assertEquals( expectedBytes.length, mapper.render( request, buffer ) );
+            buffer.position( 10 );
+            parsed = mapper.parse( buffer, MultiCallRequest.class );
+            assertEquals( 10, buffer.position() );
+            assertEquals( 20000, parsed.getMultiCallObjs().size() );
+
+            parsed = mapper.parse( expected, MultiCallRequest.class );
+            assertEquals( 20000, parsed.getMultiCallObjs().size() );
+            parsed = mapper.parse( new StringBuilder( expected ), MultiCallRequest.class );
+            assertEquals( 20000, parsed.getMultiCallObjs().size() );
+        }
+        finally
+        {
+            Files.delete( file );
+        }
+    }
+
+    @Test( expected = XmlRpcException.class )
+    public void bufferOverflowTest() throws Exception
+    {
+        new RWXMapper().render( getMultiCallRequest( 10 ), ByteBuffer.allocate( 100 ) );
+    }
+
+    @Test
+    public void compressedRenderTest() throws Exception
+    {
+        MultiCallRequest request = getMultiCallRequest( 2000 );
+        RWXMapper mapper = new RWXMapper();
+        byte[] expected = mapper.render( request ).getBytes( StandardCharsets.UTF_8 );
+
+        for ( ContentEncoding encoding : ContentEncoding.values() )
+        {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            mapper.setCompressionLevel( 1 );
+            mapper.render( request, out, encoding );
+            byte[] encoded = out.toByteArray();
+            if ( encoding != ContentEncoding.IDENTITY )
+            {
+                assertTrue( encoded.length * 10 < expected.length );
+            }
+
+            ByteArrayOutputStream decoded = new ByteArrayOutputStream();
+            IOUtils.copy( CompressionUtils.decode( new ByteArrayInputStream( encoded ), encoding ), decoded );
+            assertTrue( Arrays.equals( expected, decoded.toByteArray() ) );
+
+            // detected from the payload, or given explicitly
+            MultiCallRequest parsed = mapper.parse( new ByteArrayInputStream( encoded ), MultiCallRequest.class );
+            assertEquals( 2000, parsed.getMultiCallObjs().size() );
+            parsed = mapper.parse( new ByteArrayInputStream( encoded ), encoding, MultiCallRequest.class );
+            assertEquals( "getBuild", parsed.getMultiCallObjs().get( 1999 ).getMethodName() );
+        }
+    }
+
+    @Test
+    public void binaryRenderTest() throws Exception
+    {
+        MultiCallRequest request = getMultiCallRequest( 2000 );
+        RWXMapper mapper = new RWXMapper();
+        byte[] binary = mapper.renderBinary( request );
+        assertTrue( binary.length * 2 < mapper.render( request ).getBytes( StandardCharsets.UTF_8 ).length );
+
+        MultiCallRequest parsed = mapper.parseBinary( new ByteArrayInputStream( binary ), MultiCallRequest.class );
+        assertEquals( 2000, parsed.getMultiCallObjs().size() );
+        parsed = mapper.parse( new ByteArrayInputStream( binary ), PayloadFormat.BINARY, MultiCallRequest.class );
+        assertEquals( "getBuild", parsed.getMultiCallObjs().get( 1999 ).getMethodName() );
+        assertEquals( "org.dashbuilder-dashbuilder-parent-metadata-0.4.0.Final-1999",
+                      parsed.getMultiCallObjs().get( 1999 ).getParams().get( 0 ) );
+
+        // struct parts with cached fragments are written by their tree
+        mapper.setFragmentCacheSize( 10 );
+        CachedNVRRequest nvrRequest = new CachedNVRRequest( new CachedNVR( "foo", "1.0", "1" ) );
+        mapper.render( nvrRequest );
+        for ( int i = 0; i < 2; i++ )
+        {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            mapper.render( nvrRequest, out, PayloadFormat.forContentType( "application/x-rwx-binary" ) );
+            CachedNVRRequest nvrParsed =
+                            mapper.parseBinary( new ByteArrayInputStream( out.toByteArray() ),
+                                                CachedNVRRequest.class );
+            assertEquals( "1.0", nvrParsed.getNvr().getVersion() );
+        }
+    }
+
+    @Test
+    public void parallelRenderTest() throws Exception
+    {
+        MultiCallRequest request = getMultiCallRequest( 20000 );
+        RWXMapper mapper = new RWXMapper();
+        String expected = mapper.render( request );
+
+        ForkJoinPool pool = new ForkJoinPool( 4 );
+        try
+        {
+            mapper.setRenderPool( pool, 1000, 256 );
+            assertEquals( expected, mapper.render( request ) );
+
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            mapper.render( request, out );
+            assertEquals( expected, new String( out.toByteArray(), StandardCharsets.UTF_8 ) );
+        }
+        finally
+        {
+            pool.shutdown();
+        }
+    }
+
+    @Test
+    public void renderNonAsciiToStreamTest() throws Exception
+    {
+        MultiCallRequest request = new MultiCallRequest();
+        MultiCallObj obj = new MultiCallObj( "getBuild" );
+        obj.setParams( Collections.singletonList( "café-中文-1.0-1 & <x>" ) );
+        request.setMultiCallObjs( Collections.singletonList( obj ) );
+
+        RWXMapper mapper = new RWXMapper();
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        mapper.render( request, out );
+
+        MultiCallRequest parsed = mapper.parse( new ByteArrayInputStream( out.toByteArray() ), MultiCallRequest.class );
+        assertEquals( "café-中文-1.0-1 & <x>", parsed.getMultiCallObjs().get( 0 ).getParams().get( 0 ) );
+    }
+
+    private MultiCallRequest getMultiCallRequest( int size )
+    {
+        MultiCallRequest request = new MultiCallRequest();
+        List<MultiCallObj> objs = new ArrayList<>( size );
+        for ( int i = 0; i < size; i++ )
+        {
+            MultiCallObj obj = new MultiCallObj( "getBuild" );
+            obj.setParams( Collections.singletonList( "org.dashbuilder-dashbuilder-parent-metadata-0.4.0.Final-" + i ) );
+            objs.add( obj );
+        }
+        request.setMultiCallObjs( objs );
+        return request;
+    }
+}
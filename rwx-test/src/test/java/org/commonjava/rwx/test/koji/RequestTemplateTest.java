@@ -0,0 +1,80 @@
+/**
+ * Copyright (C) 2010 Red Hat, Inc. (http://github.com/Commonjava/commonjava)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.commonjava.rwx.test.koji;
+
+import org.commonjava.rwx.api.RWXMapper;
+import org.commonjava.rwx.core.Registry;
+import org.commonjava.rwx.test.AbstractTest;
+import org.commonjava.rwx.test.simple.I8Request;
+import org.commonjava.rwx.test.simple.RequestWithOneArrayParam;
+import org.commonjava.rwx.test.simple.SimpleRequest;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Collections;
+
+import static junit.framework.TestCase.assertEquals;
+import static org.commonjava.rwx.util.RenderUtils.toXMLString;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+public class RequestTemplateTest
+                extends AbstractTest
+{
+    @Test
+    public void templateMatchesTreeRenderingTest() throws Exception
+    {
+        MultiCallObj obj = new MultiCallObj( "getBuild" );
+        obj.setParams( Collections.singletonList( "café & <x>" ) );
+        MultiCallRequest multiCall = new MultiCallRequest();
+        multiCall.setMultiCallObjs( Arrays.asList( obj, obj ) );
+
+        RequestWithOneArrayParam arrayParam = new RequestWithOneArrayParam();
+        arrayParam.setArray( Arrays.asList( "a", "b" ) );
+
+        I8Request i8 = new I8Request();
+        i8.setLongValue( Long.MIN_VALUE );
+
+        Object[] requests = { new GetBuildRequest( "org.dashbuilder-dashbuilder-parent-metadata-0.4.0.Final-1" ),
+                        new ListTagsRequest( null ), new KrbLoginRequest( "YII=" ),
+                        new GetBuildByNVRObjRequest( new KojiNVR( "foo", "1.0", "1" ) ), new GetBuildByNVRObjRequest(),
+                        multiCall, new MultiCallRequest(), arrayParam, new RequestWithOneArrayParam(), i8,
+                        new SimpleRequest() };
+
+        RWXMapper mapper = new RWXMapper();
+        for ( Object request : requests )
+        {
+            assertNotNull( request.getClass().getName(),
+                           Registry.getInstance().getTemplateRenderer( request.getClass() ) );
+
+            String expected = toXMLString( Registry.getInstance().renderTo( request ) );
+            assertEquals( expected, mapper.render( request ) );
+
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            mapper.render( request, out );
+            assertEquals( expected, new String( out.toByteArray(), StandardCharsets.UTF_8 ) );
+        }
+    }
+
+    @Test
+    public void noTemplateForResponseTest()
+    {
+        assertNull( Registry.getInstance().getTemplateRenderer( GetBuildResponse.class ) );
+        assertNull( Registry.getInstance().getTemplateRenderer( KojiNVR.class ) );
+    }
+}
@@ -0,0 +1,57 @@
+/**
+ * Copyright (C) 2010 Red Hat, Inc. (http://github.com/Commonjava/commonjava)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.commonjava.rwx.test.simple;
+
+import org.commonjava.rwx.api.RWXMapper;
+import org.commonjava.rwx.test.AbstractTest;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+
+import static junit.framework.TestCase.assertEquals;
+
+public class DateTimeMapperTest
+                extends AbstractTest
+{
+    @Test
+    public void parseToJavaTimeTest() throws Exception
+    {
+        DateTimeResponse parsed = new RWXMapper().parse( getXMLStream( "dateTimeResponse" ), DateTimeResponse.class );
+
+        LocalDateTime expected = LocalDateTime.of( 2017, 9, 17, 10, 15, 30 );
+        assertEquals( expected.atZone( ZoneId.systemDefault() ).toInstant().toEpochMilli(),
+                      parsed.getDate().getTime() );
+        assertEquals( expected.atZone( ZoneId.systemDefault() ).toInstant(), parsed.getInstant() );
+        assertEquals( expected, parsed.getLocalDateTime() );
+        assertEquals( expected, parsed.getOffsetDateTime().toLocalDateTime() );
+    }
+
+    @Test
+    public void roundTripTest() throws Exception
+    {
+        DateTimeResponse parsed = new RWXMapper().parse( getXMLStream( "dateTimeResponse" ), DateTimeResponse.class );
+        String rendered = new RWXMapper().render( parsed );
+
+        DateTimeResponse rounded =
+                        new RWXMapper().parse( new ByteArrayInputStream( rendered.getBytes() ), DateTimeResponse.class );
+        assertEquals( parsed.getDate(), rounded.getDate() );
+        assertEquals( parsed.getInstant(), rounded.getInstant() );
+        assertEquals( parsed.getLocalDateTime(), rounded.getLocalDateTime() );
+        assertEquals( parsed.getOffsetDateTime(), rounded.getOffsetDateTime() );
+    }
+}
@@ -0,0 +1,182 @@
+/**
+ * Copyright (C) 2010 Red Hat, Inc. (http://github.com/Commonjava/commonjava)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.commonjava.rwx.test.simple;
+
+import org.commonjava.rwx.api.MultiCall;
+import org.commonjava.rwx.api.RWXMapper;
+import org.commonjava.rwx.core.Registry;
+import org.commonjava.rwx.core.RenderedXmlCache;
+import org.commonjava.rwx.model.MethodCall;
+import org.commonjava.rwx.test.AbstractTest;
+import org.commonjava.rwx.util.XmlRpcWriter;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static junit.framework.TestCase.assertEquals;
+import static junit.framework.TestCase.assertNull;
+import static junit.framework.TestCase.assertTrue;
+import static org.commonjava.rwx.util.RenderUtils.toXMLString;
+
+public class FragmentCacheTest
+                extends AbstractTest
+{
+    @Test
+    public void valueFragmentTest() throws Exception
+    {
+        RWXMapper mapper = new RWXMapper();
+        mapper.setFragmentCacheSize( RWXMapper.DEFAULT_RENDER_CACHE_SIZE );
+        RenderedXmlCache<XmlRpcWriter.Fragment> fragments = mapper.getFragmentCache();
+
+        String first = mapper.render( new CachedNVRRequest( new CachedNVR( "frag", "1.0", "1" ) ) );
+        String second = mapper.render( new CachedNVRRequest( new CachedNVR( "frag", "1.0", "1" ) ) );
+        assertEquals( first, second );
+        assertEquals( 1, fragments.getHitCount() );
+        assertEquals( 1, fragments.getMissCount() );
+
+        Map<String, Object> struct = new HashMap<>();
+        struct.put( "name", "frag" );
+        struct.put( "version", "1.0" );
+        struct.put( "release", "1" );
+        assertEquals( "<?xml version=\"1.0\" ?><methodCall><methodName>getBuild</methodName><params><param><value>"
+                                      + toXMLString( struct ) + "</value></param></params></methodCall>", first );
+
+        CachedNVRRequest parsed = mapper.parse( new ByteArrayInputStream( first.getBytes() ), CachedNVRRequest.class );
+        assertEquals( "frag", parsed.getNvr().getName() );
+
+        // another mapper has its own fragments
+        RWXMapper other = new RWXMapper();
+        other.setFragmentCacheSize( 10 );
+        assertEquals( first, other.render( new CachedNVRRequest( new CachedNVR( "frag", "1.0", "1" ) ) ) );
+        assertEquals( 0, other.getFragmentCache().getHitCount() );
+    }
+
+    @Test
+    public void renderReturnsTreeTest() throws Exception
+    {
+        CachedNVR nvr = new CachedNVR( "tree", "1.0", "1" );
+        RWXMapper mapper = new RWXMapper();
+        mapper.setFragmentCacheSize( 10 );
+        mapper.render( new CachedNVRRequest( nvr ) );
+
+        Object tree = Registry.getInstance().renderTo( nvr );
+        assertTrue( tree instanceof Map );
+        assertEquals( "tree", ( (Map<?, ?>) tree ).get( "name" ) );
+
+        MethodCall call = (MethodCall) Registry.getInstance().renderTo( new CachedNVRRequest( nvr ) );
+        assertTrue( call.getParams().get( 0 ) instanceof Map );
+    }
+
+    @Test
+    public void multiCallFragmentTest() throws Exception
+    {
+        RWXMapper mapper = new RWXMapper();
+        mapper.setFragmentCacheSize( 10 );
+        RenderedXmlCache<XmlRpcWriter.Fragment> fragments = mapper.getFragmentCache();
+
+        MultiCall multiCall = new MultiCall();
+        for ( int i = 0; i < 3; i++ )
+        {
+            multiCall.add( new CachedNVRRequest( new CachedNVR( "multi", "1.0", "1" ) ), Map.class );
+        }
+        multiCall.add( new CachedNVRRequest( new CachedNVR( "other", "1.0", "1" ) ), Map.class );
+
+        // the parts nested in the multicall tree are written from the fragment store
+        String rendered = mapper.render( multiCall.toRequest() );
+        assertEquals( 2, fragments.getHitCount() );
+        assertEquals( 2, fragments.getMissCount() );
+        assertEquals( toXMLString( multiCall.toRequest() ), rendered );
+
+        assertEquals( rendered, mapper.render( multiCall.toRequest() ) );
+        assertEquals( 6, fragments.getHitCount() );
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        multiCall.render( out, mapper );
+        assertEquals( rendered, out.toString( "UTF-8" ) );
+        assertEquals( 10, fragments.getHitCount() );
+    }
+
+    @Test
+    public void disabledByDefaultTest() throws Exception
+    {
+        RWXMapper mapper = new RWXMapper();
+        assertNull( mapper.getFragmentCache() );
+        CachedNVRRequest request = new CachedNVRRequest( new CachedNVR( "plain", "1.0", "1" ) );
+        assertEquals( toXMLString( Registry.getInstance().renderTo( request ) ), mapper.render( request ) );
+    }
+
+    @Test
+    public void identityFragmentTest() throws Exception
+    {
+        RWXMapper mapper = new RWXMapper();
+        mapper.setFragmentCacheSize( 10 );
+        RenderedXmlCache<XmlRpcWriter.Fragment> fragments = mapper.getFragmentCache();
+
+        CachedTag tag = new CachedTag( "f27-candidate", 42 );
+        List<CachedTag> tags = new ArrayList<>( Collections.nCopies( 100, tag ) );
+        tags.add( new CachedTag( "f27-candidate", 42 ) );
+        CachedTagsRequest request = new CachedTagsRequest();
+        request.setTags( tags );
+
+        String rendered = mapper.render( request );
+        assertEquals( 99, fragments.getHitCount() );
+        assertEquals( 2, fragments.getMissCount() );
+        assertEquals( toXMLString( Registry.getInstance().renderTo( request ) ), rendered );
+
+        CachedTagsRequest parsed =
+                        new RWXMapper().parse( new ByteArrayInputStream( rendered.getBytes() ), CachedTagsRequest.class );
+        assertEquals( 101, parsed.getTags().size() );
+        assertEquals( 42, parsed.getTags().get( 100 ).getId() );
+        assertTrue( rendered.startsWith( "<?xml version=\"1.0\" ?><methodCall><methodName>tagBuilds</methodName>"
+                                                         + "<params><param><value><array><data><value><struct>" ) );
+    }
+
+    @Test
+    public void canonicalRenderTest() throws Exception
+    {
+        RWXMapper mapper = new RWXMapper();
+        mapper.setFragmentCacheSize( 10 );
+        mapper.render( new CachedNVRRequest( new CachedNVR( "canon", "1.0", "1" ) ) ); // cache the fragment
+        mapper.setCanonicalRendering( true );
+
+        String rendered = mapper.render( new CachedNVRRequest( new CachedNVR( "canon", "1.0", "1" ) ) );
+        assertEquals( "<?xml version=\"1.0\" ?><methodCall><methodName>getBuild</methodName><params><param><value>"
+                                      + "<struct><member><name>name</name><value><string>canon</string></value>"
+                                      + "</member><member><name>release</name><value><string>1</string></value>"
+                                      + "</member><member><name>version</name><value><string>1.0</string></value>"
+                                      + "</member></struct></value></param></params></methodCall>", rendered );
+        assertEquals( 0, mapper.getFragmentCache().getHitCount() );
+    }
+
+    @Test
+    public void fragmentKeysTest()
+    {
+        XmlRpcWriter.Fragment a = XmlRpcWriter.Fragment.of( "<struct></struct>" );
+        XmlRpcWriter.Fragment b = XmlRpcWriter.Fragment.of( "<struct></struct>" );
+        assertEquals( a, b );
+        assertEquals( a.hashCode(), b.hashCode() );
+        assertTrue( !RenderedXmlCache.identityKey( a ).equals( RenderedXmlCache.identityKey( b ) ) );
+        assertEquals( RenderedXmlCache.identityKey( a ), RenderedXmlCache.identityKey( a ) );
+        assertEquals( Arrays.asList( a ), Arrays.asList( b ) );
+    }
+}
@@ -0,0 +1,158 @@
+/**
+ * Copyright (C) 2010 Red Hat, Inc. (http://github.com/Commonjava/commonjava)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.commonjava.rwx.test.simple;
+
+import org.commonjava.rwx.api.RWXMapper;
+import org.commonjava.rwx.core.Registry;
+import org.commonjava.rwx.core.RenderedXmlCache;
+import org.commonjava.rwx.test.AbstractTest;
+import org.commonjava.rwx.test.koji.KojiNVR;
+import org.commonjava.rwx.test.koji.ListTagsRequest;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.StringWriter;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.List;
+
+import static junit.framework.TestCase.assertEquals;
+import static junit.framework.TestCase.assertTrue;
+import static org.commonjava.rwx.util.RenderUtils.toXMLString;
+import static org.junit.Assert.assertNull;
+
+public class RenderCacheTest
+                extends AbstractTest
+{
+    @Test
+    public void hitAndMissTest() throws Exception
+    {
+        RWXMapper mapper = new RWXMapper();
+        mapper.setRenderCacheSize( RWXMapper.DEFAULT_RENDER_CACHE_SIZE );
+        RenderedXmlCache<byte[]> cache = mapper.getRenderCache();
+
+        CachedBuildRequest request = new CachedBuildRequest( "org.dashbuilder-dashbuilder-parent-metadata-0.4.0.Final-1" );
+        String expected = toXMLString( Registry.getInstance().renderTo( request ) );
+
+        assertEquals( expected, mapper.render( request ) );
+        assertEquals( 0, cache.getHitCount() );
+        assertEquals( 1, cache.getMissCount() );
+
+        // an equal object, CachedBuildRequest has no equals method
+        CachedBuildRequest same = new CachedBuildRequest( request.getNvr() );
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        mapper.render( same, out );
+        assertEquals( expected, new String( out.toByteArray(), StandardCharsets.UTF_8 ) );
+
+        StringWriter writer = new StringWriter();
+        mapper.render( same, writer );
+        assertEquals( expected, writer.toString() );
+        assertEquals( 2, cache.getHitCount() );
+
+        mapper.render( new CachedBuildRequest( "other-1.0-1" ) );
+        assertEquals( 2, cache.getMissCount() );
+        assertEquals( 2, cache.size() );
+
+        // classes without @RenderCache are not cached
+        mapper.render( new ListTagsRequest( "foo-1.0-1" ) );
+        assertEquals( 2, cache.size() );
+    }
+
+    @Test
+    public void nestedKeyTest() throws Exception
+    {
+        RWXMapper mapper = new RWXMapper();
+        mapper.setRenderCacheSize( RWXMapper.DEFAULT_RENDER_CACHE_SIZE );
+        RenderedXmlCache<byte[]> cache = mapper.getRenderCache();
+
+        String first = mapper.render( new CachedBuildByNVRRequest( new KojiNVR( "foo", "1.0", "1" ) ) );
+        String second = mapper.render( new CachedBuildByNVRRequest( new KojiNVR( "foo", "1.0", "1" ) ) );
+        assertEquals( first, second );
+        assertEquals( 1, cache.getHitCount() );
+
+        String third = mapper.render( new CachedBuildByNVRRequest( new KojiNVR( "foo", "1.0", "2" ) ) );
+        assertEquals( 2, cache.getMissCount() );
+        assertEquals( toXMLString(
+                        Registry.getInstance().renderTo( new CachedBuildByNVRRequest( new KojiNVR( "foo", "1.0", "2" ) ) ) ),
+                      third );
+
+        mapper.render( new CachedBuildByNVRRequest() );
+        assertEquals( 3, cache.getMissCount() );
+    }
+
+    @Test
+    public void disabledByDefaultTest() throws Exception
+    {
+        RWXMapper mapper = new RWXMapper();
+        assertNull( mapper.getRenderCache() );
+        assertEquals( toXMLString( Registry.getInstance().renderTo( new CachedBuildRequest( "a" ) ) ),
+                      mapper.render( new CachedBuildRequest( "a" ) ) );
+    }
+
+    @Test
+    public void mutatedAfterRenderTest() throws Exception
+    {
+        RWXMapper mapper = new RWXMapper();
+        mapper.setRenderCacheSize( RWXMapper.DEFAULT_RENDER_CACHE_SIZE );
+
+        List<String> tags = new ArrayList<>( Arrays.asList( "a", "b" ) );
+        Date createdAfter = new Date( 1505643330000L );
+        CachedQueryRequest request = new CachedQueryRequest();
+        request.setTags( tags );
+        request.setCreatedAfter( createdAfter );
+        String first = mapper.render( request );
+
+        // the key holds a snapshot, so changing the values in place gives a new entry instead of the old bytes
+        tags.add( "c" );
+        createdAfter.setTime( 0 );
+        String second = mapper.render( request );
+        assertEquals( toXMLString( Registry.getInstance().renderTo( request ) ), second );
+        assertTrue( second.contains( "<string>c</string>" ) );
+        assertEquals( 2, mapper.getRenderCache().getMissCount() );
+
+        CachedQueryRequest original = new CachedQueryRequest();
+        original.setTags( Arrays.asList( "a", "b" ) );
+        original.setCreatedAfter( new Date( 1505643330000L ) );
+        assertEquals( first, mapper.render( original ) );
+        assertEquals( 1, mapper.getRenderCache().getHitCount() );
+    }
+
+    @Test
+    public void evictionTest() throws Exception
+    {
+        RWXMapper mapper = new RWXMapper();
+        mapper.setRenderCacheSize( 2 );
+        RenderedXmlCache<byte[]> cache = mapper.getRenderCache();
+
+        mapper.render( new CachedBuildRequest( "a" ) );
+        mapper.render( new CachedBuildRequest( "b" ) );
+        mapper.render( new CachedBuildRequest( "a" ) ); // b is now the least recently used
+        mapper.render( new CachedBuildRequest( "c" ) );
+        assertEquals( 1, cache.getEvictionCount() );
+
+        mapper.render( new CachedBuildRequest( "a" ) );
+        assertEquals( 2, cache.getHitCount() );
+        mapper.render( new CachedBuildRequest( "b" ) );
+        assertEquals( 4, cache.getMissCount() );
+
+        mapper.setRenderCacheSize( 0 );
+        assertNull( mapper.getRenderCache() );
+        assertEquals( toXMLString( Registry.getInstance().renderTo( new CachedBuildRequest( "a" ) ) ),
+                      mapper.render( new CachedBuildRequest( "a" ) ) );
+    }
+}
@@ -0,0 +1,124 @@
+/**
+ * Copyright (C) 2010 Red Hat, Inc. (http://github.com/Commonjava/commonjava)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.commonjava.rwx.test.simple;
+
+import org.commonjava.rwx.api.RWXMapper;
+import org.commonjava.rwx.test.AbstractTest;
+import org.commonjava.rwx.test.koji.KojiNVR;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
+
+import static junit.framework.TestCase.assertEquals;
+import static junit.framework.TestCase.assertTrue;
+
+public class StreamingRenderTest
+                extends AbstractTest
+{
+    @Test
+    public void renderSourcesTest() throws Exception
+    {
+        StreamingStruct struct = new StreamingStruct();
+        struct.setNvrs( Collections.singletonList( new KojiNVR( "bar", "2.0", "3" ) ) );
+        struct.setTags( Arrays.asList( "a", "b" ).iterator() );
+
+        StreamingResponse response = new StreamingResponse();
+        response.setBuilds( Arrays.asList( new KojiNVR( "foo", "1.0", "1" ), new KojiNVR( "foo", "1.1", "1" ) )
+                                  .iterator() );
+        response.setNames( Stream.of( "x", "y", "z" ) );
+        response.setIds( Arrays.asList( 1, 2 ) );
+        response.setStruct( struct );
+
+        RWXMapper mapper = new RWXMapper();
+        String rendered = mapper.render( response );
+        StreamingResponse parsed =
+                        mapper.parse( new ByteArrayInputStream( rendered.getBytes() ), StreamingResponse.class );
+
+        List<KojiNVR> builds = new ArrayList<>();
+        parsed.getBuilds().forEachRemaining( builds::add );
+        assertEquals( 2, builds.size() );
+        assertEquals( "1.1", builds.get( 1 ).getVersion() );
+        assertEquals( Arrays.asList( "x", "y", "z" ), parsed.getNames().collect( Collectors.toList() ) );
+        assertEquals( Arrays.asList( 1, 2 ), parsed.getIds() );
+        assertEquals( "bar", parsed.getStruct().getNvrs().iterator().next().getName() );
+        List<String> tags = new ArrayList<>();
+        parsed.getStruct().getTags().forEachRemaining( tags::add );
+        assertEquals( Arrays.asList( "a", "b" ), tags );
+    }
+
+    @Test
+    public void renderWhileConsumingTest() throws Exception
+    {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        int total = 100000;
+        int[] writtenAtHalf = new int[1];
+        Iterator<KojiNVR> builds = new Iterator<KojiNVR>()
+        {
+            int i = 0;
+
+            @Override
+            public boolean hasNext()
+            {
+                return i < total;
+            }
+
+            @Override
+            public KojiNVR next()
+            {
+                if ( i == total / 2 )
+                {
+                    writtenAtHalf[0] = out.size();
+                }
+                return new KojiNVR( "foo", "1." + i++, "1" );
+            }
+        };
+
+        StreamingRequest request = new StreamingRequest();
+        request.setBuilds( Stream.generate( builds::next ).limit( total ) );
+
+        RWXMapper mapper = new RWXMapper();
+        mapper.render( request, out );
+
+        // the first half was already written out while the second half had not been produced yet
+        assertTrue( writtenAtHalf[0] > 0 );
+        assertTrue( writtenAtHalf[0] < out.size() );
+
+        StreamingRequest parsed = mapper.parse( new ByteArrayInputStream( out.toByteArray() ), StreamingRequest.class );
+        assertEquals( total, parsed.getBuilds().count() );
+    }
+
+    @Test
+    public void nullAndStreamSourceTest() throws Exception
+    {
+        RWXMapper mapper = new RWXMapper();
+        String rendered = mapper.render( new StreamingRequest() );
+        assertEquals( "<?xml version=\"1.0\" ?><methodCall><methodName>importBuilds</methodName><params><param>"
+                                      + "<value><nil></nil></value></param></params></methodCall>", rendered );
+
+        StreamingRequest request = new StreamingRequest();
+        request.setBuilds( IntStream.range( 0, 3 ).mapToObj( i -> new KojiNVR( "n", "v" + i, "r" ) ) );
+        assertTrue( mapper.render( request ).contains( "<array><data><value><struct>" ) );
+    }
+}
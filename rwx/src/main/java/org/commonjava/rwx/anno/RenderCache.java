@@ -0,0 +1,44 @@
+/**
+ * Copyright (C) 2010 Red Hat, Inc. (http://github.com/Commonjava/commonjava)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.commonjava.rwx.anno;
+
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * Cache the rendered XML of a @Request or @Response class in RWXMapper, once the mapper's render cache is enabled
+ * (see RWXMapper.setRenderCacheSize). Objects with equal @DataIndex/@DataKey values share the cached bytes, so the
+ * class needs no equals method. The key is a snapshot of the values, so an object may change after it has been
+ * rendered. Iterator, Stream and Iterable fields are not supported.
+ *
+ * On a @StructPart class, the rendered &lt;struct&gt; fragment is kept in the mapper's fragment cache (see
+ * RWXMapper.setFragmentCacheSize) and spliced into every document the mapper writes which contains an equal (or,
+ * with identity, the same) object, whether through a template renderer, e.g., a @Request, or through a tree, e.g.,
+ * a multicall or a @Response. Its render method still returns the tree, as an XmlRpcWriter.CachedStruct which
+ * carries the key.
+ */
+@Target( ElementType.TYPE )
+@Retention( RetentionPolicy.RUNTIME )
+public @interface RenderCache
+{
+    /**
+     * Match cached @StructPart fragments by object identity, which skips building the key from the values. Such
+     * objects must not change after they have been rendered.
+     */
+    boolean identity() default false;
+}
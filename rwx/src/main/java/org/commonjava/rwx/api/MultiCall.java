@@ -0,0 +1,370 @@
+/**
+ * Copyright (C) 2010 Red Hat, Inc. (http://github.com/Commonjava/commonjava)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.commonjava.rwx.api;
+
+import org.commonjava.rwx.anno.ArrayPart;
+import org.commonjava.rwx.anno.Response;
+import org.commonjava.rwx.anno.StructPart;
+import org.commonjava.rwx.core.Registry;
+import org.commonjava.rwx.core.XmlRpcParser;
+import org.commonjava.rwx.error.XmlRpcException;
+import org.commonjava.rwx.error.XmlRpcFaultException;
+import org.commonjava.rwx.model.Fault;
+import org.commonjava.rwx.model.MethodCall;
+import org.commonjava.rwx.model.MethodResponse;
+import org.commonjava.rwx.model.RpcObject;
+import org.commonjava.rwx.util.CompressionUtils;
+import org.commonjava.rwx.util.CompressionUtils.DecodingInputStream;
+import org.commonjava.rwx.util.RenderUtils;
+
+import javax.xml.stream.XMLStreamException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A multicall with typed slots. Each slot is added with its @Request object and the type its result is bound to: a
+ * @Response class, which is given the result as its single param, a @StructPart or @ArrayPart class, which is
+ * bound to the result itself, or a plain type such as Map or String. For example:
+ *
+ * <pre>
+ * MultiCall multiCall = new MultiCall( "multiCall" );
+ * MultiCall.Slot&lt;KojiBuildInfo&gt; build = multiCall.add( new GetBuildRequest( nvr ), KojiBuildInfo.class );
+ * MultiCall.Slot&lt;List&gt; tags = multiCall.add( new ListTagsRequest( nvr ), List.class );
+ * multiCall.render( out );
+ * multiCall.parse( in );
+ * KojiBuildInfo info = build.get(); // throws XmlRpcFaultException if its call failed
+ * </pre>
+ *
+ * {@link #parse(InputStream)} binds each slot as soon as its entry is parsed and notifies the slot's listener, so
+ * results can be used before the rest of the response is read. A fault fails its own slot only.
+ */
+public final class MultiCall
+{
+    public static final String SYSTEM_MULTICALL = "system.multicall";
+
+    /**
+     * Notified when its slot is bound to a result or fails.
+     */
+    @FunctionalInterface
+    public interface SlotListener<T>
+    {
+        void done( Slot<T> slot );
+    }
+
+    private final String methodName;
+
+    private final List<Slot<?>> slots = new ArrayList<>();
+
+    public MultiCall()
+    {
+        this( SYSTEM_MULTICALL );
+    }
+
+    /**
+     * @param methodName the multicall method of the server, e.g., multiCall for Koji
+     */
+    public MultiCall( String methodName )
+    {
+        this.methodName = methodName;
+    }
+
+    public String getMethodName()
+    {
+        return methodName;
+    }
+
+    public <T> Slot<T> add( Object request, Class<T> type ) throws XmlRpcException
+    {
+        return add( request, type, null );
+    }
+
+    /**
+     * Add a call.
+     *
+     * @param request a MethodCall or an object with a @Request renderer
+     * @param type the type the call's result is bound to
+     * @param listener notified when the slot is done, or null
+     */
+    public <T> Slot<T> add( Object request, Class<T> type, SlotListener<T> listener ) throws XmlRpcException
+    {
+        Object call = request instanceof MethodCall ? request : Registry.getInstance().renderTo( request );
+        if ( !( call instanceof MethodCall ) )
+        {
+            throw new XmlRpcException( "Not a request: {}", request.getClass().getName() );
+        }
+        Slot<T> slot = new Slot<>( slots.size(), (MethodCall) call, type, listener );
+        slots.add( slot );
+        return slot;
+    }
+
+    public List<Slot<?>> getSlots()
+    {
+        return Collections.unmodifiableList( slots );
+    }
+
+    public int size()
+    {
+        return slots.size();
+    }
+
+    /**
+     * @return the multicall, whose param is the array of the slots' methodName/params structs
+     */
+    public MethodCall toRequest()
+    {
+        List<Object> calls = new ArrayList<>( slots.size() );
+        for ( Slot<?> slot : slots )
+        {
+            Map<String, Object> call = new LinkedHashMap<>();
+            call.put( "methodName", slot.call.getMethodName() );
+            call.put( "params", slot.call.getParams() == null ? Collections.emptyList() : slot.call.getParams() );
+            calls.add( call );
+        }
+        MethodCall multicall = new MethodCall();
+        multicall.setMethodName( methodName );
+        multicall.setParams( Collections.singletonList( calls ) );
+        return multicall;
+    }
+
+    public void render( OutputStream out ) throws XmlRpcException
+    {
+        RenderUtils.writeXML( toRequest(), out );
+    }
+
+    /**
+     * Render the multicall with the mapper's settings, e.g., its canonical mode and fragment store.
+     */
+    public void render( OutputStream out, RWXMapper mapper ) throws XmlRpcException
+    {
+        mapper.render( toRequest(), out );
+    }
+
+    /**
+     * Parse the multicall response, binding each slot as its entry is parsed. A gzip or deflate compressed response is
+     * detected from its first bytes and decoded while it is parsed, as in {@link RWXMapper#parse(InputStream, Class)}.
+     * The stream is read up to the end of the results array and not closed.
+     *
+     * @throws XmlRpcFaultException if the multicall itself failed
+     * @throws XmlRpcException if the response cannot be parsed or the number of entries does not match the slots
+     */
+    public void parse( InputStream in ) throws XmlRpcException
+    {
+        Fault fault = new Fault();
+        int count;
+        DecodingInputStream decoded = null;
+        try
+        {
+            decoded = CompressionUtils.decodeDetected( in );
+            count = new XmlRpcParser( decoded ).parseArrayResponse( this::complete, fault );
+        }
+        catch ( IOException | XMLStreamException e )
+        {
+            throw new XmlRpcException( "Parse multicall response failed", e );
+        }
+        finally
+        {
+            if ( decoded != null )
+            {
+                decoded.release();
+            }
+        }
+        if ( count < 0 )
+        {
+            throw new XmlRpcFaultException( fault );
+        }
+        checkCount( count );
+    }
+
+    /**
+     * Bind the slots to a parsed multicall response.
+     */
+    public void bind( RpcObject response ) throws XmlRpcException
+    {
+        if ( response instanceof Fault )
+        {
+            throw new XmlRpcFaultException( (Fault) response );
+        }
+        List<Object> params = response.getParams();
+        if ( params == null || params.isEmpty() || !( params.get( 0 ) instanceof List ) )
+        {
+            throw new XmlRpcException( "Invalid multicall response: {}", params );
+        }
+        List<?> entries = (List<?>) params.get( 0 );
+        for ( int i = 0; i < entries.size(); i++ )
+        {
+            complete( i, entries.get( i ) );
+        }
+        checkCount( entries.size() );
+    }
+
+    private void complete( int index, Object entry ) throws XmlRpcException
+    {
+        if ( index >= slots.size() )
+        {
+            throw new XmlRpcException( "Expected {} results from {}, got more", slots.size(), methodName );
+        }
+        slots.get( index ).complete( entry );
+    }
+
+    private void checkCount( int count ) throws XmlRpcException
+    {
+        if ( count != slots.size() )
+        {
+            throw new XmlRpcException( "Expected {} results from {}, got: {}", slots.size(), methodName, count );
+        }
+    }
+
+    /**
+     * A call of the multicall and, once the response is parsed, its result or failure.
+     */
+    public static final class Slot<T>
+    {
+        private final int index;
+
+        private final MethodCall call;
+
+        private final Class<T> type;
+
+        private final SlotListener<T> listener;
+
+        private volatile boolean done;
+
+        private T value;
+
+        private XmlRpcException failure;
+
+        private Slot( int index, MethodCall call, Class<T> type, SlotListener<T> listener )
+        {
+            this.index = index;
+            this.call = call;
+            this.type = type;
+            this.listener = listener;
+        }
+
+        public int getIndex()
+        {
+            return index;
+        }
+
+        public MethodCall getCall()
+        {
+            return call;
+        }
+
+        public Class<T> getType()
+        {
+            return type;
+        }
+
+        public boolean isDone()
+        {
+            return done;
+        }
+
+        public boolean isFault()
+        {
+            return done && failure instanceof XmlRpcFaultException;
+        }
+
+        /**
+         * @return the fault of the call, or null if it succeeded or is not done
+         */
+        public Fault getFault()
+        {
+            return isFault() ? ( (XmlRpcFaultException) failure ).getFault() : null;
+        }
+
+        /**
+         * @return the result of the call
+         * @throws XmlRpcFaultException if the call failed
+         * @throws XmlRpcException if the result cannot be bound to the type, or the slot is not done
+         */
+        public T get() throws XmlRpcException
+        {
+            if ( !done )
+            {
+                throw new XmlRpcException( "No result yet for slot {} ({})", index, call.getMethodName() );
+            }
+            if ( failure != null )
+            {
+                throw failure;
+            }
+            return value;
+        }
+
+        private void complete( Object entry )
+        {
+            if ( entry instanceof Map && ( (Map<?, ?>) entry ).containsKey( "faultCode" ) )
+            {
+                Fault fault = new Fault();
+                fault.setValue( entry );
+                failure = new XmlRpcFaultException( fault );
+            }
+            else if ( entry instanceof List && ( (List<?>) entry ).size() == 1 )
+            {
+                try
+                {
+                    value = bind( ( (List<?>) entry ).get( 0 ) );
+                }
+                catch ( XmlRpcException e )
+                {
+                    failure = e;
+                }
+                catch ( RuntimeException e )
+                {
+                    failure = new XmlRpcException( "Cannot bind result of {} to {}", e, call.getMethodName(),
+                                                   type.getName() );
+                }
+            }
+            else
+            {
+                failure = new XmlRpcException( "Invalid multicall entry for {}: {}", call.getMethodName(), entry );
+            }
+            done = true;
+
+            if ( listener != null )
+            {
+                listener.done( this );
+            }
+        }
+
+        private T bind( Object result ) throws XmlRpcException
+        {
+            if ( type.isAnnotationPresent( Response.class ) )
+            {
+                MethodResponse response = new MethodResponse();
+                response.setParams( Collections.singletonList( result ) );
+                return Registry.getInstance().parseAs( response, type );
+            }
+            if ( type.isAnnotationPresent( StructPart.class ) || type.isAnnotationPresent( ArrayPart.class ) )
+            {
+                return Registry.getInstance().parseAs( result, type );
+            }
+            if ( result == null || type.isInstance( result ) )
+            {
+                return type.cast( result );
+            }
+            throw new XmlRpcException( "Cannot bind result of {} to {}: {}", call.getMethodName(), type.getName(),
+                                       result );
+        }
+    }
+}
@@ -17,21 +17,89 @@ package org.commonjava.rwx.api;
 
 import org.commonjava.rwx.error.XmlRpcException;
 import org.commonjava.rwx.error.XmlRpcFaultException;
+import org.commonjava.rwx.core.CacheKeyProvider;
+import org.commonjava.rwx.core.ParseCache;
 import org.commonjava.rwx.core.Registry;
+import org.commonjava.rwx.core.RenderedXmlCache;
+import org.commonjava.rwx.core.ResponseCache;
+import org.commonjava.rwx.core.TemplateRenderer;
 import org.commonjava.rwx.core.XmlRpcParser;
 import org.commonjava.rwx.model.Fault;
 import org.commonjava.rwx.model.RpcObject;
+import org.apache.commons.io.input.CharSequenceReader;
+import org.commonjava.rwx.util.BinaryRpcReader;
+import org.commonjava.rwx.util.BinaryRpcWriter;
+import org.commonjava.rwx.util.ByteBufferInputStream;
+import org.commonjava.rwx.util.ByteBufferOutputStream;
+import org.commonjava.rwx.util.ChannelOutputStream;
+import org.commonjava.rwx.util.CompressionUtils;
+import org.commonjava.rwx.util.CompressionUtils.DecodingInputStream;
+import org.commonjava.rwx.util.CompressionUtils.EncodingOutputStream;
+import org.commonjava.rwx.util.RpcDigest;
+import org.commonjava.rwx.util.XmlRpcWriter;
+import org.commonjava.rwx.vocab.ContentEncoding;
+import org.commonjava.rwx.vocab.PayloadFormat;
 
 import javax.xml.stream.XMLStreamException;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
 import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.SequenceInputStream;
+import java.io.StringWriter;
+import java.io.Writer;
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.zip.Deflater;
 
-import static org.commonjava.rwx.util.RenderUtils.toXMLString;
+import static org.commonjava.rwx.util.RenderUtils.DEFAULT_BUFFER_SIZE;
+import static org.commonjava.rwx.util.RenderUtils.writeXML;
 
 /**
  * Created by ruhan on 7/12/17.
  */
 public final class RWXMapper
 {
+    public static final int DEFAULT_RENDER_CACHE_SIZE = 1024;
+
+    public static final int DEFAULT_PARSE_CACHE_MAX_PAYLOAD = 1024 * 1024;
+
+    private int renderBufferSize = DEFAULT_BUFFER_SIZE;
+
+    private volatile RenderedXmlCache<byte[]> renderCache;
+
+    private volatile RenderedXmlCache<XmlRpcWriter.Fragment> fragmentCache;
+
+    private ForkJoinPool renderPool;
+
+    private XmlRpcWriter.ChunkPool renderChunks;
+
+    private int parallelThreshold = XmlRpcWriter.DEFAULT_PARALLEL_THRESHOLD;
+
+    private int parallelChunkSize = XmlRpcWriter.DEFAULT_CHUNK_SIZE;
+
+    private volatile boolean canonicalRendering;
+
+    private volatile boolean detectContentEncoding = true;
+
+    private volatile int compressionLevel = Deflater.DEFAULT_COMPRESSION;
+
+    private volatile ResponseCache responseCache;
+
+    private volatile ParseCache parseCache;
+
+    private volatile int parseCacheMaxPayload = DEFAULT_PARSE_CACHE_MAX_PAYLOAD;
+
     /**
      * Render an object to XML-RPC request or response string.
      *
@@ -41,12 +109,519 @@ public final class RWXMapper
      */
     public String render( Object obj ) throws XmlRpcException
     {
-        Object rpcObject = Registry.getInstance().renderTo( obj );
-        return toXMLString( rpcObject );
+        StringWriter result = new StringWriter();
+        render( obj, configure( XmlRpcWriter.forWriter( result, DEFAULT_BUFFER_SIZE ) ) );
+        return result.toString();
+    }
+
+    /**
+     * Render an object as UTF-8 XML-RPC request or response to the stream. The output goes through a buffer of
+     * {@link #getRenderBufferSize()} bytes and is written while it is produced. The stream is flushed but not closed.
+     *
+     * @param obj the object to be rendered
+     * @param out the target stream
+     * @throws XmlRpcException if the object cannot be rendered or written
+     */
+    public void render( Object obj, OutputStream out ) throws XmlRpcException
+    {
+        render( obj, configure( XmlRpcWriter.forStream( out, renderBufferSize ) ) );
+    }
+
+    /**
+     * Render an object as UTF-8 XML-RPC request or response to the stream in the given content encoding, compressed
+     * with {@link #getCompressionLevel()} while it is produced. The encoded data is finished and the stream is
+     * flushed but not closed.
+     *
+     * @param obj the object to be rendered
+     * @param out the target stream
+     * @param encoding the content encoding, e.g., to match the Content-Encoding header sent along
+     * @throws XmlRpcException if the object cannot be rendered or written
+     */
+    public void render( Object obj, OutputStream out, ContentEncoding encoding ) throws XmlRpcException
+    {
+        if ( encoding == ContentEncoding.IDENTITY )
+        {
+            render( obj, out );
+            return;
+        }
+
+        EncodingOutputStream encoded = null;
+        try
+        {
+            encoded = CompressionUtils.encode( out, encoding, compressionLevel );
+            render( obj, configure( XmlRpcWriter.forStream( encoded, renderBufferSize ) ) );
+            encoded.finish();
+        }
+        catch ( IOException e )
+        {
+            throw new XmlRpcException( "writeXML error", e );
+        }
+        finally
+        {
+            if ( encoded != null )
+            {
+                encoded.release();
+            }
+        }
+    }
+
+    /**
+     * Render an object in the compact binary format, see {@link BinaryRpcWriter}, e.g., for a response cache or
+     * between services which both support it. The stream is flushed but not closed.
+     *
+     * @param obj the object to be rendered
+     * @param out the target stream
+     * @throws XmlRpcException if the object cannot be rendered or written
+     */
+    public void renderBinary( Object obj, OutputStream out ) throws XmlRpcException
+    {
+        Object tree = Registry.getInstance().renderTo( obj );
+        try
+        {
+            BinaryRpcWriter writer = new BinaryRpcWriter( out, renderBufferSize );
+            writer.writePayload( tree );
+            writer.flush();
+        }
+        catch ( IOException e )
+        {
+            throw new XmlRpcException( "writeBinary error", e );
+        }
+    }
+
+    public byte[] renderBinary( Object obj ) throws XmlRpcException
+    {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        renderBinary( obj, out );
+        return out.toByteArray();
+    }
+
+    /**
+     * Render an object to the stream in the given format, e.g., negotiated through the Accept header. The stream is
+     * flushed but not closed.
+     */
+    public void render( Object obj, OutputStream out, PayloadFormat format ) throws XmlRpcException
+    {
+        if ( format == PayloadFormat.BINARY )
+        {
+            renderBinary( obj, out );
+        }
+        else
+        {
+            render( obj, out );
+        }
+    }
+
+    /**
+     * Render an object to XML-RPC request or response to the writer. The writer is flushed but not closed.
+     *
+     * @param obj the object to be rendered
+     * @param writer the target writer
+     * @throws XmlRpcException if the object cannot be rendered or written
+     */
+    public void render( Object obj, Writer writer ) throws XmlRpcException
+    {
+        render( obj, configure( XmlRpcWriter.forWriter( writer, DEFAULT_BUFFER_SIZE ) ) );
+    }
+
+    /**
+     * Render an object to XML-RPC request or response to the appendable, e.g., a StringBuilder.
+     *
+     * @param obj the object to be rendered
+     * @param appendable the target
+     * @throws XmlRpcException if the object cannot be rendered or written
+     */
+    public void render( Object obj, Appendable appendable ) throws XmlRpcException
+    {
+        render( obj, configure( XmlRpcWriter.forAppendable( appendable, DEFAULT_BUFFER_SIZE ) ) );
+    }
+
+    /**
+     * Render an object as UTF-8 XML-RPC request or response to the channel, e.g., a SocketChannel. The output is
+     * collected in pooled direct buffers and written with gathering writes, see {@link ChannelOutputStream}. The
+     * channel is not closed.
+     *
+     * @param obj the object to be rendered
+     * @param channel the target channel
+     * @throws XmlRpcException if the object cannot be rendered or written
+     */
+    public void render( Object obj, WritableByteChannel channel ) throws XmlRpcException
+    {
+        ChannelOutputStream out = new ChannelOutputStream( channel );
+        try
+        {
+            render( obj, configure( XmlRpcWriter.forStream( out, renderBufferSize ) ) );
+        }
+        finally
+        {
+            out.release();
+        }
+    }
+
+    /**
+     * Render an object as UTF-8 XML-RPC request or response to a file, which is created or truncated.
+     *
+     * @param obj the object to be rendered
+     * @param path the target file
+     * @throws XmlRpcException if the object cannot be rendered or written
+     */
+    public void render( Object obj, Path path ) throws XmlRpcException
+    {
+        try (FileChannel channel = FileChannel.open( path, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                                                     StandardOpenOption.TRUNCATE_EXISTING ))
+        {
+            render( obj, channel );
+        }
+        catch ( IOException e )
+        {
+            throw new XmlRpcException( "writeXML error", e );
+        }
+    }
+
+    /**
+     * Render an object as UTF-8 XML-RPC request or response into the buffer, starting at its position, which is
+     * advanced past the output.
+     *
+     * @param obj the object to be rendered
+     * @param buffer the target buffer
+     * @return the number of bytes written
+     * @throws XmlRpcException if the object cannot be rendered or does not fit into the remaining buffer, in which
+     * case the buffer content and position are undefined
+     */
+    public int render( Object obj, ByteBuffer buffer ) throws XmlRpcException
+    {
+        int start = buffer.position();
+        try
+        {
+            render( obj, configure( XmlRpcWriter.forStream( new ByteBufferOutputStream( buffer ), renderBufferSize ) ) );
+        }
+        catch ( BufferOverflowException e )
+        {
+            throw new XmlRpcException( "Rendered object does not fit into {} bytes", e, buffer.limit() - start );
+        }
+        catch ( XmlRpcException e )
+        {
+            if ( e.getCause() instanceof BufferOverflowException )
+            {
+                throw new XmlRpcException( "Rendered object does not fit into {} bytes", e.getCause(),
+                                           buffer.limit() - start );
+            }
+            throw e;
+        }
+        return buffer.position() - start;
+    }
+
+    /**
+     * Render an object with the given writer, which is flushed but not closed. @RenderCache classes are written
+     * from the render cache when an equal object has been rendered before. Requests with a generated template
+     * renderer are written straight from their precomputed markup, a MethodCall or MethodResponse tree is written
+     * as is, anything else is rendered to a Map/List tree first. The render cache is bypassed if the writer is not in the canonical mode of this mapper.
+     *
+     * @param obj the object to be rendered
+     * @param writer the target writer
+     * @throws XmlRpcException if the object cannot be rendered or written
+     */
+    public void render( Object obj, XmlRpcWriter writer ) throws XmlRpcException
+    {
+        Registry registry = Registry.getInstance();
+        RenderedXmlCache<byte[]> cache = renderCache;
+        CacheKeyProvider<Object> keys =
+                        cache == null ? null : registry.getCacheKeyProvider( (Class<Object>) obj.getClass() );
+        if ( keys == null || writer.isCanonical() != canonicalRendering )
+        {
+            renderUncached( obj, writer );
+            return;
+        }
+
+        Object key = keys.cacheKey( obj );
+        byte[] rendered = cache.get( key );
+        if ( rendered == null )
+        {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            renderUncached( obj, configure( XmlRpcWriter.forStream( out, DEFAULT_BUFFER_SIZE ) ) );
+            rendered = out.toByteArray();
+            cache.put( key, rendered );
+        }
+
+        try
+        {
+            writer.writeEncoded( rendered );
+            writer.flush();
+        }
+        catch ( IOException e )
+        {
+            throw new XmlRpcException( "writeXML error", e );
+        }
+    }
+
+    private void renderUncached( Object obj, XmlRpcWriter writer ) throws XmlRpcException
+    {
+        if ( obj instanceof RpcObject )
+        {
+            // already a tree, e.g., a multicall; its @RenderCache parts are written from the fragment store
+            writeXML( obj, writer );
+            return;
+        }
+
+        Registry registry = Registry.getInstance();
+        TemplateRenderer<Object> template = registry.getTemplateRenderer( (Class<Object>) obj.getClass() );
+        if ( template == null )
+        {
+            writeXML( registry.renderTo( obj ), writer );
+            return;
+        }
+
+        try
+        {
+            template.write( obj, writer );
+            writer.flush();
+        }
+        catch ( IOException e )
+        {
+            throw new XmlRpcException( "writeXML error", e );
+        }
+    }
+
+    private XmlRpcWriter configure( XmlRpcWriter writer )
+    {
+        writer.canonical( canonicalRendering );
+        RenderedXmlCache<XmlRpcWriter.Fragment> fragments = fragmentCache;
+        if ( fragments != null )
+        {
+            writer.fragments( new XmlRpcWriter.FragmentStore()
+            {
+                @Override
+                public XmlRpcWriter.Fragment get( Object key )
+                {
+                    return fragments.get( key );
+                }
+
+                @Override
+                public void put( Object key, XmlRpcWriter.Fragment fragment )
+                {
+                    fragments.put( key, fragment );
+                }
+            } );
+        }
+        return renderPool == null ? writer : writer.parallelArrays( renderPool, parallelThreshold, parallelChunkSize,
+                                                                       renderChunks );
+    }
+
+    public boolean isCanonicalRendering()
+    {
+        return canonicalRendering;
+    }
+
+    /**
+     * Render in canonical form, so that equal objects always give the same bytes, e.g., to use them as cache keys
+     * or ETags, see {@link XmlRpcWriter#canonical(boolean)}. It is off by default. Changing it starts a new render
+     * cache, so bytes rendered in the other mode are never written.
+     */
+    public void setCanonicalRendering( boolean canonicalRendering )
+    {
+        // written before the cache, so a render which sees the new cache also sees the new mode
+        this.canonicalRendering = canonicalRendering;
+        RenderedXmlCache<byte[]> cache = renderCache;
+        if ( cache != null )
+        {
+            this.renderCache = new RenderedXmlCache<>( cache.getMaxEntries() );
+        }
+    }
+
+    /**
+     * Render arrays with at least {@link XmlRpcWriter#DEFAULT_PARALLEL_THRESHOLD} elements in parallel on the pool.
+     * The output is the same as the sequential one. The elements of generated renderers' list fields are rendered to
+     * trees on the pool too, and the chunk buffers are reused by this mapper's renders only. Pass null to turn it
+     * off, which is the default.
+     */
+    public void setRenderPool( ForkJoinPool renderPool )
+    {
+        setRenderPool( renderPool, XmlRpcWriter.DEFAULT_PARALLEL_THRESHOLD, XmlRpcWriter.DEFAULT_CHUNK_SIZE );
+    }
+
+    /**
+     * Same as {@link #setRenderPool(ForkJoinPool)} with the given array size threshold and elements per chunk.
+     */
+    public void setRenderPool( ForkJoinPool renderPool, int threshold, int chunkSize )
+    {
+        if ( threshold < 1 || chunkSize < 1 )
+        {
+            throw new IllegalArgumentException( "Threshold and chunk size must be positive: " + threshold + ", "
+                                                                + chunkSize );
+        }
+        this.renderPool = renderPool;
+        this.renderChunks = renderPool == null ? null : new XmlRpcWriter.ChunkPool();
+        this.parallelThreshold = threshold;
+        this.parallelChunkSize = chunkSize;
+    }
+
+    public ForkJoinPool getRenderPool()
+    {
+        return renderPool;
+    }
+
+    /**
+     * Get the cache of rendered @RenderCache objects, e.g., to check its statistics, or null if it is disabled.
+     */
+    public RenderedXmlCache<byte[]> getRenderCache()
+    {
+        return renderCache;
+    }
+
+    /**
+     * Set how many rendered @RenderCache objects are kept, the least recently used ones are evicted first, e.g.,
+     * {@link #DEFAULT_RENDER_CACHE_SIZE}. The cache is disabled by default, 0 disables it again.
+     */
+    public void setRenderCacheSize( int maxEntries )
+    {
+        if ( maxEntries < 0 )
+        {
+            throw new IllegalArgumentException( "Cache size must not be negative: " + maxEntries );
+        }
+        this.renderCache = maxEntries == 0 ? null : new RenderedXmlCache<>( maxEntries );
+    }
+
+    /**
+     * Get the cache of rendered @RenderCache struct part fragments, e.g., to check its statistics, or null if it is
+     * disabled.
+     */
+    public RenderedXmlCache<XmlRpcWriter.Fragment> getFragmentCache()
+    {
+        return fragmentCache;
+    }
+
+    /**
+     * Set how many rendered fragments of @RenderCache struct parts are kept, the least recently used ones are
+     * evicted first, e.g., {@link #DEFAULT_RENDER_CACHE_SIZE}. The fragments are written when such a part is
+     * rendered through a template renderer, e.g., as param of a @Request. The cache is disabled by default, 0
+     * disables it again.
+     */
+    public void setFragmentCacheSize( int maxEntries )
+    {
+        if ( maxEntries < 0 )
+        {
+            throw new IllegalArgumentException( "Cache size must not be negative: " + maxEntries );
+        }
+        this.fragmentCache = maxEntries == 0 ? null : new RenderedXmlCache<>( maxEntries );
+    }
+
+    /**
+     * Get the cache used by {@link #parseResponse(Object, ResponseLoader, Class)}, or null if there is none.
+     */
+    public ResponseCache getResponseCache()
+    {
+        return responseCache;
     }
 
     /**
-     * Parse ab XML-RPC request or response stream (XML string) to an object.
+     * Set the cache of responses used by {@link #parseResponse(Object, ResponseLoader, Class)}, null (the default)
+     * for none. A cache can be shared by several mappers.
+     */
+    public void setResponseCache( ResponseCache responseCache )
+    {
+        this.responseCache = responseCache;
+    }
+
+    /**
+     * Get the cache of objects parsed by {@link #parse(InputStream, Class)}, e.g., to check its statistics, or null if
+     * it is disabled.
+     */
+    public ParseCache getParseCache()
+    {
+        return parseCache;
+    }
+
+    /**
+     * Set how many parsed payloads are kept by payload digest, the least recently used ones are evicted first. The
+     * default is 0, no cache.
+     *
+     * With the cache, {@link #parse(InputStream, Class)} reads the payload into memory while computing its 128-bit
+     * digest (see {@link RpcDigest#ofBytes(byte[], int, int)}), and takes the tree parsed before from the same bytes
+     * instead of parsing the XML again. This pays off for byte-identical responses received again and again, e.g.,
+     * when polling getTaskInfo. Each hit gets its own copy of the tree, so it is parsed to a new object which the
+     * caller may modify. The other XML parse methods go through the cache too, except
+     * {@link #parse(InputStream, ContentEncoding, Class)}, which decodes the stream as it is read; binary payloads
+     * are not cached. See {@link ParseCache}.
+     */
+    public void setParseCacheSize( int maxEntries )
+    {
+        if ( maxEntries < 0 )
+        {
+            throw new IllegalArgumentException( "Cache size must not be negative: " + maxEntries );
+        }
+        this.parseCache = maxEntries == 0 ? null : new ParseCache( maxEntries );
+    }
+
+    public int getParseCacheMaxPayload()
+    {
+        return parseCacheMaxPayload;
+    }
+
+    /**
+     * Set the size (in bytes) of the largest payload whose parsed object is cached, the default is
+     * {@link #DEFAULT_PARSE_CACHE_MAX_PAYLOAD}. Larger payloads are parsed as they are read.
+     */
+    public void setParseCacheMaxPayload( int parseCacheMaxPayload )
+    {
+        if ( parseCacheMaxPayload < 1 )
+        {
+            throw new IllegalArgumentException( "Max payload must be positive: " + parseCacheMaxPayload );
+        }
+        this.parseCacheMaxPayload = parseCacheMaxPayload;
+    }
+
+    public int getRenderBufferSize()
+    {
+        return renderBufferSize;
+    }
+
+    /**
+     * Set the buffer size (in bytes) used when rendering to an OutputStream. Smaller buffers let the first bytes
+     * of a large request go out earlier, larger ones mean fewer writes to the stream.
+     */
+    public void setRenderBufferSize( int renderBufferSize )
+    {
+        if ( renderBufferSize < 1 )
+        {
+            throw new IllegalArgumentException( "Buffer size must be positive: " + renderBufferSize );
+        }
+        this.renderBufferSize = renderBufferSize;
+    }
+
+    public boolean isDetectContentEncoding()
+    {
+        return detectContentEncoding;
+    }
+
+    /**
+     * Whether {@link #parse(InputStream, Class)} detects gzip or deflate compressed payloads from their first bytes
+     * and decodes them while parsing. It is on by default, plain XML is parsed as before.
+     */
+    public void setDetectContentEncoding( boolean detectContentEncoding )
+    {
+        this.detectContentEncoding = detectContentEncoding;
+    }
+
+    public int getCompressionLevel()
+    {
+        return compressionLevel;
+    }
+
+    /**
+     * Set the level used by {@link #render(Object, OutputStream, ContentEncoding)}, from 0 (no compression) or 1
+     * (fastest) to 9 (smallest). The default is {@link Deflater#DEFAULT_COMPRESSION}, i.e., 6.
+     */
+    public void setCompressionLevel( int compressionLevel )
+    {
+        if ( compressionLevel < Deflater.DEFAULT_COMPRESSION || compressionLevel > Deflater.BEST_COMPRESSION )
+        {
+            throw new IllegalArgumentException( "Invalid compression level: " + compressionLevel );
+        }
+        this.compressionLevel = compressionLevel;
+    }
+
+    /**
+     * Parse ab XML-RPC request or response stream (XML string) to an object. A gzip or deflate compressed stream is
+     * decoded while it is parsed, unless {@link #setDetectContentEncoding(boolean)} is off.
      *
      * @param stream the input stream consisting of XML-RPC request or response
      * @param type the class of the object to be parsed
@@ -56,17 +631,340 @@ public final class RWXMapper
      */
     public <T> T parse( InputStream stream, Class<T> type ) throws XmlRpcException
     {
-        final XmlRpcParser xmlRpcParser = new XmlRpcParser( stream );
-        RpcObject rpcObject;
+        return parseTree( parseCached( stream ), type );
+    }
+
+    /**
+     * Parse an XML-RPC request or response stream to its tree, without binding it to a class, e.g., to share it
+     * between callers which bind it each on their own. Compressed payloads are detected and the parse cache is used
+     * as in {@link #parse(InputStream, Class)}.
+     *
+     * @param stream the input stream consisting of XML-RPC request or response
+     * @return the parsed MethodCall or MethodResponse, which the caller owns
+     * @throws XmlRpcException if the stream cannot be parsed
+     * @throws XmlRpcFaultException if the stream is a fault
+     */
+    public RpcObject parseTree( InputStream stream ) throws XmlRpcException
+    {
+        RpcObject tree = parseCached( stream );
+        if ( tree instanceof Fault )
+        {
+            throw new XmlRpcFaultException( (Fault) tree );
+        }
+        return tree;
+    }
+
+    private RpcObject parseCached( InputStream stream ) throws XmlRpcException
+    {
+        ParseCache cache = parseCache;
+        if ( cache == null )
+        {
+            return parseRpcObject( stream );
+        }
+
+        int maxPayload = parseCacheMaxPayload;
+        byte[] buf = new byte[Math.min( maxPayload + 1, DEFAULT_BUFFER_SIZE )];
+        int len = 0;
+        RpcDigest.PayloadHasher hasher = new RpcDigest.PayloadHasher();
         try
         {
-            rpcObject = xmlRpcParser.parse();
+            int n;
+            while ( len <= maxPayload && ( n = stream.read( buf, len, buf.length - len ) ) >= 0 )
+            {
+                hasher.update( buf, len, n );
+                len += n;
+                if ( len == buf.length && len <= maxPayload )
+                {
+                    buf = Arrays.copyOf( buf, (int) Math.min( maxPayload + 1L, buf.length * 2L ) );
+                }
+            }
+        }
+        catch ( IOException e )
+        {
+            throw new XmlRpcException( "Parse to RpcObject failed", e );
+        }
+
+        if ( len > maxPayload )
+        {
+            // too large to be kept, parse what was read and the rest
+            return parseRpcObject( new SequenceInputStream( new ByteArrayInputStream( buf, 0, len ), stream ) );
+        }
+
+        RpcDigest digest = hasher.finish();
+        RpcObject tree = (RpcObject) cache.get( digest );
+        if ( tree == null )
+        {
+            tree = parseRpcObject( new ByteArrayInputStream( buf, 0, len ) );
+            cache.put( digest, tree );
+        }
+        return tree;
+    }
+
+    /**
+     * Parse the response to a request. If there is a response cache (see {@link #setResponseCache(ResponseCache)})
+     * holding a response to an equal request, it is parsed from the cache without calling the loader. Otherwise the
+     * loader's stream is parsed as in {@link #parse(InputStream, Class)}, closed, and the response is cached if its
+     * method has a time to live.
+     *
+     * @param request the request, a MethodCall or an object with a @Request renderer
+     * @param loader the source of the response stream, e.g., the HTTP call sending the request
+     * @param type the class of the object to be parsed
+     * @param <T> the type of the object to be parsed
+     * @return the object parsed from the response
+     * @throws XmlRpcException if the response cannot be loaded or parsed
+     * @throws XmlRpcFaultException if the response is a fault, which is never cached
+     */
+    public <T> T parseResponse( Object request, ResponseLoader loader, Class<T> type ) throws XmlRpcException
+    {
+        ResponseCache cache = responseCache;
+        Object response = cache == null ? null : cache.get( request );
+        if ( response == null )
+        {
+            try (InputStream stream = loader.load())
+            {
+                response = parseRpcObject( stream );
+            }
+            catch ( IOException e )
+            {
+                throw new XmlRpcException( "Failed to load response", e );
+            }
+            if ( cache != null )
+            {
+                cache.put( request, response );
+            }
+        }
+        return parseTree( response, type );
+    }
+
+    private RpcObject parseRpcObject( InputStream stream ) throws XmlRpcException
+    {
+        if ( !detectContentEncoding )
+        {
+            return parseRpcObject( new XmlRpcParser( stream ) );
+        }
+
+        DecodingInputStream decoded = null;
+        try
+        {
+            decoded = CompressionUtils.decodeDetected( stream );
+            return parseRpcObject( new XmlRpcParser( decoded ) );
+        }
+        catch ( IOException e )
+        {
+            throw new XmlRpcException( "Parse to RpcObject failed", e );
+        }
+        finally
+        {
+            if ( decoded != null )
+            {
+                decoded.release();
+            }
+        }
+    }
+
+    /**
+     * Parse an XML-RPC request or response stream in the given content encoding, e.g., taken from the
+     * Content-Encoding header, to an object. The stream is decoded while it is parsed.
+     *
+     * @param stream the input stream consisting of XML-RPC request or response
+     * @param encoding the content encoding of the stream
+     * @param type the class of the object to be parsed
+     * @param <T> the type of the object to be parsed
+     * @return  the object parsed from the XML-RPC stream
+     * @throws XmlRpcException if the stream cannot be decoded or parsed
+     */
+    public <T> T parse( InputStream stream, ContentEncoding encoding, Class<T> type ) throws XmlRpcException
+    {
+        if ( encoding == ContentEncoding.IDENTITY )
+        {
+            return parseDecoded( stream, type );
+        }
+
+        DecodingInputStream decoded = null;
+        try
+        {
+            decoded = CompressionUtils.decode( stream, encoding );
+            return parseDecoded( decoded, type );
+        }
+        catch ( IOException e )
+        {
+            throw new XmlRpcException( "Parse to RpcObject failed", e );
+        }
+        finally
+        {
+            if ( decoded != null )
+            {
+                decoded.release();
+            }
+        }
+    }
+
+    /**
+     * Parse the remaining bytes of the buffer, e.g., a memory-mapped file, in place. The buffer position does not
+     * change. Compressed payloads are detected as in {@link #parse(InputStream, Class)}.
+     *
+     * @param buffer the buffer consisting of XML-RPC request or response
+     * @param type the class of the object to be parsed
+     * @param <T> the type of the object to be parsed
+     * @return the object parsed from the buffer
+     * @throws XmlRpcException if the buffer cannot be parsed
+     */
+    public <T> T parse( ByteBuffer buffer, Class<T> type ) throws XmlRpcException
+    {
+        return parse( new ByteBufferInputStream( buffer ), type );
+    }
+
+    /**
+     * Parse an XML-RPC request or response read from the channel, which is not closed. Compressed payloads are
+     * detected as in {@link #parse(InputStream, Class)}.
+     */
+    public <T> T parse( ReadableByteChannel channel, Class<T> type ) throws XmlRpcException
+    {
+        return parse( Channels.newInputStream( channel ), type );
+    }
+
+    /**
+     * Parse a file, e.g., a recorded response. The file is memory-mapped and parsed in place, so it is not copied
+     * into the heap as a whole, unless it is small enough for the parse cache (see {@link #setParseCacheSize(int)}).
+     * Compressed payloads are detected as in {@link #parse(InputStream, Class)}.
+     *
+     * @param path the file consisting of XML-RPC request or response
+     * @param type the class of the object to be parsed
+     * @param <T> the type of the object to be parsed
+     * @return the object parsed from the file
+     * @throws XmlRpcException if the file cannot be read or parsed
+     */
+    public <T> T parse( Path path, Class<T> type ) throws XmlRpcException
+    {
+        MappedByteBuffer mapped;
+        try (FileChannel channel = FileChannel.open( path, StandardOpenOption.READ ))
+        {
+            long size = channel.size();
+            if ( size > Integer.MAX_VALUE )
+            {
+                throw new XmlRpcException( "File too large to be mapped: {} ({} bytes)", path, size );
+            }
+            // the mapping stays valid after the channel is closed
+            mapped = channel.map( FileChannel.MapMode.READ_ONLY, 0, size );
+        }
+        catch ( IOException e )
+        {
+            throw new XmlRpcException( "Failed to read {}", e, path );
+        }
+        return parse( mapped, type );
+    }
+
+    /**
+     * Parse an XML-RPC request or response held as chars, e.g., a String, without encoding it to bytes first. With
+     * the parse cache (see {@link #setParseCacheSize(int)}), the chars are digested as a UTF-16 payload with a byte
+     * order mark, which is parsed to the same tree.
+     *
+     * @param xml the XML-RPC request or response
+     * @param type the class of the object to be parsed
+     * @param <T> the type of the object to be parsed
+     * @return the object parsed from the chars
+     * @throws XmlRpcException if the chars cannot be parsed
+     */
+    public <T> T parse( CharSequence xml, Class<T> type ) throws XmlRpcException
+    {
+        ParseCache cache = parseCache;
+        if ( cache == null || xml.length() > ( parseCacheMaxPayload - 2 ) / 2 )
+        {
+            return parse( new XmlRpcParser( new CharSequenceReader( xml ) ), type );
+        }
+
+        RpcDigest digest = digestChars( xml );
+        Object tree = cache.get( digest );
+        if ( tree == null )
+        {
+            tree = parseRpcObject( new XmlRpcParser( new CharSequenceReader( xml ) ) );
+            cache.put( digest, tree );
+        }
+        return parseTree( tree, type );
+    }
+
+    /**
+     * Digest the chars as UTF-16LE bytes after a byte order mark, the payload they would be sent as in that encoding.
+     */
+    private static RpcDigest digestChars( CharSequence xml )
+    {
+        RpcDigest.PayloadHasher hasher = new RpcDigest.PayloadHasher();
+        byte[] buf = new byte[Math.min( xml.length() * 2 + 2, DEFAULT_BUFFER_SIZE )];
+        buf[0] = (byte) 0xff;
+        buf[1] = (byte) 0xfe;
+        int len = 2;
+        for ( int i = 0; i < xml.length(); i++ )
+        {
+            if ( len + 2 > buf.length )
+            {
+                hasher.update( buf, 0, len );
+                len = 0;
+            }
+            char c = xml.charAt( i );
+            buf[len++] = (byte) c;
+            buf[len++] = (byte) ( c >>> 8 );
+        }
+        hasher.update( buf, 0, len );
+        return hasher.finish();
+    }
+
+    private <T> T parseDecoded( InputStream stream, Class<T> type ) throws XmlRpcException
+    {
+        return parse( new XmlRpcParser( stream ), type );
+    }
+
+    private <T> T parse( XmlRpcParser xmlRpcParser, Class<T> type ) throws XmlRpcException
+    {
+        return parseTree( parseRpcObject( xmlRpcParser ), type );
+    }
+
+    private RpcObject parseRpcObject( XmlRpcParser xmlRpcParser ) throws XmlRpcException
+    {
+        try
+        {
+            return xmlRpcParser.parse();
         }
         catch ( XMLStreamException e )
         {
             throw new XmlRpcException( "Parse to RpcObject failed", e );
         }
+    }
 
+    /**
+     * Parse a payload in the binary format written by {@link #renderBinary(Object, OutputStream)}. Generated
+     * parsers read the decoded tree the same way as a parsed XML one. The stream is not closed.
+     *
+     * @param stream the binary payload
+     * @param type the class of the object to be parsed
+     * @param <T> the type of the object to be parsed
+     * @return the object parsed from the payload
+     * @throws XmlRpcException if the stream cannot be read or parsed
+     */
+    public <T> T parseBinary( InputStream stream, Class<T> type ) throws XmlRpcException
+    {
+        Object tree;
+        try
+        {
+            tree = new BinaryRpcReader( stream ).readPayload();
+        }
+        catch ( IOException e )
+        {
+            throw new XmlRpcException( "Parse to RpcObject failed", e );
+        }
+        return parseTree( tree, type );
+    }
+
+    /**
+     * Parse a payload in the given format, e.g., chosen by its Content-Type header. XML payloads are parsed as in
+     * {@link #parse(InputStream, Class)}, including compression detection.
+     */
+    public <T> T parse( InputStream stream, PayloadFormat format, Class<T> type ) throws XmlRpcException
+    {
+        return format == PayloadFormat.BINARY ? parseBinary( stream, type ) : parse( stream, type );
+    }
+
+    private <T> T parseTree( Object rpcObject, Class<T> type ) throws XmlRpcException
+    {
         if ( rpcObject instanceof Fault )
         {
             throw new XmlRpcFaultException( (Fault) rpcObject );
@@ -0,0 +1,32 @@
+/**
+ * Copyright (C) 2010 Red Hat, Inc. (http://github.com/Commonjava/commonjava)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.commonjava.rwx.api;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Source of an XML-RPC response stream, e.g., an HTTP call, invoked by
+ * {@link RWXMapper#parseResponse(Object, ResponseLoader, Class)} only when the response is not cached.
+ */
+@FunctionalInterface
+public interface ResponseLoader
+{
+    /**
+     * @return the response stream, which is closed after it is parsed
+     */
+    InputStream load() throws IOException;
+}
@@ -23,6 +23,7 @@ import org.commonjava.rwx.anno.ArrayPart;
 import org.commonjava.rwx.anno.Converter;
 import org.commonjava.rwx.anno.DataIndex;
 import org.commonjava.rwx.anno.DataKey;
+import org.commonjava.rwx.anno.RenderCache;
 import org.commonjava.rwx.anno.Request;
 import org.commonjava.rwx.anno.Response;
 import org.commonjava.rwx.anno.StructPart;
@@ -45,6 +46,7 @@ import javax.tools.StandardLocation;
 import java.io.IOException;
 import java.io.Writer;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
@@ -58,6 +60,8 @@ import static org.commonjava.rwx.util.ProcessorUtils.getList;
 import static org.commonjava.rwx.util.ProcessorUtils.getMethodName;
 import static org.commonjava.rwx.util.ProcessorUtils.getPackageAndClassName;
 import static org.commonjava.rwx.util.ProcessorUtils.getRegistryClassName;
+import static org.commonjava.rwx.util.ProcessorUtils.getRequestTemplate;
+import static org.commonjava.rwx.util.ProcessorUtils.toJavaLiteral;
 import static org.commonjava.rwx.util.ProcessorUtils.union;
 
 /**
@@ -217,6 +221,7 @@ public class AnnoProcessor
         templateParams.put( "simpleClassName", simpleClassName );
         templateParams.put( "request", false );
         templateParams.put( "response", false );
+        templateParams.put( "requestTemplate", null );
         templateParams.put( "structPart", false );
         templateParams.put( "arrayPart", false );
 
@@ -237,6 +242,17 @@ public class AnnoProcessor
                 templateParams.put( "response", true );
             }
             handleArrayPart( templateParams, typeElement, method, ProcessorUtils::getRendererClassName );
+            if ( request != null )
+            {
+                // the markup around each param never changes, precompute it so only values are rendered per call
+                List<?> params = (List<?>) templateParams.get( "params" );
+                List<String> fragments = new ArrayList<>();
+                for ( String fragment : getRequestTemplate( request.method(), params.size() ) )
+                {
+                    fragments.add( toJavaLiteral( fragment ) );
+                }
+                templateParams.put( "requestTemplate", fragments );
+            }
         }
 
         StructPart structPart = typeElement.getAnnotation( StructPart.class );
@@ -252,6 +268,29 @@ public class AnnoProcessor
             handleArrayPart( templateParams, typeElement, method, ProcessorUtils::getRendererClassName );
         }
 
+        templateParams.put( "cacheKey", false );
+        templateParams.put( "fragmentCache", false );
+        RenderCache renderCache = typeElement.getAnnotation( RenderCache.class );
+        if ( renderCache != null )
+        {
+            for ( Object param : (List<?>) templateParams.get( "params" ) )
+            {
+                if ( ( (Item) param ).getSourceType() != null )
+                {
+                    processingEnv.getMessager()
+                                 .printMessage( Diagnostic.Kind.ERROR,
+                                                "@RenderCache does not support Iterator, Stream or Iterable fields",
+                                                typeElement );
+                }
+            }
+            templateParams.put( "cacheKey", true );
+            if ( structPart != null )
+            {
+                templateParams.put( "fragmentCache", true );
+                templateParams.put( "fragmentIdentity", renderCache.identity() );
+            }
+        }
+
         generateOutput( template, templateParams, rendererClassName );
     }
 
@@ -545,16 +584,30 @@ public class AnnoProcessor
         // upgrade cast, e.g., cast Int value to Long because Koji may return int,i4, or i8 for a long field
         private boolean isUpgradeCast;
 
+        // dateTime.iso8601 values are parsed to java.util.Date and converted to these types on binding
+        private static final Set<String> temporals = new HashSet<>(
+                        Arrays.asList( "java.time.Instant", "java.time.LocalDateTime", "java.time.OffsetDateTime",
+                                       "java.time.ZonedDateTime" ) );
+
+        // Iterator, Iterable or Stream fields are rendered lazily, see ProcessorUtils.getSourceType
+        private String sourceType;
+
         public boolean isUpgradeCast()
         {
             return isUpgradeCast;
         }
 
+        public String getSourceType()
+        {
+            return sourceType;
+        }
+
         public void setType( String type )
         {
             this.type = type;
             this.isPrimitive = primitives.contains( type );
-            if ( "long".equals( type ) || "java.lang.Long".equals( type ) )
+            this.sourceType = ProcessorUtils.getSourceType( type );
+            if ( "long".equals( type ) || "java.lang.Long".equals( type ) || temporals.contains( type ) )
             {
                 isUpgradeCast = true;
             }
@@ -0,0 +1,733 @@
+/**
+ * Copyright (C) 2010 Red Hat, Inc. (http://github.com/Commonjava/commonjava)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.commonjava.rwx.core;
+
+import org.commonjava.rwx.error.XmlRpcException;
+import org.commonjava.rwx.util.BinaryRpcReader;
+import org.commonjava.rwx.util.BinaryRpcWriter;
+import org.commonjava.rwx.util.RpcDigest;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.TimeUnit;
+import java.util.function.LongSupplier;
+import java.util.zip.CRC32;
+
+/**
+ * Persistent store of parsed responses, keyed by {@link RpcDigest}, which survives restarts. It can be used on its
+ * own or as the last tier of a {@link ResponseCache} (see {@link ResponseCache#setDiskStore(DiskResponseStore)}).
+ *
+ * Responses are appended to segment files in the binary format (see {@link BinaryRpcWriter}), so a read decodes
+ * them without any XML parsing. Each record carries its key, expiry time and a CRC32; an in-memory hash index
+ * points to the latest record of each key and is rebuilt by scanning the segments on open. A torn or corrupt tail,
+ * e.g., after a crash, is cut off. Invalidations are written as tombstones.
+ *
+ * When more than half of the bytes on disk are stale (replaced, invalidated or expired records), the live records
+ * are copied to new segments and the old ones are deleted. When the store grows past its size cap, its oldest
+ * segment is dropped with the responses in it. A directory must be used by one store at a time. Thread-safe.
+ */
+public final class DiskResponseStore
+                implements Closeable
+{
+    public static final int DEFAULT_SEGMENT_SIZE = 16 * 1024 * 1024;
+
+    private static final byte[] MAGIC = { 'R', 'W', 'X', 'S' };
+
+    private static final int VERSION = 1;
+
+    private static final int SEGMENT_HEADER_SIZE = 8;
+
+    // crc, payload length, key high, key low, expires at
+    private static final int RECORD_HEADER_SIZE = 32;
+
+    private static final int TOMBSTONE = -1;
+
+    private static final String SEGMENT_PREFIX = "segment-";
+
+    private static final String SEGMENT_SUFFIX = ".rwx";
+
+    private final Logger logger = LoggerFactory.getLogger( getClass() );
+
+    private final Path directory;
+
+    private final long maxBytes;
+
+    private final int segmentSize;
+
+    private final TreeMap<Long, Segment> segments = new TreeMap<>();
+
+    private final Map<RpcDigest, Location> index = new HashMap<>();
+
+    private Segment active;
+
+    private long totalBytes;
+
+    private long liveBytes;
+
+    private LongSupplier clock = System::currentTimeMillis;
+
+    private boolean closed;
+
+    private long hitCount;
+
+    private long missCount;
+
+    private long evictionCount;
+
+    public DiskResponseStore( Path directory, long maxBytes ) throws XmlRpcException
+    {
+        this( directory, maxBytes, (int) Math.min( DEFAULT_SEGMENT_SIZE, maxBytes / 4 ) );
+    }
+
+    /**
+     * Open the store in the directory, which is created if needed, and index the responses already in it.
+     *
+     * @param directory the directory of the segment files
+     * @param maxBytes max size of the segment files together
+     * @param segmentSize size at which a new segment file is started, at most maxBytes
+     * @throws XmlRpcException if the directory cannot be read or holds a file which is not a segment of a store
+     */
+    public DiskResponseStore( Path directory, long maxBytes, int segmentSize ) throws XmlRpcException
+    {
+        if ( segmentSize <= SEGMENT_HEADER_SIZE + RECORD_HEADER_SIZE || segmentSize > maxBytes )
+        {
+            throw new IllegalArgumentException(
+                            "Invalid segment size: " + segmentSize + " (max bytes: " + maxBytes + ")" );
+        }
+        this.directory = directory;
+        this.maxBytes = maxBytes;
+        this.segmentSize = segmentSize;
+
+        try
+        {
+            Files.createDirectories( directory );
+            List<Long> ids = new ArrayList<>();
+            try (DirectoryStream<Path> files = Files.newDirectoryStream( directory,
+                                                                         SEGMENT_PREFIX + "*" + SEGMENT_SUFFIX ))
+            {
+                for ( Path file : files )
+                {
+                    String name = file.getFileName().toString();
+                    ids.add( Long.parseLong( name.substring( SEGMENT_PREFIX.length(),
+                                                             name.length() - SEGMENT_SUFFIX.length() ) ) );
+                }
+            }
+            ids.sort( null );
+            for ( long id : ids )
+            {
+                Segment segment = openSegment( id );
+                try
+                {
+                    load( segment );
+                }
+                catch ( IOException | XmlRpcException e )
+                {
+                    segment.channel.close();
+                    throw e;
+                }
+            }
+
+            if ( segments.isEmpty() || segments.lastEntry().getValue().size >= segmentSize )
+            {
+                roll();
+            }
+            else
+            {
+                active = segments.lastEntry().getValue();
+            }
+            maintain();
+        }
+        catch ( IOException | NumberFormatException e )
+        {
+            close();
+            throw new XmlRpcException( "Failed to open response store in {}", e, directory );
+        }
+        catch ( XmlRpcException e )
+        {
+            close();
+            throw e;
+        }
+    }
+
+    /**
+     * Get a stored response which has not expired.
+     *
+     * @return the response and its remaining time to live, or null
+     * @throws XmlRpcException if the segment cannot be read
+     */
+    public synchronized StoredResponse get( RpcDigest key ) throws XmlRpcException
+    {
+        ensureOpen();
+        Location location = index.get( key );
+        long now = clock.getAsLong();
+        if ( location == null || location.expiresAt <= now )
+        {
+            unindex( key );
+            missCount++;
+            return null;
+        }
+
+        Object response;
+        try
+        {
+            byte[] record = readRecord( location );
+            if ( record == null )
+            {
+                logger.warn( "Dropping corrupt response record at {} of {}", location.offset,
+                             location.segment.path );
+                unindex( key );
+                missCount++;
+                return null;
+            }
+            response = new BinaryRpcReader( new ByteArrayInputStream( record, RECORD_HEADER_SIZE,
+                                                                      location.length ) ).readPayload();
+        }
+        catch ( IOException e )
+        {
+            throw new XmlRpcException( "Failed to read response from {}", e, location.segment.path );
+        }
+        hitCount++;
+        return new StoredResponse( response, location.expiresAt - now );
+    }
+
+    /**
+     * Store a response, replacing the one stored for the same key.
+     *
+     * @param key the key, e.g., {@link ResponseCache#key(Object)} of the request
+     * @param response the response tree, e.g., a MethodResponse
+     * @param ttl how long the response is kept
+     * @param unit the unit of ttl
+     * @throws XmlRpcException if the response has no binary form or the segment cannot be written
+     */
+    public void put( RpcDigest key, Object response, long ttl, TimeUnit unit ) throws XmlRpcException
+    {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try
+        {
+            BinaryRpcWriter writer = new BinaryRpcWriter( out );
+            writer.writePayload( response );
+            writer.flush();
+        }
+        catch ( IOException e )
+        {
+            throw new XmlRpcException( "Failed to encode response", e );
+        }
+
+        synchronized ( this )
+        {
+            ensureOpen();
+            long now = clock.getAsLong();
+            long expiresAt = now + Math.min( unit.toMillis( ttl ), Long.MAX_VALUE - now );
+            append( key, out.toByteArray(), expiresAt );
+        }
+    }
+
+    public synchronized void invalidate( RpcDigest key ) throws XmlRpcException
+    {
+        ensureOpen();
+        if ( index.containsKey( key ) )
+        {
+            append( key, null, 0 );
+        }
+    }
+
+    /**
+     * Delete all stored responses.
+     */
+    public synchronized void clear() throws XmlRpcException
+    {
+        ensureOpen();
+        try
+        {
+            for ( Segment segment : new ArrayList<>( segments.values() ) )
+            {
+                delete( segment );
+            }
+            index.clear();
+            liveBytes = 0;
+            roll();
+        }
+        catch ( IOException e )
+        {
+            throw new XmlRpcException( "Failed to clear response store in {}", e, directory );
+        }
+    }
+
+    /**
+     * Copy the live records to new segments and delete the old ones. It runs on its own when more than half of the
+     * bytes are stale.
+     */
+    public synchronized void compact() throws XmlRpcException
+    {
+        ensureOpen();
+        try
+        {
+            List<Segment> old = new ArrayList<>( segments.values() );
+            roll();
+            long now = clock.getAsLong();
+            for ( Iterator<Location> it = index.values().iterator(); it.hasNext(); )
+            {
+                Location location = it.next();
+                byte[] record = location.expiresAt > now ? readRecord( location ) : null;
+                if ( record == null )
+                {
+                    it.remove();
+                    liveBytes -= RECORD_HEADER_SIZE + location.length;
+                    continue;
+                }
+                location.offset = write( record );
+                location.segment = active;
+            }
+            active.channel.force( false );
+            for ( Segment segment : old )
+            {
+                delete( segment );
+            }
+        }
+        catch ( IOException e )
+        {
+            throw new XmlRpcException( "Failed to compact response store in {}", e, directory );
+        }
+    }
+
+    /**
+     * Force the written records to the disk.
+     */
+    public synchronized void sync() throws XmlRpcException
+    {
+        ensureOpen();
+        try
+        {
+            active.channel.force( false );
+        }
+        catch ( IOException e )
+        {
+            throw new XmlRpcException( "Failed to sync {}", e, active.path );
+        }
+    }
+
+    @Override
+    public synchronized void close()
+    {
+        if ( closed )
+        {
+            return;
+        }
+        closed = true;
+        for ( Segment segment : segments.values() )
+        {
+            try
+            {
+                segment.channel.force( false );
+                segment.channel.close();
+            }
+            catch ( IOException e )
+            {
+                logger.warn( "Failed to close {}: {}", segment.path, e.getMessage() );
+            }
+        }
+    }
+
+    public synchronized int size()
+    {
+        return index.size();
+    }
+
+    /**
+     * @return size of the segment files together
+     */
+    public synchronized long getTotalBytes()
+    {
+        return totalBytes;
+    }
+
+    /**
+     * @return size of the records which are not stale
+     */
+    public synchronized long getLiveBytes()
+    {
+        return liveBytes;
+    }
+
+    public synchronized int getSegmentCount()
+    {
+        return segments.size();
+    }
+
+    public long getMaxBytes()
+    {
+        return maxBytes;
+    }
+
+    public Path getDirectory()
+    {
+        return directory;
+    }
+
+    public synchronized long getHitCount()
+    {
+        return hitCount;
+    }
+
+    public synchronized long getMissCount()
+    {
+        return missCount;
+    }
+
+    /**
+     * @return number of live responses dropped with their segment to keep the store under its size cap
+     */
+    public synchronized long getEvictionCount()
+    {
+        return evictionCount;
+    }
+
+    @Override
+    public synchronized String toString()
+    {
+        return "DiskResponseStore{directory=" + directory + ", size=" + index.size() + ", totalBytes=" + totalBytes
+                        + ", liveBytes=" + liveBytes + ", segments=" + segments.size() + ", hits=" + hitCount
+                        + ", misses=" + missCount + ", evictions=" + evictionCount + "}";
+    }
+
+    // for tests, to control time
+    synchronized void setClock( LongSupplier clock )
+    {
+        this.clock = clock;
+    }
+
+    private void ensureOpen() throws XmlRpcException
+    {
+        if ( closed )
+        {
+            throw new XmlRpcException( "Response store is closed: {}", directory );
+        }
+    }
+
+    private void append( RpcDigest key, byte[] payload, long expiresAt ) throws XmlRpcException
+    {
+        int length = payload == null ? TOMBSTONE : payload.length;
+        ByteBuffer record = ByteBuffer.allocate( RECORD_HEADER_SIZE + Math.max( length, 0 ) );
+        record.putInt( 0 );
+        record.putInt( length );
+        record.putLong( key.getHigh() );
+        record.putLong( key.getLow() );
+        record.putLong( expiresAt );
+        if ( payload != null )
+        {
+            record.put( payload );
+        }
+        record.putInt( 0, crc( record.array(), record.capacity() ) );
+
+        try
+        {
+            long offset = write( record.array() );
+            unindex( key );
+            if ( payload != null )
+            {
+                index.put( key, new Location( active, offset, length, expiresAt ) );
+                liveBytes += record.capacity();
+            }
+            maintain();
+        }
+        catch ( IOException e )
+        {
+            throw new XmlRpcException( "Failed to write response to {}", e, active.path );
+        }
+    }
+
+    /**
+     * Write a complete record to the active segment, starting a new one first if it would not fit.
+     *
+     * @return offset of the record in the active segment
+     */
+    private long write( byte[] record ) throws IOException
+    {
+        if ( active.size + record.length > segmentSize && active.size > SEGMENT_HEADER_SIZE )
+        {
+            roll();
+        }
+        long offset = active.size;
+        ByteBuffer buffer = ByteBuffer.wrap( record );
+        while ( buffer.hasRemaining() )
+        {
+            active.channel.write( buffer, offset + buffer.position() );
+        }
+        active.size += record.length;
+        totalBytes += record.length;
+        return offset;
+    }
+
+    private void maintain() throws IOException, XmlRpcException
+    {
+        if ( totalBytes > segmentSize && totalBytes - liveBytes > totalBytes / 2 )
+        {
+            compact();
+        }
+        while ( totalBytes > maxBytes )
+        {
+            Segment oldest = segments.firstEntry().getValue();
+            if ( oldest == active )
+            {
+                if ( active.size == SEGMENT_HEADER_SIZE )
+                {
+                    break;
+                }
+                roll();
+                continue;
+            }
+            for ( Iterator<Location> it = index.values().iterator(); it.hasNext(); )
+            {
+                Location location = it.next();
+                if ( location.segment == oldest )
+                {
+                    it.remove();
+                    liveBytes -= RECORD_HEADER_SIZE + location.length;
+                    evictionCount++;
+                }
+            }
+            delete( oldest );
+        }
+    }
+
+    private void roll() throws IOException
+    {
+        long id = segments.isEmpty() ? 0 : segments.lastKey() + 1;
+        Segment segment = openSegment( id );
+        ByteBuffer header = ByteBuffer.allocate( SEGMENT_HEADER_SIZE );
+        header.put( MAGIC );
+        header.putInt( VERSION );
+        ( (Buffer) header ).flip();
+        segment.channel.truncate( 0 );
+        while ( header.hasRemaining() )
+        {
+            segment.channel.write( header, header.position() );
+        }
+        segment.size = SEGMENT_HEADER_SIZE;
+        totalBytes += SEGMENT_HEADER_SIZE;
+        segments.put( id, segment );
+        active = segment;
+    }
+
+    private Segment openSegment( long id ) throws IOException
+    {
+        Path path = directory.resolve( String.format( "%s%08d%s", SEGMENT_PREFIX, id, SEGMENT_SUFFIX ) );
+        FileChannel channel = FileChannel.open( path, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                                                StandardOpenOption.WRITE );
+        return new Segment( id, path, channel );
+    }
+
+    private void delete( Segment segment ) throws IOException
+    {
+        segment.channel.close();
+        Files.deleteIfExists( segment.path );
+        segments.remove( segment.id );
+        totalBytes -= segment.size;
+    }
+
+    /**
+     * Index the records of a segment, which replace the ones of the segments loaded before, and cut off what
+     * follows the last valid record.
+     */
+    private void load( Segment segment ) throws IOException, XmlRpcException
+    {
+        FileChannel channel = segment.channel;
+        long size = channel.size();
+        ByteBuffer header = ByteBuffer.allocate( SEGMENT_HEADER_SIZE );
+        if ( readFully( channel, header, 0 ) < SEGMENT_HEADER_SIZE )
+        {
+            // created but never written
+            channel.close();
+            Files.delete( segment.path );
+            return;
+        }
+        for ( int i = 0; i < MAGIC.length; i++ )
+        {
+            if ( header.get( i ) != MAGIC[i] )
+            {
+                throw new XmlRpcException( "Not a response store segment: {}", segment.path );
+            }
+        }
+        if ( header.getInt( MAGIC.length ) != VERSION )
+        {
+            throw new XmlRpcException( "Unsupported response store version {} in {}", header.getInt( MAGIC.length ),
+                                       segment.path );
+        }
+
+        long now = clock.getAsLong();
+        long offset = SEGMENT_HEADER_SIZE;
+        ByteBuffer recordHeader = ByteBuffer.allocate( RECORD_HEADER_SIZE );
+        while ( true )
+        {
+            ( (Buffer) recordHeader ).clear();
+            if ( readFully( channel, recordHeader, offset ) < RECORD_HEADER_SIZE )
+            {
+                break;
+            }
+            int length = recordHeader.getInt( 4 );
+            if ( length < TOMBSTONE || offset + RECORD_HEADER_SIZE + Math.max( length, 0 ) > size )
+            {
+                break;
+            }
+            Location location = new Location( segment, offset, Math.max( length, 0 ), recordHeader.getLong( 24 ) );
+            if ( readRecord( location ) == null )
+            {
+                break;
+            }
+
+            RpcDigest key = RpcDigest.valueOf( recordHeader.getLong( 8 ), recordHeader.getLong( 16 ) );
+            unindex( key );
+            if ( length != TOMBSTONE && location.expiresAt > now )
+            {
+                index.put( key, location );
+                liveBytes += RECORD_HEADER_SIZE + length;
+            }
+            offset += RECORD_HEADER_SIZE + location.length;
+        }
+
+        if ( offset < size )
+        {
+            logger.warn( "Cutting off {} bytes of torn or corrupt records from {}", size - offset, segment.path );
+            channel.truncate( offset );
+        }
+        segment.size = offset;
+        totalBytes += offset;
+        segments.put( segment.id, segment );
+    }
+
+    /**
+     * @return the whole record, or null if its CRC does not match
+     */
+    private byte[] readRecord( Location location ) throws IOException
+    {
+        byte[] record = new byte[RECORD_HEADER_SIZE + location.length];
+        ByteBuffer buffer = ByteBuffer.wrap( record );
+        if ( readFully( location.segment.channel, buffer, location.offset ) < record.length )
+        {
+            return null;
+        }
+        return buffer.getInt( 0 ) == crc( record, record.length ) ? record : null;
+    }
+
+    private static int readFully( FileChannel channel, ByteBuffer buffer, long offset ) throws IOException
+    {
+        int start = buffer.position();
+        while ( buffer.hasRemaining() )
+        {
+            if ( channel.read( buffer, offset + buffer.position() - start ) < 0 )
+            {
+                break;
+            }
+        }
+        return buffer.position() - start;
+    }
+
+    private static int crc( byte[] record, int length )
+    {
+        CRC32 crc = new CRC32();
+        crc.update( record, 4, length - 4 );
+        return (int) crc.getValue();
+    }
+
+    private void unindex( RpcDigest key )
+    {
+        Location removed = index.remove( key );
+        if ( removed != null )
+        {
+            liveBytes -= RECORD_HEADER_SIZE + removed.length;
+        }
+    }
+
+    /**
+     * A response read from the store.
+     */
+    public static final class StoredResponse
+    {
+        private final Object response;
+
+        private final long remainingMillis;
+
+        StoredResponse( Object response, long remainingMillis )
+        {
+            this.response = response;
+            this.remainingMillis = remainingMillis;
+        }
+
+        public Object getResponse()
+        {
+            return response;
+        }
+
+        public long getRemainingTtl( TimeUnit unit )
+        {
+            return unit.convert( remainingMillis, TimeUnit.MILLISECONDS );
+        }
+    }
+
+    private static final class Segment
+    {
+        private final long id;
+
+        private final Path path;
+
+        private final FileChannel channel;
+
+        private long size;
+
+        Segment( long id, Path path, FileChannel channel )
+        {
+            this.id = id;
+            this.path = path;
+            this.channel = channel;
+        }
+    }
+
+    private static final class Location
+    {
+        private Segment segment;
+
+        private long offset;
+
+        private final int length;
+
+        private final long expiresAt;
+
+        Location( Segment segment, long offset, int length, long expiresAt )
+        {
+            this.segment = segment;
+            this.offset = offset;
+            this.length = length;
+            this.expiresAt = expiresAt;
+        }
+    }
+}
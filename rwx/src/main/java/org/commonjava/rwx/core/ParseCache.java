@@ -0,0 +1,143 @@
+/**
+ * Copyright (C) 2010 Red Hat, Inc. (http://github.com/Commonjava/commonjava)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.commonjava.rwx.core;
+
+import org.commonjava.rwx.model.MethodCall;
+import org.commonjava.rwx.model.MethodResponse;
+import org.commonjava.rwx.util.ParseUtils;
+import org.commonjava.rwx.util.RpcDigest;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Bounded LRU cache of parsed payloads, keyed by the {@link RpcDigest} of their bytes (see
+ * {@link RpcDigest#ofBytes(byte[], int, int)}), so a byte-identical payload received again, e.g., when polling
+ * getTaskInfo, is not parsed again. The parsed MethodCall or MethodResponse tree is kept, not the object parsed from
+ * it: the cache keeps its own copy of the tree and hands out copies of it, so every hit is parsed to a new object
+ * and callers never share mutable values. Faults are not cached. Thread-safe.
+ */
+public final class ParseCache
+{
+    private final int maxEntries;
+
+    private final LinkedHashMap<RpcDigest, Object> entries;
+
+    private long hitCount;
+
+    private long missCount;
+
+    private long evictionCount;
+
+    public ParseCache( int maxEntries )
+    {
+        if ( maxEntries < 1 )
+        {
+            throw new IllegalArgumentException( "Max entries must be positive: " + maxEntries );
+        }
+        this.maxEntries = maxEntries;
+        this.entries = new LinkedHashMap<RpcDigest, Object>( 16, 0.75f, true )
+        {
+            @Override
+            protected boolean removeEldestEntry( Map.Entry<RpcDigest, Object> eldest )
+            {
+                if ( size() > ParseCache.this.maxEntries )
+                {
+                    evictionCount++;
+                    return true;
+                }
+                return false;
+            }
+        };
+    }
+
+    /**
+     * @param digest the digest of the payload
+     * @return a copy of the tree parsed from the payload, which the caller owns, or null
+     */
+    public Object get( RpcDigest digest )
+    {
+        Object tree;
+        synchronized ( this )
+        {
+            tree = entries.get( digest );
+            if ( tree == null )
+            {
+                missCount++;
+                return null;
+            }
+            hitCount++;
+        }
+        // cached trees are never modified, so they can be copied outside the lock
+        return ParseUtils.copyTree( tree );
+    }
+
+    /**
+     * Cache the tree parsed from a payload, if it is a MethodCall or MethodResponse.
+     *
+     * @param digest the digest of the payload
+     * @param tree the parsed tree; a copy is cached, so the caller may go on using it
+     */
+    public void put( RpcDigest digest, Object tree )
+    {
+        if ( !( tree instanceof MethodCall || tree instanceof MethodResponse ) )
+        {
+            return;
+        }
+        Object copy = ParseUtils.copyTree( tree );
+        synchronized ( this )
+        {
+            entries.put( digest, copy );
+        }
+    }
+
+    public synchronized void clear()
+    {
+        entries.clear();
+    }
+
+    public synchronized int size()
+    {
+        return entries.size();
+    }
+
+    public int getMaxEntries()
+    {
+        return maxEntries;
+    }
+
+    public synchronized long getHitCount()
+    {
+        return hitCount;
+    }
+
+    public synchronized long getMissCount()
+    {
+        return missCount;
+    }
+
+    public synchronized long getEvictionCount()
+    {
+        return evictionCount;
+    }
+
+    @Override
+    public synchronized String toString()
+    {
+        return "ParseCache{size=" + entries.size() + ", maxEntries=" + maxEntries + ", hits=" + hitCount
+                        + ", misses=" + missCount + ", evictions=" + evictionCount + "}";
+    }
+}
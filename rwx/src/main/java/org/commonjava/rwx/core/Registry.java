@@ -57,6 +57,24 @@ public class Registry
         return renderer.render( obj );
     }
 
+    /**
+     * Get the template renderer for the type, or null if its renderer only produces Map/List trees.
+     */
+    public <T> TemplateRenderer<T> getTemplateRenderer( Class<T> type )
+    {
+        Renderer<?> renderer = rendererMap.get( type );
+        return renderer instanceof TemplateRenderer ? (TemplateRenderer<T>) renderer : null;
+    }
+
+    /**
+     * Get the cache key provider for the type, or null if the type is not annotated with @RenderCache.
+     */
+    public <T> CacheKeyProvider<T> getCacheKeyProvider( Class<T> type )
+    {
+        Renderer<?> renderer = rendererMap.get( type );
+        return renderer instanceof CacheKeyProvider ? (CacheKeyProvider<T>) renderer : null;
+    }
+
     public boolean hasRenderer( Class<?> type )
     {
         return rendererMap.get( type ) != null;
@@ -0,0 +1,148 @@
+/**
+ * Copyright (C) 2010 Red Hat, Inc. (http://github.com/Commonjava/commonjava)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.commonjava.rwx.core;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Bounded LRU cache of rendered XML, e.g., UTF-8 bytes of whole documents in RWXMapper or pre-encoded fragments of
+ * @StructPart objects, keyed by {@link CacheKeyProvider#cacheKey(Object)} or {@link #identityKey(Object)}.
+ * Thread-safe.
+ */
+public final class RenderedXmlCache<V>
+{
+    private final int maxEntries;
+
+    private final LinkedHashMap<Object, V> entries;
+
+    private long hitCount;
+
+    private long missCount;
+
+    private long evictionCount;
+
+    public RenderedXmlCache( int maxEntries )
+    {
+        if ( maxEntries < 1 )
+        {
+            throw new IllegalArgumentException( "Max entries must be positive: " + maxEntries );
+        }
+        this.maxEntries = maxEntries;
+        this.entries = new LinkedHashMap<Object, V>( 16, 0.75f, true )
+        {
+            @Override
+            protected boolean removeEldestEntry( Map.Entry<Object, V> eldest )
+            {
+                if ( size() > RenderedXmlCache.this.maxEntries )
+                {
+                    evictionCount++;
+                    return true;
+                }
+                return false;
+            }
+        };
+    }
+
+    /**
+     * @return the cached value, which must not be modified, or null
+     */
+    public synchronized V get( Object key )
+    {
+        V value = entries.get( key );
+        if ( value == null )
+        {
+            missCount++;
+        }
+        else
+        {
+            hitCount++;
+        }
+        return value;
+    }
+
+    public synchronized void put( Object key, V value )
+    {
+        entries.put( key, value );
+    }
+
+    /**
+     * Get a key which matches only the given object itself, not other objects that are equal to it.
+     */
+    public static Object identityKey( Object object )
+    {
+        return new IdentityKey( object );
+    }
+
+    public synchronized void clear()
+    {
+        entries.clear();
+    }
+
+    public synchronized int size()
+    {
+        return entries.size();
+    }
+
+    public int getMaxEntries()
+    {
+        return maxEntries;
+    }
+
+    public synchronized long getHitCount()
+    {
+        return hitCount;
+    }
+
+    public synchronized long getMissCount()
+    {
+        return missCount;
+    }
+
+    public synchronized long getEvictionCount()
+    {
+        return evictionCount;
+    }
+
+    @Override
+    public synchronized String toString()
+    {
+        return "RenderedXmlCache{size=" + entries.size() + ", maxEntries=" + maxEntries + ", hits=" + hitCount
+                        + ", misses=" + missCount + ", evictions=" + evictionCount + "}";
+    }
+
+    private static final class IdentityKey
+    {
+        private final Object object;
+
+        IdentityKey( Object object )
+        {
+            this.object = object;
+        }
+
+        @Override
+        public boolean equals( Object other )
+        {
+            return other instanceof IdentityKey && ( (IdentityKey) other ).object == object;
+        }
+
+        @Override
+        public int hashCode()
+        {
+            return System.identityHashCode( object );
+        }
+    }
+}
@@ -0,0 +1,549 @@
+/**
+ * Copyright (C) 2010 Red Hat, Inc. (http://github.com/Commonjava/commonjava)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.commonjava.rwx.core;
+
+import org.commonjava.rwx.error.CoercionException;
+import org.commonjava.rwx.error.XmlRpcException;
+import org.commonjava.rwx.model.MethodCall;
+import org.commonjava.rwx.model.MethodResponse;
+import org.commonjava.rwx.util.BinaryRpcReader;
+import org.commonjava.rwx.util.BinaryRpcWriter;
+import org.commonjava.rwx.util.ByteBufferInputStream;
+import org.commonjava.rwx.util.ParseUtils;
+import org.commonjava.rwx.util.RpcDigest;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.function.LongSupplier;
+
+/**
+ * Bounded cache of parsed responses, keyed by the {@link RpcDigest} of the request's MethodCall, so equal requests
+ * share an entry no matter how their structs are ordered. Only MethodResponses are cached, never Faults. The cache
+ * keeps its own copy of a response and hands out copies of it, so callers never share structs, arrays or dates.
+ *
+ * Responses are kept for a per-method time to live. Methods without one use the default TTL, which is zero (not
+ * cached) until {@link #setDefaultTtl(long, TimeUnit)} is called, so only calls known to be immutable, e.g.,
+ * getBuild of a completed build, are cached by default.
+ *
+ * The heap tier is a segmented LRU: new entries go to a probation segment and are promoted to the protected
+ * segment, 80% of the entries, when they are hit again, so a scan of one-off calls does not flush the popular
+ * ones. If an off-heap capacity is given, entries evicted from the heap tier are encoded in the binary format
+ * (see {@link BinaryRpcWriter}) into direct buffers instead of being dropped, and are moved back to the heap when
+ * they are hit. A {@link DiskResponseStore} can be added as the last tier, so responses survive restarts: every
+ * cached response is also written to it, and it is looked up when both memory tiers miss. Thread-safe.
+ */
+public final class ResponseCache
+{
+    private final int maxEntries;
+
+    private final int maxProtected;
+
+    private final long maxOffHeapBytes;
+
+    private final LinkedHashMap<RpcDigest, Entry> probation = new LinkedHashMap<>( 16, 0.75f, true );
+
+    private final LinkedHashMap<RpcDigest, Entry> protectedEntries = new LinkedHashMap<>( 16, 0.75f, true );
+
+    private final LinkedHashMap<RpcDigest, OffHeapEntry> offHeap = new LinkedHashMap<>( 16, 0.75f, true );
+
+    private final Map<String, Long> ttls = new ConcurrentHashMap<>();
+
+    private volatile long defaultTtlNanos;
+
+    private volatile LongSupplier ticker = System::nanoTime;
+
+    private volatile DiskResponseStore diskStore;
+
+    private long offHeapBytes;
+
+    private long hitCount;
+
+    private long offHeapHitCount;
+
+    private long diskHitCount;
+
+    private long missCount;
+
+    private long evictionCount;
+
+    public ResponseCache( int maxEntries )
+    {
+        this( maxEntries, 0 );
+    }
+
+    /**
+     * @param maxEntries max number of responses kept on the heap
+     * @param maxOffHeapBytes max size of the encoded responses kept off the heap, or 0 for no off-heap tier
+     */
+    public ResponseCache( int maxEntries, long maxOffHeapBytes )
+    {
+        if ( maxEntries < 1 )
+        {
+            throw new IllegalArgumentException( "Max entries must be positive: " + maxEntries );
+        }
+        if ( maxOffHeapBytes < 0 )
+        {
+            throw new IllegalArgumentException( "Max off-heap bytes must not be negative: " + maxOffHeapBytes );
+        }
+        this.maxEntries = maxEntries;
+        this.maxProtected = maxEntries * 4 / 5;
+        this.maxOffHeapBytes = maxOffHeapBytes;
+    }
+
+    /**
+     * Get the cache key of a request, the digest of its MethodCall.
+     *
+     * @param request a MethodCall or an object with a @Request renderer
+     * @throws XmlRpcException if the request does not render to a MethodCall or cannot be digested
+     */
+    public static RpcDigest key( Object request ) throws XmlRpcException
+    {
+        Object call = request instanceof MethodCall ? request : Registry.getInstance().renderTo( request );
+        if ( !( call instanceof MethodCall ) )
+        {
+            throw new XmlRpcException( "Not a request: {}", request.getClass().getName() );
+        }
+        return RpcDigest.of( call );
+    }
+
+    /**
+     * Get the cached response to a request.
+     *
+     * @return a copy of the cached response tree, which the caller owns, or null
+     */
+    public Object get( Object request ) throws XmlRpcException
+    {
+        return get( key( request ) );
+    }
+
+    public Object get( RpcDigest key ) throws XmlRpcException
+    {
+        Object response = getInMemory( key );
+        if ( response != null )
+        {
+            return ParseUtils.copyTree( response );
+        }
+
+        // read outside the lock, the store has its own
+        DiskResponseStore store = diskStore;
+        DiskResponseStore.StoredResponse stored = store == null ? null : store.get( key );
+        synchronized ( this )
+        {
+            if ( stored == null )
+            {
+                missCount++;
+                return null;
+            }
+            hitCount++;
+            diskHitCount++;
+            put( key, stored.getResponse(), stored.getRemainingTtl( TimeUnit.NANOSECONDS ) );
+            return ParseUtils.copyTree( stored.getResponse() );
+        }
+    }
+
+    /**
+     * @return the response from either memory tier, counted as a hit, or null
+     */
+    private synchronized Object getInMemory( RpcDigest key ) throws XmlRpcException
+    {
+        long now = ticker.getAsLong();
+        Entry entry = probation.get( key );
+        if ( entry != null )
+        {
+            if ( entry.isExpired( now ) )
+            {
+                probation.remove( key );
+                return null;
+            }
+            // a second hit, promote it
+            probation.remove( key );
+            protectedEntries.put( key, entry );
+            demoteProtected();
+            hitCount++;
+            return entry.response;
+        }
+
+        entry = protectedEntries.get( key );
+        if ( entry != null )
+        {
+            if ( entry.isExpired( now ) )
+            {
+                protectedEntries.remove( key );
+                return null;
+            }
+            hitCount++;
+            return entry.response;
+        }
+
+        OffHeapEntry offHeapEntry = offHeap.remove( key );
+        if ( offHeapEntry != null )
+        {
+            offHeapBytes -= offHeapEntry.buffer.capacity();
+            if ( !offHeapEntry.isExpired( now ) )
+            {
+                Object response = decode( offHeapEntry.buffer );
+                hitCount++;
+                offHeapHitCount++;
+                // it was hit before it left the heap, so it goes back to the protected segment
+                protectedEntries.put( key, new Entry( response, offHeapEntry.expiresAt ) );
+                demoteProtected();
+                trim( now );
+                return response;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Cache the response to a request, if it is a MethodResponse and its method has a time to live.
+     *
+     * @param request a MethodCall or an object with a @Request renderer
+     * @param response the parsed response tree; a copy is cached, so the caller may go on using it
+     */
+    public void put( Object request, Object response ) throws XmlRpcException
+    {
+        if ( !( response instanceof MethodResponse ) )
+        {
+            return;
+        }
+        Object call = request instanceof MethodCall ? request : Registry.getInstance().renderTo( request );
+        if ( !( call instanceof MethodCall ) )
+        {
+            throw new XmlRpcException( "Not a request: {}", request.getClass().getName() );
+        }
+        long ttl = getTtlNanos( ( (MethodCall) call ).getMethodName() );
+        if ( ttl > 0 )
+        {
+            RpcDigest key = RpcDigest.of( call );
+            put( key, ParseUtils.copyTree( response ), ttl );
+            DiskResponseStore store = diskStore;
+            if ( store != null )
+            {
+                store.put( key, response, ttl, TimeUnit.NANOSECONDS );
+            }
+        }
+    }
+
+    private synchronized void put( RpcDigest key, Object response, long ttlNanos )
+    {
+        long now = ticker.getAsLong();
+        // capped so that expiry checks stay correct when nanoTime wraps
+        Entry entry = new Entry( response, now + Math.min( ttlNanos, Long.MAX_VALUE / 2 ) );
+
+        removeOffHeap( key );
+        if ( protectedEntries.containsKey( key ) )
+        {
+            protectedEntries.put( key, entry );
+            return;
+        }
+        probation.put( key, entry );
+        trim( now );
+    }
+
+    public void invalidate( Object request ) throws XmlRpcException
+    {
+        invalidate( key( request ) );
+    }
+
+    public void invalidate( RpcDigest key ) throws XmlRpcException
+    {
+        invalidateInMemory( key );
+        DiskResponseStore store = diskStore;
+        if ( store != null )
+        {
+            store.invalidate( key );
+        }
+    }
+
+    private synchronized void invalidateInMemory( RpcDigest key )
+    {
+        probation.remove( key );
+        protectedEntries.remove( key );
+        removeOffHeap( key );
+    }
+
+    /**
+     * Remove the responses held in memory. The disk store, if any, keeps its own, see
+     * {@link DiskResponseStore#clear()}.
+     */
+    public synchronized void clear()
+    {
+        probation.clear();
+        protectedEntries.clear();
+        offHeap.clear();
+        offHeapBytes = 0;
+    }
+
+    /**
+     * Set the time to live of the responses to a method, zero to not cache them.
+     */
+    public void setTtl( String methodName, long ttl, TimeUnit unit )
+    {
+        if ( ttl < 0 )
+        {
+            throw new IllegalArgumentException( "TTL must not be negative: " + ttl );
+        }
+        ttls.put( methodName, unit.toNanos( ttl ) );
+    }
+
+    /**
+     * Set the time to live of the responses to methods without their own TTL, zero (the default) to not cache them.
+     */
+    public void setDefaultTtl( long ttl, TimeUnit unit )
+    {
+        if ( ttl < 0 )
+        {
+            throw new IllegalArgumentException( "TTL must not be negative: " + ttl );
+        }
+        this.defaultTtlNanos = unit.toNanos( ttl );
+    }
+
+    public long getTtl( String methodName, TimeUnit unit )
+    {
+        return unit.convert( getTtlNanos( methodName ), TimeUnit.NANOSECONDS );
+    }
+
+    public DiskResponseStore getDiskStore()
+    {
+        return diskStore;
+    }
+
+    /**
+     * Set the store used as the last tier, null (the default) for none. Responses already in the store are served
+     * until they expire, with the TTL they were stored with. The store is not closed by the cache.
+     */
+    public void setDiskStore( DiskResponseStore diskStore )
+    {
+        this.diskStore = diskStore;
+    }
+
+    // for tests, to control time
+    void setTicker( LongSupplier ticker )
+    {
+        this.ticker = ticker;
+    }
+
+    public synchronized int size()
+    {
+        return probation.size() + protectedEntries.size();
+    }
+
+    public synchronized int getOffHeapSize()
+    {
+        return offHeap.size();
+    }
+
+    public synchronized long getOffHeapBytes()
+    {
+        return offHeapBytes;
+    }
+
+    public int getMaxEntries()
+    {
+        return maxEntries;
+    }
+
+    public long getMaxOffHeapBytes()
+    {
+        return maxOffHeapBytes;
+    }
+
+    /**
+     * @return number of hits in any tier
+     */
+    public synchronized long getHitCount()
+    {
+        return hitCount;
+    }
+
+    public synchronized long getOffHeapHitCount()
+    {
+        return offHeapHitCount;
+    }
+
+    public synchronized long getDiskHitCount()
+    {
+        return diskHitCount;
+    }
+
+    public synchronized long getMissCount()
+    {
+        return missCount;
+    }
+
+    /**
+     * @return number of live entries dropped for lack of room, not counting the ones moved off the heap
+     */
+    public synchronized long getEvictionCount()
+    {
+        return evictionCount;
+    }
+
+    @Override
+    public synchronized String toString()
+    {
+        return "ResponseCache{size=" + size() + ", maxEntries=" + maxEntries + ", offHeapSize=" + offHeap.size()
+                        + ", offHeapBytes=" + offHeapBytes + ", hits=" + hitCount + ", offHeapHits="
+                        + offHeapHitCount + ", diskHits=" + diskHitCount + ", misses=" + missCount + ", evictions=" + evictionCount + "}";
+    }
+
+    private long getTtlNanos( String methodName )
+    {
+        Long ttl = methodName == null ? null : ttls.get( methodName );
+        return ttl == null ? defaultTtlNanos : ttl;
+    }
+
+    private void demoteProtected()
+    {
+        while ( protectedEntries.size() > maxProtected )
+        {
+            Iterator<Map.Entry<RpcDigest, Entry>> it = protectedEntries.entrySet().iterator();
+            Map.Entry<RpcDigest, Entry> eldest = it.next();
+            it.remove();
+            probation.put( eldest.getKey(), eldest.getValue() );
+        }
+    }
+
+    private void trim( long now )
+    {
+        while ( probation.size() + protectedEntries.size() > maxEntries )
+        {
+            Iterator<Map.Entry<RpcDigest, Entry>> it = probation.entrySet().iterator();
+            Map.Entry<RpcDigest, Entry> eldest = it.next();
+            it.remove();
+            evict( eldest.getKey(), eldest.getValue(), now );
+        }
+    }
+
+    private void evict( RpcDigest key, Entry entry, long now )
+    {
+        if ( entry.isExpired( now ) )
+        {
+            return;
+        }
+        if ( maxOffHeapBytes == 0 )
+        {
+            evictionCount++;
+            return;
+        }
+
+        ByteBuffer buffer = encode( entry.response );
+        if ( buffer == null || buffer.capacity() > maxOffHeapBytes )
+        {
+            evictionCount++;
+            return;
+        }
+        offHeap.put( key, new OffHeapEntry( buffer, entry.expiresAt ) );
+        offHeapBytes += buffer.capacity();
+
+        Iterator<OffHeapEntry> it = offHeap.values().iterator();
+        while ( offHeapBytes > maxOffHeapBytes )
+        {
+            OffHeapEntry eldest = it.next();
+            it.remove();
+            offHeapBytes -= eldest.buffer.capacity();
+            if ( !eldest.isExpired( now ) )
+            {
+                evictionCount++;
+            }
+        }
+    }
+
+    private void removeOffHeap( RpcDigest key )
+    {
+        OffHeapEntry removed = offHeap.remove( key );
+        if ( removed != null )
+        {
+            offHeapBytes -= removed.buffer.capacity();
+        }
+    }
+
+    private static ByteBuffer encode( Object response )
+    {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try
+        {
+            BinaryRpcWriter writer = new BinaryRpcWriter( out );
+            writer.writePayload( response );
+            writer.flush();
+        }
+        catch ( IOException | CoercionException e )
+        {
+            // a value with no binary form, keep it on the heap only
+            return null;
+        }
+        byte[] bytes = out.toByteArray();
+        ByteBuffer buffer = ByteBuffer.allocateDirect( bytes.length );
+        buffer.put( bytes );
+        ( (Buffer) buffer ).flip();
+        return buffer;
+    }
+
+    private static Object decode( ByteBuffer buffer ) throws XmlRpcException
+    {
+        try
+        {
+            return new BinaryRpcReader( new ByteBufferInputStream( buffer ) ).readPayload();
+        }
+        catch ( IOException e )
+        {
+            throw new XmlRpcException( "Failed to decode cached response", e );
+        }
+    }
+
+    private static final class Entry
+    {
+        private final Object response;
+
+        private final long expiresAt;
+
+        Entry( Object response, long expiresAt )
+        {
+            this.response = response;
+            this.expiresAt = expiresAt;
+        }
+
+        boolean isExpired( long now )
+        {
+            return now - expiresAt >= 0;
+        }
+    }
+
+    private static final class OffHeapEntry
+    {
+        private final ByteBuffer buffer;
+
+        private final long expiresAt;
+
+        OffHeapEntry( ByteBuffer buffer, long expiresAt )
+        {
+            this.buffer = buffer;
+            this.expiresAt = expiresAt;
+        }
+
+        boolean isExpired( long now )
+        {
+            return now - expiresAt >= 0;
+        }
+    }
+}
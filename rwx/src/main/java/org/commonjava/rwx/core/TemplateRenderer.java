@@ -0,0 +1,72 @@
+/**
+ * Copyright (C) 2010 Red Hat, Inc. (http://github.com/Commonjava/commonjava)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.commonjava.rwx.core;
+
+import org.commonjava.rwx.error.XmlRpcException;
+import org.commonjava.rwx.util.RenderUtils;
+import org.commonjava.rwx.util.XmlRpcWriter;
+
+import java.io.IOException;
+import java.util.List;
+
+/**
+ * Renderer which writes straight to an XmlRpcWriter instead of building a Map/List tree. AnnoProcessor generates
+ * it for @Request classes, whose markup around each @DataIndex slot is known at compile time, so only the slot
+ * values are rendered per call. It also generates it for @RenderCache struct parts, which write what goes inside
+ * &lt;value&gt; from the writer's {@link XmlRpcWriter#getFragments()} when an equal part was written before.
+ */
+public interface TemplateRenderer<T>
+{
+    void write( T value, XmlRpcWriter writer ) throws IOException, XmlRpcException;
+
+    /**
+     * Write a nested part as &lt;value&gt;, through the part's template renderer if it has one.
+     */
+    static <T> void writeValue( Renderer<T> renderer, T value, XmlRpcWriter writer )
+                    throws IOException, XmlRpcException
+    {
+        if ( value == null || !( renderer instanceof TemplateRenderer ) )
+        {
+            writer.value( value == null ? null : renderer.render( value ) );
+            return;
+        }
+        writer.startValue();
+        ( (TemplateRenderer<T>) renderer ).write( value, writer );
+        writer.endValue();
+    }
+
+    /**
+     * Write a list of nested parts as &lt;value&gt;, through the parts' template renderer if they have one. Otherwise
+     * the elements are rendered while the array is written, in parallel if the writer does so.
+     */
+    static <T> void writeArray( Renderer<T> renderer, List<T> values, XmlRpcWriter writer )
+                    throws IOException, XmlRpcException
+    {
+        if ( values == null || !( renderer instanceof TemplateRenderer ) )
+        {
+            writer.value( RenderUtils.renderedView( values, renderer::render ) );
+            return;
+        }
+        writer.startValue();
+        writer.startArray();
+        for ( T value : values )
+        {
+            writeValue( renderer, value, writer );
+        }
+        writer.endArray();
+        writer.endValue();
+    }
+}
@@ -31,8 +31,10 @@ import javax.xml.stream.XMLStreamConstants;
 import javax.xml.stream.XMLStreamException;
 import javax.xml.stream.XMLStreamReader;
 import java.io.InputStream;
+import java.io.Reader;
 import java.util.AbstractMap.SimpleEntry;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
@@ -54,6 +56,8 @@ public class XmlRpcParser
 
     private XMLStreamReader reader;
 
+    private char[] textBuffer = new char[64];
+
     public XmlRpcParser( final InputStream in ) throws XmlRpcException
     {
         factory = XMLInputFactory.newInstance();
@@ -67,6 +71,22 @@ public class XmlRpcParser
         }
     }
 
+    /**
+     * Parse from chars, e.g., a payload which is already held as a String, without encoding it to bytes first.
+     */
+    public XmlRpcParser( final Reader in ) throws XmlRpcException
+    {
+        factory = XMLInputFactory.newInstance();
+        try
+        {
+            reader = factory.createXMLStreamReader( in );
+        }
+        catch ( final XMLStreamException e )
+        {
+            throw new XmlRpcException( "Failed to initialize stream reader: " + e.getMessage(), e );
+        }
+    }
+
     /**
      * Parse method request or response. XML-RPC response has either fault or params element.
      * @return
@@ -113,6 +133,94 @@ public class XmlRpcParser
         return ret;
     }
 
+    /**
+     * Handler of the elements of an array response, see {@link #parseArrayResponse(ArrayElementHandler)}.
+     */
+    public interface ArrayElementHandler
+    {
+        void element( int index, Object value ) throws XmlRpcException;
+    }
+
+    /**
+     * Parse a response whose param is an array, e.g., a multicall response, passing each element to the handler as
+     * soon as it is parsed rather than after the whole response is read. Parsing stops at the end of the array.
+     *
+     * @return the number of elements, or -1 if the response is a fault
+     */
+    public int parseArrayResponse( ArrayElementHandler handler ) throws XmlRpcException, XMLStreamException
+    {
+        return parseArrayResponse( handler, null );
+    }
+
+    /**
+     * As {@link #parseArrayResponse(ArrayElementHandler)}, setting the value of the fault if the response is one.
+     */
+    public int parseArrayResponse( ArrayElementHandler handler, Fault fault )
+                    throws XmlRpcException, XMLStreamException
+    {
+        String localName = nextStartElement();
+        if ( !localName.equals( RESPONSE ) )
+        {
+            throw new XmlRpcException( "Invalid XML-RPC response root element: " + localName );
+        }
+
+        localName = nextStartElement();
+        if ( localName.equals( FAULT ) )
+        {
+            Object value = parseFault( reader );
+            if ( fault != null )
+            {
+                fault.setValue( value );
+            }
+            return -1;
+        }
+
+        for ( String expected : Arrays.asList( PARAMS, PARAM, VALUE, ARRAY, DATA ) )
+        {
+            if ( !localName.equals( expected ) )
+            {
+                throw new XmlRpcException( "Expected <" + expected + "> in array response, found <" + localName + ">" );
+            }
+            if ( !expected.equals( DATA ) )
+            {
+                localName = nextStartElement();
+            }
+        }
+
+        int index = 0;
+        int event;
+        while ( ( event = reader.next() ) != XMLStreamConstants.END_ELEMENT )
+        {
+            if ( event == XMLStreamConstants.START_ELEMENT )
+            {
+                if ( !reader.getLocalName().equals( VALUE ) )
+                {
+                    throw new XmlRpcException( "Invalid array element: " + reader.getLocalName() );
+                }
+                handler.element( index++, parseValue( reader ) );
+            }
+            else if ( event == XMLStreamConstants.END_DOCUMENT )
+            {
+                throw new XmlRpcException( "Unexpected end of array response" );
+            }
+        }
+        return index;
+    }
+
+    private String nextStartElement() throws XmlRpcException, XMLStreamException
+    {
+        int event;
+        while ( ( event = reader.next() ) != XMLStreamConstants.START_ELEMENT )
+        {
+            if ( event == XMLStreamConstants.END_ELEMENT || event == XMLStreamConstants.END_DOCUMENT )
+            {
+                throw new XmlRpcException( "Unexpected end of XML-RPC response" );
+            }
+        }
+        logger.trace( "Start <" + reader.getLocalName() + ">" );
+        return reader.getLocalName();
+    }
+
     private MethodCall parseRequest( XMLStreamReader reader ) throws XMLStreamException, CoercionException
     {
         MethodCall ret = new MethodCall();
@@ -471,7 +579,7 @@ public class XmlRpcParser
         Object ret = null;
 
         ValueType vt = ValueType.typeOf( type );
-        StringBuilder sb = null;
+        int length = -1;
 
         int level = 1;
         do
@@ -479,13 +587,19 @@ public class XmlRpcParser
             int event = reader.next();
             if ( event == XMLStreamConstants.CHARACTERS )
             {
-                String text = reader.getText();
-                logger.trace( "Read value: " + text + ", type=" + type );
-                if ( sb == null )
+                // copy into the reusable buffer, the reader's own buffer is only valid until the next event
+                int textLength = reader.getTextLength();
+                if ( length < 0 )
+                {
+                    length = 0;
+                }
+                ensureTextCapacity( length + textLength );
+                System.arraycopy( reader.getTextCharacters(), reader.getTextStart(), textBuffer, length, textLength );
+                length += textLength;
+                if ( logger.isTraceEnabled() )
                 {
-                    sb = new StringBuilder();
+                    logger.trace( "Read value: " + reader.getText() + ", type=" + type );
                 }
-                sb.append( text );
             }
             else if ( event == XMLStreamConstants.END_ELEMENT )
             {
@@ -495,13 +609,21 @@ public class XmlRpcParser
         }
         while ( level > 0 );
 
-        if ( sb != null )
+        if ( length >= 0 )
         {
-            ret = vt.coercion().fromString( sb.toString() );
+            ret = vt.coercion().fromChars( textBuffer, 0, length );
         }
         return ret;
     }
 
+    private void ensureTextCapacity( int capacity )
+    {
+        if ( textBuffer.length < capacity )
+        {
+            textBuffer = Arrays.copyOf( textBuffer, Math.max( capacity, textBuffer.length * 2 ) );
+        }
+    }
+
     private Object parseNil( XMLStreamReader reader ) throws XMLStreamException, CoercionException
     {
         int level = 1;
@@ -0,0 +1,347 @@
+/**
+ * Copyright (C) 2010 Red Hat, Inc. (http://github.com/Commonjava/commonjava)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.commonjava.rwx.util;
+
+import org.commonjava.rwx.error.XmlRpcException;
+import org.commonjava.rwx.model.Fault;
+import org.commonjava.rwx.model.MethodCall;
+import org.commonjava.rwx.model.MethodResponse;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.commonjava.rwx.util.BinaryRpcWriter.*;
+import static org.commonjava.rwx.vocab.Nil.NIL_VALUE;
+
+/**
+ * Reader of the binary encoding written by {@link BinaryRpcWriter}. It gives the same tree XmlRpcParser gives for
+ * the equivalent XML: MethodCall, MethodResponse or Fault with HashMap structs, ArrayList arrays, Integer, Long,
+ * Boolean, Double, String, Date, byte[] and Nil.NIL_VALUE for nil. The one difference is that an empty string stays
+ * "" instead of becoming null.
+ *
+ * The input is read through a buffer, so the reader may read past the end of the payload. Instances are not
+ * thread-safe.
+ */
+public final class BinaryRpcReader
+{
+    // arrays and strings are allocated at most this big up front, so a corrupt length can not exhaust the heap
+    private static final int MAX_PREALLOCATED = 1 << 16;
+
+    private static final int MAX_DEPTH = 512;
+
+    private final InputStream in;
+
+    private final byte[] buf;
+
+    private int pos;
+
+    private int len;
+
+    private final List<String> keys = new ArrayList<>();
+
+    private int depth;
+
+    public BinaryRpcReader( InputStream in )
+    {
+        this( in, RenderUtils.DEFAULT_BUFFER_SIZE );
+    }
+
+    public BinaryRpcReader( InputStream in, int bufferSize )
+    {
+        this.in = in;
+        this.buf = new byte[Math.max( bufferSize, 16 )];
+    }
+
+    /**
+     * Read a complete payload: check the header and read the MethodCall, MethodResponse, Fault or value.
+     *
+     * @throws XmlRpcException if the payload is not in the binary format, of an unsupported version, or corrupt
+     * @throws IOException if the stream cannot be read or ends early
+     */
+    public Object readPayload() throws IOException, XmlRpcException
+    {
+        for ( byte b : MAGIC )
+        {
+            if ( readByte() != b )
+            {
+                throw new XmlRpcException( "Not a binary XML-RPC payload" );
+            }
+        }
+        int version = readByte();
+        if ( version != VERSION )
+        {
+            throw new XmlRpcException( "Unsupported binary XML-RPC version: {}", version );
+        }
+
+        int tag = readByte();
+        switch ( tag )
+        {
+            case METHOD_CALL:
+            {
+                MethodCall call = new MethodCall();
+                call.setMethodName( readString() );
+                call.setParams( readArray( readLength() ) );
+                return call;
+            }
+            case METHOD_RESPONSE:
+            {
+                MethodResponse response = new MethodResponse();
+                response.setParams( readArray( readLength() ) );
+                return response;
+            }
+            case FAULT:
+            {
+                Fault fault = new Fault();
+                fault.setValue( readValue() );
+                return fault;
+            }
+            default:
+                return readValue( tag );
+        }
+    }
+
+    /**
+     * Read one tagged value.
+     */
+    public Object readValue() throws IOException, XmlRpcException
+    {
+        return readValue( readByte() );
+    }
+
+    private Object readValue( int tag ) throws IOException, XmlRpcException
+    {
+        switch ( tag )
+        {
+            case NIL:
+                return NIL_VALUE;
+            case FALSE:
+                return Boolean.FALSE;
+            case TRUE:
+                return Boolean.TRUE;
+            case INT:
+            {
+                long value = unZigZag( readVarlong() );
+                if ( value != (int) value )
+                {
+                    throw new XmlRpcException( "Int out of range: {}", value );
+                }
+                return (int) value;
+            }
+            case LONG:
+                return unZigZag( readVarlong() );
+            case DOUBLE:
+                return Double.longBitsToDouble( readLong() );
+            case STRING:
+                return readString();
+            case DATETIME:
+                return new Date( unZigZag( readVarlong() ) );
+            case BASE64:
+                return readBytes( readLength() );
+            case STRUCT:
+            {
+                enter();
+                int count = readLength();
+                Map<String, Object> map = new HashMap<>( Math.min( count, MAX_PREALLOCATED ) * 4 / 3 + 1 );
+                for ( int i = 0; i < count; i++ )
+                {
+                    String key = readKey();
+                    map.put( key, readValue() );
+                }
+                depth--;
+                return map;
+            }
+            case ARRAY:
+                return readArray( readLength() );
+            case ARRAY_STREAM:
+            {
+                enter();
+                List<Object> list = new ArrayList<>();
+                for ( int t = readByte(); t != END; t = readByte() )
+                {
+                    list.add( readValue( t ) );
+                }
+                depth--;
+                return list;
+            }
+            default:
+                throw new XmlRpcException( "Invalid binary XML-RPC tag: {}", tag );
+        }
+    }
+
+    private List<Object> readArray( int count ) throws IOException, XmlRpcException
+    {
+        enter();
+        List<Object> list = new ArrayList<>( Math.min( count, MAX_PREALLOCATED ) );
+        for ( int i = 0; i < count; i++ )
+        {
+            list.add( readValue() );
+        }
+        depth--;
+        return list;
+    }
+
+    private void enter() throws XmlRpcException
+    {
+        if ( ++depth > MAX_DEPTH )
+        {
+            throw new XmlRpcException( "Binary XML-RPC payload nested deeper than {}", MAX_DEPTH );
+        }
+    }
+
+    private String readKey() throws IOException, XmlRpcException
+    {
+        int ref = readLength();
+        if ( ref == 0 )
+        {
+            String key = readString();
+            if ( keys.size() < MAX_KEYS )
+            {
+                keys.add( key );
+            }
+            return key;
+        }
+        if ( ref > keys.size() )
+        {
+            throw new XmlRpcException( "Invalid struct key reference: {}", ref );
+        }
+        return keys.get( ref - 1 );
+    }
+
+    private static long unZigZag( long value )
+    {
+        return value >>> 1 ^ -( value & 1 );
+    }
+
+    private int readByte() throws IOException
+    {
+        if ( pos == len && !fill( 1 ) )
+        {
+            throw new EOFException( "Unexpected end of binary XML-RPC payload" );
+        }
+        return buf[pos++] & 0xff;
+    }
+
+    /**
+     * Make sure there are at least n (at most the buffer size) unread bytes in the buffer.
+     *
+     * @return false if the stream ended before
+     */
+    private boolean fill( int n ) throws IOException
+    {
+        if ( len - pos >= n )
+        {
+            return true;
+        }
+        System.arraycopy( buf, pos, buf, 0, len - pos );
+        len -= pos;
+        pos = 0;
+        while ( len < n )
+        {
+            int read = in.read( buf, len, buf.length - len );
+            if ( read < 0 )
+            {
+                return false;
+            }
+            len += read;
+        }
+        return true;
+    }
+
+    private long readVarlong() throws IOException, XmlRpcException
+    {
+        long value = 0;
+        for ( int shift = 0; shift < 64; shift += 7 )
+        {
+            int b = readByte();
+            value |= (long) ( b & 0x7f ) << shift;
+            if ( b < 0x80 )
+            {
+                return value;
+            }
+        }
+        throw new XmlRpcException( "Malformed varint" );
+    }
+
+    private int readLength() throws IOException, XmlRpcException
+    {
+        long value = readVarlong();
+        if ( value < 0 || value > Integer.MAX_VALUE )
+        {
+            throw new XmlRpcException( "Invalid length: {}", value );
+        }
+        return (int) value;
+    }
+
+    private long readLong() throws IOException
+    {
+        if ( !fill( 8 ) )
+        {
+            throw new EOFException( "Unexpected end of binary XML-RPC payload" );
+        }
+        long value = 0;
+        for ( int i = 0; i < 8; i++ )
+        {
+            value = value << 8 | ( buf[pos++] & 0xff );
+        }
+        return value;
+    }
+
+    private String readString() throws IOException, XmlRpcException
+    {
+        int length = readLength();
+        if ( length <= buf.length )
+        {
+            if ( !fill( length ) )
+            {
+                throw new EOFException( "Unexpected end of binary XML-RPC payload" );
+            }
+            String s = new String( buf, pos, length, StandardCharsets.UTF_8 );
+            pos += length;
+            return s;
+        }
+        return new String( readBytes( length ), StandardCharsets.UTF_8 );
+    }
+
+    private byte[] readBytes( int length ) throws IOException
+    {
+        byte[] bytes = new byte[Math.min( length, MAX_PREALLOCATED )];
+        int n = 0;
+        while ( n < length )
+        {
+            if ( pos == len && !fill( 1 ) )
+            {
+                throw new EOFException( "Unexpected end of binary XML-RPC payload" );
+            }
+            if ( n == bytes.length )
+            {
+                bytes = Arrays.copyOf( bytes, (int) Math.min( length, bytes.length * 2L ) );
+            }
+            int chunk = Math.min( length - n, Math.min( len - pos, bytes.length - n ) );
+            System.arraycopy( buf, pos, bytes, n, chunk );
+            pos += chunk;
+            n += chunk;
+        }
+        return bytes;
+    }
+}
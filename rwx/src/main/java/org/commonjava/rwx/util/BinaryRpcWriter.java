@@ -0,0 +1,447 @@
+/**
+ * Copyright (C) 2010 Red Hat, Inc. (http://github.com/Commonjava/commonjava)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.commonjava.rwx.util;
+
+import org.commonjava.rwx.error.CoercionException;
+import org.commonjava.rwx.model.Fault;
+import org.commonjava.rwx.model.MethodCall;
+import org.commonjava.rwx.model.MethodResponse;
+import org.commonjava.rwx.vocab.ValueType;
+
+import java.io.Closeable;
+import java.io.Flushable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Writer of the compact binary encoding of MethodCall, MethodResponse, Fault and Map/List/primitive trees, for
+ * storage and for the wire between services which both support it. It is much smaller and faster than XML and
+ * {@link BinaryRpcReader} reads it back to the same tree XmlRpcParser would give, so generated parsers consume it
+ * as is.
+ *
+ * A payload is the magic "RWXB", a version byte and one tagged value. The tags are:
+ * <ul>
+ * <li>NIL, FALSE, TRUE: no content</li>
+ * <li>INT, LONG: zig-zag varint</li>
+ * <li>DOUBLE: 8 bytes IEEE 754, big-endian</li>
+ * <li>STRING: varint length and UTF-8 bytes</li>
+ * <li>DATETIME: zig-zag varint epoch millis</li>
+ * <li>BASE64: varint length and the raw bytes</li>
+ * <li>STRUCT: varint member count, then per member a key and a value. A key is a varint, 0 for a new key followed by
+ * its length and UTF-8 bytes, which is added to the key dictionary of the payload, or the dictionary index + 1 of a
+ * key seen before</li>
+ * <li>ARRAY: varint element count and the values</li>
+ * <li>ARRAY_STREAM: values up to an END tag, written for Iterator, Stream and ArraySource sources</li>
+ * <li>METHOD_CALL: method name as STRING content and the params as ARRAY content</li>
+ * <li>METHOD_RESPONSE: the params as ARRAY content</li>
+ * <li>FAULT: the fault value</li>
+ * </ul>
+ * Instances are not thread-safe. The output is buffered, call flush() at the end.
+ */
+public final class BinaryRpcWriter
+                implements Flushable, Closeable
+{
+    static final byte[] MAGIC = { 'R', 'W', 'X', 'B' };
+
+    static final int VERSION = 1;
+
+    static final int NIL = 0;
+
+    static final int FALSE = 1;
+
+    static final int TRUE = 2;
+
+    static final int INT = 3;
+
+    static final int LONG = 4;
+
+    static final int DOUBLE = 5;
+
+    static final int STRING = 6;
+
+    static final int DATETIME = 7;
+
+    static final int BASE64 = 8;
+
+    static final int STRUCT = 9;
+
+    static final int ARRAY = 10;
+
+    static final int ARRAY_STREAM = 11;
+
+    static final int END = 12;
+
+    static final int METHOD_CALL = 16;
+
+    static final int METHOD_RESPONSE = 17;
+
+    static final int FAULT = 18;
+
+    /**
+     * Keys beyond this many distinct ones are written literally each time, which bounds the dictionary of both sides.
+     */
+    static final int MAX_KEYS = 4096;
+
+    private final OutputStream out;
+
+    private final byte[] buf;
+
+    private int pos;
+
+    private final Map<String, Integer> keys = new HashMap<>();
+
+    public BinaryRpcWriter( OutputStream out )
+    {
+        this( out, RenderUtils.DEFAULT_BUFFER_SIZE );
+    }
+
+    public BinaryRpcWriter( OutputStream out, int bufferSize )
+    {
+        this.out = out;
+        this.buf = new byte[Math.max( bufferSize, 16 )];
+    }
+
+    /**
+     * Write a complete payload: header and the MethodCall, MethodResponse, Fault or value. Call it once per payload,
+     * the key dictionary is not reset.
+     */
+    public void writePayload( Object root ) throws IOException, CoercionException
+    {
+        for ( byte b : MAGIC )
+        {
+            writeByte( b );
+        }
+        writeByte( VERSION );
+
+        if ( root instanceof MethodCall )
+        {
+            MethodCall call = (MethodCall) root;
+            writeByte( METHOD_CALL );
+            writeString( call.getMethodName() == null ? "" : call.getMethodName() );
+            writeArray( call.getParams() );
+        }
+        else if ( root instanceof MethodResponse )
+        {
+            writeByte( METHOD_RESPONSE );
+            writeArray( ( (MethodResponse) root ).getParams() );
+        }
+        else if ( root instanceof Fault )
+        {
+            writeByte( FAULT );
+            value( ( (Fault) root ).getValue() );
+        }
+        else
+        {
+            value( root );
+        }
+    }
+
+    /**
+     * Write one tagged value: Map as struct, List as array, Iterator, Stream or ArraySource as array stream, a
+     * Fragment by its tree, anything else as primitive chosen the same way XML rendering does.
+     */
+    public void value( Object object ) throws IOException, CoercionException
+    {
+        if ( object instanceof XmlRpcWriter.Fragment )
+        {
+            Object tree = ( (XmlRpcWriter.Fragment) object ).getTree();
+            if ( tree == null )
+            {
+                throw new CoercionException( "Cannot encode XML markup without its tree: " + object );
+            }
+            object = tree;
+        }
+
+        if ( object instanceof Map<?, ?> )
+        {
+            Map<String, Object> map = (Map<String, Object>) object;
+            writeByte( STRUCT );
+            writeVarint( map.size() );
+            for ( Map.Entry<String, Object> entry : map.entrySet() )
+            {
+                writeKey( entry.getKey() );
+                value( entry.getValue() );
+            }
+        }
+        else if ( object instanceof List )
+        {
+            writeByte( ARRAY );
+            writeArray( (List<Object>) object );
+        }
+        else
+        {
+            Iterator<?> elements = XmlRpcWriter.sourceIterator( object );
+            if ( elements != null )
+            {
+                writeByte( ARRAY_STREAM );
+                while ( elements.hasNext() )
+                {
+                    value( elements.next() );
+                }
+                writeByte( END );
+            }
+            else
+            {
+                primitive( object );
+            }
+        }
+    }
+
+    private void writeArray( List<Object> list ) throws IOException, CoercionException
+    {
+        if ( list == null )
+        {
+            writeVarint( 0 );
+            return;
+        }
+        writeVarint( list.size() );
+        for ( Object element : list )
+        {
+            value( element );
+        }
+    }
+
+    private void primitive( Object object ) throws IOException, CoercionException
+    {
+        ValueType type = ValueType.safeTypeFor( object );
+        switch ( type )
+        {
+            case NIL:
+                writeByte( NIL );
+                break;
+            case INT:
+                writeByte( INT );
+                writeVarlong( zigZag( (Integer) object ) );
+                break;
+            case LONG:
+                writeByte( LONG );
+                writeVarlong( zigZag( (Long) object ) );
+                break;
+            case BOOLEAN:
+                writeByte( (Boolean) object ? TRUE : FALSE );
+                break;
+            case DOUBLE:
+                writeByte( DOUBLE );
+                writeLong( Double.doubleToRawLongBits( ( (Number) object ).doubleValue() ) );
+                break;
+            case DATETIME:
+            {
+                Date date;
+                try
+                {
+                    date = Iso8601Codec.convert( object, Date.class );
+                }
+                catch ( ClassCastException e )
+                {
+                    throw new CoercionException( "Not a supported date/time value: " + object, e );
+                }
+                writeByte( DATETIME );
+                writeVarlong( zigZag( date.getTime() ) );
+                break;
+            }
+            case BASE64:
+            {
+                byte[] bytes = (byte[]) object;
+                writeByte( BASE64 );
+                writeVarint( bytes.length );
+                writeBytes( bytes, 0, bytes.length );
+                break;
+            }
+            default:
+                writeByte( STRING );
+                writeString( type.coercion().toString( object ) );
+        }
+    }
+
+    private void writeKey( String key ) throws IOException
+    {
+        Integer index = keys.get( key );
+        if ( index != null )
+        {
+            writeVarint( index + 1 );
+            return;
+        }
+        writeVarint( 0 );
+        writeString( key );
+        if ( keys.size() < MAX_KEYS )
+        {
+            keys.put( key, keys.size() );
+        }
+    }
+
+    private static long zigZag( long value )
+    {
+        return value << 1 ^ value >> 63;
+    }
+
+    private void writeByte( int b ) throws IOException
+    {
+        if ( pos == buf.length )
+        {
+            flushBuffer();
+        }
+        buf[pos++] = (byte) b;
+    }
+
+    private void writeVarint( int value ) throws IOException
+    {
+        writeVarlong( value & 0xffffffffL );
+    }
+
+    private void writeVarlong( long value ) throws IOException
+    {
+        if ( buf.length - pos < 10 )
+        {
+            flushBuffer();
+        }
+        while ( ( value & ~0x7fL ) != 0 )
+        {
+            buf[pos++] = (byte) ( value & 0x7f | 0x80 );
+            value >>>= 7;
+        }
+        buf[pos++] = (byte) value;
+    }
+
+    private void writeLong( long value ) throws IOException
+    {
+        if ( buf.length - pos < 8 )
+        {
+            flushBuffer();
+        }
+        for ( int shift = 56; shift >= 0; shift -= 8 )
+        {
+            buf[pos++] = (byte) ( value >>> shift );
+        }
+    }
+
+    private void writeBytes( byte[] bytes, int off, int len ) throws IOException
+    {
+        if ( len > buf.length - pos )
+        {
+            flushBuffer();
+            if ( len > buf.length )
+            {
+                out.write( bytes, off, len );
+                return;
+            }
+        }
+        System.arraycopy( bytes, off, buf, pos, len );
+        pos += len;
+    }
+
+    /**
+     * Write the UTF-8 length and bytes without creating a byte array. A lone surrogate is written as '?', same as
+     * in XML rendering.
+     */
+    private void writeString( String s ) throws IOException
+    {
+        int length = s.length();
+        int utf8Length = length;
+        for ( int i = 0; i < length; i++ )
+        {
+            char c = s.charAt( i );
+            if ( c < 0x80 )
+            {
+                continue;
+            }
+            else if ( c < 0x800 )
+            {
+                utf8Length += 1;
+            }
+            else if ( !Character.isSurrogate( c ) )
+            {
+                utf8Length += 2;
+            }
+            else if ( Character.isHighSurrogate( c ) && i + 1 < length && Character.isLowSurrogate( s.charAt( i + 1 ) ) )
+            {
+                utf8Length += 2; // 4 bytes for 2 chars
+                i++;
+            }
+            // a lone surrogate is written as '?', one byte for one char
+        }
+        writeVarint( utf8Length );
+
+        for ( int i = 0; i < length; i++ )
+        {
+            if ( buf.length - pos < 4 )
+            {
+                flushBuffer();
+            }
+            char c = s.charAt( i );
+            if ( c < 0x80 )
+            {
+                buf[pos++] = (byte) c;
+            }
+            else if ( c < 0x800 )
+            {
+                buf[pos++] = (byte) ( 0xc0 | c >> 6 );
+                buf[pos++] = (byte) ( 0x80 | c & 0x3f );
+            }
+            else if ( Character.isSurrogate( c ) )
+            {
+                if ( Character.isHighSurrogate( c ) && i + 1 < length && Character.isLowSurrogate( s.charAt( i + 1 ) ) )
+                {
+                    int cp = Character.toCodePoint( c, s.charAt( ++i ) );
+                    buf[pos++] = (byte) ( 0xf0 | cp >> 18 );
+                    buf[pos++] = (byte) ( 0x80 | cp >> 12 & 0x3f );
+                    buf[pos++] = (byte) ( 0x80 | cp >> 6 & 0x3f );
+                    buf[pos++] = (byte) ( 0x80 | cp & 0x3f );
+                }
+                else
+                {
+                    buf[pos++] = '?';
+                }
+            }
+            else
+            {
+                buf[pos++] = (byte) ( 0xe0 | c >> 12 );
+                buf[pos++] = (byte) ( 0x80 | c >> 6 & 0x3f );
+                buf[pos++] = (byte) ( 0x80 | c & 0x3f );
+            }
+        }
+    }
+
+    private void flushBuffer() throws IOException
+    {
+        if ( pos > 0 )
+        {
+            out.write( buf, 0, pos );
+            pos = 0;
+        }
+    }
+
+    /**
+     * Write the buffered output and flush the stream.
+     */
+    @Override
+    public void flush() throws IOException
+    {
+        flushBuffer();
+        out.flush();
+    }
+
+    @Override
+    public void close() throws IOException
+    {
+        flush();
+        out.close();
+    }
+}
@@ -0,0 +1,90 @@
+/**
+ * Copyright (C) 2010 Red Hat, Inc. (http://github.com/Commonjava/commonjava)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.commonjava.rwx.util;
+
+import java.io.InputStream;
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+
+/**
+ * InputStream over the remaining bytes of a ByteBuffer, e.g., a memory-mapped file, which is read in place instead
+ * of being copied into a byte array first. The stream reads from a duplicate, so the position of the given buffer
+ * does not change. Not thread-safe.
+ */
+public final class ByteBufferInputStream
+                extends InputStream
+{
+    private final ByteBuffer buffer;
+
+    public ByteBufferInputStream( ByteBuffer buffer )
+    {
+        this.buffer = buffer.duplicate();
+    }
+
+    @Override
+    public int read()
+    {
+        return buffer.hasRemaining() ? buffer.get() & 0xff : -1;
+    }
+
+    @Override
+    public int read( byte[] b, int off, int len )
+    {
+        if ( len == 0 )
+        {
+            return 0;
+        }
+        int n = Math.min( len, buffer.remaining() );
+        if ( n == 0 )
+        {
+            return -1;
+        }
+        buffer.get( b, off, n );
+        return n;
+    }
+
+    @Override
+    public long skip( long n )
+    {
+        int skipped = (int) Math.max( 0, Math.min( n, buffer.remaining() ) );
+        ( (Buffer) buffer ).position( buffer.position() + skipped );
+        return skipped;
+    }
+
+    @Override
+    public int available()
+    {
+        return buffer.remaining();
+    }
+
+    @Override
+    public boolean markSupported()
+    {
+        return true;
+    }
+
+    @Override
+    public void mark( int readlimit )
+    {
+        ( (Buffer) buffer ).mark();
+    }
+
+    @Override
+    public void reset()
+    {
+        ( (Buffer) buffer ).reset();
+    }
+}
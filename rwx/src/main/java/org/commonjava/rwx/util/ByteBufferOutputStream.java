@@ -0,0 +1,46 @@
+/**
+ * Copyright (C) 2010 Red Hat, Inc. (http://github.com/Commonjava/commonjava)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.commonjava.rwx.util;
+
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+
+/**
+ * OutputStream which puts the bytes into a ByteBuffer, advancing its position. Writing past the limit throws
+ * BufferOverflowException, the buffer does not grow. Not thread-safe.
+ */
+public final class ByteBufferOutputStream
+                extends OutputStream
+{
+    private final ByteBuffer buffer;
+
+    public ByteBufferOutputStream( ByteBuffer buffer )
+    {
+        this.buffer = buffer;
+    }
+
+    @Override
+    public void write( int b )
+    {
+        buffer.put( (byte) b );
+    }
+
+    @Override
+    public void write( byte[] b, int off, int len )
+    {
+        buffer.put( b, off, len );
+    }
+}
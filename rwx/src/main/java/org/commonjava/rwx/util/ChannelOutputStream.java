@@ -0,0 +1,194 @@
+/**
+ * Copyright (C) 2010 Red Hat, Inc. (http://github.com/Commonjava/commonjava)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.commonjava.rwx.util;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.channels.GatheringByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+/**
+ * OutputStream to a WritableByteChannel which collects the output in pooled direct buffers and writes them with one
+ * gathering write, when the channel is a GatheringByteChannel (e.g., a FileChannel or SocketChannel), once they
+ * are all full and on flush(). A channel copies heap buffers into a temporary direct buffer on every write, which
+ * this saves, and a gathering write hands several buffers to the OS in one call.
+ *
+ * The buffers go back to the pool on close() or {@link #release()}. Not thread-safe.
+ */
+public final class ChannelOutputStream
+                extends OutputStream
+{
+    public static final int BUFFER_SIZE = 64 * 1024;
+
+    /**
+     * Buffers per gathering write.
+     */
+    public static final int GATHER_COUNT = 4;
+
+    private static final BlockingQueue<ByteBuffer> BUFFERS = new ArrayBlockingQueue<>( 16 );
+
+    private final WritableByteChannel channel;
+
+    private final ByteBuffer[] buffers = new ByteBuffer[GATHER_COUNT];
+
+    // index of the buffer being filled
+    private int current;
+
+    public ChannelOutputStream( WritableByteChannel channel )
+    {
+        this.channel = channel;
+    }
+
+    @Override
+    public void write( int b ) throws IOException
+    {
+        buffer().put( (byte) b );
+    }
+
+    @Override
+    public void write( byte[] b, int off, int len ) throws IOException
+    {
+        while ( len > 0 )
+        {
+            ByteBuffer buffer = buffer();
+            int n = Math.min( len, buffer.remaining() );
+            buffer.put( b, off, n );
+            off += n;
+            len -= n;
+        }
+    }
+
+    /**
+     * @return the buffer to write to, which has room for at least one byte
+     */
+    private ByteBuffer buffer() throws IOException
+    {
+        ByteBuffer buffer = buffers[current];
+        if ( buffer != null && buffer.hasRemaining() )
+        {
+            return buffer;
+        }
+        if ( buffer != null )
+        {
+            current++;
+            if ( current == buffers.length )
+            {
+                writeBuffers();
+            }
+        }
+        if ( buffers[current] == null )
+        {
+            ByteBuffer pooled = BUFFERS.poll();
+            buffers[current] = pooled != null ? pooled : ByteBuffer.allocateDirect( BUFFER_SIZE );
+        }
+        return buffers[current];
+    }
+
+    private void writeBuffers() throws IOException
+    {
+        int count = Math.min( current + 1, buffers.length );
+        for ( int i = 0; i < count && buffers[i] != null; i++ )
+        {
+            ( (Buffer) buffers[i] ).flip();
+        }
+
+        if ( channel instanceof GatheringByteChannel )
+        {
+            int filled = 0;
+            while ( filled < count && buffers[filled] != null )
+            {
+                filled++;
+            }
+            GatheringByteChannel gathering = (GatheringByteChannel) channel;
+            int first = 0;
+            while ( first < filled )
+            {
+                gathering.write( buffers, first, filled - first );
+                while ( first < filled && !buffers[first].hasRemaining() )
+                {
+                    first++;
+                }
+            }
+        }
+        else
+        {
+            for ( int i = 0; i < count && buffers[i] != null; i++ )
+            {
+                while ( buffers[i].hasRemaining() )
+                {
+                    channel.write( buffers[i] );
+                }
+            }
+        }
+
+        for ( int i = 0; i < count && buffers[i] != null; i++ )
+        {
+            ( (Buffer) buffers[i] ).clear();
+        }
+        current = 0;
+    }
+
+    /**
+     * Write all buffered output to the channel.
+     */
+    @Override
+    public void flush() throws IOException
+    {
+        if ( buffers[0] != null && buffers[0].position() > 0 )
+        {
+            writeBuffers();
+        }
+    }
+
+    /**
+     * Give the buffers back to the pool without writing them. The stream can still be used afterwards and takes
+     * new buffers as needed.
+     */
+    public void release()
+    {
+        for ( int i = 0; i < buffers.length; i++ )
+        {
+            if ( buffers[i] != null )
+            {
+                ( (Buffer) buffers[i] ).clear();
+                BUFFERS.offer( buffers[i] );
+                buffers[i] = null;
+            }
+        }
+        current = 0;
+    }
+
+    /**
+     * Flush, release the buffers and close the channel.
+     */
+    @Override
+    public void close() throws IOException
+    {
+        try
+        {
+            flush();
+        }
+        finally
+        {
+            release();
+            channel.close();
+        }
+    }
+}
@@ -0,0 +1,684 @@
+/**
+ * Copyright (C) 2010 Red Hat, Inc. (http://github.com/Commonjava/commonjava)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.commonjava.rwx.util;
+
+import org.commonjava.rwx.vocab.ContentEncoding;
+
+import java.io.EOFException;
+import java.io.FilterInputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.PushbackInputStream;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.zip.CRC32;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+import java.util.zip.ZipException;
+
+/**
+ * Streaming gzip (RFC 1952) and deflate (RFC 1950, or raw RFC 1951 when decoding) of XML-RPC payloads.
+ *
+ * GZIPInputStream and GZIPOutputStream create a new Inflater or Deflater, and with it native zlib memory, per
+ * stream. The streams here take them from small pools instead and give them back at the end of the data, on
+ * release() or close(), so a mapper handling many small payloads does not churn native memory.
+ */
+public final class CompressionUtils
+{
+    private static final int POOL_SIZE = 32;
+
+    private static final int BUFFER_SIZE = 8192;
+
+    private static final int GZIP_MAGIC = 0x8b1f;
+
+    private static final int FHCRC = 2;
+
+    private static final int FEXTRA = 4;
+
+    private static final int FNAME = 8;
+
+    private static final int FCOMMENT = 16;
+
+    // header of gzip output: magic, deflate, no flags, no mtime, no extra flags, unknown OS
+    private static final byte[] GZIP_HEADER = { 0x1f, (byte) 0x8b, 8, 0, 0, 0, 0, 0, 0, (byte) 0xff };
+
+    // raw (nowrap) and zlib wrapped instances can not be converted into each other, so they are pooled apart
+    private static final BlockingQueue<Inflater> RAW_INFLATERS = new ArrayBlockingQueue<>( POOL_SIZE );
+
+    private static final BlockingQueue<Inflater> ZLIB_INFLATERS = new ArrayBlockingQueue<>( POOL_SIZE );
+
+    private static final BlockingQueue<Deflater> RAW_DEFLATERS = new ArrayBlockingQueue<>( POOL_SIZE );
+
+    private static final BlockingQueue<Deflater> ZLIB_DEFLATERS = new ArrayBlockingQueue<>( POOL_SIZE );
+
+    private CompressionUtils()
+    {
+        throw new UnsupportedOperationException( "This is a utility class and cannot be instantiated" );
+    }
+
+    /**
+     * Detect the encoding from the first bytes: gzip magic, a zlib header or anything else, which is taken as
+     * plain XML. XML can not start with either header, as it starts with '&lt;', whitespace or a byte order mark.
+     *
+     * @param in the payload, must be a PushbackInputStream with room for two bytes, which are read and unread
+     */
+    public static ContentEncoding detect( PushbackInputStream in ) throws IOException
+    {
+        byte[] head = new byte[2];
+        int n = 0;
+        while ( n < 2 )
+        {
+            int read = in.read( head, n, 2 - n );
+            if ( read < 0 )
+            {
+                break;
+            }
+            n += read;
+        }
+        if ( n > 0 )
+        {
+            in.unread( head, 0, n );
+        }
+        if ( n < 2 )
+        {
+            return ContentEncoding.IDENTITY;
+        }
+
+        int b0 = head[0] & 0xff;
+        int b1 = head[1] & 0xff;
+        if ( ( b1 << 8 | b0 ) == GZIP_MAGIC )
+        {
+            return ContentEncoding.GZIP;
+        }
+        else if ( isZlibHeader( b0, b1 ) )
+        {
+            return ContentEncoding.DEFLATE;
+        }
+        return ContentEncoding.IDENTITY;
+    }
+
+    private static boolean isZlibHeader( int cmf, int flg )
+    {
+        // deflate method, window up to 32K, header checksum
+        return ( cmf & 0x0f ) == 8 && ( cmf >> 4 ) <= 7 && ( cmf << 8 | flg ) % 31 == 0;
+    }
+
+    /**
+     * Decode the payload in the encoding detected from its first bytes, see {@link #detect(PushbackInputStream)}.
+     */
+    public static DecodingInputStream decodeDetected( InputStream in ) throws IOException
+    {
+        PushbackInputStream pushback = new PushbackInputStream( in, 2 );
+        return decode( pushback, detect( pushback ) );
+    }
+
+    /**
+     * Decode the payload while it is read.
+     *
+     * @param in the encoded payload, closed when the returned stream is closed
+     * @param encoding the encoding, IDENTITY passes the payload through
+     */
+    public static DecodingInputStream decode( InputStream in, ContentEncoding encoding ) throws IOException
+    {
+        return new DecodingInputStream( in, encoding );
+    }
+
+    /**
+     * Encode the payload while it is written. The encoded data is complete only after
+     * {@link EncodingOutputStream#finish()} or close().
+     *
+     * @param out the target, closed when the returned stream is closed
+     * @param encoding the encoding, IDENTITY passes the payload through
+     * @param level the compression level, 0-9 or {@link Deflater#DEFAULT_COMPRESSION}
+     */
+    public static EncodingOutputStream encode( OutputStream out, ContentEncoding encoding, int level )
+                    throws IOException
+    {
+        if ( level < Deflater.DEFAULT_COMPRESSION || level > Deflater.BEST_COMPRESSION )
+        {
+            throw new IllegalArgumentException( "Invalid compression level: " + level );
+        }
+        return new EncodingOutputStream( out, encoding, level );
+    }
+
+    private static Inflater takeInflater( boolean raw )
+    {
+        Inflater inflater = ( raw ? RAW_INFLATERS : ZLIB_INFLATERS ).poll();
+        return inflater != null ? inflater : new Inflater( raw );
+    }
+
+    private static void giveInflater( Inflater inflater, boolean raw )
+    {
+        inflater.reset();
+        if ( !( raw ? RAW_INFLATERS : ZLIB_INFLATERS ).offer( inflater ) )
+        {
+            inflater.end();
+        }
+    }
+
+    private static Deflater takeDeflater( boolean raw, int level )
+    {
+        Deflater deflater = ( raw ? RAW_DEFLATERS : ZLIB_DEFLATERS ).poll();
+        if ( deflater == null )
+        {
+            return new Deflater( level, raw );
+        }
+        deflater.setLevel( level );
+        return deflater;
+    }
+
+    private static void giveDeflater( Deflater deflater, boolean raw )
+    {
+        deflater.reset();
+        if ( !( raw ? RAW_DEFLATERS : ZLIB_DEFLATERS ).offer( deflater ) )
+        {
+            deflater.end();
+        }
+    }
+
+    /**
+     * Decoding stream, see {@link #decode(InputStream, ContentEncoding)}. Concatenated gzip members are read as one
+     * payload. Corrupt data, a checksum mismatch or a truncated payload fail with a ZipException or EOFException.
+     */
+    public static final class DecodingInputStream
+                    extends FilterInputStream
+    {
+        private final ContentEncoding encoding;
+
+        private final byte[] buf;
+
+        private int pos;
+
+        private int len;
+
+        private Inflater inflater;
+
+        private boolean raw;
+
+        private final CRC32 crc = new CRC32();
+
+        private boolean eof;
+
+        private DecodingInputStream( InputStream in, ContentEncoding encoding ) throws IOException
+        {
+            super( in );
+            this.encoding = encoding;
+            this.buf = encoding == ContentEncoding.IDENTITY ? null : new byte[BUFFER_SIZE];
+            if ( encoding == ContentEncoding.GZIP )
+            {
+                eof = !readGzipHeader( true );
+            }
+            else if ( encoding == ContentEncoding.DEFLATE )
+            {
+                // the zlib format is the HTTP deflate, but some servers send raw deflate data
+                raw = !( fill( 2 ) && isZlibHeader( buf[pos] & 0xff, buf[pos + 1] & 0xff ) );
+                inflater = takeInflater( raw );
+            }
+        }
+
+        public ContentEncoding getEncoding()
+        {
+            return encoding;
+        }
+
+        @Override
+        public int read() throws IOException
+        {
+            byte[] single = new byte[1];
+            int n = read( single, 0, 1 );
+            return n < 0 ? -1 : single[0] & 0xff;
+        }
+
+        @Override
+        public int read( byte[] b, int off, int length ) throws IOException
+        {
+            if ( encoding == ContentEncoding.IDENTITY )
+            {
+                return in.read( b, off, length );
+            }
+            if ( length == 0 )
+            {
+                return 0;
+            }
+
+            while ( !eof )
+            {
+                if ( inflater == null )
+                {
+                    throw new IOException( "Stream released" );
+                }
+
+                if ( inflater.needsInput() )
+                {
+                    if ( pos == len && !fill( 1 ) )
+                    {
+                        throw new EOFException( "Unexpected end of " + encoding + " payload" );
+                    }
+                    inflater.setInput( buf, pos, len - pos );
+                    pos = len;
+                }
+
+                int n;
+                try
+                {
+                    n = inflater.inflate( b, off, length );
+                }
+                catch ( DataFormatException e )
+                {
+                    throw new ZipException( "Invalid " + encoding + " payload: " + e.getMessage() );
+                }
+
+                if ( inflater.finished() )
+                {
+                    if ( encoding == ContentEncoding.GZIP )
+                    {
+                        crc.update( b, off, n );
+                    }
+                    endOfMember();
+                    if ( n > 0 )
+                    {
+                        return n;
+                    }
+                }
+                else if ( n > 0 )
+                {
+                    if ( encoding == ContentEncoding.GZIP )
+                    {
+                        crc.update( b, off, n );
+                    }
+                    return n;
+                }
+                else if ( inflater.needsDictionary() )
+                {
+                    throw new ZipException( "Preset dictionaries are not supported" );
+                }
+            }
+            return -1;
+        }
+
+        private void endOfMember() throws IOException
+        {
+            pos = len - inflater.getRemaining();
+            if ( encoding == ContentEncoding.GZIP )
+            {
+                long expectedCrc = readIntLE();
+                long expectedSize = readIntLE();
+                if ( expectedCrc != crc.getValue() )
+                {
+                    throw new ZipException( "Corrupt gzip payload, CRC mismatch" );
+                }
+                if ( expectedSize != ( inflater.getBytesWritten() & 0xffffffffL ) )
+                {
+                    throw new ZipException( "Corrupt gzip payload, size mismatch" );
+                }
+
+                // another member may follow
+                if ( readGzipHeader( false ) )
+                {
+                    crc.reset();
+                    inflater.reset();
+                    return;
+                }
+            }
+            eof = true;
+            release();
+        }
+
+        /**
+         * @param first whether this is the first member, which must be there
+         * @return whether a member follows
+         */
+        private boolean readGzipHeader( boolean first ) throws IOException
+        {
+            if ( !fill( 1 ) )
+            {
+                if ( first )
+                {
+                    throw new EOFException( "Empty gzip payload" );
+                }
+                return false;
+            }
+            if ( readShortLE() != GZIP_MAGIC )
+            {
+                throw new ZipException( first ? "Not in gzip format" : "Trailing garbage after gzip payload" );
+            }
+            if ( readByte() != 8 )
+            {
+                throw new ZipException( "Unsupported gzip compression method" );
+            }
+            int flags = readByte();
+            skip( 6 ); // mtime, extra flags, OS
+            if ( ( flags & FEXTRA ) != 0 )
+            {
+                skip( readShortLE() );
+            }
+            if ( ( flags & FNAME ) != 0 )
+            {
+                skipZeroTerminated();
+            }
+            if ( ( flags & FCOMMENT ) != 0 )
+            {
+                skipZeroTerminated();
+            }
+            if ( ( flags & FHCRC ) != 0 )
+            {
+                skip( 2 );
+            }
+
+            if ( inflater == null )
+            {
+                raw = true;
+                inflater = takeInflater( true );
+            }
+            return true;
+        }
+
+        /**
+         * Make sure there are at least n unread bytes in the buffer.
+         *
+         * @return false if the stream ended before
+         */
+        private boolean fill( int n ) throws IOException
+        {
+            if ( len - pos >= n )
+            {
+                return true;
+            }
+            System.arraycopy( buf, pos, buf, 0, len - pos );
+            len -= pos;
+            pos = 0;
+            while ( len < n )
+            {
+                int read = in.read( buf, len, buf.length - len );
+                if ( read < 0 )
+                {
+                    return false;
+                }
+                len += read;
+            }
+            return true;
+        }
+
+        private int readByte() throws IOException
+        {
+            if ( !fill( 1 ) )
+            {
+                throw new EOFException( "Unexpected end of gzip payload" );
+            }
+            return buf[pos++] & 0xff;
+        }
+
+        private int readShortLE() throws IOException
+        {
+            return readByte() | readByte() << 8;
+        }
+
+        private long readIntLE() throws IOException
+        {
+            return ( readShortLE() | (long) readShortLE() << 16 ) & 0xffffffffL;
+        }
+
+        private void skip( int n ) throws IOException
+        {
+            for ( int i = 0; i < n; i++ )
+            {
+                readByte();
+            }
+        }
+
+        private void skipZeroTerminated() throws IOException
+        {
+            while ( readByte() != 0 )
+            {
+            }
+        }
+
+        @Override
+        public int available() throws IOException
+        {
+            return encoding == ContentEncoding.IDENTITY ? in.available() : eof ? 0 : 1;
+        }
+
+        @Override
+        public long skip( long n ) throws IOException
+        {
+            byte[] skipped = new byte[(int) Math.min( n, BUFFER_SIZE )];
+            long total = 0;
+            while ( total < n )
+            {
+                int read = read( skipped, 0, (int) Math.min( n - total, skipped.length ) );
+                if ( read < 0 )
+                {
+                    break;
+                }
+                total += read;
+            }
+            return total;
+        }
+
+        @Override
+        public boolean markSupported()
+        {
+            return false;
+        }
+
+        @Override
+        public synchronized void mark( int readlimit )
+        {
+        }
+
+        @Override
+        public synchronized void reset() throws IOException
+        {
+            throw new IOException( "mark/reset not supported" );
+        }
+
+        /**
+         * Give the Inflater back to the pool without closing the underlying stream, e.g., when the parser stops
+         * reading before the end of the payload. This happens by itself at the end of the data and on close().
+         * The stream can not be read afterwards.
+         */
+        public void release()
+        {
+            if ( inflater != null )
+            {
+                giveInflater( inflater, raw );
+                inflater = null;
+            }
+        }
+
+        @Override
+        public void close() throws IOException
+        {
+            release();
+            super.close();
+        }
+    }
+
+    /**
+     * Encoding stream, see {@link #encode(OutputStream, ContentEncoding, int)}. flush() writes out all data given
+     * so far (a zlib sync flush), so that a streamed payload can be consumed while it is produced.
+     */
+    public static final class EncodingOutputStream
+                    extends FilterOutputStream
+    {
+        private final ContentEncoding encoding;
+
+        private final boolean raw;
+
+        private final byte[] buf;
+
+        private final CRC32 crc = new CRC32();
+
+        private Deflater deflater;
+
+        private boolean finished;
+
+        private EncodingOutputStream( OutputStream out, ContentEncoding encoding, int level ) throws IOException
+        {
+            super( out );
+            this.encoding = encoding;
+            this.raw = encoding == ContentEncoding.GZIP;
+            if ( encoding == ContentEncoding.IDENTITY )
+            {
+                this.buf = null;
+                return;
+            }
+
+            this.buf = new byte[BUFFER_SIZE];
+            this.deflater = takeDeflater( raw, level );
+            if ( encoding == ContentEncoding.GZIP )
+            {
+                out.write( GZIP_HEADER );
+            }
+        }
+
+        public ContentEncoding getEncoding()
+        {
+            return encoding;
+        }
+
+        @Override
+        public void write( int b ) throws IOException
+        {
+            write( new byte[] { (byte) b }, 0, 1 );
+        }
+
+        @Override
+        public void write( byte[] b, int off, int len ) throws IOException
+        {
+            if ( finished )
+            {
+                throw new IOException( "Stream finished" );
+            }
+            if ( encoding == ContentEncoding.IDENTITY )
+            {
+                out.write( b, off, len );
+                return;
+            }
+            if ( len == 0 )
+            {
+                return;
+            }
+
+            if ( raw )
+            {
+                crc.update( b, off, len );
+            }
+            deflater.setInput( b, off, len );
+            while ( !deflater.needsInput() )
+            {
+                deflate( Deflater.NO_FLUSH );
+            }
+        }
+
+        private int deflate( int flush ) throws IOException
+        {
+            int n = deflater.deflate( buf, 0, buf.length, flush );
+            if ( n > 0 )
+            {
+                out.write( buf, 0, n );
+            }
+            return n;
+        }
+
+        @Override
+        public void flush() throws IOException
+        {
+            if ( deflater != null && !finished )
+            {
+                // a full buffer means there may be more
+                while ( deflate( Deflater.SYNC_FLUSH ) == buf.length )
+                {
+                }
+            }
+            out.flush();
+        }
+
+        /**
+         * Write the rest of the encoded data and give the Deflater back to the pool, without closing the
+         * underlying stream.
+         */
+        public void finish() throws IOException
+        {
+            if ( finished )
+            {
+                return;
+            }
+            if ( deflater == null )
+            {
+                finished = true;
+                out.flush();
+                return;
+            }
+
+            try
+            {
+                deflater.finish();
+                while ( !deflater.finished() )
+                {
+                    deflate( Deflater.NO_FLUSH );
+                }
+                if ( raw )
+                {
+                    writeIntLE( crc.getValue() );
+                    writeIntLE( deflater.getBytesRead() );
+                }
+                out.flush();
+            }
+            finally
+            {
+                release();
+            }
+        }
+
+        /**
+         * Give the Deflater back to the pool without writing the rest of the data, e.g., when rendering failed. This
+         * happens by itself on finish() and close(). Nothing can be written afterwards.
+         */
+        public void release()
+        {
+            finished = true;
+            if ( deflater != null )
+            {
+                giveDeflater( deflater, raw );
+                deflater = null;
+            }
+        }
+
+        private void writeIntLE( long value ) throws IOException
+        {
+            out.write( new byte[] { (byte) value, (byte) ( value >> 8 ), (byte) ( value >> 16 ),
+                            (byte) ( value >> 24 ) } );
+        }
+
+        @Override
+        public void close() throws IOException
+        {
+            try
+            {
+                finish();
+            }
+            finally
+            {
+                out.close();
+            }
+        }
+    }
+}
@@ -0,0 +1,653 @@
+/**
+ * Copyright (C) 2010 Red Hat, Inc. (http://github.com/Commonjava/commonjava)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.commonjava.rwx.util;
+
+import org.commonjava.rwx.error.CoercionException;
+
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.OffsetDateTime;
+import java.time.ZoneId;
+import java.time.ZoneOffset;
+import java.time.ZonedDateTime;
+import java.time.zone.ZoneRules;
+import java.util.Date;
+
+/**
+ * Thread-safe codec for XML-RPC dateTime.iso8601 values. It scans digits by hand instead of going through
+ * SimpleDateFormat, so a mismatching input never costs a ParseException per attempted pattern.
+ *
+ * Accepted input is the basic and extended form, e.g., 20170917T10:15:30, 20170917T101530 or
+ * 2017-09-17T10:15:30, optionally followed by a fraction (.123) and a zone designator (Z, +01:00, +0100, +01).
+ * Values without a zone designator are read in the JVM default time zone, the same way SimpleDateFormat did.
+ *
+ * Rendering always uses the first pattern of XmlRpcConstants.DATETIME_FORMAT, i.e., yyyyMMdd'T'HHmmss, except
+ * for the canonical form, which appends Z to instants rendered in UTC.
+ */
+public final class Iso8601Codec
+{
+    private static final int SECONDS_PER_DAY = 86400;
+
+    private static final int MAX_OFFSET_SECONDS = 18 * 3600;
+
+    private static final int RENDERED_LENGTH = 15;
+
+    private Iso8601Codec()
+    {
+        throw new UnsupportedOperationException( "This is a utility class and cannot be instantiated" );
+    }
+
+    /**
+     * Whether the given class can be bound to or rendered from a dateTime.iso8601 value.
+     */
+    public static boolean isSupported( Class<?> type )
+    {
+        return Date.class.isAssignableFrom( type ) || type == Instant.class || type == LocalDateTime.class
+                        || type == OffsetDateTime.class || type == ZonedDateTime.class;
+    }
+
+    public static Date parseDate( CharSequence text ) throws CoercionException
+    {
+        return parse( text, Date.class );
+    }
+
+    /**
+     * Parse a dateTime.iso8601 value to one of the supported types (see {@link #isSupported(Class)}).
+     *
+     * @param text the value, surrounding whitespace is ignored
+     * @param type target type
+     * @return the parsed value or null if text is null
+     * @throws CoercionException if the text is not a valid date or the type is not supported
+     */
+    public static <T> T parse( CharSequence text, Class<T> type ) throws CoercionException
+    {
+        if ( text == null )
+        {
+            return null;
+        }
+
+        Parsed parsed = scan( text, 0, text.length() );
+        if ( parsed == null )
+        {
+            throw new CoercionException( "Cannot parse date: '" + text.toString().trim() + "'." );
+        }
+
+        Object ret = parsed.to( type );
+        if ( ret == null )
+        {
+            throw new CoercionException( "Not a supported date/time type: " + type.getName() );
+        }
+        return type.cast( ret );
+    }
+
+    /**
+     * Convert a Date, a supported java.time value or an unparsed string to the target type. This is used to
+     * upgrade-cast values bound to java.time fields by the generated parsers.
+     *
+     * @throws ClassCastException if the value can not be converted
+     */
+    public static <T> T convert( Object value, Class<T> type )
+    {
+        if ( value == null || type.isInstance( value ) )
+        {
+            return type.cast( value );
+        }
+
+        Object ret = null;
+        if ( value instanceof CharSequence )
+        {
+            Parsed parsed = scan( (CharSequence) value, 0, ( (CharSequence) value ).length() );
+            if ( parsed != null )
+            {
+                ret = parsed.to( type );
+            }
+        }
+        else if ( value instanceof LocalDateTime )
+        {
+            ret = fromLocal( (LocalDateTime) value, type );
+        }
+        else
+        {
+            Instant instant = toInstant( value );
+            if ( instant != null )
+            {
+                ret = fromInstant( instant, type );
+            }
+        }
+
+        if ( ret == null )
+        {
+            throw new ClassCastException( "Can not cast " + value.getClass() + " to " + type.getName() );
+        }
+        return type.cast( ret );
+    }
+
+    /**
+     * Render a Date or a supported java.time value. Instants are rendered in the JVM default time zone,
+     * LocalDateTime values are rendered as they are.
+     *
+     * @return the rendered value or null if value is null
+     * @throws CoercionException if the value type is not supported
+     */
+    public static String format( Object value ) throws CoercionException
+    {
+        if ( value == null )
+        {
+            return null;
+        }
+
+        char[] buf = new char[RENDERED_LENGTH];
+        int len;
+        if ( value instanceof LocalDateTime )
+        {
+            LocalDateTime ldt = (LocalDateTime) value;
+            len = formatLocal( ldt.toLocalDate().toEpochDay() * SECONDS_PER_DAY + ldt.toLocalTime().toSecondOfDay(),
+                               buf, 0 );
+        }
+        else
+        {
+            Instant instant = toInstant( value );
+            if ( instant == null )
+            {
+                throw new CoercionException( "Not a java.util.Date or supported java.time value: " + value.getClass() );
+            }
+            len = formatEpochMillis( instant.toEpochMilli(), buf, 0 );
+        }
+        if ( len < 0 )
+        {
+            throw new CoercionException( "Year out of range for dateTime.iso8601: " + value );
+        }
+        return new String( buf, 0, len );
+    }
+
+    /**
+     * Render the epoch millis in the JVM default time zone to the buffer, which needs room for 15 chars.
+     *
+     * @return number of chars written, or -1 if the year is outside 0000-9999
+     */
+    public static int formatEpochMillis( long epochMillis, char[] buf, int off )
+    {
+        long epochSecond = Math.floorDiv( epochMillis, 1000L );
+        ZoneRules rules = ZoneId.systemDefault().getRules();
+        ZoneOffset offset = rules.isFixedOffset() ?
+                        rules.getOffset( Instant.EPOCH ) :
+                        rules.getOffset( Instant.ofEpochSecond( epochSecond ) );
+        return formatLocal( epochSecond + offset.getTotalSeconds(), buf, off );
+    }
+
+    /**
+     * Render the value in the canonical form used by {@link XmlRpcWriter#canonical(boolean)}: instants (Date,
+     * Instant, OffsetDateTime, ZonedDateTime) in UTC with a Z designator, e.g., 20170917T101530Z, so the output
+     * does not depend on the JVM time zone, and a LocalDateTime as is, without a designator. The buffer needs room
+     * for 16 chars.
+     *
+     * @return number of chars written, or -1 if the year is outside 0000-9999
+     * @throws CoercionException if the value type is not supported
+     */
+    public static int formatCanonical( Object value, char[] buf, int off ) throws CoercionException
+    {
+        if ( value instanceof LocalDateTime )
+        {
+            LocalDateTime ldt = (LocalDateTime) value;
+            return formatLocal( ldt.toLocalDate().toEpochDay() * SECONDS_PER_DAY + ldt.toLocalTime().toSecondOfDay(),
+                                buf, off );
+        }
+
+        Instant instant = toInstant( value );
+        if ( instant == null )
+        {
+            throw new CoercionException( "Not a java.util.Date or supported java.time value: "
+                                                         + ( value == null ? null : value.getClass() ) );
+        }
+        int len = formatLocal( Math.floorDiv( instant.toEpochMilli(), 1000L ), buf, off );
+        if ( len < 0 )
+        {
+            return len;
+        }
+        buf[off + len] = 'Z';
+        return len + 1;
+    }
+
+    /**
+     * Rewrite a dateTime.iso8601 value in the ISO 8601 extended form, e.g., 20170917T10:15:30 to
+     * 2017-09-17T10:15:30, as used by JSON and most other formats. The fraction and zone designator are kept if the
+     * value has them, and the value is not shifted to another zone.
+     *
+     * @throws CoercionException if the text is not a valid date
+     */
+    public static String toExtended( CharSequence text ) throws CoercionException
+    {
+        Parsed parsed = scan( text, 0, text.length() );
+        if ( parsed == null )
+        {
+            throw new CoercionException( "Cannot parse date: '" + text.toString().trim() + "'." );
+        }
+
+        char[] buf = new char[35];
+        int i = write4( parsed.year, buf, 0 );
+        buf[i++] = '-';
+        i = write2( parsed.month, buf, i );
+        buf[i++] = '-';
+        i = write2( parsed.day, buf, i );
+        buf[i++] = 'T';
+        i = write2( parsed.hour, buf, i );
+        buf[i++] = ':';
+        i = write2( parsed.minute, buf, i );
+        buf[i++] = ':';
+        i = write2( parsed.second, buf, i );
+        if ( parsed.nanos != 0 )
+        {
+            buf[i++] = '.';
+            int digits = 9;
+            int nanos = parsed.nanos;
+            while ( nanos % 10 == 0 )
+            {
+                nanos /= 10;
+                digits--;
+            }
+            for ( int d = digits - 1; d >= 0; d-- )
+            {
+                buf[i + d] = (char) ( '0' + nanos % 10 );
+                nanos /= 10;
+            }
+            i += digits;
+        }
+        if ( parsed.hasOffset )
+        {
+            int offset = parsed.offsetSeconds;
+            if ( offset == 0 )
+            {
+                buf[i++] = 'Z';
+            }
+            else
+            {
+                buf[i++] = offset < 0 ? '-' : '+';
+                offset = Math.abs( offset );
+                i = write2( offset / 3600, buf, i );
+                buf[i++] = ':';
+                i = write2( ( offset / 60 ) % 60, buf, i );
+            }
+        }
+        return new String( buf, 0, i );
+    }
+
+    private static int formatLocal( long localEpochSecond, char[] buf, int off )
+    {
+        long epochDay = Math.floorDiv( localEpochSecond, SECONDS_PER_DAY );
+        int secondOfDay = (int) Math.floorMod( localEpochSecond, (long) SECONDS_PER_DAY );
+
+        // civil-from-days, see http://howardhinnant.github.io/date_algorithms.html
+        long z = epochDay + 719468;
+        long era = ( z >= 0 ? z : z - 146096 ) / 146097;
+        long doe = z - era * 146097;
+        long yoe = ( doe - doe / 1460 + doe / 36524 - doe / 146096 ) / 365;
+        long doy = doe - ( 365 * yoe + yoe / 4 - yoe / 100 );
+        long mp = ( 5 * doy + 2 ) / 153;
+        int day = (int) ( doy - ( 153 * mp + 2 ) / 5 + 1 );
+        int month = (int) ( mp < 10 ? mp + 3 : mp - 9 );
+        long year = yoe + era * 400 + ( month <= 2 ? 1 : 0 );
+
+        if ( year < 0 || year > 9999 )
+        {
+            return -1; // not representable with four year digits
+        }
+
+        int i = off;
+        i = write4( (int) year, buf, i );
+        i = write2( month, buf, i );
+        i = write2( day, buf, i );
+        buf[i++] = 'T';
+        i = write2( secondOfDay / 3600, buf, i );
+        i = write2( ( secondOfDay / 60 ) % 60, buf, i );
+        i = write2( secondOfDay % 60, buf, i );
+        return i - off;
+    }
+
+    private static int write4( int v, char[] buf, int i )
+    {
+        buf[i++] = (char) ( '0' + v / 1000 );
+        buf[i++] = (char) ( '0' + ( v / 100 ) % 10 );
+        buf[i++] = (char) ( '0' + ( v / 10 ) % 10 );
+        buf[i++] = (char) ( '0' + v % 10 );
+        return i;
+    }
+
+    private static int write2( int v, char[] buf, int i )
+    {
+        buf[i++] = (char) ( '0' + v / 10 );
+        buf[i++] = (char) ( '0' + v % 10 );
+        return i;
+    }
+
+    private static Instant toInstant( Object value )
+    {
+        if ( value instanceof Date )
+        {
+            return Instant.ofEpochMilli( ( (Date) value ).getTime() );
+        }
+        else if ( value instanceof Instant )
+        {
+            return (Instant) value;
+        }
+        else if ( value instanceof OffsetDateTime )
+        {
+            return ( (OffsetDateTime) value ).toInstant();
+        }
+        else if ( value instanceof ZonedDateTime )
+        {
+            return ( (ZonedDateTime) value ).toInstant();
+        }
+        return null;
+    }
+
+    private static Object fromInstant( Instant instant, Class<?> type )
+    {
+        if ( type == Date.class )
+        {
+            return new Date( instant.toEpochMilli() );
+        }
+        else if ( type == Instant.class )
+        {
+            return instant;
+        }
+        else if ( type == LocalDateTime.class )
+        {
+            return LocalDateTime.ofInstant( instant, ZoneId.systemDefault() );
+        }
+        else if ( type == OffsetDateTime.class )
+        {
+            return OffsetDateTime.ofInstant( instant, ZoneId.systemDefault() );
+        }
+        else if ( type == ZonedDateTime.class )
+        {
+            return ZonedDateTime.ofInstant( instant, ZoneId.systemDefault() );
+        }
+        return null;
+    }
+
+    private static Object fromLocal( LocalDateTime ldt, Class<?> type )
+    {
+        if ( type == LocalDateTime.class )
+        {
+            return ldt;
+        }
+        return fromInstant( ldt.atZone( ZoneId.systemDefault() ).toInstant(), type );
+    }
+
+    /**
+     * Scan the text range. Return null if it is not a valid date, no exception is created for a mismatch.
+     */
+    private static Parsed scan( CharSequence s, int start, int end )
+    {
+        while ( start < end && Character.isWhitespace( s.charAt( start ) ) )
+        {
+            start++;
+        }
+        while ( end > start && Character.isWhitespace( s.charAt( end - 1 ) ) )
+        {
+            end--;
+        }
+
+        int i = start;
+        if ( end - i < 15 ) // shortest form: yyyyMMddTHHmmss
+        {
+            return null;
+        }
+
+        int year = digits( s, i, 4, end );
+        i += 4;
+        if ( s.charAt( i ) == '-' )
+        {
+            i++;
+        }
+        int month = digits( s, i, 2, end );
+        i += 2;
+        if ( i < end && s.charAt( i ) == '-' )
+        {
+            i++;
+        }
+        int day = digits( s, i, 2, end );
+        i += 2;
+        if ( year < 0 || month < 1 || month > 12 || day < 1 || day > lengthOfMonth( year, month ) )
+        {
+            return null;
+        }
+
+        if ( i >= end || s.charAt( i ) != 'T' )
+        {
+            return null;
+        }
+        i++;
+
+        int hour = digits( s, i, 2, end );
+        i += 2;
+        if ( i < end && s.charAt( i ) == ':' )
+        {
+            i++;
+        }
+        int minute = digits( s, i, 2, end );
+        i += 2;
+        if ( i < end && s.charAt( i ) == ':' )
+        {
+            i++;
+        }
+        int second = digits( s, i, 2, end );
+        i += 2;
+        if ( i > end || hour < 0 || hour > 23 || minute < 0 || minute > 59 || second < 0 || second > 59 )
+        {
+            return null;
+        }
+
+        int nanos = 0;
+        if ( i < end && ( s.charAt( i ) == '.' || s.charAt( i ) == ',' ) )
+        {
+            i++;
+            int count = 0;
+            while ( i < end && isDigit( s.charAt( i ) ) )
+            {
+                if ( count < 9 )
+                {
+                    nanos = nanos * 10 + ( s.charAt( i ) - '0' );
+                }
+                count++;
+                i++;
+            }
+            if ( count == 0 )
+            {
+                return null;
+            }
+            for ( ; count < 9; count++ )
+            {
+                nanos *= 10;
+            }
+        }
+
+        boolean hasOffset = false;
+        int offsetSeconds = 0;
+        if ( i < end )
+        {
+            char c = s.charAt( i++ );
+            if ( c == 'Z' )
+            {
+                hasOffset = true;
+            }
+            else if ( c == '+' || c == '-' )
+            {
+                int oh = digits( s, i, 2, end );
+                i += 2;
+                int om = 0;
+                if ( i < end && s.charAt( i ) == ':' )
+                {
+                    i++;
+                }
+                if ( i < end )
+                {
+                    om = digits( s, i, 2, end );
+                    i += 2;
+                }
+                if ( i > end || oh < 0 || om < 0 || om > 59 )
+                {
+                    return null;
+                }
+                offsetSeconds = oh * 3600 + om * 60;
+                if ( offsetSeconds > MAX_OFFSET_SECONDS )
+                {
+                    return null;
+                }
+                if ( c == '-' )
+                {
+                    offsetSeconds = -offsetSeconds;
+                }
+                hasOffset = true;
+            }
+            else
+            {
+                return null;
+            }
+        }
+
+        if ( i != end )
+        {
+            return null;
+        }
+
+        Parsed ret = new Parsed();
+        ret.year = year;
+        ret.month = month;
+        ret.day = day;
+        ret.hour = hour;
+        ret.minute = minute;
+        ret.second = second;
+        ret.nanos = nanos;
+        ret.hasOffset = hasOffset;
+        ret.offsetSeconds = offsetSeconds;
+        return ret;
+    }
+
+    /**
+     * Read n digits starting at i. Return -1 if out of bounds or not all digits.
+     */
+    private static int digits( CharSequence s, int i, int n, int end )
+    {
+        if ( i + n > end )
+        {
+            return -1;
+        }
+        int v = 0;
+        for ( int j = i; j < i + n; j++ )
+        {
+            char c = s.charAt( j );
+            if ( !isDigit( c ) )
+            {
+                return -1;
+            }
+            v = v * 10 + ( c - '0' );
+        }
+        return v;
+    }
+
+    private static boolean isDigit( char c )
+    {
+        return c >= '0' && c <= '9';
+    }
+
+    private static int lengthOfMonth( int year, int month )
+    {
+        switch ( month )
+        {
+            case 2:
+                boolean leap = ( year % 4 == 0 ) && ( year % 100 != 0 || year % 400 == 0 );
+                return leap ? 29 : 28;
+            case 4:
+            case 6:
+            case 9:
+            case 11:
+                return 30;
+            default:
+                return 31;
+        }
+    }
+
+    // days-from-civil, see http://howardhinnant.github.io/date_algorithms.html
+    private static long toEpochDay( int year, int month, int day )
+    {
+        long y = month <= 2 ? year - 1 : year;
+        long era = ( y >= 0 ? y : y - 399 ) / 400;
+        long yoe = y - era * 400;
+        long doy = ( 153 * ( month > 2 ? month - 3 : month + 9 ) + 2 ) / 5 + day - 1;
+        long doe = yoe * 365 + yoe / 4 - yoe / 100 + doy;
+        return era * 146097 + doe - 719468;
+    }
+
+    private static final class Parsed
+    {
+        int year, month, day, hour, minute, second, nanos, offsetSeconds;
+
+        boolean hasOffset;
+
+        long localEpochSecond()
+        {
+            return toEpochDay( year, month, day ) * SECONDS_PER_DAY + hour * 3600 + minute * 60 + second;
+        }
+
+        int resolveOffset( long localEpochSecond )
+        {
+            if ( hasOffset )
+            {
+                return offsetSeconds;
+            }
+            ZoneRules rules = ZoneId.systemDefault().getRules();
+            if ( rules.isFixedOffset() )
+            {
+                return rules.getOffset( Instant.EPOCH ).getTotalSeconds();
+            }
+            return rules.getOffset( LocalDateTime.ofEpochSecond( localEpochSecond, nanos, ZoneOffset.UTC ) )
+                        .getTotalSeconds();
+        }
+
+        Object to( Class<?> type )
+        {
+            if ( type == LocalDateTime.class )
+            {
+                return LocalDateTime.of( year, month, day, hour, minute, second, nanos );
+            }
+
+            long local = localEpochSecond();
+            int offset = resolveOffset( local );
+            long epochSecond = local - offset;
+
+            if ( type == Date.class || type == Object.class )
+            {
+                return new Date( epochSecond * 1000L + nanos / 1000000 );
+            }
+            else if ( type == Instant.class )
+            {
+                return Instant.ofEpochSecond( epochSecond, nanos );
+            }
+            else if ( type == OffsetDateTime.class )
+            {
+                return OffsetDateTime.of( year, month, day, hour, minute, second, nanos,
+                                          ZoneOffset.ofTotalSeconds( offset ) );
+            }
+            else if ( type == ZonedDateTime.class )
+            {
+                ZoneId zone = hasOffset ? ZoneOffset.ofTotalSeconds( offset ) : ZoneId.systemDefault();
+                return ZonedDateTime.ofInstant( Instant.ofEpochSecond( epochSecond, nanos ), zone );
+            }
+            return null;
+        }
+    }
+}
@@ -0,0 +1,978 @@
+/**
+ * Copyright (C) 2010 Red Hat, Inc. (http://github.com/Commonjava/commonjava)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.commonjava.rwx.util;
+
+import org.commonjava.rwx.error.CoercionException;
+import org.commonjava.rwx.error.XmlRpcException;
+import org.commonjava.rwx.vocab.ValueType;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.CharBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Date;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Transcode JSON documents to XML-RPC while they are read, the reverse of {@link XmlRpcJsonTranscoder}. JSON
+ * tokens are pulled one by one and written through {@link XmlRpcWriter} without building a Map/List tree, so
+ * memory does not grow with the payload: strings and base64 values are copied in chunks of {@link #CHUNK_SIZE}
+ * chars, arrays element by element, and only numbers, dates and names are held, up to {@link #MAX_SCALAR_LENGTH}
+ * chars.
+ *
+ * Documents map to XML-RPC as follows, decided by the first known key of the root object:
+ * <pre>
+ * {"methodName": "...", "params": [...]}   methodCall, methodName must come before params
+ * {"params": [...]}                         methodResponse
+ * {"fault": {...}}                          methodResponse with fault
+ * object, array                             struct, array
+ * string                                    string
+ * integer number                            int, or i8 when it does not fit (see {@link #setIntegerType(ValueType)})
+ * other number                              double
+ * true, false                               boolean
+ * null                                      nil
+ * </pre>
+ * JSON has no dates, no binary and a single number type, so struct members can be given a type hint by name (see
+ * {@link #setTypeHint(String, ValueType)}), e.g., to write a string member as dateTime.iso8601 or base64, or a
+ * number as i8. Array elements take the hint of the member holding the array. Keys which are not part of the
+ * mapping are skipped. Thread-safe, the hints may be changed while documents are transcoded.
+ */
+public final class JsonXmlRpcTranscoder
+{
+    public static final int MAX_SCALAR_LENGTH = 1024;
+
+    public static final int CHUNK_SIZE = 1024;
+
+    public static final int MAX_DEPTH = 512;
+
+    private final Map<String, ValueType> typeHints = new ConcurrentHashMap<>();
+
+    private volatile ValueType integerType = ValueType.INT;
+
+    public ValueType getTypeHint( String memberName )
+    {
+        return typeHints.get( memberName );
+    }
+
+    /**
+     * Write values of struct members with the given name as the type, converting from the JSON value:
+     * <pre>
+     * INT, LONG, DOUBLE   number, or string holding a number
+     * BOOLEAN             true, false, or the number or string 0 or 1
+     * DATETIME            string holding an ISO 8601 date, or number of milliseconds since the epoch
+     * BASE64              string holding base64 text, whitespace is dropped
+     * STRING              any scalar as its JSON text
+     * </pre>
+     * Values which can not be converted fail the transcoding with a {@link CoercionException}; null is always
+     * written as nil.
+     *
+     * @param type the type, or null to remove the hint
+     */
+    public void setTypeHint( String memberName, ValueType type )
+    {
+        if ( type == null )
+        {
+            typeHints.remove( memberName );
+            return;
+        }
+        switch ( type )
+        {
+            case INT:
+            case LONG:
+            case DOUBLE:
+            case BOOLEAN:
+            case DATETIME:
+            case BASE64:
+            case STRING:
+                typeHints.put( memberName, type );
+                return;
+            default:
+                throw new IllegalArgumentException( "Not a scalar type: " + type );
+        }
+    }
+
+    public ValueType getIntegerType()
+    {
+        return integerType;
+    }
+
+    /**
+     * How integer numbers without a type hint are written: INT (the default) as int, or i8 when they do not fit;
+     * LONG always as i8; DOUBLE always as double. Integers beyond the i8 range are written as double in the first
+     * two modes.
+     */
+    public void setIntegerType( ValueType integerType )
+    {
+        if ( integerType != ValueType.INT && integerType != ValueType.LONG && integerType != ValueType.DOUBLE )
+        {
+            throw new IllegalArgumentException( "Not an integer type: " + integerType );
+        }
+        this.integerType = integerType;
+    }
+
+    /**
+     * Transcode the UTF-8 JSON document to XML-RPC in UTF-8. The streams are not closed.
+     *
+     * @throws XmlRpcException if the input is not valid JSON, does not map to XML-RPC or the output cannot be
+     * written
+     */
+    public void transcode( InputStream in, OutputStream out ) throws XmlRpcException
+    {
+        transcode( new InputStreamReader( in, StandardCharsets.UTF_8 ),
+                   XmlRpcWriter.forStream( out, RenderUtils.DEFAULT_BUFFER_SIZE ) );
+    }
+
+    /**
+     * Transcode the JSON document to XML-RPC. The writer is flushed, not closed.
+     */
+    public void transcode( Reader in, Writer out ) throws XmlRpcException
+    {
+        transcode( in, XmlRpcWriter.forWriter( out, RenderUtils.DEFAULT_BUFFER_SIZE ) );
+    }
+
+    private void transcode( Reader in, XmlRpcWriter writer ) throws XmlRpcException
+    {
+        try
+        {
+            new Session( in, writer, typeHints, integerType ).document();
+            writer.flush();
+        }
+        catch ( IOException e )
+        {
+            throw new XmlRpcException( "Transcode to XML-RPC failed", e );
+        }
+    }
+
+    /**
+     * State of one transcoding: the JSON input buffer, the writer and the chunk and scalar buffers.
+     */
+    private static final class Session
+    {
+        // what readString does with the decoded chars
+        private static final int SKIP = 0;
+
+        private static final int TEXT = 1;
+
+        private static final int BASE64 = 2;
+
+        private static final int COLLECT = 3;
+
+        private static final char[] ONE = { '1' };
+
+        private static final char[] ZERO = { '0' };
+
+        private final Reader in;
+
+        private final XmlRpcWriter writer;
+
+        private final Map<String, ValueType> typeHints;
+
+        private final ValueType integerType;
+
+        private final char[] buf = new char[RenderUtils.DEFAULT_BUFFER_SIZE];
+
+        private int pos;
+
+        private int limit;
+
+        // chars consumed before buf, for error messages
+        private long consumed;
+
+        private final char[] chunk = new char[CHUNK_SIZE];
+
+        private char[] scalar = new char[64];
+
+        private int scalarLength;
+
+        private int depth;
+
+        Session( Reader in, XmlRpcWriter writer, Map<String, ValueType> typeHints, ValueType integerType )
+        {
+            this.in = in;
+            this.writer = writer;
+            this.typeHints = typeHints;
+            this.integerType = integerType;
+        }
+
+        void document() throws IOException, XmlRpcException
+        {
+            if ( nonBlank() != '{' )
+            {
+                throw syntax( "document must be an object" );
+            }
+            writer.startDocument();
+
+            ValueType root = null; // STRUCT for methodCall, NIL for methodResponse
+            boolean params = false;
+            int c = nonBlank();
+            if ( c != '}' )
+            {
+                unread();
+                do
+                {
+                    String key = name();
+                    if ( root == null && "methodName".equals( key ) )
+                    {
+                        if ( nonBlank() != '"' )
+                        {
+                            throw syntax( "methodName must be a string" );
+                        }
+                        readString( COLLECT );
+                        writer.startMethodCall( new String( scalar, 0, scalarLength ).trim() );
+                        root = ValueType.STRUCT;
+                    }
+                    else if ( root == null && "params".equals( key ) )
+                    {
+                        writer.startMethodResponse();
+                        params();
+                        root = ValueType.NIL;
+                        params = true;
+                    }
+                    else if ( root == null && "fault".equals( key ) )
+                    {
+                        writer.startMethodResponse();
+                        writer.startFault();
+                        value( null );
+                        writer.endFault();
+                        root = ValueType.NIL;
+                        params = true;
+                    }
+                    else if ( root == ValueType.STRUCT && !params && "params".equals( key ) )
+                    {
+                        params();
+                        params = true;
+                    }
+                    else
+                    {
+                        skipValue();
+                    }
+                    c = nonBlank();
+                }
+                while ( c == ',' );
+                if ( c != '}' )
+                {
+                    throw syntax( "expected ',' or '}'" );
+                }
+            }
+
+            if ( root == null )
+            {
+                throw new XmlRpcException( "JSON document has no methodName, params or fault" );
+            }
+            if ( !params )
+            {
+                writer.startParams();
+                writer.endParams();
+            }
+            if ( root == ValueType.STRUCT )
+            {
+                writer.endMethodCall();
+            }
+            else
+            {
+                writer.endMethodResponse();
+            }
+            if ( nonBlank() != -1 )
+            {
+                throw syntax( "content after the document" );
+            }
+        }
+
+        /**
+         * Write the params array, or no params for null.
+         */
+        private void params() throws IOException, XmlRpcException
+        {
+            writer.startParams();
+            int c = nonBlank();
+            if ( c == 'n' )
+            {
+                literal( c );
+                writer.endParams();
+                return;
+            }
+            if ( c != '[' )
+            {
+                throw syntax( "params must be an array" );
+            }
+            c = nonBlank();
+            if ( c != ']' )
+            {
+                unread();
+                do
+                {
+                    writer.startParam();
+                    value( null );
+                    writer.endParam();
+                    c = nonBlank();
+                }
+                while ( c == ',' );
+                if ( c != ']' )
+                {
+                    throw syntax( "expected ',' or ']'" );
+                }
+            }
+            writer.endParams();
+        }
+
+        private void value( ValueType hint ) throws IOException, XmlRpcException
+        {
+            int c = nonBlank();
+            switch ( c )
+            {
+                case '{':
+                    struct();
+                    return;
+                case '[':
+                    array( hint );
+                    return;
+                case '"':
+                    string( hint );
+                    return;
+                case 't':
+                case 'f':
+                case 'n':
+                    literal( c, hint );
+                    return;
+                default:
+                    if ( c == '-' || ( c >= '0' && c <= '9' ) )
+                    {
+                        number( c, hint );
+                        return;
+                    }
+                    throw syntax( c == -1 ? "unexpected end of input" : "unexpected char '" + (char) c + "'" );
+            }
+        }
+
+        private void struct() throws IOException, XmlRpcException
+        {
+            enter();
+            writer.startValue();
+            writer.startStruct();
+            int c = nonBlank();
+            if ( c != '}' )
+            {
+                unread();
+                do
+                {
+                    String name = name();
+                    writer.startMember( name );
+                    value( typeHints.get( name ) );
+                    writer.endMember();
+                    c = nonBlank();
+                }
+                while ( c == ',' );
+                if ( c != '}' )
+                {
+                    throw syntax( "expected ',' or '}'" );
+                }
+            }
+            writer.endStruct();
+            writer.endValue();
+            depth--;
+        }
+
+        private void array( ValueType hint ) throws IOException, XmlRpcException
+        {
+            enter();
+            writer.startValue();
+            writer.startArray();
+            int c = nonBlank();
+            if ( c != ']' )
+            {
+                unread();
+                do
+                {
+                    value( hint );
+                    c = nonBlank();
+                }
+                while ( c == ',' );
+                if ( c != ']' )
+                {
+                    throw syntax( "expected ',' or ']'" );
+                }
+            }
+            writer.endArray();
+            writer.endValue();
+            depth--;
+        }
+
+        private void enter() throws XmlRpcException
+        {
+            if ( ++depth > MAX_DEPTH )
+            {
+                throw new XmlRpcException( "JSON nested deeper than {} levels", MAX_DEPTH );
+            }
+        }
+
+        /**
+         * Read a member name and the colon after it.
+         */
+        private String name() throws IOException, XmlRpcException
+        {
+            if ( nonBlank() != '"' )
+            {
+                throw syntax( "expected member name" );
+            }
+            readString( COLLECT );
+            String name = new String( scalar, 0, scalarLength );
+            if ( nonBlank() != ':' )
+            {
+                throw syntax( "expected ':'" );
+            }
+            return name;
+        }
+
+        private void string( ValueType hint ) throws IOException, XmlRpcException
+        {
+            if ( hint == null || hint == ValueType.STRING || hint == ValueType.BASE64 )
+            {
+                ValueType type = hint == null ? ValueType.STRING : hint;
+                writer.startValue();
+                writer.startScalar( type );
+                readString( type == ValueType.BASE64 ? BASE64 : TEXT );
+                writer.endScalar( type );
+                writer.endValue();
+                return;
+            }
+
+            readString( COLLECT );
+            int s = ScalarParser.trimStart( scalar, 0, scalarLength );
+            int e = ScalarParser.trimEnd( scalar, s, scalarLength );
+            writer.startValue();
+            writer.startScalar( hint );
+            if ( s < e )
+            {
+                convert( hint, s, e, true );
+            }
+            writer.endScalar( hint );
+            writer.endValue();
+        }
+
+        private void number( int first, ValueType hint ) throws IOException, XmlRpcException
+        {
+            scalarLength = 0;
+            append( (char) first );
+            boolean integral = true;
+            for ( int c; ( c = peek() ) != -1; )
+            {
+                if ( c == '.' || c == 'e' || c == 'E' )
+                {
+                    integral = false;
+                }
+                else if ( c != '+' && c != '-' && ( c < '0' || c > '9' ) )
+                {
+                    break;
+                }
+                append( (char) read() );
+            }
+            if ( !isJsonNumber() )
+            {
+                throw syntax( "invalid number '" + new String( scalar, 0, scalarLength ) + "'" );
+            }
+
+            if ( hint == null )
+            {
+                ValueType type = integral ? integerType : ValueType.DOUBLE;
+                if ( type != ValueType.DOUBLE )
+                {
+                    long value;
+                    try
+                    {
+                        value = ScalarParser.parseLong( scalar, 0, scalarLength, Long.MIN_VALUE, Long.MAX_VALUE );
+                    }
+                    catch ( CoercionException e )
+                    {
+                        value = 0;
+                        type = ValueType.DOUBLE;
+                    }
+                    if ( type == ValueType.INT && value == (int) value )
+                    {
+                        writer.intValue( (int) value );
+                        return;
+                    }
+                    if ( type != ValueType.DOUBLE )
+                    {
+                        writer.longValue( value );
+                        return;
+                    }
+                }
+                // e.g., 1e999 parses to infinity, which XML-RPC has no form for either
+                writer.value( XmlRpcWriter.canonicalDouble( ScalarParser.parseDouble( scalar, 0, scalarLength ) ) );
+                return;
+            }
+
+            if ( hint == ValueType.BASE64 )
+            {
+                throw new CoercionException(
+                                "Cannot write number as base64: " + new String( scalar, 0, scalarLength ) );
+            }
+            writer.startValue();
+            writer.startScalar( hint );
+            convert( hint, 0, scalarLength, false );
+            writer.endScalar( hint );
+            writer.endValue();
+        }
+
+        /**
+         * Write the scalar text in [s, e) as the content of the hinted type, whose start tag has been written.
+         *
+         * @param quoted whether the text came from a JSON string rather than a number
+         */
+        private void convert( ValueType hint, int s, int e, boolean quoted ) throws IOException, XmlRpcException
+        {
+            switch ( hint )
+            {
+                case INT:
+                    writeDecimal( ScalarParser.parseLong( scalar, s, e, Integer.MIN_VALUE, Integer.MAX_VALUE ) );
+                    return;
+                case LONG:
+                    writeDecimal( ScalarParser.parseLong( scalar, s, e, Long.MIN_VALUE, Long.MAX_VALUE ) );
+                    return;
+                case DOUBLE:
+                {
+                    double value = ScalarParser.parseDouble( scalar, s, e );
+                    int len = PlainDoubleFormatter.format( XmlRpcWriter.canonicalDouble( value ), chunk, 0 );
+                    writer.text( chunk, 0, len );
+                    return;
+                }
+                case BOOLEAN:
+                {
+                    // the same values XML-RPC takes: 0, 1, true and false in any case
+                    String text = new String( scalar, s, e - s );
+                    boolean value = ScalarParser.parseBoolean( scalar, s, e );
+                    if ( !value && !"0".equals( text ) && !"false".equalsIgnoreCase( text ) )
+                    {
+                        throw new CoercionException( "Not a boolean: " + text );
+                    }
+                    writer.text( value ? ONE : ZERO, 0, 1 );
+                    return;
+                }
+                case DATETIME:
+                {
+                    String date;
+                    if ( quoted )
+                    {
+                        date = toBasic( Iso8601Codec.toExtended( CharBuffer.wrap( scalar, s, e - s ) ) );
+                    }
+                    else
+                    {
+                        long millis = ScalarParser.parseLong( scalar, s, e, Long.MIN_VALUE, Long.MAX_VALUE );
+                        date = Iso8601Codec.format( new Date( millis ) );
+                    }
+                    writer.text( date.toCharArray(), 0, date.length() );
+                    return;
+                }
+                default:
+                    writer.text( scalar, s, e - s );
+            }
+        }
+
+        private void writeDecimal( long value ) throws IOException
+        {
+            String text = Long.toString( value );
+            writer.text( text.toCharArray(), 0, text.length() );
+        }
+
+        /**
+         * The dateTime.iso8601 form of an extended ISO 8601 date, e.g., 2017-09-17T10:15:30 to 20170917T10:15:30.
+         */
+        private static String toBasic( String extended )
+        {
+            int t = extended.indexOf( 'T' );
+            return extended.substring( 0, t ).replace( "-", "" ) + extended.substring( t );
+        }
+
+        private void literal( int first, ValueType hint ) throws IOException, XmlRpcException
+        {
+            String literal = literal( first );
+            if ( literal == null )
+            {
+                writer.startValue();
+                writer.startScalar( ValueType.NIL );
+                writer.endScalar( ValueType.NIL );
+                writer.endValue();
+                return;
+            }
+            if ( hint != null && hint != ValueType.BOOLEAN && hint != ValueType.STRING )
+            {
+                throw new CoercionException( "Cannot write boolean as " + hint + ": " + literal );
+            }
+            ValueType type = hint == null ? ValueType.BOOLEAN : hint;
+            writer.startValue();
+            writer.startScalar( type );
+            if ( type == ValueType.STRING )
+            {
+                writer.text( literal.toCharArray(), 0, literal.length() );
+            }
+            else
+            {
+                writer.text( "true".equals( literal ) ? ONE : ZERO, 0, 1 );
+            }
+            writer.endScalar( type );
+            writer.endValue();
+        }
+
+        /**
+         * Read true, false or null.
+         *
+         * @return the literal, or null for null
+         */
+        private String literal( int first ) throws IOException, XmlRpcException
+        {
+            String expected = first == 't' ? "true" : first == 'f' ? "false" : "null";
+            for ( int i = 1; i < expected.length(); i++ )
+            {
+                if ( read() != expected.charAt( i ) )
+                {
+                    throw syntax( "invalid literal, expected " + expected );
+                }
+            }
+            int next = peek();
+            if ( ( next >= 'a' && next <= 'z' ) || ( next >= '0' && next <= '9' ) )
+            {
+                throw syntax( "invalid literal, expected " + expected );
+            }
+            return first == 'n' ? null : expected;
+        }
+
+        /**
+         * Check the scalar buffer against the JSON number grammar: -?(0|[1-9][0-9]*)(.[0-9]+)?([eE][+-]?[0-9]+)?
+         */
+        private boolean isJsonNumber()
+        {
+            int i = 0;
+            int end = scalarLength;
+            if ( i < end && scalar[i] == '-' )
+            {
+                i++;
+            }
+            if ( i < end && scalar[i] == '0' )
+            {
+                i++;
+            }
+            else
+            {
+                int start = i;
+                i = digits( i, end );
+                if ( i == start )
+                {
+                    return false;
+                }
+            }
+            if ( i < end && scalar[i] == '.' )
+            {
+                int start = ++i;
+                i = digits( i, end );
+                if ( i == start )
+                {
+                    return false;
+                }
+            }
+            if ( i < end && ( scalar[i] == 'e' || scalar[i] == 'E' ) )
+            {
+                i++;
+                if ( i < end && ( scalar[i] == '+' || scalar[i] == '-' ) )
+                {
+                    i++;
+                }
+                int start = i;
+                i = digits( i, end );
+                if ( i == start )
+                {
+                    return false;
+                }
+            }
+            return i == end;
+        }
+
+        private int digits( int i, int end )
+        {
+            while ( i < end && scalar[i] >= '0' && scalar[i] <= '9' )
+            {
+                i++;
+            }
+            return i;
+        }
+
+        /**
+         * Skip a value of a key which is not part of the mapping.
+         */
+        private void skipValue() throws IOException, XmlRpcException
+        {
+            int c = nonBlank();
+            if ( c == '"' )
+            {
+                readString( SKIP );
+                return;
+            }
+            if ( c == '{' || c == '[' )
+            {
+                int nesting = 1;
+                while ( nesting > 0 )
+                {
+                    c = read();
+                    if ( c == -1 )
+                    {
+                        throw syntax( "unexpected end of input" );
+                    }
+                    if ( c == '"' )
+                    {
+                        readString( SKIP );
+                    }
+                    else if ( c == '{' || c == '[' )
+                    {
+                        nesting++;
+                    }
+                    else if ( c == '}' || c == ']' )
+                    {
+                        nesting--;
+                    }
+                }
+                return;
+            }
+            if ( c == -1 )
+            {
+                throw syntax( "unexpected end of input" );
+            }
+            while ( ( c = peek() ) != -1 && c != ',' && c != '}' && c != ']' && c > ' ' )
+            {
+                read();
+            }
+        }
+
+        /**
+         * Read the rest of a string after the opening quote, decoding escapes into the chunk buffer, which is
+         * handed on whenever it is full so that a string of any length is never held as a whole. A surrogate pair
+         * is never split between two chunks.
+         */
+        private void readString( int mode ) throws IOException, XmlRpcException
+        {
+            scalarLength = 0;
+            int n = 0;
+            while ( true )
+            {
+                int c = read();
+                if ( c == '"' )
+                {
+                    break;
+                }
+                if ( c == -1 )
+                {
+                    throw syntax( "unterminated string" );
+                }
+                if ( c < ' ' )
+                {
+                    throw syntax( "control char in string" );
+                }
+                if ( c == '\\' )
+                {
+                    c = escape();
+                }
+
+                if ( n == CHUNK_SIZE )
+                {
+                    boolean split = Character.isHighSurrogate( chunk[n - 1] );
+                    emit( mode, split ? n - 1 : n );
+                    n = 0;
+                    if ( split )
+                    {
+                        chunk[n++] = chunk[CHUNK_SIZE - 1];
+                    }
+                }
+                chunk[n++] = (char) c;
+            }
+            emit( mode, n );
+        }
+
+        private int escape() throws IOException, XmlRpcException
+        {
+            int c = read();
+            switch ( c )
+            {
+                case '"':
+                case '\\':
+                case '/':
+                    return c;
+                case 'b':
+                    return '\b';
+                case 'f':
+                    return '\f';
+                case 'n':
+                    return '\n';
+                case 'r':
+                    return '\r';
+                case 't':
+                    return '\t';
+                case 'u':
+                {
+                    int value = 0;
+                    for ( int i = 0; i < 4; i++ )
+                    {
+                        int digit = Character.digit( read(), 16 );
+                        if ( digit < 0 )
+                        {
+                            throw syntax( "invalid unicode escape" );
+                        }
+                        value = ( value << 4 ) | digit;
+                    }
+                    return value;
+                }
+                default:
+                    throw syntax( "invalid escape" );
+            }
+        }
+
+        private void emit( int mode, int n ) throws IOException, XmlRpcException
+        {
+            switch ( mode )
+            {
+                case TEXT:
+                {
+                    for ( int i = 0; i < n; i++ )
+                    {
+                        char c = chunk[i];
+                        if ( ( c < ' ' && c != '\t' && c != '\n' && c != '\r' ) || c == '\uFFFE' || c == '\uFFFF' )
+                        {
+                            throw new CoercionException(
+                                            "Char U+" + Integer.toHexString( c ) + " is not allowed in XML" );
+                        }
+                    }
+                    writer.text( chunk, 0, n );
+                    return;
+                }
+                case BASE64:
+                {
+                    int k = 0;
+                    for ( int i = 0; i < n; i++ )
+                    {
+                        char c = chunk[i];
+                        if ( c <= ' ' )
+                        {
+                            continue;
+                        }
+                        if ( !( ( c >= 'A' && c <= 'Z' ) || ( c >= 'a' && c <= 'z' ) || ( c >= '0' && c <= '9' )
+                                        || c == '+' || c == '/' || c == '=' ) )
+                        {
+                            throw new CoercionException( "Not a base64 char: '" + c + "'" );
+                        }
+                        chunk[k++] = c;
+                    }
+                    writer.text( chunk, 0, k );
+                    return;
+                }
+                case COLLECT:
+                {
+                    if ( scalarLength + n > MAX_SCALAR_LENGTH )
+                    {
+                        throw new CoercionException( "Scalar value longer than " + MAX_SCALAR_LENGTH + " chars" );
+                    }
+                    for ( int i = 0; i < n; i++ )
+                    {
+                        append( chunk[i] );
+                    }
+                    return;
+                }
+                default:
+            }
+        }
+
+        private void append( char c ) throws CoercionException
+        {
+            if ( scalarLength == scalar.length )
+            {
+                if ( scalarLength >= MAX_SCALAR_LENGTH )
+                {
+                    throw new CoercionException( "Scalar value longer than " + MAX_SCALAR_LENGTH + " chars" );
+                }
+                char[] grown = new char[Math.min( MAX_SCALAR_LENGTH, scalar.length * 2 )];
+                System.arraycopy( scalar, 0, grown, 0, scalarLength );
+                scalar = grown;
+            }
+            scalar[scalarLength++] = c;
+        }
+
+        private int read() throws IOException
+        {
+            if ( pos == limit && !fill() )
+            {
+                return -1;
+            }
+            return buf[pos++];
+        }
+
+        private int peek() throws IOException
+        {
+            if ( pos == limit && !fill() )
+            {
+                return -1;
+            }
+            return buf[pos];
+        }
+
+        /**
+         * Step back over the char just read, which is always still in the buffer. Nothing to do at the end of
+         * input, where the next read gives -1 again.
+         */
+        private void unread()
+        {
+            if ( pos > 0 )
+            {
+                pos--;
+            }
+        }
+
+        private int nonBlank() throws IOException
+        {
+            int c;
+            do
+            {
+                c = read();
+            }
+            while ( c == ' ' || c == '\t' || c == '\n' || c == '\r' );
+            return c;
+        }
+
+        private boolean fill() throws IOException
+        {
+            consumed += limit;
+            pos = 0;
+            limit = 0;
+            int n;
+            do
+            {
+                n = in.read( buf, 0, buf.length );
+            }
+            while ( n == 0 );
+            if ( n < 0 )
+            {
+                return false;
+            }
+            limit = n;
+            return true;
+        }
+
+        private XmlRpcException syntax( String message )
+        {
+            return new XmlRpcException( "Invalid JSON at char {}: {}", consumed + pos, message );
+        }
+    }
+}
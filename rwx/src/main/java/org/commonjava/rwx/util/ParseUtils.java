@@ -15,11 +15,18 @@
  */
 package org.commonjava.rwx.util;
 
+import org.commonjava.rwx.model.MethodCall;
+import org.commonjava.rwx.model.MethodResponse;
 import org.commonjava.rwx.vocab.Nil;
 import org.commonjava.rwx.vocab.ValueType;
 
+import java.util.ArrayList;
+import java.util.Date;
 import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
+import java.util.stream.Stream;
 
 /**
  * Created by ruhan on 7/13/17.
@@ -46,7 +53,7 @@ public class ParseUtils
     }
 
     /**
-     * Upgrade cast, e.g., Int to Long.
+     * Upgrade cast, e.g., Int to Long, or Date to java.time.Instant.
      *
      * @param clazz target type
      * @param value object to be cast
@@ -55,27 +62,121 @@ public class ParseUtils
      */
     public static Object upgradeCast( Class<?> clazz, Object value )
     {
+        if ( Iso8601Codec.isSupported( clazz ) )
+        {
+            return Iso8601Codec.convert( value, clazz );
+        }
         ValueType type = ValueType.typeFor( wrap( clazz ) );
         return type.coercion().upgradeCast( value );
     }
 
-    private static <T> Class<T> wrap( Class<T> c )
+    /**
+     * Adapt a parsed array to the type of an array source field, i.e., a Stream or Iterator over the list. Iterable
+     * fields take the list as is.
+     *
+     * @param sourceType Stream, Iterator or Iterable
+     * @param list the parsed array
+     * @return the value to set on the field
+     */
+    public static Object toSource( Class<?> sourceType, List<?> list )
     {
-        return c.isPrimitive() ? (Class<T>) PRIMITIVES_TO_WRAPPERS.get( c ) : c;
+        if ( sourceType == Stream.class )
+        {
+            return list.stream();
+        }
+        else if ( sourceType == Iterator.class )
+        {
+            return list.iterator();
+        }
+        return list;
     }
 
-    private static final Map<Class<?>, Class<?>> PRIMITIVES_TO_WRAPPERS = new HashMap<>();
+    /**
+     * Deep-copy a parsed tree, so it can be handed out while the original is kept, e.g., by a cache. Calls,
+     * responses, structs, arrays, dates and base64 are copied, the other values are immutable.
+     *
+     * @param tree a parsed MethodCall, MethodResponse or value
+     * @return the copy
+     */
+    @SuppressWarnings( "unchecked" )
+    public static Object copyTree( Object tree )
+    {
+        if ( tree instanceof MethodCall )
+        {
+            MethodCall copy = new MethodCall();
+            copy.setMethodName( ( (MethodCall) tree ).getMethodName() );
+            copy.setParams( (List<Object>) copyTree( ( (MethodCall) tree ).getParams() ) );
+            return copy;
+        }
+        if ( tree instanceof MethodResponse )
+        {
+            MethodResponse copy = new MethodResponse();
+            copy.setParams( (List<Object>) copyTree( ( (MethodResponse) tree ).getParams() ) );
+            return copy;
+        }
+        if ( tree instanceof Map )
+        {
+            Map<?, ?> map = (Map<?, ?>) tree;
+            Map<Object, Object> copy = new HashMap<>( map.size() * 4 / 3 + 1 );
+            map.forEach( ( k, v ) -> copy.put( k, copyTree( v ) ) );
+            return copy;
+        }
+        if ( tree instanceof List )
+        {
+            List<?> list = (List<?>) tree;
+            List<Object> copy = new ArrayList<>( list.size() );
+            list.forEach( v -> copy.add( copyTree( v ) ) );
+            return copy;
+        }
+        if ( tree instanceof Date )
+        {
+            return new Date( ( (Date) tree ).getTime() );
+        }
+        if ( tree instanceof byte[] )
+        {
+            return ( (byte[]) tree ).clone();
+        }
+        return tree;
+    }
 
-    static
+    private static Class<?> wrap( Class<?> c )
     {
-        PRIMITIVES_TO_WRAPPERS.put( boolean.class, Boolean.class );
-        PRIMITIVES_TO_WRAPPERS.put( byte.class, Byte.class );
-        PRIMITIVES_TO_WRAPPERS.put( char.class, Character.class );
-        PRIMITIVES_TO_WRAPPERS.put( double.class, Double.class );
-        PRIMITIVES_TO_WRAPPERS.put( float.class, Float.class );
-        PRIMITIVES_TO_WRAPPERS.put( int.class, Integer.class );
-        PRIMITIVES_TO_WRAPPERS.put( long.class, Long.class );
-        PRIMITIVES_TO_WRAPPERS.put( short.class, Short.class );
-        PRIMITIVES_TO_WRAPPERS.put( void.class, Void.class );
+        if ( !c.isPrimitive() )
+        {
+            return c;
+        }
+        else if ( c == long.class )
+        {
+            return Long.class;
+        }
+        else if ( c == int.class )
+        {
+            return Integer.class;
+        }
+        else if ( c == boolean.class )
+        {
+            return Boolean.class;
+        }
+        else if ( c == double.class )
+        {
+            return Double.class;
+        }
+        else if ( c == float.class )
+        {
+            return Float.class;
+        }
+        else if ( c == short.class )
+        {
+            return Short.class;
+        }
+        else if ( c == byte.class )
+        {
+            return Byte.class;
+        }
+        else if ( c == char.class )
+        {
+            return Character.class;
+        }
+        return Void.class;
     }
 }
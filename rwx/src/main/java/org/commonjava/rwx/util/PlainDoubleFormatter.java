@@ -0,0 +1,171 @@
+/**
+ * Copyright (C) 2010 Red Hat, Inc. (http://github.com/Commonjava/commonjava)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.commonjava.rwx.util;
+
+/**
+ * Render doubles in plain (non-scientific) notation, e.g., 2135000000 instead of 2.135E9.
+ *
+ * The shortest round-trip digits come from Double.toString, the same digit generator DecimalFormat uses, and
+ * are then laid out without an exponent. The output is the same as DecimalFormat("0") with 340 fraction digits
+ * and English symbols, without creating a DecimalFormat per value.
+ */
+public final class PlainDoubleFormatter
+{
+    /**
+     * Big enough for any double: sign, "0.", up to 323 zeros from the exponent and up to 17 significant digits.
+     */
+    public static final int MAX_LENGTH = 1 + 2 + 323 + 17;
+
+    /**
+     * Scratch buffer of {@link #format(double)} and {@link #formatTo(double, StringBuilder)}, reused per thread.
+     */
+    private static final ThreadLocal<char[]> SCRATCH = ThreadLocal.withInitial( () -> new char[MAX_LENGTH] );
+
+    private static final char[] NAN = "NaN".toCharArray();
+
+    private static final char INFINITY = '∞';
+
+    private PlainDoubleFormatter()
+    {
+        throw new UnsupportedOperationException( "This is a utility class and cannot be instantiated" );
+    }
+
+    public static String format( double value )
+    {
+        char[] buf = SCRATCH.get();
+        int len = format( value, buf, 0 );
+        return new String( buf, 0, len );
+    }
+
+    public static void formatTo( double value, StringBuilder sb )
+    {
+        char[] buf = SCRATCH.get();
+        int len = format( value, buf, 0 );
+        sb.append( buf, 0, len );
+    }
+
+    /**
+     * Write the value to buf starting at off. The buffer needs room for {@link #MAX_LENGTH} chars.
+     *
+     * @return number of chars written
+     */
+    public static int format( double value, char[] buf, int off )
+    {
+        int i = off;
+        if ( Double.isNaN( value ) )
+        {
+            System.arraycopy( NAN, 0, buf, i, NAN.length );
+            return NAN.length;
+        }
+
+        if ( value < 0 || ( value == 0 && 1 / value < 0 ) )
+        {
+            buf[i++] = '-';
+            value = -value;
+        }
+
+        if ( Double.isInfinite( value ) )
+        {
+            buf[i++] = INFINITY;
+            return i - off;
+        }
+
+        // Double.toString gives either d.ddd or d.dddE[-]n, collect the significant digits and the point position
+        String s = Double.toString( value );
+        int sLen = s.length();
+        int exp = 0;
+        int ePos = s.indexOf( 'E' );
+        if ( ePos >= 0 )
+        {
+            exp = Integer.parseInt( s.substring( ePos + 1 ) );
+            sLen = ePos;
+        }
+
+        int digitsStart = i;
+        int digitsLen = 0;
+        int pointPos = 0;
+        for ( int j = 0; j < sLen; j++ )
+        {
+            char c = s.charAt( j );
+            if ( c == '.' )
+            {
+                pointPos = digitsLen;
+            }
+            else
+            {
+                buf[digitsStart + digitsLen++] = c;
+            }
+        }
+        pointPos += exp;
+
+        // strip leading zeros, e.g., 0.001
+        int lead = 0;
+        while ( lead < digitsLen && buf[digitsStart + lead] == '0' )
+        {
+            lead++;
+        }
+        // strip trailing zeros, e.g., 1.0
+        int trail = digitsLen;
+        while ( trail > lead && buf[digitsStart + trail - 1] == '0' )
+        {
+            trail--;
+        }
+
+        if ( lead == trail )
+        {
+            buf[i++] = '0';
+            return i - off;
+        }
+
+        int sigLen = trail - lead;
+        pointPos -= lead;
+
+        if ( pointPos <= 0 )
+        {
+            // 0.000ddd, shift digits right to make room for the prefix
+            int prefix = 2 - pointPos;
+            System.arraycopy( buf, digitsStart + lead, buf, i + prefix, sigLen );
+            buf[i++] = '0';
+            buf[i++] = '.';
+            for ( int z = 0; z < -pointPos; z++ )
+            {
+                buf[i++] = '0';
+            }
+            i += sigLen;
+        }
+        else if ( pointPos >= sigLen )
+        {
+            // ddd000
+            System.arraycopy( buf, digitsStart + lead, buf, i, sigLen );
+            i += sigLen;
+            for ( int z = sigLen; z < pointPos; z++ )
+            {
+                buf[i++] = '0';
+            }
+        }
+        else
+        {
+            // ddd.ddd
+            System.arraycopy( buf, digitsStart + lead, buf, i, pointPos );
+            i += pointPos;
+            int fracLen = sigLen - pointPos;
+            System.arraycopy( buf, digitsStart + lead + pointPos, buf, i + 1, fracLen );
+            buf[i++] = '.';
+            i += fracLen;
+        }
+        return i - off;
+    }
+}
@@ -26,6 +26,11 @@ import java.util.Set;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
+import static org.commonjava.rwx.vocab.XmlRpcConstants.METHOD_NAME;
+import static org.commonjava.rwx.vocab.XmlRpcConstants.PARAM;
+import static org.commonjava.rwx.vocab.XmlRpcConstants.PARAMS;
+import static org.commonjava.rwx.vocab.XmlRpcConstants.REQUEST;
+
 /**
  * Created by ruhan on 7/31/17.
  */
@@ -43,6 +48,8 @@ public class ProcessorUtils
 
     public static final String GENERATED = "generated";
 
+    private static final String[] SOURCE_TYPES = { "java.util.Iterator", "java.lang.Iterable", "java.util.stream.Stream" };
+
     public static <E> Set<? extends E> union( Set<? extends E>... sets )
     {
         Set<E> es = new HashSet<>();
@@ -184,7 +191,7 @@ public class ProcessorUtils
 
     public static String getElementClassByType( String type )
     {
-        Pattern pattern = Pattern.compile( ".*List<(.+)>" );
+        Pattern pattern = Pattern.compile( ".*(?:List|Iterator|Iterable|Stream)<(.+)>" );
         Matcher matcher = pattern.matcher( type );
         if ( matcher.find() )
         {
@@ -192,4 +199,97 @@ public class ProcessorUtils
         }
         return null;
     }
+
+    /**
+     * Get the raw type of an array source field, which is rendered lazily, e.g., java.util.stream.Stream for
+     * java.util.stream.Stream&lt;java.lang.String&gt;.
+     * @param type the field type
+     * @return java.util.Iterator, java.lang.Iterable, java.util.stream.Stream, or null if the field is not a source
+     */
+    public static String getSourceType( String type )
+    {
+        for ( String sourceType : SOURCE_TYPES )
+        {
+            if ( type.equals( sourceType ) || type.startsWith( sourceType + "<" ) )
+            {
+                return sourceType;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Get the fixed markup of a request with the given method and number of params. The result has paramCount + 1
+     * fragments, the value of param i goes between fragment i and i + 1, e.g., for getBuild with one param:
+     * [&lt;?xml version="1.0" ?&gt;&lt;methodCall&gt;&lt;methodName&gt;getBuild&lt;/methodName&gt;&lt;params&gt;&lt;param&gt;,
+     * &lt;/param&gt;&lt;/params&gt;&lt;/methodCall&gt;]
+     * @param methodName the XML-RPC method name
+     * @param paramCount number of params
+     * @return the markup fragments
+     */
+    public static List<String> getRequestTemplate( String methodName, int paramCount )
+    {
+        List<String> ret = new ArrayList<>( paramCount + 1 );
+        StringBuilder sb = new StringBuilder( "<?xml version=\"1.0\" ?>" );
+        sb.append( "<" + REQUEST + "><" + METHOD_NAME + ">" );
+        for ( char c : methodName.toCharArray() )
+        {
+            if ( c == '<' )
+            {
+                sb.append( "&lt;" );
+            }
+            else if ( c == '>' )
+            {
+                sb.append( "&gt;" );
+            }
+            else if ( c == '&' )
+            {
+                sb.append( "&amp;" );
+            }
+            else
+            {
+                sb.append( c );
+            }
+        }
+        sb.append( "</" + METHOD_NAME + "><" + PARAMS + ">" );
+        for ( int i = 0; i < paramCount; i++ )
+        {
+            sb.append( "<" + PARAM + ">" );
+            ret.add( sb.toString() );
+            sb.setLength( 0 );
+            sb.append( "</" + PARAM + ">" );
+        }
+        sb.append( "</" + PARAMS + "></" + REQUEST + ">" );
+        ret.add( sb.toString() );
+        return ret;
+    }
+
+    /**
+     * Escape a string so that it can be put between double quotes in generated source.
+     */
+    public static String toJavaLiteral( String s )
+    {
+        StringBuilder sb = new StringBuilder( s.length() + 8 );
+        for ( char c : s.toCharArray() )
+        {
+            if ( c == '"' || c == '\\' )
+            {
+                sb.append( '\\' ).append( c );
+            }
+            else if ( c < ' ' )
+            {
+                // octal, unicode escapes of line terminators would break the literal
+                sb.append( String.format( "\\%03o", (int) c ) );
+            }
+            else if ( c > '~' )
+            {
+                sb.append( String.format( "\\u%04x", (int) c ) );
+            }
+            else
+            {
+                sb.append( c );
+            }
+        }
+        return sb.toString();
+    }
 }
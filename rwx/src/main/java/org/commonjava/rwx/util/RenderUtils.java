@@ -17,26 +17,32 @@ package org.commonjava.rwx.util;
 
 import org.commonjava.rwx.error.CoercionException;
 import org.commonjava.rwx.error.XmlRpcException;
-import org.commonjava.rwx.vocab.ValueType;
 import org.commonjava.rwx.model.MethodCall;
 import org.commonjava.rwx.model.MethodResponse;
 
-import javax.xml.stream.XMLOutputFactory;
-import javax.xml.stream.XMLStreamException;
-import javax.xml.stream.XMLStreamWriter;
+import java.io.IOException;
+import java.io.OutputStream;
 import java.io.StringWriter;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.time.Instant;
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
-
-import static org.apache.commons.lang3.StringUtils.isNotBlank;
-import static org.commonjava.rwx.vocab.XmlRpcConstants.*;
+import java.util.RandomAccess;
+import java.util.function.Function;
+import java.util.stream.BaseStream;
 
 /**
  * Created by ruhan on 7/13/17.
  */
 public class RenderUtils
 {
-    private static final XMLOutputFactory OUTPUT_FACTORY = XMLOutputFactory.newInstance();
+    public static final int DEFAULT_BUFFER_SIZE = 8192;
 
     private RenderUtils()
     {
@@ -51,22 +57,127 @@ public class RenderUtils
      * @throws XmlRpcException if the object cannot be serialized
      */
     public static String toXMLString( Object rpcObject ) throws XmlRpcException
+    {
+        StringWriter result = new StringWriter();
+        writeXML( rpcObject, result );
+        return result.toString();
+    }
+
+    /**
+     * Same as {@link #toXMLString(Object)} in canonical form, so equal trees give equal strings whatever the map
+     * implementation or time zone, see {@link XmlRpcWriter#canonical(boolean)}.
+     */
+    public static String toCanonicalXMLString( Object rpcObject ) throws XmlRpcException
+    {
+        StringWriter result = new StringWriter();
+        writeXML( rpcObject, XmlRpcWriter.forWriter( result, DEFAULT_BUFFER_SIZE ).canonical( true ) );
+        return result.toString();
+    }
+
+    /**
+     * Serialize a MethodCall, MethodResponse, Map, or List object as UTF-8 to the stream. The output is encoded
+     * straight into a buffer of {@link #DEFAULT_BUFFER_SIZE} bytes, so it goes out while it is still being produced.
+     * The stream is flushed but not closed.
+     *
+     * @param rpcObject the object to be serialized
+     * @param out the target stream
+     * @throws XmlRpcException if the object cannot be serialized or written
+     */
+    public static void writeXML( Object rpcObject, OutputStream out ) throws XmlRpcException
+    {
+        writeXML( rpcObject, out, DEFAULT_BUFFER_SIZE );
+    }
+
+    /**
+     * Same as {@link #writeXML(Object, OutputStream)} with a given buffer size.
+     */
+    public static void writeXML( Object rpcObject, OutputStream out, int bufferSize ) throws XmlRpcException
+    {
+        writeXML( rpcObject, XmlRpcWriter.forStream( out, bufferSize ) );
+    }
+
+    /**
+     * Serialize a MethodCall, MethodResponse, Map, or List object to the writer. The writer is flushed but not
+     * closed.
+     *
+     * @param rpcObject the object to be serialized
+     * @param writer the target writer
+     * @throws XmlRpcException if the object cannot be serialized or written
+     */
+    public static void writeXML( Object rpcObject, Writer writer ) throws XmlRpcException
+    {
+        writeXML( rpcObject, XmlRpcWriter.forWriter( writer, DEFAULT_BUFFER_SIZE ) );
+    }
+
+    /**
+     * Serialize a MethodCall, MethodResponse, Map, or List object to the appendable, e.g., a StringBuilder.
+     *
+     * @param rpcObject the object to be serialized
+     * @param appendable the target
+     * @throws XmlRpcException if the object cannot be serialized or written
+     */
+    public static void writeXML( Object rpcObject, Appendable appendable ) throws XmlRpcException
+    {
+        writeXML( rpcObject, XmlRpcWriter.forAppendable( appendable, DEFAULT_BUFFER_SIZE ) );
+    }
+
+    /**
+     * Serialize a MethodCall, MethodResponse, Map, or List object with the given writer, which is flushed but not
+     * closed.
+     *
+     * @param rpcObject the object to be serialized
+     * @param w the target writer
+     * @throws XmlRpcException if the object cannot be serialized or written
+     */
+    public static void writeXML( Object rpcObject, XmlRpcWriter w ) throws XmlRpcException
+    {
+        try
+        {
+            dispatch( w, rpcObject );
+            w.flush();
+        }
+        catch ( XmlRpcException e )
+        {
+            throw e;
+        }
+        catch ( Exception e )
+        {
+            throw new XmlRpcException( "writeXML error", e );
+        }
+    }
+
+    private static void dispatch( XmlRpcWriter w, Object rpcObject ) throws XmlRpcException
     {
         if ( rpcObject instanceof MethodCall )
         {
-            return toRequestXMLString( (MethodCall) rpcObject );
+            writeRequest( w, (MethodCall) rpcObject );
         }
         else if ( rpcObject instanceof MethodResponse )
         {
-            return toResponseXMLString( (MethodResponse) rpcObject );
+            writeResponse( w, (MethodResponse) rpcObject );
         }
         else if ( rpcObject instanceof Map<?, ?> )
         {
-            return toStructPartXMLString( (Map<String, Object>) rpcObject );
+            writeStructPart( w, (Map<String, Object>) rpcObject );
         }
         else if ( rpcObject instanceof List )
         {
-            return toArrayPartXMLString( (List<Object>) rpcObject );
+            writeArrayPart( w, (List<Object>) rpcObject );
+        }
+        else if ( rpcObject instanceof XmlRpcWriter.Fragment )
+        {
+            try
+            {
+                w.valueContent( rpcObject );
+            }
+            catch ( Exception e )
+            {
+                throw new XmlRpcException( "toStructPartXMLString error", e );
+            }
+        }
+        else if ( XmlRpcWriter.sourceIterator( rpcObject ) != null )
+        {
+            writeArrayPart( w, XmlRpcWriter.sourceIterator( rpcObject ) );
         }
         else
         {
@@ -74,160 +185,286 @@ public class RenderUtils
         }
     }
 
-    private static String toStructPartXMLString( Map<String, Object> rpcObject ) throws XmlRpcException
+    private static void writeStructPart( XmlRpcWriter w, Map<String, Object> rpcObject ) throws XmlRpcException
     {
-        StringWriter result = new StringWriter();
         try
         {
-            XMLStreamWriter w = OUTPUT_FACTORY.createXMLStreamWriter( result );
-            writeStruct( w, rpcObject );
-            w.close();
+            w.struct( rpcObject );
+        }
+        catch ( Exception e )
+        {
+            throw new XmlRpcException( "toStructPartXMLString error", e );
+        }
+    }
+
+    private static void writeArrayPart( XmlRpcWriter w, List<Object> rpcObject ) throws XmlRpcException
+    {
+        try
+        {
+            w.array( rpcObject );
         }
         catch ( Exception e )
         {
             throw new XmlRpcException( "toArrayPartXMLString error", e );
         }
-        return result.toString();
     }
 
-    private static String toArrayPartXMLString( List<Object> rpcObject ) throws XmlRpcException
+    private static void writeArrayPart( XmlRpcWriter w, Iterator<?> rpcObject ) throws XmlRpcException
     {
-        StringWriter result = new StringWriter();
         try
         {
-            XMLStreamWriter w = OUTPUT_FACTORY.createXMLStreamWriter( result );
-            writeArray( w, rpcObject );
-            w.close();
+            w.array( rpcObject );
         }
         catch ( Exception e )
         {
             throw new XmlRpcException( "toArrayPartXMLString error", e );
         }
-        return result.toString();
     }
 
-    private static String toResponseXMLString( MethodResponse methodResponse ) throws XmlRpcException
+    private static void writeResponse( XmlRpcWriter w, MethodResponse methodResponse ) throws XmlRpcException
     {
-        StringWriter result = new StringWriter();
         try
         {
-            XMLStreamWriter w = OUTPUT_FACTORY.createXMLStreamWriter( result );
-            w.writeStartDocument();
-            w.writeStartElement( RESPONSE );
-            List<Object> params = methodResponse.getParams();
-            writeParams( w, params );
-            w.writeEndElement();
-            w.writeEndDocument();
-            w.close();
+            w.startDocument();
+            w.startMethodResponse();
+            writeParams( w, methodResponse.getParams() );
+            w.endMethodResponse();
         }
         catch ( Exception e )
         {
             throw new XmlRpcException( "toResponseXMLString error", e );
         }
-
-        return result.toString();
     }
 
-    private static String toRequestXMLString( MethodCall methodCall ) throws XmlRpcException
+    private static void writeRequest( XmlRpcWriter w, MethodCall methodCall ) throws XmlRpcException
     {
-        StringWriter result = new StringWriter();
         try
         {
-            XMLStreamWriter w = OUTPUT_FACTORY.createXMLStreamWriter( result );
-            w.writeStartDocument();
-            w.writeStartElement( REQUEST );
-            w.writeStartElement( METHOD_NAME );
-            w.writeCharacters( methodCall.getMethodName() );
-            w.writeEndElement();
-            List<Object> params = methodCall.getParams();
-            writeParams( w, params );
-            w.writeEndElement();
-            w.writeEndDocument();
-            w.close();
+            w.startDocument();
+            w.startMethodCall( methodCall.getMethodName() );
+            writeParams( w, methodCall.getParams() );
+            w.endMethodCall();
         }
         catch ( Exception e )
         {
             throw new XmlRpcException( "toRequestXMLString error", e );
         }
+    }
+
+    /**
+     * Render what goes inside &lt;value&gt; for a Map/List tree, e.g., &lt;struct&gt;...&lt;/struct&gt;, to a
+     * fragment which can be cached and written as is later.
+     *
+     * @param rpcObject the tree to be rendered
+     * @return the rendered fragment
+     * @throws XmlRpcException if the tree cannot be rendered
+     */
+    public static XmlRpcWriter.Fragment toFragment( Object rpcObject ) throws XmlRpcException
+    {
+        return XmlRpcWriter.Fragment.of( toMarkup( rpcObject ), rpcObject );
+    }
 
+    /**
+     * Same as {@link #toFragment(Object)}, but the fragment does not keep the tree, e.g., for a cache which outlives
+     * the objects the tree was rendered from.
+     */
+    public static XmlRpcWriter.Fragment toDetachedFragment( Object rpcObject ) throws XmlRpcException
+    {
+        return XmlRpcWriter.Fragment.of( toMarkup( rpcObject ) );
+    }
+
+    private static String toMarkup( Object rpcObject ) throws XmlRpcException
+    {
+        StringWriter result = new StringWriter();
+        try
+        {
+            XmlRpcWriter w = XmlRpcWriter.forWriter( result, DEFAULT_BUFFER_SIZE );
+            w.valueContent( rpcObject );
+            w.flush();
+        }
+        catch ( IOException e )
+        {
+            throw new XmlRpcException( "toFragment error", e );
+        }
         return result.toString();
     }
 
-    private static void writeParams( XMLStreamWriter w, List<Object> params ) throws XmlRpcException, XMLStreamException
+    /**
+     * Render each element of a list, used by generated renderers for list fields. The result does not change with
+     * the list.
+     *
+     * @param elements the list, may be null
+     * @param renderer renders one element to a Map/List tree
+     * @return the rendered elements, or null if the list is null
+     */
+    public static <T> List<Object> renderElements( List<T> elements, Function<T, Object> renderer )
     {
-        w.writeStartElement( PARAMS );
-        if ( params != null && !params.isEmpty() )
+        if ( elements == null )
         {
-            for ( Object object : params )
-            {
-                w.writeStartElement( PARAM );
-                writeValue( w, object );
-                w.writeEndElement();
-            }
+            return null;
         }
-        w.writeEndElement();
+        List<Object> rendered = new ArrayList<>( elements.size() );
+        for ( T element : elements )
+        {
+            rendered.add( renderer.apply( element ) );
+        }
+        return rendered;
     }
 
-    private static void writeValue( XMLStreamWriter w, Object object ) throws XMLStreamException, CoercionException
+    /**
+     * View a list so that each element is rendered when it is read, for a writer which writes the array right away
+     * (see {@link org.commonjava.rwx.core.TemplateRenderer#writeArray}). A writer rendering the array in parallel
+     * (see {@link XmlRpcWriter#parallelArrays}) thus renders the elements on its pool too. The view follows the list
+     * and each read renders the element again, so it must not be kept in a tree; use
+     * {@link #renderElements(List, Function)} there.
+     *
+     * @param elements the list, may be null
+     * @param renderer renders one element to a Map/List tree
+     * @return the view, or null if the list is null
+     */
+    public static <T> List<Object> renderedView( List<T> elements, Function<T, Object> renderer )
     {
-        w.writeStartElement( VALUE );
+        if ( elements == null )
+        {
+            return null;
+        }
+        // indexed reads of a linked list would be quadratic
+        return new RenderedList<>( elements instanceof RandomAccess ? elements : new ArrayList<>( elements ),
+                                   renderer );
+    }
 
-        if ( object instanceof List )
+    /**
+     * Copy a value for a cache key, used by generated cacheKey methods, so that a key never changes with the object
+     * it was built from: lists and maps are copied deeply, dates become Instants and base64 bytes ByteBuffers over
+     * a copy, which also compare by content. Other values are immutable.
+     *
+     * @param value the value or Map/List tree, may be null
+     * @return the snapshot
+     */
+    public static Object snapshot( Object value )
+    {
+        if ( value instanceof Map )
         {
-            writeArray( w, (List<Object>) object );
+            Map<?, ?> map = (Map<?, ?>) value;
+            Map<Object, Object> copy = new HashMap<>( map.size() * 4 / 3 + 1 );
+            map.forEach( ( k, v ) -> copy.put( k, snapshot( v ) ) );
+            return copy;
         }
-        else if ( object instanceof Map<?, ?> )
+        else if ( value instanceof List )
         {
-            writeStruct( w, (Map<String, Object>) object );
+            List<?> list = (List<?>) value;
+            List<Object> copy = new ArrayList<>( list.size() );
+            list.forEach( v -> copy.add( snapshot( v ) ) );
+            return copy;
         }
-        else
+        else if ( value instanceof Date )
         {
-            writePrimitive( w, object );
+            return Instant.ofEpochMilli( ( (Date) value ).getTime() );
         }
-
-        w.writeEndElement();
+        else if ( value instanceof byte[] )
+        {
+            return ByteBuffer.wrap( ( (byte[]) value ).clone() );
+        }
+        return value;
     }
 
-    private static void writeArray( XMLStreamWriter w, List<Object> objects )
-                    throws XMLStreamException, CoercionException
+    /**
+     * Mark an Iterable field as array source, see {@link XmlRpcWriter#sourceIterator(Object)}, used by generated
+     * renderers for such fields. Iterators and Streams are returned as is.
+     *
+     * @param source the Iterator, Stream or Iterable, may be null
+     * @return the array source, or null if the source is null
+     */
+    public static Object asArraySource( Object source )
     {
-        w.writeStartElement( ARRAY );
-        w.writeStartElement( DATA );
-        for ( Object object : objects )
+        if ( source == null || source instanceof Iterator || source instanceof BaseStream
+                        || source instanceof XmlRpcWriter.ArraySource )
         {
-            writeValue( w, object );
+            return source;
         }
-        w.writeEndElement();
-        w.writeEndElement();
+        if ( source instanceof Iterable )
+        {
+            return XmlRpcWriter.ArraySource.of( (Iterable<?>) source );
+        }
+        throw new IllegalArgumentException( "Not an Iterator, Stream or Iterable: " + source.getClass() );
     }
 
-    private static void writeStruct( XMLStreamWriter w, Map<String, Object> map )
-                    throws XMLStreamException, CoercionException
+    /**
+     * Wrap an array source (Iterator, Stream or Iterable) so that each element is rendered when it is pulled, used by
+     * generated renderers for such fields. An Iterable is wrapped into an {@link XmlRpcWriter.ArraySource}.
+     *
+     * @param source the array source, may be null
+     * @param renderer renders one element to a Map/List tree
+     * @return the lazily rendered elements, or null if the source is null
+     */
+    public static <T> Object renderLazily( Object source, Function<T, Object> renderer )
     {
-        w.writeStartElement( STRUCT );
-        for ( Map.Entry<String, Object> entry : map.entrySet() )
+        Object elements = asArraySource( source );
+        if ( elements instanceof XmlRpcWriter.ArraySource )
         {
-            w.writeStartElement( MEMBER );
-            w.writeStartElement( NAME );
-            w.writeCharacters( entry.getKey() );
-            w.writeEndElement();
-            writeValue( w, entry.getValue() );
-            w.writeEndElement();
+            return XmlRpcWriter.ArraySource.of( () -> renderEach( (Iterator<T>) ( (Iterable<?>) source ).iterator(),
+                                                                  renderer ) );
         }
-        w.writeEndElement();
+        return elements == null ? null : renderEach( (Iterator<T>) XmlRpcWriter.sourceIterator( elements ), renderer );
     }
 
-    private static void writePrimitive( XMLStreamWriter w, Object object ) throws XMLStreamException, CoercionException
+    private static <T> Iterator<Object> renderEach( Iterator<T> elements, Function<T, Object> renderer )
     {
-        ValueType type = ValueType.safeTypeFor( object );
+        return new Iterator<Object>()
+        {
+            @Override
+            public boolean hasNext()
+            {
+                return elements.hasNext();
+            }
+
+            @Override
+            public Object next()
+            {
+                return renderer.apply( elements.next() );
+            }
+        };
+    }
 
-        w.writeStartElement( type.getPrimaryTag() );
-        String chars = type.coercion().toString( object );
-        if ( isNotBlank( chars ) )
+    private static void writeParams( XmlRpcWriter w, List<Object> params ) throws IOException, CoercionException
+    {
+        w.startParams();
+        if ( params != null && !params.isEmpty() )
         {
-            w.writeCharacters( chars );
+            for ( Object object : params )
+            {
+                w.startParam();
+                w.value( object );
+                w.endParam();
+            }
         }
-        w.writeEndElement();
+        w.endParams();
     }
 
+    private static final class RenderedList<T>
+                    extends AbstractList<Object>
+                    implements RandomAccess
+    {
+        private final List<T> elements;
+
+        private final Function<T, Object> renderer;
+
+        RenderedList( List<T> elements, Function<T, Object> renderer )
+        {
+            this.elements = elements;
+            this.renderer = renderer;
+        }
+
+        @Override
+        public Object get( int index )
+        {
+            return renderer.apply( elements.get( index ) );
+        }
+
+        @Override
+        public int size()
+        {
+            return elements.size();
+        }
+    }
 }
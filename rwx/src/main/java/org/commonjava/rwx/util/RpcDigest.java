@@ -0,0 +1,595 @@
+/**
+ * Copyright (C) 2010 Red Hat, Inc. (http://github.com/Commonjava/commonjava)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.commonjava.rwx.util;
+
+import org.commonjava.rwx.error.CoercionException;
+import org.commonjava.rwx.model.Fault;
+import org.commonjava.rwx.model.MethodCall;
+import org.commonjava.rwx.model.MethodResponse;
+import org.commonjava.rwx.vocab.ValueType;
+
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.stream.BaseStream;
+
+/**
+ * Stable 128-bit structural digest of an XML-RPC tree: MethodCall, MethodResponse, Fault, Map (struct), List or
+ * ArraySource (array) and the primitive values. It is computed in one pass over the tree without rendering it,
+ * and can be used as a cache key, e.g., in a HashMap, or for de-duplication.
+ *
+ * Two trees have the same digest exactly when they render to the same canonical XML (see
+ * {@link XmlRpcWriter#canonical(boolean)}), barring hash collisions: struct member order does not matter, null
+ * and Nil are the same, an Integer and a Long of the same value are not, Dates are compared by the second, and so
+ * on. {@link #structurallyEquals(Object, Object)} is the exact check with the same semantics. The digest does not
+ * depend on the JVM, its time zone or identity hash codes, so it can be stored and compared across processes. It
+ * is not a cryptographic hash.
+ */
+public final class RpcDigest
+{
+    private static final long C1 = 0x87c37b91114253d5L;
+
+    private static final long C2 = 0x4cf5ad432745937fL;
+
+    // kinds of values which are not a ValueType
+    private static final int METHOD_CALL = 0x100;
+
+    private static final int METHOD_RESPONSE = 0x101;
+
+    private static final int FAULT = 0x102;
+
+    private static final int FRAGMENT = 0x103;
+
+    private final long high;
+
+    private final long low;
+
+    private RpcDigest( long high, long low )
+    {
+        this.high = high;
+        this.low = low;
+    }
+
+    /**
+     * Compute the digest of a tree.
+     *
+     * @throws CoercionException if the tree has a value with no canonical form (e.g., NaN or a year out of range)
+     * or a one-shot array source (Iterator, Stream) which digesting would consume
+     */
+    public static RpcDigest of( Object tree ) throws CoercionException
+    {
+        Hasher hasher = new Hasher();
+        hasher.value( tree );
+        return hasher.finish();
+    }
+
+    /**
+     * Compare two trees the way {@link #of(Object)} digests them, i.e., whether they render to the same canonical
+     * XML.
+     *
+     * @throws CoercionException same as {@link #of(Object)}
+     */
+    public static boolean structurallyEquals( Object a, Object b ) throws CoercionException
+    {
+        a = unwrap( a );
+        b = unwrap( b );
+        if ( a == b )
+        {
+            return true;
+        }
+
+        int kind = kindOf( a );
+        if ( kind != kindOf( b ) )
+        {
+            return false;
+        }
+
+        switch ( kind )
+        {
+            case METHOD_CALL:
+                return Objects.equals( ( (MethodCall) a ).getMethodName(), ( (MethodCall) b ).getMethodName() )
+                                && structurallyEquals( ( (MethodCall) a ).getParams(),
+                                                       ( (MethodCall) b ).getParams() );
+            case METHOD_RESPONSE:
+                return structurallyEquals( ( (MethodResponse) a ).getParams(), ( (MethodResponse) b ).getParams() );
+            case FAULT:
+                return structurallyEquals( ( (Fault) a ).getValue(), ( (Fault) b ).getValue() );
+            case FRAGMENT:
+                return a.equals( b );
+        }
+
+        switch ( ValueType.values()[kind] )
+        {
+            case STRUCT:
+            {
+                Map<String, Object> map = (Map<String, Object>) a;
+                Map<String, Object> other = (Map<String, Object>) b;
+                if ( map.size() != other.size() )
+                {
+                    return false;
+                }
+                for ( Map.Entry<String, Object> entry : map.entrySet() )
+                {
+                    Object value = entry.getValue();
+                    Object otherValue = other.get( entry.getKey() );
+                    if ( otherValue == null && !other.containsKey( entry.getKey() ) || !structurallyEquals( value,
+                                                                                                       otherValue ) )
+                    {
+                        return false;
+                    }
+                }
+                return true;
+            }
+            case ARRAY:
+            {
+                Iterator<?> it = elements( a );
+                Iterator<?> otherIt = elements( b );
+                while ( it.hasNext() && otherIt.hasNext() )
+                {
+                    if ( !structurallyEquals( it.next(), otherIt.next() ) )
+                    {
+                        return false;
+                    }
+                }
+                return !it.hasNext() && !otherIt.hasNext();
+            }
+            case NIL:
+                return true;
+            case INT:
+            case LONG:
+            case BOOLEAN:
+                return a.equals( b );
+            case DOUBLE:
+                return XmlRpcWriter.canonicalDouble( ( (Number) a ).doubleValue() )
+                                == XmlRpcWriter.canonicalDouble( ( (Number) b ).doubleValue() );
+            case BASE64:
+                return Arrays.equals( (byte[]) a, (byte[]) b );
+            default:
+                return canonicalText( a ).equals( canonicalText( b ) );
+        }
+    }
+
+    /**
+     * The kind of a value: a ValueType ordinal, or one of the kinds above for the rest.
+     */
+    private static int kindOf( Object value )
+    {
+        if ( value instanceof MethodCall )
+        {
+            return METHOD_CALL;
+        }
+        else if ( value instanceof MethodResponse )
+        {
+            return METHOD_RESPONSE;
+        }
+        else if ( value instanceof Fault )
+        {
+            return FAULT;
+        }
+        else if ( value instanceof XmlRpcWriter.Fragment )
+        {
+            return FRAGMENT; // without a tree, see unwrap
+        }
+        else if ( value instanceof Map<?, ?> )
+        {
+            return ValueType.STRUCT.ordinal();
+        }
+        else if ( value instanceof List || value instanceof XmlRpcWriter.ArraySource || value instanceof Iterator
+                        || value instanceof BaseStream )
+        {
+            // same array sources as XmlRpcWriter.sourceIterator, without starting a Stream
+            return ValueType.ARRAY.ordinal();
+        }
+        return ValueType.safeTypeFor( value ).ordinal();
+    }
+
+    private static Object unwrap( Object value )
+    {
+        if ( value instanceof XmlRpcWriter.Fragment && ( (XmlRpcWriter.Fragment) value ).getTree() != null )
+        {
+            return ( (XmlRpcWriter.Fragment) value ).getTree();
+        }
+        return value;
+    }
+
+    private static Iterator<?> elements( Object array ) throws CoercionException
+    {
+        if ( !( array instanceof Iterable ) )
+        {
+            throw new CoercionException( "Cannot digest a one-shot array source: " + array.getClass() );
+        }
+        return ( (Iterable<?>) array ).iterator();
+    }
+
+    /**
+     * The text a dateTime or string value is rendered to in canonical mode.
+     */
+    private static String canonicalText( Object value ) throws CoercionException
+    {
+        ValueType type = ValueType.safeTypeFor( value );
+        if ( type == ValueType.DATETIME )
+        {
+            char[] buf = new char[32];
+            int len = Iso8601Codec.formatCanonical( value, buf, 0 );
+            if ( len < 0 )
+            {
+                throw new CoercionException( "Year out of range for dateTime.iso8601: " + value );
+            }
+            return new String( buf, 0, len );
+        }
+        String chars = type.coercion().toString( value );
+        return chars == null ? "" : chars;
+    }
+
+    /**
+     * Get a digest from its two halves, e.g., as stored by {@link #getHigh()} and {@link #getLow()}.
+     */
+    public static RpcDigest valueOf( long high, long low )
+    {
+        return new RpcDigest( high, low );
+    }
+
+    /**
+     * Compute the MurmurHash3 (x64, 128 bit, seed 0) digest of raw bytes, e.g., of a payload as received. Unlike
+     * {@link #of(Object)} it is not structural: two payloads have the same digest only if they are the same bytes.
+     */
+    public static RpcDigest ofBytes( byte[] bytes, int off, int len )
+    {
+        PayloadHasher hasher = new PayloadHasher();
+        hasher.update( bytes, off, len );
+        return hasher.finish();
+    }
+
+    public long getHigh()
+    {
+        return high;
+    }
+
+    public long getLow()
+    {
+        return low;
+    }
+
+    /**
+     * @return the digest as 16 big-endian bytes
+     */
+    public byte[] toBytes()
+    {
+        byte[] bytes = new byte[16];
+        for ( int i = 0; i < 8; i++ )
+        {
+            bytes[i] = (byte) ( high >>> ( 56 - 8 * i ) );
+            bytes[i + 8] = (byte) ( low >>> ( 56 - 8 * i ) );
+        }
+        return bytes;
+    }
+
+    @Override
+    public boolean equals( Object other )
+    {
+        return other instanceof RpcDigest && high == ( (RpcDigest) other ).high && low == ( (RpcDigest) other ).low;
+    }
+
+    @Override
+    public int hashCode()
+    {
+        return (int) low;
+    }
+
+    /**
+     * @return the digest as 32 hex digits, e.g., for an ETag
+     */
+    @Override
+    public String toString()
+    {
+        return String.format( "%016x%016x", high, low );
+    }
+
+    /**
+     * MurmurHash3 (x64, 128 bit) fed with 64-bit words. Struct members are hashed on their own and summed, so
+     * their order does not change the result.
+     */
+    private static final class Hasher
+    {
+        private long h1;
+
+        private long h2;
+
+        private long pending;
+
+        private boolean hasPending;
+
+        private long words;
+
+        void value( Object value ) throws CoercionException
+        {
+            value = unwrap( value );
+            int kind = kindOf( value );
+            word( kind );
+            switch ( kind )
+            {
+                case METHOD_CALL:
+                    text( ( (MethodCall) value ).getMethodName() );
+                    value( ( (MethodCall) value ).getParams() );
+                    return;
+                case METHOD_RESPONSE:
+                    value( ( (MethodResponse) value ).getParams() );
+                    return;
+                case FAULT:
+                    value( ( (Fault) value ).getValue() );
+                    return;
+                case FRAGMENT:
+                    bytes( ( (XmlRpcWriter.Fragment) value ).bytes );
+                    return;
+            }
+
+            switch ( ValueType.values()[kind] )
+            {
+                case STRUCT:
+                {
+                    Map<String, Object> map = (Map<String, Object>) value;
+                    long sumHigh = 0;
+                    long sumLow = 0;
+                    for ( Map.Entry<String, Object> entry : map.entrySet() )
+                    {
+                        Hasher member = new Hasher();
+                        member.text( entry.getKey() );
+                        member.value( entry.getValue() );
+                        RpcDigest digest = member.finish();
+                        // 128-bit addition
+                        long low = sumLow + digest.low;
+                        sumHigh += digest.high + ( Long.compareUnsigned( low, sumLow ) < 0 ? 1 : 0 );
+                        sumLow = low;
+                    }
+                    word( map.size() );
+                    word( sumHigh );
+                    word( sumLow );
+                    return;
+                }
+                case ARRAY:
+                {
+                    long count = 0;
+                    for ( Iterator<?> it = elements( value ); it.hasNext(); count++ )
+                    {
+                        value( it.next() );
+                    }
+                    word( count );
+                    return;
+                }
+                case NIL:
+                    return;
+                case INT:
+                    word( (Integer) value );
+                    return;
+                case LONG:
+                    word( (Long) value );
+                    return;
+                case BOOLEAN:
+                    word( (Boolean) value ? 1 : 0 );
+                    return;
+                case DOUBLE:
+                    word( Double.doubleToLongBits( XmlRpcWriter.canonicalDouble( ( (Number) value ).doubleValue() ) ) );
+                    return;
+                case BASE64:
+                    bytes( (byte[]) value );
+                    return;
+                default:
+                    text( canonicalText( value ) );
+            }
+        }
+
+        void text( String text )
+        {
+            if ( text == null )
+            {
+                word( -1 );
+                return;
+            }
+            int len = text.length();
+            word( len );
+            int i = 0;
+            for ( ; i + 4 <= len; i += 4 )
+            {
+                word( (long) text.charAt( i ) << 48 | (long) text.charAt( i + 1 ) << 32
+                                      | (long) text.charAt( i + 2 ) << 16 | text.charAt( i + 3 ) );
+            }
+            long tail = 0;
+            for ( ; i < len; i++ )
+            {
+                tail = tail << 16 | text.charAt( i );
+            }
+            if ( len % 4 != 0 )
+            {
+                word( tail );
+            }
+        }
+
+        void bytes( byte[] bytes )
+        {
+            int len = bytes.length;
+            word( len );
+            long w = 0;
+            for ( int i = 0; i < len; i++ )
+            {
+                w = w << 8 | ( bytes[i] & 0xff );
+                if ( ( i & 7 ) == 7 )
+                {
+                    word( w );
+                    w = 0;
+                }
+            }
+            if ( len % 8 != 0 )
+            {
+                word( w );
+            }
+        }
+
+        void word( long k )
+        {
+            words++;
+            if ( !hasPending )
+            {
+                pending = k;
+                hasPending = true;
+                return;
+            }
+            hasPending = false;
+            mix( pending, k );
+        }
+
+        private void mix( long k1, long k2 )
+        {
+            k1 *= C1;
+            k1 = Long.rotateLeft( k1, 31 );
+            k1 *= C2;
+            h1 ^= k1;
+            h1 = Long.rotateLeft( h1, 27 );
+            h1 += h2;
+            h1 = h1 * 5 + 0x52dce729;
+
+            k2 *= C2;
+            k2 = Long.rotateLeft( k2, 33 );
+            k2 *= C1;
+            h2 ^= k2;
+            h2 = Long.rotateLeft( h2, 31 );
+            h2 += h1;
+            h2 = h2 * 5 + 0x38495ab5;
+        }
+
+        RpcDigest finish()
+        {
+            if ( hasPending )
+            {
+                long k1 = pending * C1;
+                k1 = Long.rotateLeft( k1, 31 );
+                k1 *= C2;
+                h1 ^= k1;
+            }
+            return finish( words );
+        }
+
+        /**
+         * Mix in the last, partial block of a byte payload, as in MurmurHash3; a zero word leaves the state as is.
+         */
+        RpcDigest finish( long k1, long k2, long length )
+        {
+            k2 *= C2;
+            k2 = Long.rotateLeft( k2, 33 );
+            k2 *= C1;
+            h2 ^= k2;
+
+            k1 *= C1;
+            k1 = Long.rotateLeft( k1, 31 );
+            k1 *= C2;
+            h1 ^= k1;
+            return finish( length );
+        }
+
+        private RpcDigest finish( long length )
+        {
+            h1 ^= length;
+            h2 ^= length;
+            h1 += h2;
+            h2 += h1;
+            h1 = fmix( h1 );
+            h2 = fmix( h2 );
+            h1 += h2;
+            h2 += h1;
+            return new RpcDigest( h1, h2 );
+        }
+
+        private static long fmix( long k )
+        {
+            k ^= k >>> 33;
+            k *= 0xff51afd7ed558ccdL;
+            k ^= k >>> 33;
+            k *= 0xc4ceb9fe1a85ec53L;
+            k ^= k >>> 33;
+            return k;
+        }
+    }
+
+    /**
+     * Incremental form of {@link #ofBytes(byte[], int, int)}, which digests a payload chunk by chunk while it is
+     * read. Not thread-safe.
+     */
+    public static final class PayloadHasher
+    {
+        private final Hasher hasher = new Hasher();
+
+        private final byte[] tail = new byte[16];
+
+        private int tailLength;
+
+        private long length;
+
+        public void update( byte[] bytes, int off, int len )
+        {
+            length += len;
+            int end = off + len;
+            if ( tailLength > 0 )
+            {
+                int n = Math.min( 16 - tailLength, len );
+                System.arraycopy( bytes, off, tail, tailLength, n );
+                tailLength += n;
+                off += n;
+                if ( tailLength < 16 )
+                {
+                    return;
+                }
+                hasher.mix( littleEndian( tail, 0 ), littleEndian( tail, 8 ) );
+                tailLength = 0;
+            }
+            for ( ; off + 16 <= end; off += 16 )
+            {
+                hasher.mix( littleEndian( bytes, off ), littleEndian( bytes, off + 8 ) );
+            }
+            tailLength = end - off;
+            System.arraycopy( bytes, off, tail, 0, tailLength );
+        }
+
+        /**
+         * @return the digest of all bytes given so far; the hasher must not be used afterwards
+         */
+        public RpcDigest finish()
+        {
+            long k1 = 0;
+            long k2 = 0;
+            for ( int i = tailLength - 1; i >= 0; i-- )
+            {
+                if ( i >= 8 )
+                {
+                    k2 = k2 << 8 | ( tail[i] & 0xff );
+                }
+                else
+                {
+                    k1 = k1 << 8 | ( tail[i] & 0xff );
+                }
+            }
+            return hasher.finish( k1, k2, length );
+        }
+
+        private static long littleEndian( byte[] b, int off )
+        {
+            return ( b[off] & 0xffL ) | ( b[off + 1] & 0xffL ) << 8 | ( b[off + 2] & 0xffL ) << 16
+                            | ( b[off + 3] & 0xffL ) << 24 | ( b[off + 4] & 0xffL ) << 32
+                            | ( b[off + 5] & 0xffL ) << 40 | ( b[off + 6] & 0xffL ) << 48
+                            | ( b[off + 7] & 0xffL ) << 56;
+        }
+    }
+}
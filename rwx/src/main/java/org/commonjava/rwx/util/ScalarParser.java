@@ -0,0 +1,266 @@
+/**
+ * Copyright (C) 2010 Red Hat, Inc. (http://github.com/Commonjava/commonjava)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.commonjava.rwx.util;
+
+import org.commonjava.rwx.error.CoercionException;
+
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Parse scalars straight from char[] or byte[] ranges, e.g., the buffer returned by
+ * XMLStreamReader.getTextCharacters, without creating intermediate Strings. Ranges are given as start (inclusive)
+ * and end (exclusive). Whitespace is trimmed the same way String.trim does.
+ */
+public final class ScalarParser
+{
+    // 10^0 .. 10^22 are exact doubles
+    private static final double[] POWERS_OF_TEN =
+                    { 1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10, 1e11, 1e12, 1e13, 1e14, 1e15, 1e16,
+                                    1e17, 1e18, 1e19, 1e20, 1e21, 1e22 };
+
+    private static final long MAX_EXACT_MANTISSA = 1L << 53;
+
+    private ScalarParser()
+    {
+        throw new UnsupportedOperationException( "This is a utility class and cannot be instantiated" );
+    }
+
+    public static int trimStart( char[] buf, int start, int end )
+    {
+        while ( start < end && buf[start] <= ' ' )
+        {
+            start++;
+        }
+        return start;
+    }
+
+    public static int trimEnd( char[] buf, int start, int end )
+    {
+        while ( end > start && buf[end - 1] <= ' ' )
+        {
+            end--;
+        }
+        return end;
+    }
+
+    public static int trimStart( byte[] buf, int start, int end )
+    {
+        while ( start < end && ( buf[start] & 0xff ) <= ' ' )
+        {
+            start++;
+        }
+        return start;
+    }
+
+    public static int trimEnd( byte[] buf, int start, int end )
+    {
+        while ( end > start && ( buf[end - 1] & 0xff ) <= ' ' )
+        {
+            end--;
+        }
+        return end;
+    }
+
+    /**
+     * Parse a decimal integer with optional sign from an already trimmed, non-empty range.
+     *
+     * @throws CoercionException if the range is not a number or out of [min, max]
+     */
+    public static long parseLong( char[] buf, int start, int end, long min, long max ) throws CoercionException
+    {
+        int i = start;
+        boolean negative = false;
+        char first = buf[i];
+        if ( first == '-' || first == '+' )
+        {
+            negative = first == '-';
+            i++;
+        }
+        if ( i == end )
+        {
+            throw numberFormat( buf, start, end );
+        }
+
+        // accumulate negatively so that Long.MIN_VALUE fits, same as Long.parseLong
+        long limit = negative ? min : -max;
+        long multmin = limit / 10;
+        long result = 0;
+        for ( ; i < end; i++ )
+        {
+            int d = buf[i] - '0';
+            if ( d < 0 || d > 9 || result < multmin )
+            {
+                throw numberFormat( buf, start, end );
+            }
+            result *= 10;
+            if ( result < limit + d )
+            {
+                throw numberFormat( buf, start, end );
+            }
+            result -= d;
+        }
+        return negative ? result : -result;
+    }
+
+    public static long parseLong( byte[] buf, int start, int end, long min, long max ) throws CoercionException
+    {
+        int i = start;
+        boolean negative = false;
+        byte first = buf[i];
+        if ( first == '-' || first == '+' )
+        {
+            negative = first == '-';
+            i++;
+        }
+        if ( i == end )
+        {
+            throw numberFormat( buf, start, end );
+        }
+
+        long limit = negative ? min : -max;
+        long multmin = limit / 10;
+        long result = 0;
+        for ( ; i < end; i++ )
+        {
+            int d = buf[i] - '0';
+            if ( d < 0 || d > 9 || result < multmin )
+            {
+                throw numberFormat( buf, start, end );
+            }
+            result *= 10;
+            if ( result < limit + d )
+            {
+                throw numberFormat( buf, start, end );
+            }
+            result -= d;
+        }
+        return negative ? result : -result;
+    }
+
+    /**
+     * XML-RPC boolean: "1" or a case-insensitive "true" are true, anything else is false.
+     */
+    public static boolean parseBoolean( char[] buf, int start, int end )
+    {
+        int len = end - start;
+        if ( len == 1 )
+        {
+            return buf[start] == '1';
+        }
+        return len == 4 && ( buf[start] | 0x20 ) == 't' && ( buf[start + 1] | 0x20 ) == 'r'
+                        && ( buf[start + 2] | 0x20 ) == 'u' && ( buf[start + 3] | 0x20 ) == 'e';
+    }
+
+    public static boolean parseBoolean( byte[] buf, int start, int end )
+    {
+        int len = end - start;
+        if ( len == 1 )
+        {
+            return buf[start] == '1';
+        }
+        return len == 4 && ( buf[start] | 0x20 ) == 't' && ( buf[start + 1] | 0x20 ) == 'r'
+                        && ( buf[start + 2] | 0x20 ) == 'u' && ( buf[start + 3] | 0x20 ) == 'e';
+    }
+
+    /**
+     * Parse a double from an already trimmed, non-empty range. Plain decimals with at most 15 significant digits
+     * and 22 fraction digits, which covers what servers send in practice, are computed exactly without
+     * allocation. Anything else goes through Double.parseDouble.
+     */
+    public static double parseDouble( char[] buf, int start, int end ) throws CoercionException
+    {
+        int i = start;
+        boolean negative = false;
+        if ( buf[i] == '-' || buf[i] == '+' )
+        {
+            negative = buf[i] == '-';
+            i++;
+        }
+
+        long mantissa = 0;
+        int digits = 0;
+        int fraction = -1;
+        for ( ; i < end; i++ )
+        {
+            char c = buf[i];
+            if ( c >= '0' && c <= '9' )
+            {
+                if ( mantissa != 0 || c != '0' )
+                {
+                    digits++;
+                }
+                mantissa = mantissa * 10 + ( c - '0' );
+                if ( fraction >= 0 )
+                {
+                    fraction++;
+                }
+                if ( digits > 15 )
+                {
+                    break;
+                }
+            }
+            else if ( c == '.' && fraction < 0 )
+            {
+                fraction = 0;
+            }
+            else
+            {
+                break;
+            }
+        }
+
+        boolean hasDigits = i > start + ( negative || buf[start] == '+' ? 1 : 0 ) + ( fraction >= 0 ? 1 : 0 );
+        if ( i == end && hasDigits && mantissa < MAX_EXACT_MANTISSA && fraction < POWERS_OF_TEN.length )
+        {
+            double value = mantissa;
+            if ( fraction > 0 )
+            {
+                value /= POWERS_OF_TEN[fraction];
+            }
+            return negative ? -value : value;
+        }
+
+        try
+        {
+            return Double.parseDouble( new String( buf, start, end - start ) );
+        }
+        catch ( final NumberFormatException e )
+        {
+            throw new CoercionException( e.getMessage(), e );
+        }
+    }
+
+    public static double parseDouble( byte[] buf, int start, int end ) throws CoercionException
+    {
+        char[] chars = new char[end - start];
+        for ( int i = start; i < end; i++ )
+        {
+            chars[i - start] = (char) ( buf[i] & 0xff );
+        }
+        return parseDouble( chars, 0, chars.length );
+    }
+
+    private static CoercionException numberFormat( char[] buf, int start, int end )
+    {
+        return new CoercionException( "For input string: \"" + new String( buf, start, end - start ) + "\"" );
+    }
+
+    private static CoercionException numberFormat( byte[] buf, int start, int end )
+    {
+        return new CoercionException(
+                        "For input string: \"" + new String( buf, start, end - start, StandardCharsets.UTF_8 ) + "\"" );
+    }
+}
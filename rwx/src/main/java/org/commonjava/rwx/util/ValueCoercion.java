@@ -17,6 +17,8 @@ package org.commonjava.rwx.util;
 
 import org.commonjava.rwx.error.CoercionException;
 
+import java.nio.charset.StandardCharsets;
+
 public abstract class ValueCoercion
 {
     private final String description;
@@ -33,6 +35,24 @@ public abstract class ValueCoercion
 
     public abstract Object fromString( String value ) throws CoercionException;
 
+    /**
+     * Coerce a char range, e.g., the text buffer of an XMLStreamReader, without requiring the caller to build a
+     * String first. The range is only valid during the call. Override it to parse the range in place; the default
+     * creates a String and delegates to {@link #fromString(String)}.
+     */
+    public Object fromChars( char[] buf, int start, int length ) throws CoercionException
+    {
+        return fromString( new String( buf, start, length ) );
+    }
+
+    /**
+     * Same as {@link #fromChars(char[], int, int)} for UTF-8 encoded bytes.
+     */
+    public Object fromBytes( byte[] buf, int start, int length ) throws CoercionException
+    {
+        return fromString( new String( buf, start, length, StandardCharsets.UTF_8 ) );
+    }
+
     public String toString( final Object value ) throws CoercionException
     {
         return value == null ? null : String.valueOf( value );
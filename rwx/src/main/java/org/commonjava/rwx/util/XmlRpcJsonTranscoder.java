@@ -0,0 +1,789 @@
+/**
+ * Copyright (C) 2010 Red Hat, Inc. (http://github.com/Commonjava/commonjava)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.commonjava.rwx.util;
+
+import org.commonjava.rwx.error.CoercionException;
+import org.commonjava.rwx.error.XmlRpcException;
+import org.commonjava.rwx.vocab.ValueType;
+
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.CharBuffer;
+import java.nio.charset.StandardCharsets;
+
+import static org.commonjava.rwx.vocab.XmlRpcConstants.*;
+
+/**
+ * Transcode XML-RPC documents to JSON while they are read, without building a Map/List tree, so memory does not
+ * grow with the payload. Strings and base64 values are copied chunk by chunk; only scalars like numbers and dates,
+ * method names and member names are held, up to {@link #MAX_SCALAR_LENGTH} chars, and blanks at the end of untyped
+ * text, up to {@link #MAX_PENDING_BLANKS} chars.
+ *
+ * Documents map to JSON as follows:
+ * <pre>
+ * methodCall       {"methodName": "...", "params": [...]}
+ * methodResponse   {"params": [...]}
+ * fault            {"fault": {"faultCode": 1, "faultString": "..."}}
+ * struct, array    object (members in document order), array
+ * string, untyped  string, "" when empty (RWXMapper.parse gives null); untyped text is trimmed, except for
+ *                  trailing blanks before the last {@link #MAX_PENDING_BLANKS}
+ * int, i4, double  number; NaN and infinity have no JSON form and are rejected
+ * i8               number, or a string beyond +-(2^53 - 1) unless safe integers are turned off
+ * boolean          true or false
+ * dateTime.iso8601 string in the ISO 8601 extended form, e.g., "2017-09-17T10:15:30"
+ * base64           string of the base64 text without line breaks
+ * nil              null
+ * </pre>
+ * Empty numeric, boolean and date elements map to null, as they parse to null. Thread-safe, the transcoder keeps
+ * no state between calls.
+ */
+public final class XmlRpcJsonTranscoder
+{
+    public static final int MAX_SCALAR_LENGTH = 1024;
+
+    /**
+     * Blanks of untyped text held back in case they are trailing, which are trimmed; a longer run is written as it
+     * grows.
+     */
+    public static final int MAX_PENDING_BLANKS = 4096;
+
+    // largest integer every JSON consumer, e.g., JavaScript, reads exactly
+    private static final long MAX_SAFE_INTEGER = ( 1L << 53 ) - 1;
+
+    private final XMLInputFactory factory = XMLInputFactory.newInstance();
+
+    private volatile boolean safeIntegers = true;
+
+    public boolean isSafeIntegers()
+    {
+        return safeIntegers;
+    }
+
+    /**
+     * Whether i8 values which a double cannot hold exactly are written as strings, so they reach JavaScript
+     * consumers intact. On by default.
+     */
+    public void setSafeIntegers( boolean safeIntegers )
+    {
+        this.safeIntegers = safeIntegers;
+    }
+
+    /**
+     * Transcode the XML-RPC document to UTF-8 JSON. The streams are not closed.
+     *
+     * @throws XmlRpcException if the input is not a valid XML-RPC document or the output cannot be written
+     */
+    public void transcode( InputStream in, OutputStream out ) throws XmlRpcException
+    {
+        Writer writer = new BufferedWriter( new OutputStreamWriter( out, StandardCharsets.UTF_8 ),
+                                            RenderUtils.DEFAULT_BUFFER_SIZE );
+        transcode( in, writer );
+    }
+
+    /**
+     * Transcode the XML-RPC document to JSON. The writer is flushed, not closed.
+     */
+    public void transcode( InputStream in, Writer out ) throws XmlRpcException
+    {
+        XMLStreamReader reader;
+        try
+        {
+            reader = factory.createXMLStreamReader( in );
+        }
+        catch ( XMLStreamException e )
+        {
+            throw new XmlRpcException( "Failed to initialize stream reader: " + e.getMessage(), e );
+        }
+        transcode( reader, out );
+    }
+
+    public void transcode( Reader in, Writer out ) throws XmlRpcException
+    {
+        XMLStreamReader reader;
+        try
+        {
+            reader = factory.createXMLStreamReader( in );
+        }
+        catch ( XMLStreamException e )
+        {
+            throw new XmlRpcException( "Failed to initialize stream reader: " + e.getMessage(), e );
+        }
+        transcode( reader, out );
+    }
+
+    private void transcode( XMLStreamReader reader, Writer out ) throws XmlRpcException
+    {
+        try
+        {
+            new Session( reader, out, safeIntegers ).document();
+            out.flush();
+        }
+        catch ( XMLStreamException e )
+        {
+            throw new XmlRpcException( "Transcode to JSON failed", e );
+        }
+        catch ( IOException e )
+        {
+            throw new XmlRpcException( "Failed to write JSON", e );
+        }
+        finally
+        {
+            try
+            {
+                reader.close();
+            }
+            catch ( XMLStreamException e )
+            {
+                // nothing left to read
+            }
+        }
+    }
+
+    /**
+     * State of one transcoding: the reader, the writer and the scalar buffer.
+     */
+    private static final class Session
+    {
+        private final XMLStreamReader reader;
+
+        private final Writer out;
+
+        private final boolean safeIntegers;
+
+        private char[] scalar = new char[64];
+
+        private char[] pendingBlanks;
+
+        Session( XMLStreamReader reader, Writer out, boolean safeIntegers )
+        {
+            this.reader = reader;
+            this.out = out;
+            this.safeIntegers = safeIntegers;
+        }
+
+        void document() throws XMLStreamException, IOException, XmlRpcException
+        {
+            String root = nextElement();
+            if ( root == null )
+            {
+                throw new XmlRpcException( "No XML-RPC root element" );
+            }
+            if ( REQUEST.equals( root ) )
+            {
+                out.write( "{\"methodName\":" );
+                String methodName = null;
+                boolean params = false;
+                for ( String child; ( child = nextElement() ) != null; )
+                {
+                    if ( METHOD_NAME.equals( child ) )
+                    {
+                        methodName = collect( MAX_SCALAR_LENGTH ).trim();
+                        string( methodName );
+                    }
+                    else if ( PARAMS.equals( child ) )
+                    {
+                        if ( methodName == null )
+                        {
+                            throw new XmlRpcException( "methodName must come before params" );
+                        }
+                        out.write( ",\"params\":" );
+                        params();
+                        params = true;
+                    }
+                    else
+                    {
+                        skip();
+                    }
+                }
+                if ( methodName == null )
+                {
+                    out.write( "null" );
+                }
+                if ( !params )
+                {
+                    out.write( ",\"params\":[]" );
+                }
+                out.write( '}' );
+            }
+            else if ( RESPONSE.equals( root ) )
+            {
+                boolean written = false;
+                for ( String child; ( child = nextElement() ) != null; )
+                {
+                    if ( PARAMS.equals( child ) && !written )
+                    {
+                        out.write( "{\"params\":" );
+                        params();
+                        written = true;
+                    }
+                    else if ( FAULT.equals( child ) && !written )
+                    {
+                        out.write( "{\"fault\":" );
+                        valueOf();
+                        written = true;
+                    }
+                    else
+                    {
+                        skip();
+                    }
+                }
+                if ( !written )
+                {
+                    out.write( "{\"params\":[]" );
+                }
+                out.write( '}' );
+            }
+            else
+            {
+                throw new XmlRpcException( "Invalid XML-RPC root element: {}", root );
+            }
+        }
+
+        /**
+         * Write the values of param elements as an array.
+         */
+        private void params() throws XMLStreamException, IOException, XmlRpcException
+        {
+            out.write( '[' );
+            boolean first = true;
+            for ( String child; ( child = nextElement() ) != null; )
+            {
+                if ( PARAM.equals( child ) )
+                {
+                    if ( !first )
+                    {
+                        out.write( ',' );
+                    }
+                    valueOf();
+                    first = false;
+                }
+                else
+                {
+                    skip();
+                }
+            }
+            out.write( ']' );
+        }
+
+        /**
+         * Write the value element inside the current param, fault or member, or null if it has none.
+         */
+        private void valueOf() throws XMLStreamException, IOException, XmlRpcException
+        {
+            boolean written = false;
+            for ( String child; ( child = nextElement() ) != null; )
+            {
+                if ( VALUE.equals( child ) && !written )
+                {
+                    value();
+                    written = true;
+                }
+                else
+                {
+                    skip();
+                }
+            }
+            if ( !written )
+            {
+                out.write( "null" );
+            }
+        }
+
+        /**
+         * Write the current value element. Text before the first non-blank char is held back until it is clear
+         * whether a typed element or untyped text follows; trailing blanks of untyped text are held back too, as
+         * it is trimmed, up to {@link #MAX_PENDING_BLANKS} at a time.
+         */
+        private void value() throws XMLStreamException, IOException, XmlRpcException
+        {
+            boolean typed = false;
+            boolean untyped = false;
+            int blanks = 0;
+            while ( true )
+            {
+                int event = reader.next();
+                if ( event == XMLStreamConstants.START_ELEMENT )
+                {
+                    if ( typed || untyped )
+                    {
+                        throw new XmlRpcException( "Value has more than one content: {}", reader.getLocalName() );
+                    }
+                    typed( reader.getLocalName() );
+                    typed = true;
+                }
+                else if ( event == XMLStreamConstants.END_ELEMENT )
+                {
+                    if ( untyped )
+                    {
+                        out.write( '"' );
+                    }
+                    else if ( !typed )
+                    {
+                        out.write( "\"\"" );
+                    }
+                    return;
+                }
+                else if ( isText( event ) && !typed )
+                {
+                    char[] chars = reader.getTextCharacters();
+                    int start = reader.getTextStart();
+                    int end = start + reader.getTextLength();
+                    for ( int i = start; i < end; i++ )
+                    {
+                        char c = chars[i];
+                        if ( c <= ' ' )
+                        {
+                            if ( untyped )
+                            {
+                                if ( pendingBlanks == null )
+                                {
+                                    pendingBlanks = new char[MAX_PENDING_BLANKS];
+                                }
+                                else if ( blanks == MAX_PENDING_BLANKS )
+                                {
+                                    escape( pendingBlanks, 0, blanks );
+                                    blanks = 0;
+                                }
+                                pendingBlanks[blanks++] = c;
+                            }
+                            continue;
+                        }
+                        if ( !untyped )
+                        {
+                            out.write( '"' );
+                            untyped = true;
+                        }
+                        else if ( blanks > 0 )
+                        {
+                            escape( pendingBlanks, 0, blanks );
+                            blanks = 0;
+                        }
+                        escape( c );
+                    }
+                }
+            }
+        }
+
+        private void typed( String tag ) throws XMLStreamException, IOException, XmlRpcException
+        {
+            if ( STRUCT.equals( tag ) )
+            {
+                struct();
+                return;
+            }
+            if ( ARRAY.equals( tag ) )
+            {
+                out.write( '[' );
+                for ( String child; ( child = nextElement() ) != null; )
+                {
+                    if ( DATA.equals( child ) )
+                    {
+                        data();
+                    }
+                    else
+                    {
+                        skip();
+                    }
+                }
+                out.write( ']' );
+                return;
+            }
+            if ( NIL.equals( tag ) )
+            {
+                skip();
+                out.write( "null" );
+                return;
+            }
+
+            ValueType type = ValueType.typeOf( tag );
+            switch ( type )
+            {
+                case BASE64:
+                {
+                    out.write( '"' );
+                    copyText( true );
+                    out.write( '"' );
+                    return;
+                }
+                case INT:
+                case LONG:
+                case DOUBLE:
+                case BOOLEAN:
+                case DATETIME:
+                    scalar( type );
+                    return;
+                default:
+                {
+                    out.write( '"' );
+                    copyText( false );
+                    out.write( '"' );
+                }
+            }
+        }
+
+        private void struct() throws XMLStreamException, IOException, XmlRpcException
+        {
+            out.write( '{' );
+            boolean first = true;
+            for ( String child; ( child = nextElement() ) != null; )
+            {
+                if ( !MEMBER.equals( child ) )
+                {
+                    skip();
+                    continue;
+                }
+                if ( !first )
+                {
+                    out.write( ',' );
+                }
+                first = false;
+
+                String name = null;
+                boolean written = false;
+                for ( String part; ( part = nextElement() ) != null; )
+                {
+                    if ( NAME.equals( part ) && name == null )
+                    {
+                        name = collect( MAX_SCALAR_LENGTH ).trim();
+                        string( name );
+                        out.write( ':' );
+                    }
+                    else if ( VALUE.equals( part ) && !written )
+                    {
+                        if ( name == null )
+                        {
+                            throw new XmlRpcException( "Struct member name must come before its value" );
+                        }
+                        value();
+                        written = true;
+                    }
+                    else
+                    {
+                        skip();
+                    }
+                }
+                if ( name == null )
+                {
+                    throw new XmlRpcException( "Struct member without name" );
+                }
+                if ( !written )
+                {
+                    out.write( "null" );
+                }
+            }
+            out.write( '}' );
+        }
+
+        private void data() throws XMLStreamException, IOException, XmlRpcException
+        {
+            boolean first = true;
+            for ( String child; ( child = nextElement() ) != null; )
+            {
+                if ( VALUE.equals( child ) )
+                {
+                    if ( !first )
+                    {
+                        out.write( ',' );
+                    }
+                    value();
+                    first = false;
+                }
+                else
+                {
+                    skip();
+                }
+            }
+        }
+
+        private void scalar( ValueType type ) throws XMLStreamException, IOException, XmlRpcException
+        {
+            int length = collectScalar();
+            int s = ScalarParser.trimStart( scalar, 0, length );
+            int e = ScalarParser.trimEnd( scalar, s, length );
+            if ( s == e && type != ValueType.BOOLEAN )
+            {
+                out.write( "null" );
+                return;
+            }
+
+            switch ( type )
+            {
+                case INT:
+                    out.write( Long.toString( ScalarParser.parseLong( scalar, s, e, Integer.MIN_VALUE,
+                                                                      Integer.MAX_VALUE ) ) );
+                    return;
+                case LONG:
+                {
+                    long value = ScalarParser.parseLong( scalar, s, e, Long.MIN_VALUE, Long.MAX_VALUE );
+                    boolean quoted = safeIntegers && ( value > MAX_SAFE_INTEGER || value < -MAX_SAFE_INTEGER );
+                    if ( quoted )
+                    {
+                        out.write( '"' );
+                    }
+                    out.write( Long.toString( value ) );
+                    if ( quoted )
+                    {
+                        out.write( '"' );
+                    }
+                    return;
+                }
+                case DOUBLE:
+                {
+                    double value = ScalarParser.parseDouble( scalar, s, e );
+                    if ( Double.isNaN( value ) || Double.isInfinite( value ) )
+                    {
+                        throw new CoercionException( "No JSON number for double: " + value );
+                    }
+                    out.write( Double.toString( value ) );
+                    return;
+                }
+                case BOOLEAN:
+                    out.write( ScalarParser.parseBoolean( scalar, s, e ) ? "true" : "false" );
+                    return;
+                default:
+                    string( Iso8601Codec.toExtended( CharBuffer.wrap( scalar, s, e - s ) ) );
+            }
+        }
+
+        /**
+         * Read the text of the current scalar element up to its end into the scalar buffer.
+         *
+         * @return the text length
+         */
+        private int collectScalar() throws XMLStreamException, XmlRpcException
+        {
+            int length = 0;
+            while ( true )
+            {
+                int event = reader.next();
+                if ( event == XMLStreamConstants.END_ELEMENT )
+                {
+                    return length;
+                }
+                if ( event == XMLStreamConstants.START_ELEMENT )
+                {
+                    throw new XmlRpcException( "Unexpected element in scalar value: {}", reader.getLocalName() );
+                }
+                if ( isText( event ) )
+                {
+                    int textLength = reader.getTextLength();
+                    if ( length + textLength > MAX_SCALAR_LENGTH )
+                    {
+                        throw new CoercionException( "Scalar value longer than " + MAX_SCALAR_LENGTH + " chars" );
+                    }
+                    if ( scalar.length < length + textLength )
+                    {
+                        char[] grown = new char[Math.min( MAX_SCALAR_LENGTH, Math.max( scalar.length * 2,
+                                                                                        length + textLength ) )];
+                        System.arraycopy( scalar, 0, grown, 0, length );
+                        scalar = grown;
+                    }
+                    System.arraycopy( reader.getTextCharacters(), reader.getTextStart(), scalar, length, textLength );
+                    length += textLength;
+                }
+            }
+        }
+
+        /**
+         * Read the text of the current element, e.g., a name, up to its end as a String.
+         */
+        private String collect( int maxLength ) throws XMLStreamException, XmlRpcException
+        {
+            StringBuilder sb = new StringBuilder();
+            while ( true )
+            {
+                int event = reader.next();
+                if ( event == XMLStreamConstants.END_ELEMENT )
+                {
+                    return sb.toString();
+                }
+                if ( event == XMLStreamConstants.START_ELEMENT )
+                {
+                    throw new XmlRpcException( "Unexpected element in text: {}", reader.getLocalName() );
+                }
+                if ( isText( event ) )
+                {
+                    sb.append( reader.getTextCharacters(), reader.getTextStart(), reader.getTextLength() );
+                    if ( sb.length() > maxLength )
+                    {
+                        throw new CoercionException( "Text longer than " + maxLength + " chars" );
+                    }
+                }
+            }
+        }
+
+        /**
+         * Copy the text of the current element up to its end, escaped, optionally dropping whitespace.
+         */
+        private void copyText( boolean dropWhitespace ) throws XMLStreamException, IOException, XmlRpcException
+        {
+            while ( true )
+            {
+                int event = reader.next();
+                if ( event == XMLStreamConstants.END_ELEMENT )
+                {
+                    return;
+                }
+                if ( event == XMLStreamConstants.START_ELEMENT )
+                {
+                    throw new XmlRpcException( "Unexpected element in text: {}", reader.getLocalName() );
+                }
+                if ( isText( event ) )
+                {
+                    char[] chars = reader.getTextCharacters();
+                    int start = reader.getTextStart();
+                    int end = start + reader.getTextLength();
+                    if ( !dropWhitespace )
+                    {
+                        escape( chars, start, end );
+                        continue;
+                    }
+                    for ( int i = start; i < end; i++ )
+                    {
+                        if ( chars[i] > ' ' )
+                        {
+                            escape( chars[i] );
+                        }
+                    }
+                }
+            }
+        }
+
+        /**
+         * Move to the next child element of the current element.
+         *
+         * @return its local name, or null at the end of the current element
+         */
+        private String nextElement() throws XMLStreamException
+        {
+            while ( reader.hasNext() )
+            {
+                int event = reader.next();
+                if ( event == XMLStreamConstants.START_ELEMENT )
+                {
+                    return reader.getLocalName();
+                }
+                if ( event == XMLStreamConstants.END_ELEMENT )
+                {
+                    return null;
+                }
+            }
+            return null;
+        }
+
+        /**
+         * Skip the current element and everything in it.
+         */
+        private void skip() throws XMLStreamException
+        {
+            int level = 1;
+            while ( level > 0 )
+            {
+                int event = reader.next();
+                if ( event == XMLStreamConstants.START_ELEMENT )
+                {
+                    level++;
+                }
+                else if ( event == XMLStreamConstants.END_ELEMENT )
+                {
+                    level--;
+                }
+            }
+        }
+
+        private static boolean isText( int event )
+        {
+            return event == XMLStreamConstants.CHARACTERS || event == XMLStreamConstants.CDATA
+                            || event == XMLStreamConstants.SPACE;
+        }
+
+        private void string( String text ) throws IOException
+        {
+            out.write( '"' );
+            escape( text, 0, text.length() );
+            out.write( '"' );
+        }
+
+        private void escape( CharSequence text, int start, int end ) throws IOException
+        {
+            for ( int i = start; i < end; i++ )
+            {
+                escape( text.charAt( i ) );
+            }
+        }
+
+        private void escape( char[] chars, int start, int end ) throws IOException
+        {
+            int run = start;
+            for ( int i = start; i < end; i++ )
+            {
+                char c = chars[i];
+                if ( c < ' ' || c == '"' || c == '\\' || c == '\u2028' || c == '\u2029' )
+                {
+                    out.write( chars, run, i - run );
+                    escape( c );
+                    run = i + 1;
+                }
+            }
+            out.write( chars, run, end - run );
+        }
+
+        private void escape( char c ) throws IOException
+        {
+            switch ( c )
+            {
+                case '"':
+                    out.write( "\\\"" );
+                    return;
+                case '\\':
+                    out.write( "\\\\" );
+                    return;
+                case '\n':
+                    out.write( "\\n" );
+                    return;
+                case '\r':
+                    out.write( "\\r" );
+                    return;
+                case '\t':
+                    out.write( "\\t" );
+                    return;
+                default:
+                    // other control chars, and the line separators which JavaScript does not allow in strings
+                    if ( c < ' ' || c == '\u2028' || c == '\u2029' )
+                    {
+                        out.write( "\\u" );
+                        out.write( Character.forDigit( c >> 12, 16 ) );
+                        out.write( Character.forDigit( ( c >> 8 ) & 0xf, 16 ) );
+                        out.write( Character.forDigit( ( c >> 4 ) & 0xf, 16 ) );
+                        out.write( Character.forDigit( c & 0xf, 16 ) );
+                    }
+                    else
+                    {
+                        out.write( c );
+                    }
+            }
+        }
+    }
+}
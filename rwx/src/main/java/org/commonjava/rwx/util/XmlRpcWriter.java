@@ -0,0 +1,1385 @@
+/**
+ * Copyright (C) 2010 Red Hat, Inc. (http://github.com/Commonjava/commonjava)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.commonjava.rwx.util;
+
+import org.commonjava.rwx.error.CoercionException;
+import org.commonjava.rwx.vocab.ValueType;
+
+import java.io.ByteArrayOutputStream;
+import java.io.CharArrayWriter;
+import java.io.Closeable;
+import java.io.Flushable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.StringWriter;
+import java.io.Writer;
+import java.nio.CharBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.stream.BaseStream;
+
+import static org.apache.commons.lang3.StringUtils.isNotBlank;
+import static org.apache.commons.lang3.StringUtils.isNotEmpty;
+import static org.commonjava.rwx.vocab.XmlRpcConstants.*;
+
+/**
+ * Purpose-built XML-RPC output writer. The fixed markup (&lt;value&gt;, &lt;struct&gt;, &lt;array&gt;&lt;data&gt;, the
+ * type tags...) is pre-encoded once, element names are never checked, text is escaped only where needed, and
+ * ints and longs are written without going through String.valueOf.
+ *
+ * The output is the same as the one XMLStreamWriter produced before, e.g., empty elements are written as
+ * &lt;nil&gt;&lt;/nil&gt;. Instances are not thread-safe. RenderUtils uses it for all rendering and generated
+ * renderers can write through it directly.
+ *
+ * In canonical mode (see {@link #canonical(boolean)}) the same tree always renders to the same bytes, whatever the
+ * map implementation, the JVM time zone or the host: struct members are sorted by name, dateTime values are
+ * rendered in UTC, -0 is rendered as 0, and string values are written verbatim. Such output can be used for
+ * byte-level caching, ETags or de-duplication, see also {@link RpcDigest}.
+ */
+public abstract class XmlRpcWriter
+                implements Flushable, Closeable
+{
+    private static final Fragment XML_DECLARATION = Fragment.of( "<?xml version=\"1.0\" ?>" );
+
+    private static final Fragment METHOD_CALL_START = Fragment.of( "<" + REQUEST + "><" + METHOD_NAME + ">" );
+
+    private static final Fragment METHOD_NAME_END = Fragment.of( "</" + METHOD_NAME + ">" );
+
+    private static final Fragment METHOD_CALL_END = Fragment.of( "</" + REQUEST + ">" );
+
+    private static final Fragment METHOD_RESPONSE_START = Fragment.of( "<" + RESPONSE + ">" );
+
+    private static final Fragment METHOD_RESPONSE_END = Fragment.of( "</" + RESPONSE + ">" );
+
+    private static final Fragment FAULT_START = Fragment.of( "<" + FAULT + ">" );
+
+    private static final Fragment FAULT_END = Fragment.of( "</" + FAULT + ">" );
+
+    private static final Fragment PARAMS_START = Fragment.of( "<" + PARAMS + ">" );
+
+    private static final Fragment PARAMS_END = Fragment.of( "</" + PARAMS + ">" );
+
+    private static final Fragment PARAM_START = Fragment.of( "<" + PARAM + ">" );
+
+    private static final Fragment PARAM_END = Fragment.of( "</" + PARAM + ">" );
+
+    private static final Fragment VALUE_START = Fragment.of( "<" + VALUE + ">" );
+
+    private static final Fragment VALUE_END = Fragment.of( "</" + VALUE + ">" );
+
+    private static final Fragment STRUCT_START = Fragment.of( "<" + STRUCT + ">" );
+
+    private static final Fragment STRUCT_END = Fragment.of( "</" + STRUCT + ">" );
+
+    private static final Fragment MEMBER_START = Fragment.of( "<" + MEMBER + "><" + NAME + ">" );
+
+    private static final Fragment NAME_END = Fragment.of( "</" + NAME + ">" );
+
+    private static final Fragment MEMBER_END = Fragment.of( "</" + MEMBER + ">" );
+
+    private static final Fragment ARRAY_START = Fragment.of( "<" + ARRAY + "><" + DATA + ">" );
+
+    private static final Fragment ARRAY_END = Fragment.of( "</" + DATA + "></" + ARRAY + ">" );
+
+    private static final Fragment[] TYPE_START = new Fragment[ValueType.values().length];
+
+    private static final Fragment[] TYPE_END = new Fragment[ValueType.values().length];
+
+    static
+    {
+        for ( ValueType type : ValueType.values() )
+        {
+            TYPE_START[type.ordinal()] = Fragment.of( "<" + type.getPrimaryTag() + ">" );
+            TYPE_END[type.ordinal()] = Fragment.of( "</" + type.getPrimaryTag() + ">" );
+        }
+    }
+
+    /**
+     * Default minimum array size for parallel rendering, see {@link #parallelArrays(ForkJoinPool, int, int)}.
+     */
+    public static final int DEFAULT_PARALLEL_THRESHOLD = 10000;
+
+    public static final int DEFAULT_CHUNK_SIZE = 2048;
+
+    // chunk writers which grew past MAX_POOLED_CHUNK are dropped instead of kept around
+    private static final int MAX_POOLED_CHUNK = 1024 * 1024;
+
+    // scratch space for numbers and dates, big enough for a plain double
+    private final char[] scratch = new char[PlainDoubleFormatter.MAX_LENGTH];
+
+    private ForkJoinPool pool;
+
+    private int parallelThreshold;
+
+    private int chunkSize;
+
+    private ChunkPool chunks;
+
+    private boolean canonical;
+
+    private FragmentStore fragments;
+
+    // set by a chunk task which failed, rethrown by the writer which stitches the chunks
+    private Exception chunkFailure;
+
+    /**
+     * Create a writer which encodes UTF-8 to the stream through a buffer of the given size (in bytes).
+     */
+    public static XmlRpcWriter forStream( OutputStream out, int bufferSize )
+    {
+        return new Utf8Writer( out, bufferSize );
+    }
+
+    /**
+     * Create a writer which writes chars to the writer through a buffer of the given size (in chars).
+     */
+    public static XmlRpcWriter forWriter( Writer out, int bufferSize )
+    {
+        return new CharWriter( out, bufferSize );
+    }
+
+    /**
+     * Create a writer which appends to the target, e.g., a StringBuilder, through a buffer of the given size (in
+     * chars).
+     */
+    public static XmlRpcWriter forAppendable( Appendable out, int bufferSize )
+    {
+        return new CharWriter( out instanceof Writer ? (Writer) out : new AppendableWriter( out ), bufferSize );
+    }
+
+    /**
+     * Render arrays with at least threshold elements in parallel. The elements are split into chunks of chunkSize,
+     * each chunk is rendered to its own pooled buffer on the pool, and the buffers are written out in order, so the
+     * output is the same as the sequential one. At most twice the pool parallelism chunks are in flight, which
+     * bounds the memory held by finished chunks waiting for an earlier one. The chunk buffers are reused by this
+     * writer only, see {@link #parallelArrays(ForkJoinPool, int, int, ChunkPool)} to share them.
+     *
+     * @param pool the pool to render chunks on, or null to render sequentially
+     * @return this writer
+     */
+    public XmlRpcWriter parallelArrays( ForkJoinPool pool, int threshold, int chunkSize )
+    {
+        return parallelArrays( pool, threshold, chunkSize, new ChunkPool() );
+    }
+
+    /**
+     * Same as {@link #parallelArrays(ForkJoinPool, int, int)}, taking the chunk buffers from the given pool, e.g.,
+     * one per mapper shared by all its writers.
+     */
+    public XmlRpcWriter parallelArrays( ForkJoinPool pool, int threshold, int chunkSize, ChunkPool chunks )
+    {
+        if ( threshold < 1 || chunkSize < 1 )
+        {
+            throw new IllegalArgumentException( "Threshold and chunk size must be positive: " + threshold + ", "
+                                                                + chunkSize );
+        }
+        this.pool = pool;
+        this.parallelThreshold = threshold;
+        this.chunkSize = chunkSize;
+        this.chunks = chunks;
+        return this;
+    }
+
+    public void startDocument() throws IOException
+    {
+        write( XML_DECLARATION );
+    }
+
+    /**
+     * Write &lt;methodCall&gt;&lt;methodName&gt;...&lt;/methodName&gt;.
+     */
+    public void startMethodCall( String methodName ) throws IOException
+    {
+        write( METHOD_CALL_START );
+        writeText( methodName );
+        write( METHOD_NAME_END );
+    }
+
+    public void endMethodCall() throws IOException
+    {
+        write( METHOD_CALL_END );
+    }
+
+    public void startMethodResponse() throws IOException
+    {
+        write( METHOD_RESPONSE_START );
+    }
+
+    public void endMethodResponse() throws IOException
+    {
+        write( METHOD_RESPONSE_END );
+    }
+
+    /**
+     * Write &lt;fault&gt;, the fault value is to be written next, inside a method response.
+     */
+    public void startFault() throws IOException
+    {
+        write( FAULT_START );
+    }
+
+    public void endFault() throws IOException
+    {
+        write( FAULT_END );
+    }
+
+    public void startParams() throws IOException
+    {
+        write( PARAMS_START );
+    }
+
+    public void endParams() throws IOException
+    {
+        write( PARAMS_END );
+    }
+
+    public void startParam() throws IOException
+    {
+        write( PARAM_START );
+    }
+
+    public void endParam() throws IOException
+    {
+        write( PARAM_END );
+    }
+
+    public void startValue() throws IOException
+    {
+        write( VALUE_START );
+    }
+
+    public void endValue() throws IOException
+    {
+        write( VALUE_END );
+    }
+
+    public void startStruct() throws IOException
+    {
+        write( STRUCT_START );
+    }
+
+    public void endStruct() throws IOException
+    {
+        write( STRUCT_END );
+    }
+
+    /**
+     * Write &lt;member&gt;&lt;name&gt;...&lt;/name&gt;, the value is to be written next.
+     */
+    public void startMember( String name ) throws IOException
+    {
+        write( MEMBER_START );
+        writeText( name );
+        write( NAME_END );
+    }
+
+    public void endMember() throws IOException
+    {
+        write( MEMBER_END );
+    }
+
+    /**
+     * Write &lt;array&gt;&lt;data&gt;, values are to be written next.
+     */
+    public void startArray() throws IOException
+    {
+        write( ARRAY_START );
+    }
+
+    public void endArray() throws IOException
+    {
+        write( ARRAY_END );
+    }
+
+    /**
+     * Write the start tag of a scalar element, e.g., &lt;string&gt;, for a value which is streamed with
+     * {@link #text(char[], int, int)} instead of being held as one object.
+     */
+    public void startScalar( ValueType type ) throws IOException
+    {
+        write( TYPE_START[type.ordinal()] );
+    }
+
+    /**
+     * Write a chunk of scalar text, escaping &lt;, &gt; and &amp;.
+     */
+    public void text( char[] chars, int off, int len ) throws IOException
+    {
+        writeText( chars, off, len );
+    }
+
+    public void endScalar( ValueType type ) throws IOException
+    {
+        write( TYPE_END[type.ordinal()] );
+    }
+
+    /**
+     * Switch canonical rendering on or off (the default). Canonical output differs from the default one in these
+     * fixed forms:
+     * <ul>
+     * <li>struct members are written in String order of their names instead of the map iteration order</li>
+     * <li>dateTime.iso8601 values are instants in UTC with a Z designator, e.g., 20170917T101530Z, see
+     * {@link Iso8601Codec#formatCanonical(Object, char[], int)}</li>
+     * <li>doubles are never -0, and NaN or infinite values are rejected as they have no XML-RPC form</li>
+     * <li>strings made of whitespace are written as is instead of as an empty element</li>
+     * <li>both null and Nil.NIL_VALUE are written as &lt;nil&gt;&lt;/nil&gt;</li>
+     * </ul>
+     * Fragments with a tree are re-rendered from it, and @RenderCache struct parts, including
+     * {@link CachedStruct}s in a tree, are not taken from the {@link #fragments(FragmentStore)}. Numbers are written in plain notation, same as in the default mode.
+     *
+     * @return this writer
+     */
+    public XmlRpcWriter canonical( boolean canonical )
+    {
+        this.canonical = canonical;
+        return this;
+    }
+
+    public boolean isCanonical()
+    {
+        return canonical;
+    }
+
+    /**
+     * Keep the rendered fragments of @RenderCache struct parts in the store, so that their generated renderers, or
+     * the writer for their {@link CachedStruct} trees, write an equal part again from there, e.g., one store per
+     * mapper. Pass null to render every part.
+     *
+     * @return this writer
+     */
+    public XmlRpcWriter fragments( FragmentStore fragments )
+    {
+        this.fragments = fragments;
+        return this;
+    }
+
+    /**
+     * @return the store of rendered fragments, or null if there is none
+     */
+    public FragmentStore getFragments()
+    {
+        return fragments;
+    }
+
+    /**
+     * Write &lt;value&gt;...&lt;/value&gt; for any value, see {@link #valueContent(Object)}.
+     */
+    public void value( Object object ) throws IOException, CoercionException
+    {
+        startValue();
+        valueContent( object );
+        endValue();
+    }
+
+    /**
+     * Write what goes inside &lt;value&gt;: List as array, Map as struct, Iterator, Stream or ArraySource as a
+     * lazily consumed array, a Fragment (e.g., a cached struct) as is, anything else as primitive. A
+     * {@link CachedStruct} is written from the fragment store if there is one.
+     */
+    public void valueContent( Object object ) throws IOException, CoercionException
+    {
+        if ( object instanceof Fragment )
+        {
+            Fragment fragment = (Fragment) object;
+            if ( canonical && fragment.tree != null )
+            {
+                valueContent( fragment.tree );
+            }
+            else
+            {
+                write( fragment );
+            }
+        }
+        else if ( object instanceof List )
+        {
+            array( (List<Object>) object );
+        }
+        else if ( object instanceof CachedStruct && fragments != null && !canonical )
+        {
+            cachedStruct( (CachedStruct) object );
+        }
+        else if ( object instanceof Map<?, ?> )
+        {
+            struct( (Map<String, Object>) object );
+        }
+        else
+        {
+            Iterator<?> elements = sourceIterator( object );
+            if ( elements != null )
+            {
+                array( elements );
+            }
+            else
+            {
+                primitive( object );
+            }
+        }
+    }
+
+    /**
+     * Write an array pulling the elements one by one, so that a source like a database cursor is never held in
+     * memory as a whole. Such arrays are always rendered sequentially. A Stream is consumed but not closed.
+     */
+    public void array( Iterator<?> elements ) throws IOException, CoercionException
+    {
+        startArray();
+        while ( elements.hasNext() )
+        {
+            value( elements.next() );
+        }
+        endArray();
+    }
+
+    /**
+     * Get the elements of an array source: Iterator, Stream or {@link ArraySource}. Other Iterables are not arrays,
+     * an Iterable field of a generated renderer is wrapped into an ArraySource.
+     *
+     * @return the iterator, or null if the object is not an array source
+     */
+    public static Iterator<?> sourceIterator( Object object )
+    {
+        if ( object instanceof Iterator )
+        {
+            return (Iterator<?>) object;
+        }
+        else if ( object instanceof BaseStream )
+        {
+            return ( (BaseStream<?, ?>) object ).iterator();
+        }
+        else if ( object instanceof ArraySource )
+        {
+            return ( (ArraySource) object ).iterator();
+        }
+        return null;
+    }
+
+    public void array( List<Object> objects ) throws IOException, CoercionException
+    {
+        startArray();
+        if ( pool != null && objects.size() >= parallelThreshold )
+        {
+            parallelValues( objects );
+        }
+        else
+        {
+            for ( Object object : objects )
+            {
+                value( object );
+            }
+        }
+        endArray();
+    }
+
+    private void parallelValues( List<Object> objects ) throws IOException, CoercionException
+    {
+        int size = objects.size();
+        int window = Math.max( 2, pool.getParallelism() * 2 );
+        Deque<ForkJoinTask<XmlRpcWriter>> inFlight = new ArrayDeque<>( window );
+        int next = 0;
+        try
+        {
+            while ( next < size || !inFlight.isEmpty() )
+            {
+                while ( next < size && inFlight.size() < window )
+                {
+                    List<Object> chunk = objects.subList( next, Math.min( size, next + chunkSize ) );
+                    inFlight.add( pool.submit( () -> renderChunk( chunk ) ) );
+                    next += chunk.size();
+                }
+
+                XmlRpcWriter rendered = inFlight.poll().join();
+                Exception failure = rendered.chunkFailure;
+                if ( failure instanceof IOException )
+                {
+                    throw (IOException) failure;
+                }
+                else if ( failure instanceof CoercionException )
+                {
+                    throw (CoercionException) failure;
+                }
+                else if ( failure != null )
+                {
+                    throw (RuntimeException) failure;
+                }
+                writeChunk( rendered, chunks );
+            }
+        }
+        finally
+        {
+            for ( ForkJoinTask<XmlRpcWriter> task : inFlight )
+            {
+                task.cancel( false );
+            }
+        }
+    }
+
+    private XmlRpcWriter renderChunk( List<Object> chunk )
+    {
+        XmlRpcWriter writer = newChunkWriter( chunks );
+        writer.canonical = canonical;
+        writer.fragments = fragments;
+        try
+        {
+            for ( Object object : chunk )
+            {
+                writer.value( object );
+            }
+            writer.flush();
+        }
+        catch ( IOException | CoercionException | RuntimeException e )
+        {
+            writer.chunkFailure = e;
+        }
+        return writer;
+    }
+
+    /**
+     * Get an idle writer of the same kind which renders to memory from the pool, or a new one.
+     */
+    protected abstract XmlRpcWriter newChunkWriter( ChunkPool chunks );
+
+    /**
+     * Write the content of a chunk writer and give it back to the pool.
+     */
+    protected abstract void writeChunk( XmlRpcWriter chunk, ChunkPool chunks ) throws IOException;
+
+    private void cachedStruct( CachedStruct struct ) throws IOException, CoercionException
+    {
+        Fragment fragment = fragments.get( struct.fragmentKey );
+        if ( fragment == null )
+        {
+            StringWriter markup = new StringWriter();
+            XmlRpcWriter writer = forWriter( markup, 256 );
+            // nested parts are taken from the store too
+            writer.fragments = fragments;
+            writer.struct( struct );
+            writer.flush();
+            fragment = Fragment.of( markup.toString() );
+            fragments.put( struct.fragmentKey, fragment );
+        }
+        write( fragment );
+    }
+
+    public void struct( Map<String, Object> map ) throws IOException, CoercionException
+    {
+        startStruct();
+        for ( Map.Entry<String, Object> entry : canonical ? sortedEntries( map ) : map.entrySet() )
+        {
+            startMember( entry.getKey() );
+            value( entry.getValue() );
+            endMember();
+        }
+        endStruct();
+    }
+
+    /**
+     * Get the entries in String order of their names. A SortedMap in natural order and a map which already
+     * iterates in that order, e.g., a LinkedHashMap filled in order, are returned without copying.
+     */
+    static <V> Iterable<Map.Entry<String, V>> sortedEntries( Map<String, V> map )
+    {
+        if ( map instanceof SortedMap && ( (SortedMap<String, V>) map ).comparator() == null )
+        {
+            return map.entrySet();
+        }
+
+        String last = null;
+        boolean sorted = true;
+        for ( String name : map.keySet() )
+        {
+            if ( last != null && last.compareTo( name ) > 0 )
+            {
+                sorted = false;
+                break;
+            }
+            last = name;
+        }
+        if ( sorted )
+        {
+            return map.entrySet();
+        }
+
+        List<Map.Entry<String, V>> entries = new ArrayList<>( map.entrySet() );
+        entries.sort( Map.Entry.comparingByKey() );
+        return entries;
+    }
+
+    /**
+     * Write a primitive element, e.g., &lt;int&gt;1&lt;/int&gt;, choosing the type by the value class.
+     */
+    public void primitive( Object object ) throws IOException, CoercionException
+    {
+        ValueType type = ValueType.safeTypeFor( object );
+        write( TYPE_START[type.ordinal()] );
+        if ( object instanceof Integer && type == ValueType.INT )
+        {
+            writeLong( (Integer) object );
+        }
+        else if ( object instanceof Long && type == ValueType.LONG )
+        {
+            writeLong( (Long) object );
+        }
+        else if ( object instanceof Boolean && type == ValueType.BOOLEAN )
+        {
+            writeAscii( (Boolean) object ? '1' : '0' );
+        }
+        else if ( object instanceof Number && type == ValueType.DOUBLE )
+        {
+            double value = ( (Number) object ).doubleValue();
+            if ( canonical )
+            {
+                value = canonicalDouble( value );
+            }
+            int len = PlainDoubleFormatter.format( value, scratch, 0 );
+            writeText( scratch, 0, len );
+        }
+        else if ( canonical && type == ValueType.NIL )
+        {
+            // nothing, the default mode writes Nil.toString() for Nil.NIL_VALUE as it always did
+        }
+        else if ( canonical && type == ValueType.DATETIME )
+        {
+            int len = Iso8601Codec.formatCanonical( object, scratch, 0 );
+            if ( len < 0 )
+            {
+                throw new CoercionException( "Year out of range for dateTime.iso8601: " + object );
+            }
+            writeText( scratch, 0, len );
+        }
+        else if ( object instanceof Date && type == ValueType.DATETIME )
+        {
+            int len = Iso8601Codec.formatEpochMillis( ( (Date) object ).getTime(), scratch, 0 );
+            if ( len < 0 )
+            {
+                throw new CoercionException( "Year out of range for dateTime.iso8601: " + object );
+            }
+            writeText( scratch, 0, len );
+        }
+        else
+        {
+            String chars = type.coercion().toString( object );
+            if ( canonical ? isNotEmpty( chars ) : isNotBlank( chars ) )
+            {
+                writeText( chars );
+            }
+        }
+        write( TYPE_END[type.ordinal()] );
+    }
+
+    /**
+     * The double as rendered in canonical mode: -0 becomes 0, NaN and infinite values are rejected.
+     */
+    static double canonicalDouble( double value ) throws CoercionException
+    {
+        if ( Double.isNaN( value ) || Double.isInfinite( value ) )
+        {
+            throw new CoercionException( "No canonical XML-RPC form for double: " + value );
+        }
+        return value + 0.0; // -0.0 + 0.0 == 0.0
+    }
+
+    public void intValue( int value ) throws IOException
+    {
+        startValue();
+        write( TYPE_START[ValueType.INT.ordinal()] );
+        writeLong( value );
+        write( TYPE_END[ValueType.INT.ordinal()] );
+        endValue();
+    }
+
+    public void longValue( long value ) throws IOException
+    {
+        startValue();
+        write( TYPE_START[ValueType.LONG.ordinal()] );
+        writeLong( value );
+        write( TYPE_END[ValueType.LONG.ordinal()] );
+        endValue();
+    }
+
+    public void stringValue( String value ) throws IOException
+    {
+        startValue();
+        write( TYPE_START[ValueType.STRING.ordinal()] );
+        if ( canonical ? isNotEmpty( value ) : isNotBlank( value ) )
+        {
+            writeText( value );
+        }
+        write( TYPE_END[ValueType.STRING.ordinal()] );
+        endValue();
+    }
+
+    /**
+     * Write a decimal number without going through String.valueOf.
+     */
+    protected void writeLong( long value ) throws IOException
+    {
+        if ( value == Long.MIN_VALUE )
+        {
+            writeText( "-9223372036854775808" );
+            return;
+        }
+
+        int pos = scratch.length;
+        boolean negative = value < 0;
+        long v = negative ? -value : value;
+        do
+        {
+            scratch[--pos] = (char) ( '0' + v % 10 );
+            v /= 10;
+        }
+        while ( v != 0 );
+        if ( negative )
+        {
+            scratch[--pos] = '-';
+        }
+        writeText( scratch, pos, scratch.length - pos );
+    }
+
+    /**
+     * Write pre-encoded markup, e.g., the fixed parts of a request template.
+     */
+    public abstract void write( Fragment fragment ) throws IOException;
+
+    /**
+     * Write markup which has already been rendered and encoded as UTF-8, e.g., from a cache.
+     */
+    public abstract void writeEncoded( byte[] utf8 ) throws IOException;
+
+    protected abstract void writeAscii( char c ) throws IOException;
+
+    /**
+     * Write text, escaping &lt;, &gt; and &amp;.
+     */
+    protected abstract void writeText( char[] chars, int off, int len ) throws IOException;
+
+    protected abstract void writeText( String text ) throws IOException;
+
+    /**
+     * Rendered fragments kept across renders, see {@link #fragments(FragmentStore)}. Implementations must be
+     * thread-safe.
+     */
+    public interface FragmentStore
+    {
+        /**
+         * @return the fragment, or null if there is none for the key
+         */
+        Fragment get( Object key );
+
+        void put( Object key, Fragment fragment );
+    }
+
+    /**
+     * The struct tree of a @RenderCache part, as returned by its generated render method, with the key its rendered
+     * fragment is kept under. It is a plain Map to anything but a writer with a {@link FragmentStore}, which writes
+     * it from the store, so a part nested anywhere in a tree, e.g., a multicall, is rendered once per store.
+     */
+    public static final class CachedStruct
+                    extends HashMap<String, Object>
+    {
+        private final Object fragmentKey;
+
+        /**
+         * @param fragmentKey the key of the part, e.g., its cache key
+         */
+        public CachedStruct( Object fragmentKey )
+        {
+            this.fragmentKey = fragmentKey;
+        }
+
+        public Object getFragmentKey()
+        {
+            return fragmentKey;
+        }
+    }
+
+    /**
+     * An Iterable marked as array source, see {@link #sourceIterator(Object)}. It can be iterated more than once if
+     * the wrapped Iterable can.
+     */
+    public static final class ArraySource
+                    implements Iterable<Object>
+    {
+        private final Iterable<?> elements;
+
+        private ArraySource( Iterable<?> elements )
+        {
+            this.elements = elements;
+        }
+
+        public static ArraySource of( Iterable<?> elements )
+        {
+            return new ArraySource( elements );
+        }
+
+        @Override
+        public Iterator<Object> iterator()
+        {
+            return (Iterator<Object>) elements.iterator();
+        }
+    }
+
+    /**
+     * Idle in-memory writers of parallel array chunks, reused by the writers it is given to, see
+     * {@link #parallelArrays(ForkJoinPool, int, int, ChunkPool)}. Thread-safe.
+     */
+    public static final class ChunkPool
+    {
+        public static final int DEFAULT_MAX_IDLE = 64;
+
+        private final BlockingQueue<XmlRpcWriter> bytes;
+
+        private final BlockingQueue<XmlRpcWriter> chars;
+
+        public ChunkPool()
+        {
+            this( DEFAULT_MAX_IDLE );
+        }
+
+        /**
+         * @param maxIdle the most idle chunk writers kept of each kind, UTF-8 and chars
+         */
+        public ChunkPool( int maxIdle )
+        {
+            if ( maxIdle < 1 )
+            {
+                throw new IllegalArgumentException( "Max idle must be positive: " + maxIdle );
+            }
+            this.bytes = new ArrayBlockingQueue<>( maxIdle );
+            this.chars = new ArrayBlockingQueue<>( maxIdle );
+        }
+    }
+
+    /**
+     * Pre-encoded markup, kept both as UTF-8 bytes and as chars. The markup is written as is, so any text in it
+     * must already be escaped. A fragment rendered from a value may keep the value tree, which is rendered instead
+     * of the markup in canonical mode.
+     */
+    public static final class Fragment
+    {
+        final byte[] bytes;
+
+        final char[] chars;
+
+        final Object tree;
+
+        private final int hash;
+
+        private Fragment( String markup, Object tree )
+        {
+            this.bytes = markup.getBytes( StandardCharsets.UTF_8 );
+            this.chars = markup.toCharArray();
+            this.tree = tree;
+            this.hash = Arrays.hashCode( bytes );
+        }
+
+        public static Fragment of( String markup )
+        {
+            return new Fragment( markup, null );
+        }
+
+        /**
+         * Create a fragment of the markup rendered from the given value tree.
+         */
+        public static Fragment of( String markup, Object tree )
+        {
+            return new Fragment( markup, tree );
+        }
+
+        /**
+         * @return the value tree this fragment was rendered from, or null if it is plain markup
+         */
+        public Object getTree()
+        {
+            return tree;
+        }
+
+        @Override
+        public boolean equals( Object other )
+        {
+            return other instanceof Fragment && hash == ( (Fragment) other ).hash
+                            && Arrays.equals( bytes, ( (Fragment) other ).bytes );
+        }
+
+        @Override
+        public int hashCode()
+        {
+            return hash;
+        }
+
+        @Override
+        public String toString()
+        {
+            return new String( chars );
+        }
+    }
+
+    private static final class Utf8Writer
+                    extends XmlRpcWriter
+    {
+        private final OutputStream out;
+
+        private final byte[] buf;
+
+        // keep room for the longest escape or encoded code point
+        private final int limit;
+
+        private int pos;
+
+        Utf8Writer( OutputStream out, int bufferSize )
+        {
+            this.out = out;
+            this.buf = new byte[Math.max( bufferSize, 64 )];
+            this.limit = buf.length - 8;
+        }
+
+        @Override
+        public void writeEncoded( byte[] utf8 ) throws IOException
+        {
+            if ( pos + utf8.length > buf.length )
+            {
+                flushBuffer();
+                if ( utf8.length > buf.length )
+                {
+                    out.write( utf8 );
+                    return;
+                }
+            }
+            System.arraycopy( utf8, 0, buf, pos, utf8.length );
+            pos += utf8.length;
+        }
+
+        @Override
+        protected XmlRpcWriter newChunkWriter( ChunkPool chunks )
+        {
+            XmlRpcWriter chunk = chunks.bytes.poll();
+            return chunk != null ? chunk : new Utf8Writer( new ByteArrayOutputStream(), 8192 );
+        }
+
+        @Override
+        protected void writeChunk( XmlRpcWriter chunk, ChunkPool chunks ) throws IOException
+        {
+            ByteArrayOutputStream content = (ByteArrayOutputStream) ( (Utf8Writer) chunk ).out;
+            flushBuffer();
+            content.writeTo( out );
+            if ( content.size() <= MAX_POOLED_CHUNK )
+            {
+                content.reset();
+                chunks.bytes.offer( chunk );
+            }
+        }
+
+        @Override
+        public void write( Fragment fragment ) throws IOException
+        {
+            byte[] bytes = fragment.bytes;
+            if ( pos + bytes.length > buf.length )
+            {
+                flushBuffer();
+                if ( bytes.length > buf.length )
+                {
+                    out.write( bytes );
+                    return;
+                }
+            }
+            System.arraycopy( bytes, 0, buf, pos, bytes.length );
+            pos += bytes.length;
+        }
+
+        @Override
+        protected void writeAscii( char c ) throws IOException
+        {
+            if ( pos >= limit )
+            {
+                flushBuffer();
+            }
+            buf[pos++] = (byte) c;
+        }
+
+        @Override
+        protected void writeText( char[] chars, int off, int len ) throws IOException
+        {
+            int end = off + len;
+            for ( int i = off; i < end; i++ )
+            {
+                char c = chars[i];
+                if ( c < 0x80 && c != '<' && c != '>' && c != '&' )
+                {
+                    if ( pos >= limit )
+                    {
+                        flushBuffer();
+                    }
+                    buf[pos++] = (byte) c;
+                }
+                else
+                {
+                    char low = i + 1 < end ? chars[i + 1] : 0;
+                    if ( writeSpecial( c, low ) )
+                    {
+                        i++;
+                    }
+                }
+            }
+        }
+
+        @Override
+        protected void writeText( String text ) throws IOException
+        {
+            if ( text == null )
+            {
+                return;
+            }
+            int len = text.length();
+            for ( int i = 0; i < len; i++ )
+            {
+                char c = text.charAt( i );
+                if ( c < 0x80 && c != '<' && c != '>' && c != '&' )
+                {
+                    if ( pos >= limit )
+                    {
+                        flushBuffer();
+                    }
+                    buf[pos++] = (byte) c;
+                }
+                else
+                {
+                    char low = i + 1 < len ? text.charAt( i + 1 ) : 0;
+                    if ( writeSpecial( c, low ) )
+                    {
+                        i++;
+                    }
+                }
+            }
+        }
+
+        /**
+         * Write an escaped or non-ASCII char. Return true if the following low surrogate was consumed too.
+         */
+        private boolean writeSpecial( char c, char low ) throws IOException
+        {
+            if ( pos >= limit )
+            {
+                flushBuffer();
+            }
+
+            boolean consumed = false;
+            if ( c == '<' )
+            {
+                ascii( "&lt;" );
+            }
+            else if ( c == '>' )
+            {
+                ascii( "&gt;" );
+            }
+            else if ( c == '&' )
+            {
+                ascii( "&amp;" );
+            }
+            else if ( c < 0x800 )
+            {
+                buf[pos++] = (byte) ( 0xc0 | ( c >> 6 ) );
+                buf[pos++] = (byte) ( 0x80 | ( c & 0x3f ) );
+            }
+            else if ( Character.isHighSurrogate( c ) && Character.isLowSurrogate( low ) )
+            {
+                int cp = Character.toCodePoint( c, low );
+                buf[pos++] = (byte) ( 0xf0 | ( cp >> 18 ) );
+                buf[pos++] = (byte) ( 0x80 | ( ( cp >> 12 ) & 0x3f ) );
+                buf[pos++] = (byte) ( 0x80 | ( ( cp >> 6 ) & 0x3f ) );
+                buf[pos++] = (byte) ( 0x80 | ( cp & 0x3f ) );
+                consumed = true;
+            }
+            else if ( Character.isSurrogate( c ) )
+            {
+                buf[pos++] = '?'; // malformed, same replacement as the JDK encoder
+            }
+            else
+            {
+                buf[pos++] = (byte) ( 0xe0 | ( c >> 12 ) );
+                buf[pos++] = (byte) ( 0x80 | ( ( c >> 6 ) & 0x3f ) );
+                buf[pos++] = (byte) ( 0x80 | ( c & 0x3f ) );
+            }
+            return consumed;
+        }
+
+        private void ascii( String s )
+        {
+            for ( int i = 0; i < s.length(); i++ )
+            {
+                buf[pos++] = (byte) s.charAt( i );
+            }
+        }
+
+        private void flushBuffer() throws IOException
+        {
+            if ( pos > 0 )
+            {
+                out.write( buf, 0, pos );
+                pos = 0;
+            }
+        }
+
+        @Override
+        public void flush() throws IOException
+        {
+            flushBuffer();
+            out.flush();
+        }
+
+        @Override
+        public void close() throws IOException
+        {
+            flush();
+            out.close();
+        }
+    }
+
+    private static final class CharWriter
+                    extends XmlRpcWriter
+    {
+        private final Writer out;
+
+        private final char[] buf;
+
+        private final int limit;
+
+        private int pos;
+
+        CharWriter( Writer out, int bufferSize )
+        {
+            this.out = out;
+            this.buf = new char[Math.max( bufferSize, 64 )];
+            this.limit = buf.length - 8;
+        }
+
+        @Override
+        public void writeEncoded( byte[] utf8 ) throws IOException
+        {
+            flushBuffer();
+            out.write( new String( utf8, StandardCharsets.UTF_8 ) );
+        }
+
+        @Override
+        protected XmlRpcWriter newChunkWriter( ChunkPool chunks )
+        {
+            XmlRpcWriter chunk = chunks.chars.poll();
+            return chunk != null ? chunk : new CharWriter( new CharArrayWriter(), 8192 );
+        }
+
+        @Override
+        protected void writeChunk( XmlRpcWriter chunk, ChunkPool chunks ) throws IOException
+        {
+            CharArrayWriter content = (CharArrayWriter) ( (CharWriter) chunk ).out;
+            flushBuffer();
+            content.writeTo( out );
+            if ( content.size() <= MAX_POOLED_CHUNK )
+            {
+                content.reset();
+                chunks.chars.offer( chunk );
+            }
+        }
+
+        @Override
+        public void write( Fragment fragment ) throws IOException
+        {
+            char[] chars = fragment.chars;
+            if ( pos + chars.length > buf.length )
+            {
+                flushBuffer();
+                if ( chars.length > buf.length )
+                {
+                    out.write( chars );
+                    return;
+                }
+            }
+            System.arraycopy( chars, 0, buf, pos, chars.length );
+            pos += chars.length;
+        }
+
+        @Override
+        protected void writeAscii( char c ) throws IOException
+        {
+            if ( pos >= limit )
+            {
+                flushBuffer();
+            }
+            buf[pos++] = c;
+        }
+
+        @Override
+        protected void writeText( char[] chars, int off, int len ) throws IOException
+        {
+            int end = off + len;
+            for ( int i = off; i < end; i++ )
+            {
+                append( chars[i] );
+            }
+        }
+
+        @Override
+        protected void writeText( String text ) throws IOException
+        {
+            if ( text == null )
+            {
+                return;
+            }
+            int len = text.length();
+            int i = 0;
+            while ( i < len )
+            {
+                // bulk copy the run up to the next char that needs escaping
+                int run = i;
+                while ( run < len && !needsEscape( text.charAt( run ) ) )
+                {
+                    run++;
+                }
+                while ( i < run )
+                {
+                    if ( pos == buf.length )
+                    {
+                        flushBuffer();
+                    }
+                    int n = Math.min( run - i, buf.length - pos );
+                    text.getChars( i, i + n, buf, pos );
+                    pos += n;
+                    i += n;
+                }
+                if ( i < len )
+                {
+                    append( text.charAt( i++ ) );
+                }
+            }
+        }
+
+        private static boolean needsEscape( char c )
+        {
+            return c == '<' || c == '>' || c == '&';
+        }
+
+        private void append( char c ) throws IOException
+        {
+            if ( pos >= limit )
+            {
+                flushBuffer();
+            }
+            if ( c == '<' )
+            {
+                ascii( "&lt;" );
+            }
+            else if ( c == '>' )
+            {
+                ascii( "&gt;" );
+            }
+            else if ( c == '&' )
+            {
+                ascii( "&amp;" );
+            }
+            else
+            {
+                buf[pos++] = c;
+            }
+        }
+
+        private void ascii( String s )
+        {
+            s.getChars( 0, s.length(), buf, pos );
+            pos += s.length();
+        }
+
+        private void flushBuffer() throws IOException
+        {
+            if ( pos > 0 )
+            {
+                out.write( buf, 0, pos );
+                pos = 0;
+            }
+        }
+
+        @Override
+        public void flush() throws IOException
+        {
+            flushBuffer();
+            out.flush();
+        }
+
+        @Override
+        public void close() throws IOException
+        {
+            flush();
+            out.close();
+        }
+    }
+
+    /**
+     * Adapt an Appendable which is not a Writer, e.g., a StringBuilder.
+     */
+    private static final class AppendableWriter
+                    extends Writer
+    {
+        private final Appendable appendable;
+
+        AppendableWriter( Appendable appendable )
+        {
+            this.appendable = appendable;
+        }
+
+        @Override
+        public void write( char[] cbuf, int off, int len ) throws IOException
+        {
+            if ( appendable instanceof StringBuilder )
+            {
+                ( (StringBuilder) appendable ).append( cbuf, off, len );
+            }
+            else
+            {
+                appendable.append( CharBuffer.wrap( cbuf, off, len ) );
+            }
+        }
+
+        @Override
+        public void write( String str, int off, int len ) throws IOException
+        {
+            appendable.append( str, off, off + len );
+        }
+
+        @Override
+        public void flush() throws IOException
+        {
+            if ( appendable instanceof Flushable )
+            {
+                ( (Flushable) appendable ).flush();
+            }
+        }
+
+        @Override
+        public void close() throws IOException
+        {
+            flush();
+        }
+    }
+}
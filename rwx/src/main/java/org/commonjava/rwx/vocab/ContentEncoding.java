@@ -0,0 +1,79 @@
+/**
+ * Copyright (C) 2010 Red Hat, Inc. (http://github.com/Commonjava/commonjava)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.commonjava.rwx.vocab;
+
+import org.commonjava.rwx.error.XmlRpcException;
+
+/**
+ * Content encodings of XML-RPC payloads, named as in the HTTP Content-Encoding header. DEFLATE is the zlib format
+ * (RFC 1950) HTTP specifies, raw deflate data sent by some servers is accepted as well when decoding.
+ */
+public enum ContentEncoding
+{
+    IDENTITY( "identity" ),
+
+    GZIP( "gzip", "x-gzip" ),
+
+    DEFLATE( "deflate" );
+
+    private final String[] names;
+
+    ContentEncoding( final String... names )
+    {
+        this.names = names;
+    }
+
+    /**
+     * @return the name used in the Content-Encoding header
+     */
+    public String getName()
+    {
+        return names[0];
+    }
+
+    /**
+     * Get the encoding for a Content-Encoding header value, ignoring case and surrounding whitespace.
+     *
+     * @param name the header value, null or empty means identity
+     * @throws XmlRpcException if the encoding is not supported, e.g., a chain like "gzip, br"
+     */
+    public static ContentEncoding forName( final String name ) throws XmlRpcException
+    {
+        String trimmed = name == null ? "" : name.trim();
+        if ( trimmed.isEmpty() )
+        {
+            return IDENTITY;
+        }
+
+        for ( final ContentEncoding encoding : values() )
+        {
+            for ( final String n : encoding.names )
+            {
+                if ( n.equalsIgnoreCase( trimmed ) )
+                {
+                    return encoding;
+                }
+            }
+        }
+        throw new XmlRpcException( "Unsupported content encoding: {}", trimmed );
+    }
+
+    @Override
+    public String toString()
+    {
+        return getName();
+    }
+}
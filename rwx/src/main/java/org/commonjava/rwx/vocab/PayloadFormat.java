@@ -0,0 +1,86 @@
+/**
+ * Copyright (C) 2010 Red Hat, Inc. (http://github.com/Commonjava/commonjava)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.commonjava.rwx.vocab;
+
+import org.commonjava.rwx.error.XmlRpcException;
+
+/**
+ * Formats an XML-RPC payload can be exchanged in, named by their content type, e.g., to negotiate the binary
+ * format through the Accept and Content-Type headers between services which both support it.
+ */
+public enum PayloadFormat
+{
+    XML( "text/xml", "application/xml" ),
+
+    /**
+     * The compact binary encoding of the same model, see org.commonjava.rwx.util.BinaryRpcWriter.
+     */
+    BINARY( "application/x-rwx-binary" );
+
+    private final String[] contentTypes;
+
+    PayloadFormat( final String... contentTypes )
+    {
+        this.contentTypes = contentTypes;
+    }
+
+    /**
+     * @return the content type to send, e.g., in the Content-Type header
+     */
+    public String getContentType()
+    {
+        return contentTypes[0];
+    }
+
+    /**
+     * Get the format for a Content-Type header value. Parameters like charset are ignored, as is case.
+     *
+     * @param contentType the header value, null or empty means XML
+     * @throws XmlRpcException if the content type is not supported
+     */
+    public static PayloadFormat forContentType( final String contentType ) throws XmlRpcException
+    {
+        String mediaType = contentType == null ? "" : contentType;
+        int semicolon = mediaType.indexOf( ';' );
+        if ( semicolon >= 0 )
+        {
+            mediaType = mediaType.substring( 0, semicolon );
+        }
+        mediaType = mediaType.trim();
+        if ( mediaType.isEmpty() )
+        {
+            return XML;
+        }
+
+        for ( final PayloadFormat format : values() )
+        {
+            for ( final String type : format.contentTypes )
+            {
+                if ( type.equalsIgnoreCase( mediaType ) )
+                {
+                    return format;
+                }
+            }
+        }
+        throw new XmlRpcException( "Unsupported content type: {}", contentType );
+    }
+
+    @Override
+    public String toString()
+    {
+        return getContentType();
+    }
+}
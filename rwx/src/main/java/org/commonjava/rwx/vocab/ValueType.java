@@ -17,16 +17,15 @@ package org.commonjava.rwx.vocab;
 
 import org.apache.commons.codec.binary.Base64;
 import org.commonjava.rwx.error.CoercionException;
+import org.commonjava.rwx.util.Iso8601Codec;
+import org.commonjava.rwx.util.PlainDoubleFormatter;
+import org.commonjava.rwx.util.ScalarParser;
 import org.commonjava.rwx.util.ValueCoercion;
 
-import java.text.DecimalFormat;
-import java.text.DecimalFormatSymbols;
-import java.text.ParseException;
-import java.text.SimpleDateFormat;
+import java.nio.CharBuffer;
 import java.util.Arrays;
 import java.util.Date;
 import java.util.List;
-import java.util.Locale;
 import java.util.Map;
 
 import static org.commonjava.rwx.vocab.XmlRpcConstants.DATETIME_FORMAT;
@@ -88,6 +87,22 @@ public enum ValueType
                 throw new CoercionException( e.getMessage(), e );
             }
         }
+
+        @Override
+        public Object fromChars( final char[] buf, final int start, final int length ) throws CoercionException
+        {
+            int s = ScalarParser.trimStart( buf, start, start + length );
+            int e = ScalarParser.trimEnd( buf, s, start + length );
+            return s == e ? null : (int) ScalarParser.parseLong( buf, s, e, Integer.MIN_VALUE, Integer.MAX_VALUE );
+        }
+
+        @Override
+        public Object fromBytes( final byte[] buf, final int start, final int length ) throws CoercionException
+        {
+            int s = ScalarParser.trimStart( buf, start, start + length );
+            int e = ScalarParser.trimEnd( buf, s, start + length );
+            return s == e ? null : (int) ScalarParser.parseLong( buf, s, e, Integer.MIN_VALUE, Integer.MAX_VALUE );
+        }
     }, Integer.class, "int", "i4" ),
 
     LONG( new ValueCoercion( "LONG-to-String" )
@@ -106,6 +121,22 @@ public enum ValueType
             }
         }
 
+        @Override
+        public Object fromChars( final char[] buf, final int start, final int length ) throws CoercionException
+        {
+            int s = ScalarParser.trimStart( buf, start, start + length );
+            int e = ScalarParser.trimEnd( buf, s, start + length );
+            return s == e ? null : ScalarParser.parseLong( buf, s, e, Long.MIN_VALUE, Long.MAX_VALUE );
+        }
+
+        @Override
+        public Object fromBytes( final byte[] buf, final int start, final int length ) throws CoercionException
+        {
+            int s = ScalarParser.trimStart( buf, start, start + length );
+            int e = ScalarParser.trimEnd( buf, s, start + length );
+            return s == e ? null : ScalarParser.parseLong( buf, s, e, Long.MIN_VALUE, Long.MAX_VALUE );
+        }
+
         /**
          * If the value is of type Integer, convert it to Long
          */
@@ -160,6 +191,22 @@ public enum ValueType
                 return "1".equals( val ) || Boolean.parseBoolean( val );
             }
         }
+
+        @Override
+        public Object fromChars( final char[] buf, final int start, final int length )
+        {
+            int s = ScalarParser.trimStart( buf, start, start + length );
+            int e = ScalarParser.trimEnd( buf, s, start + length );
+            return ScalarParser.parseBoolean( buf, s, e );
+        }
+
+        @Override
+        public Object fromBytes( final byte[] buf, final int start, final int length )
+        {
+            int s = ScalarParser.trimStart( buf, start, start + length );
+            int e = ScalarParser.trimEnd( buf, s, start + length );
+            return ScalarParser.parseBoolean( buf, s, e );
+        }
     }, Boolean.class, "boolean" ),
 
     STRING( new ValueCoercion( "STRING-to-String (with trim)" )
@@ -187,6 +234,22 @@ public enum ValueType
             }
         }
 
+        @Override
+        public Object fromChars( final char[] buf, final int start, final int length ) throws CoercionException
+        {
+            int s = ScalarParser.trimStart( buf, start, start + length );
+            int e = ScalarParser.trimEnd( buf, s, start + length );
+            return s == e ? null : ScalarParser.parseDouble( buf, s, e );
+        }
+
+        @Override
+        public Object fromBytes( final byte[] buf, final int start, final int length ) throws CoercionException
+        {
+            int s = ScalarParser.trimStart( buf, start, start + length );
+            int e = ScalarParser.trimEnd( buf, s, start + length );
+            return s == e ? null : ScalarParser.parseDouble( buf, s, e );
+        }
+
         @Override
         public String toString( final Object value )
         {
@@ -195,57 +258,28 @@ public enum ValueType
                 return null;
             }
             // Double.toString use scientist format, e.g., 2.135E9, which is not what we want
-            DecimalFormat df = new DecimalFormat( "0", DecimalFormatSymbols.getInstance( Locale.ENGLISH ) );
-            df.setMaximumFractionDigits( 340 ); // 340 = DecimalFormat.DOUBLE_FRACTION_DIGITS
-            return df.format( ( (Number) value ).doubleValue() );
+            return PlainDoubleFormatter.format( ( (Number) value ).doubleValue() );
         }
     }, Number.class, "double" ),
 
     DATETIME( new ValueCoercion( "DATETIME-to-String (" + Arrays.toString( DATETIME_FORMAT ) + ")" )
     {
         @Override
-        public Object fromString( String value ) throws CoercionException
+        public Object fromString( final String value ) throws CoercionException
         {
-            if ( value == null )
-            {
-                return null;
-            }
-            value = value.trim();
-            Date obj = null;
-            ParseException exception = null;
-            for ( String format : DATETIME_FORMAT )
-            {
-                try
-                {
-                    obj = new SimpleDateFormat( format ).parse( value );
-                    break;
-                }
-                catch ( final ParseException e )
-                {
-                    exception = e;
-                }
-            }
-            if ( obj != null )
-            {
-                return obj;
-            }
-            else
-            {
-                throw new CoercionException( "Cannot parse date: '" + value + "'.", exception );
-            }
+            return Iso8601Codec.parseDate( value );
+        }
+
+        @Override
+        public Object fromChars( final char[] buf, final int start, final int length ) throws CoercionException
+        {
+            return Iso8601Codec.parseDate( CharBuffer.wrap( buf, start, length ) );
         }
 
         @Override
         public String toString( final Object value ) throws CoercionException
         {
-            try
-            {
-                return value == null ? null : new SimpleDateFormat( DATETIME_FORMAT[0] ).format( (Date) value );
-            }
-            catch ( final ClassCastException e )
-            {
-                throw new CoercionException( "Not a java.util.Date.", e );
-            }
+            return Iso8601Codec.format( value );
         }
 
     }, Date.class, "dateTime.iso8601" ),
@@ -322,61 +356,112 @@ public enum ValueType
 
     public static ValueType typeFor( final Class<?> clazz )
     {
-        ValueType result = null;
-        for ( final ValueType vt : values() )
+        return clazz == null ? null : EXACT_TYPES.get( clazz );
+    }
+
+    public static ValueType typeFor( final Object value )
+    {
+        if ( value == null )
         {
-            if ( vt.nativeType.equals( clazz ) )
+            return NIL;
+        }
+
+        final Class<?> cls = value instanceof Class<?> ? (Class<?>) value : value.getClass();
+        return ASSIGNABLE_TYPES.get( cls );
+    }
+
+    public static ValueType typeOf( final String tag )
+    {
+        if ( tag == null )
+        {
+            return STRING;
+        }
+
+        // open addressing with linear probing, String caches its hash so a hit costs one equals call
+        int mask = TAG_KEYS.length - 1;
+        for ( int i = spread( tag.hashCode() ) & mask; TAG_KEYS[i] != null; i = ( i + 1 ) & mask )
+        {
+            if ( TAG_KEYS[i].equals( tag ) )
             {
-                result = vt;
-                break;
+                return TAG_VALUES[i];
             }
         }
-        return result;
+
+        return STRING;
     }
 
-    public static ValueType typeFor( final Object value )
-    {
-        ValueType result = null;
+    // Precomputed dispatch tables. They are resolved once per class (or built once for the tags) and replace the
+    // per-call loops over values(), which ran for every rendered and parsed scalar.
 
-        if ( value == null )
+    private static final ClassValue<ValueType> EXACT_TYPES = new ClassValue<ValueType>()
+    {
+        @Override
+        protected ValueType computeValue( final Class<?> type )
         {
-            result = NIL;
+            for ( final ValueType vt : values() )
+            {
+                if ( vt.nativeType.equals( type ) )
+                {
+                    return vt;
+                }
+            }
+            return null;
         }
-        else
+    };
+
+    private static final ClassValue<ValueType> ASSIGNABLE_TYPES = new ClassValue<ValueType>()
+    {
+        @Override
+        protected ValueType computeValue( final Class<?> type )
         {
-            final Class<?> cls = value instanceof Class<?> ? (Class<?>) value : value.getClass();
             for ( final ValueType vt : values() )
             {
-                if ( vt.nativeType.isAssignableFrom( cls ) )
+                if ( vt.nativeType.isAssignableFrom( type ) )
                 {
-                    result = vt;
-                    break;
+                    return vt;
                 }
             }
+            if ( Iso8601Codec.isSupported( type ) )
+            {
+                return DATETIME; // java.time values
+            }
+            return null;
         }
+    };
 
-        return result;
-    }
+    private static final String[] TAG_KEYS;
 
-    public static ValueType typeOf( final String tag )
+    private static final ValueType[] TAG_VALUES;
+
+    static
     {
-        if ( tag == null || tag.trim().isEmpty() )
+        int count = 0;
+        for ( final ValueType vt : values() )
         {
-            return STRING;
+            count += vt.tags.length;
         }
 
-        for ( final ValueType type : values() )
+        int size = Integer.highestOneBit( count * 4 - 1 ) << 1;
+        TAG_KEYS = new String[size];
+        TAG_VALUES = new ValueType[size];
+        for ( final ValueType vt : values() )
         {
-            for ( final String t : type.tags )
+            for ( final String tag : vt.tags )
             {
-                if ( t.equals( tag ) )
+                int i = spread( tag.hashCode() ) & ( size - 1 );
+                while ( TAG_KEYS[i] != null )
                 {
-                    return type;
+                    i = ( i + 1 ) & ( size - 1 );
                 }
+                TAG_KEYS[i] = tag;
+                TAG_VALUES[i] = vt;
             }
         }
+    }
 
-        return STRING;
+    private static int spread( int h )
+    {
+        return h ^ ( h >>> 16 );
     }
 
     @Override
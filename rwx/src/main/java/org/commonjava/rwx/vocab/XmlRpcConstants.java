@@ -48,5 +48,5 @@ public class XmlRpcConstants
 
     public static final String NIL = "nil";
 
-    protected static final String[] DATETIME_FORMAT = { "yyyyMMdd'T'HHmmss", "yyyyMMdd'T'HH:mm:ss" };
+    public static final String[] DATETIME_FORMAT = { "yyyyMMdd'T'HHmmss", "yyyyMMdd'T'HH:mm:ss" };
 }
@@ -5,6 +5,7 @@ import org.commonjava.rwx.model.RpcObject;
 import static org.commonjava.rwx.util.ParseUtils.nullifyNil;
 import static org.commonjava.rwx.util.ParseUtils.isNil;
 import static org.commonjava.rwx.util.ParseUtils.upgradeCast;
+import static org.commonjava.rwx.util.ParseUtils.toSource;
 
 import ${qName};
 
@@ -32,6 +33,8 @@ public class ${simpleClassName}_Parser implements Parser<${simpleClassName}>
             val = nullifyNil( val );
             <% if (it.converter != null) { %>
             ret.${it.methodName}( new ${it.converter}().parse( val ) );
+            <% } else if (it.actionClass == null && it.sourceType != null) { %>
+            ret.${it.methodName}( (${it.type}) toSource( ${it.sourceType}.class, (List<?>) val ) );
             <% } else if (it.actionClass == null) { %>
             <% if (it.isPrimitive) { %>if ( val != null ) <% } %>ret.${it.methodName}( (${it.type}) <% if (it.isUpgradeCast) { %>upgradeCast( ${it.type}.class, val )<% } else { %>val<% } %> );
             <% } else { %>
@@ -41,7 +44,7 @@ public class ${simpleClassName}_Parser implements Parser<${simpleClassName}>
             {
                 ${it.localListVariableName}.add( new ${it.actionClass}().parse( obj ) );
             }
-            ret.${it.methodName}( ${it.localListVariableName} );
+            ret.${it.methodName}( <% if (it.sourceType != null) { %>(${it.type}) toSource( ${it.sourceType}.class, ${it.localListVariableName} )<% } else { %>${it.localListVariableName}<% } %> );
                 <% } else { %>
             ret.${it.methodName}( new ${it.actionClass}().parse( val ) );
                 <% } %>
@@ -60,6 +63,8 @@ public class ${simpleClassName}_Parser implements Parser<${simpleClassName}>
         {
             <% if (it.converter != null) { %>
             ret.${it.methodName}( new ${it.converter}().parse( val ) );
+            <% } else if (it.actionClass == null && it.sourceType != null) { %>
+            ret.${it.methodName}( (${it.type}) toSource( ${it.sourceType}.class, (List<?>) val ) );
             <% } else if (it.actionClass == null) { %>
             ret.${it.methodName}( (${it.type}) <% if (it.isUpgradeCast) { %>upgradeCast( ${it.type}.class, val )<% } else { %>val<% } %> );
             <% } else { %>
@@ -69,7 +74,7 @@ public class ${simpleClassName}_Parser implements Parser<${simpleClassName}>
             {
                 ${it.localListVariableName}.add( new ${it.actionClass}().parse( obj ) );
             }
-            ret.${it.methodName}( ${it.localListVariableName} );
+            ret.${it.methodName}( <% if (it.sourceType != null) { %>(${it.type}) toSource( ${it.sourceType}.class, ${it.localListVariableName} )<% } else { %>${it.localListVariableName}<% } %> );
                 <% } else { %>
             ret.${it.methodName}( new ${it.actionClass}().parse( val ) );
                 <% } %>
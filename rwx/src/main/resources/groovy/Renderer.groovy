@@ -1,11 +1,22 @@
 package ${rendererPackageName};
 
+import org.commonjava.rwx.core.CacheKeyProvider;
 import org.commonjava.rwx.core.Renderer;
+import org.commonjava.rwx.core.RenderedXmlCache;
+import org.commonjava.rwx.core.TemplateRenderer;
+import org.commonjava.rwx.error.XmlRpcException;
 import org.commonjava.rwx.model.MethodCall;
 import org.commonjava.rwx.model.MethodResponse;
+import org.commonjava.rwx.util.RenderUtils;
+import org.commonjava.rwx.util.XmlRpcWriter;
+import static org.commonjava.rwx.util.RenderUtils.asArraySource;
+import static org.commonjava.rwx.util.RenderUtils.renderElements;
+import static org.commonjava.rwx.util.RenderUtils.renderLazily;
+import static org.commonjava.rwx.util.RenderUtils.snapshot;
 
 import ${qName};
 
+import java.io.IOException;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
@@ -14,8 +25,75 @@ import java.util.HashMap;
 /**
  * Created by RWX AnnoProcessor.
  */
-public class ${simpleClassName}_Renderer implements Renderer<${simpleClassName}>
+public class ${simpleClassName}_Renderer implements Renderer<${simpleClassName}><% if (requestTemplate != null || fragmentCache == true) { %>, TemplateRenderer<${simpleClassName}><% } %><% if (cacheKey == true) { %>, CacheKeyProvider<${simpleClassName}><% } %>
 {
+<% if (cacheKey == true) { %>
+    @Override
+    public Object cacheKey( ${simpleClassName} object )
+    {
+        List<Object> cacheKeyValues = new ArrayList<>( ${params.size() + 1} );
+        cacheKeyValues.add( ${simpleClassName}.class );
+        <% params.each { %>
+            <% if (it.converter != null) { %>
+        cacheKeyValues.add( snapshot( new ${it.converter}().render( object.${it.methodName}() ) ) );
+            <% } else if (it.actionClass == null) { %>
+        cacheKeyValues.add( snapshot( object.${it.methodName}() ) );
+            <% } else if (it.contains) { %>
+        cacheKeyValues.add( snapshot( renderElements( object.${it.methodName}(), ( ${it.elementClass} obj ) -> new ${it.actionClass}().render( obj ) ) ) );
+            <% } else { %>
+        cacheKeyValues.add( object.${it.methodName}() == null ? null : snapshot( new ${it.actionClass}().render( object.${it.methodName}() ) ) );
+            <% } %>
+        <% } %>
+        return cacheKeyValues;
+    }
+<% } %><% if (requestTemplate != null) { %>
+    private static final XmlRpcWriter.Fragment[] TEMPLATE = {<% requestTemplate.each { %>
+        XmlRpcWriter.Fragment.of( "${it}" ),<% } %>
+    };
+
+    @Override
+    public void write( ${simpleClassName} object, XmlRpcWriter writer ) throws IOException, XmlRpcException
+    {
+        <% params.eachWithIndex { it, i -> %>
+        writer.write( TEMPLATE[${i}] );
+            <% if (it.converter != null) { %>
+        writer.value( new ${it.converter}().render( object.${it.methodName}() ) );
+            <% } else if (it.actionClass == null && it.sourceType != null) { %>
+        writer.value( asArraySource( object.${it.methodName}() ) );
+            <% } else if (it.actionClass == null) { %>
+        writer.value( object.${it.methodName}() );
+            <% } else if (it.sourceType != null) { %>
+        writer.value( renderLazily( object.${it.methodName}(), ( ${it.elementClass} obj ) -> new ${it.actionClass}().render( obj ) ) );
+            <% } else if (it.contains) { %>
+        TemplateRenderer.writeArray( new ${it.actionClass}(), object.${it.methodName}(), writer );
+            <% } else { %>
+        TemplateRenderer.writeValue( new ${it.actionClass}(), object.${it.methodName}(), writer );
+            <% } %>
+        <% } %>
+        writer.write( TEMPLATE[${params.size()}] );
+    }
+<% } %>
+<% if (fragmentCache == true) { %>
+    @Override
+    public void write( ${simpleClassName} object, XmlRpcWriter writer ) throws IOException, XmlRpcException
+    {
+        XmlRpcWriter.FragmentStore fragments = writer.getFragments();
+        if ( fragments == null || writer.isCanonical() )
+        {
+            writer.valueContent( render( object ) );
+            return;
+        }
+
+        Object key = <% if (fragmentIdentity == true) { %>RenderedXmlCache.identityKey( object )<% } else { %>cacheKey( object )<% } %>;
+        XmlRpcWriter.Fragment fragment = fragments.get( key );
+        if ( fragment == null )
+        {
+            fragment = RenderUtils.toDetachedFragment( render( object ) );
+            fragments.put( key, fragment );
+        }
+        writer.write( fragment );
+    }
+<% } %>
     @Override
     public Object render( ${simpleClassName} object )
     {
@@ -27,22 +105,26 @@ public class ${simpleClassName}_Renderer implements Renderer<${simpleClassName}>
         <% } %>
 
         <% if (structPart == true) { %>
+            <% if (fragmentCache == true) { %>
+        // a writer with a fragment store writes the part from there
+        Map<String, Object> map = new XmlRpcWriter.CachedStruct( <% if (fragmentIdentity == true) { %>RenderedXmlCache.identityKey( object )<% } else { %>cacheKey( object )<% } %> );
+            <% } else { %>
         Map<String, Object> map = new HashMap<>();
+            <% } %>
             <% params.each { %>
                 <% if (it.converter != null) { %>
         map.put( "${it.key}", new ${it.converter}().render( object.${it.methodName}() ) );
+                <% } else if (it.actionClass == null && it.sourceType != null) { %>
+        map.put( "${it.key}", asArraySource( object.${it.methodName}() ) );
                 <% } else if (it.actionClass == null) { %>
         map.put( "${it.key}", object.${it.methodName}() );
                 <% } else { %>
         if ( object.${it.methodName}() != null )
         {
-                    <% if (it.contains) { %>
-            List<Object> ${it.localListVariableName} = new ArrayList<>(  );
-            for ( ${it.elementClass} obj : object.${it.methodName}() )
-            {
-                ${it.localListVariableName}.add( new ${it.actionClass}().render( obj ) );
-            }
-            map.put( "${it.key}", ${it.localListVariableName} );
+                    <% if (it.sourceType != null) { %>
+            map.put( "${it.key}", renderLazily( object.${it.methodName}(), ( ${it.elementClass} obj ) -> new ${it.actionClass}().render( obj ) ) );
+                    <% } else if (it.contains) { %>
+            map.put( "${it.key}", renderElements( object.${it.methodName}(), ( ${it.elementClass} obj ) -> new ${it.actionClass}().render( obj ) ) );
                     <% } else { %>
             map.put( "${it.key}", new ${it.actionClass}().render( object.${it.methodName}() ) );
                     <% } %>
@@ -54,18 +136,17 @@ public class ${simpleClassName}_Renderer implements Renderer<${simpleClassName}>
             <% params.each { %>
                 <% if (it.converter != null) { %>
         list.add( new ${it.converter}().render( object.${it.methodName}() ) );
+                <% } else if (it.actionClass == null && it.sourceType != null) { %>
+        list.add( asArraySource( object.${it.methodName}() ) );
                 <% } else if (it.actionClass == null) { %>
         list.add( object.${it.methodName}() );
                 <% } else { %>
         if ( object.${it.methodName}() != null )
         {
-                    <% if (it.contains) { %>
-            List<Object> ${it.localListVariableName} = new ArrayList<>(  );
-            for ( ${it.elementClass} obj : object.${it.methodName}() )
-            {
-                ${it.localListVariableName}.add( new ${it.actionClass}().render( obj ) );
-            }
-            list.add( ${it.localListVariableName} );
+                    <% if (it.sourceType != null) { %>
+            list.add( renderLazily( object.${it.methodName}(), ( ${it.elementClass} obj ) -> new ${it.actionClass}().render( obj ) ) );
+                    <% } else if (it.contains) { %>
+            list.add( renderElements( object.${it.methodName}(), ( ${it.elementClass} obj ) -> new ${it.actionClass}().render( obj ) ) );
                     <% } else { %>
             list.add( new ${it.actionClass}().render( object.${it.methodName}() ) );
                     <% } %>
@@ -0,0 +1,220 @@
+/**
+ * Copyright (C) 2010 Red Hat, Inc. (http://github.com/Commonjava/commonjava)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.commonjava.rwx.core;
+
+import org.commonjava.rwx.model.MethodCall;
+import org.commonjava.rwx.model.MethodResponse;
+import org.commonjava.rwx.util.RpcDigest;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.nio.channels.FileChannel;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Stream;
+
+import static junit.framework.TestCase.assertEquals;
+import static junit.framework.TestCase.assertNull;
+import static junit.framework.TestCase.assertTrue;
+
+public class DiskResponseStoreTest
+{
+    @Rule
+    public TemporaryFolder temp = new TemporaryFolder();
+
+    @Test
+    public void reopenTest() throws Exception
+    {
+        Path dir = temp.newFolder().toPath();
+        try (DiskResponseStore store = new DiskResponseStore( dir, 1024 * 1024 ))
+        {
+            for ( int i = 0; i < 100; i++ )
+            {
+                store.put( key( i ), response( i ), 1, TimeUnit.HOURS );
+            }
+            store.invalidate( key( 7 ) );
+        }
+
+        try (DiskResponseStore store = new DiskResponseStore( dir, 1024 * 1024 ))
+        {
+            assertEquals( 99, store.size() );
+            assertNull( store.get( key( 7 ) ) );
+            for ( int i = 8; i < 100; i++ )
+            {
+                DiskResponseStore.StoredResponse stored = store.get( key( i ) );
+                assertTrue( RpcDigest.structurallyEquals( response( i ), stored.getResponse() ) );
+                assertTrue( stored.getRemainingTtl( TimeUnit.MINUTES ) > 58 );
+            }
+        }
+    }
+
+    @Test
+    public void expiryTest() throws Exception
+    {
+        AtomicLong now = new AtomicLong( 1000 );
+        try (DiskResponseStore store = new DiskResponseStore( temp.newFolder().toPath(), 1024 * 1024 ))
+        {
+            store.setClock( now::get );
+            store.put( key( 1 ), response( 1 ), 10, TimeUnit.SECONDS );
+            assertEquals( 10, store.get( key( 1 ) ).getRemainingTtl( TimeUnit.SECONDS ) );
+            now.addAndGet( 10000 );
+            assertNull( store.get( key( 1 ) ) );
+            assertEquals( 0, store.size() );
+            assertEquals( 0, store.getLiveBytes() );
+        }
+    }
+
+    @Test
+    public void corruptTailTest() throws Exception
+    {
+        Path dir = temp.newFolder().toPath();
+        try (DiskResponseStore store = new DiskResponseStore( dir, 1024 * 1024 ))
+        {
+            for ( int i = 0; i < 10; i++ )
+            {
+                store.put( key( i ), response( i ), 1, TimeUnit.HOURS );
+            }
+        }
+
+        // flip a byte in the last record, then add a torn one
+        Path segment;
+        try (Stream<Path> files = Files.list( dir ))
+        {
+            segment = files.findFirst().get();
+        }
+        long size = Files.size( segment );
+        try (FileChannel channel = FileChannel.open( segment, StandardOpenOption.WRITE ))
+        {
+            channel.write( ByteBuffer.wrap( new byte[] { 42 } ), size - 3 );
+            channel.write( ByteBuffer.wrap( new byte[] { 1, 2, 3 } ), size );
+        }
+
+        try (DiskResponseStore store = new DiskResponseStore( dir, 1024 * 1024 ))
+        {
+            assertEquals( 9, store.size() );
+            assertNull( store.get( key( 9 ) ) );
+            assertTrue( RpcDigest.structurallyEquals( response( 8 ), store.get( key( 8 ) ).getResponse() ) );
+            assertTrue( Files.size( segment ) < size );
+
+            // appends go after the last valid record
+            store.put( key( 9 ), response( 9 ), 1, TimeUnit.HOURS );
+        }
+        try (DiskResponseStore store = new DiskResponseStore( dir, 1024 * 1024 ))
+        {
+            assertEquals( 10, store.size() );
+        }
+    }
+
+    @Test
+    public void compactionTest() throws Exception
+    {
+        Path dir = temp.newFolder().toPath();
+        try (DiskResponseStore store = new DiskResponseStore( dir, 1024 * 1024, 4096 ))
+        {
+            for ( int i = 0; i < 2000; i++ )
+            {
+                store.put( key( i % 10 ), response( i ), 1, TimeUnit.HOURS );
+            }
+            assertEquals( 10, store.size() );
+            assertTrue( store.getTotalBytes() < 3 * 4096 );
+            assertTrue( store.getLiveBytes() * 2 >= store.getTotalBytes() - 4096 );
+            assertEquals( 0, store.getEvictionCount() );
+        }
+        try (DiskResponseStore store = new DiskResponseStore( dir, 1024 * 1024, 4096 ))
+        {
+            for ( int i = 0; i < 10; i++ )
+            {
+                assertTrue( RpcDigest.structurallyEquals( response( 1990 + i ), store.get( key( i ) ).getResponse() ) );
+            }
+        }
+    }
+
+    @Test
+    public void sizeCapTest() throws Exception
+    {
+        try (DiskResponseStore store = new DiskResponseStore( temp.newFolder().toPath(), 16384, 4096 ))
+        {
+            for ( int i = 0; i < 2000; i++ )
+            {
+                store.put( key( i ), response( i ), 1, TimeUnit.HOURS );
+            }
+            assertTrue( store.getTotalBytes() <= 16384 );
+            assertEquals( 2000, store.size() + store.getEvictionCount() );
+            assertNull( store.get( key( 0 ) ) );
+            assertTrue( RpcDigest.structurallyEquals( response( 1999 ), store.get( key( 1999 ) ).getResponse() ) );
+        }
+    }
+
+    @Test
+    public void diskTierTest() throws Exception
+    {
+        Path dir = temp.newFolder().toPath();
+        MethodCall call = new MethodCall();
+        call.setMethodName( "getBuild" );
+        call.setParams( Collections.singletonList( 1 ) );
+
+        try (DiskResponseStore store = new DiskResponseStore( dir, 1024 * 1024 ))
+        {
+            ResponseCache cache = new ResponseCache( 10 );
+            cache.setTtl( "getBuild", 1, TimeUnit.HOURS );
+            cache.setDiskStore( store );
+            cache.put( call, response( 1 ) );
+        }
+
+        // a restarted cache serves it from disk, then from memory
+        try (DiskResponseStore store = new DiskResponseStore( dir, 1024 * 1024 ))
+        {
+            ResponseCache cache = new ResponseCache( 10 );
+            cache.setDiskStore( store );
+            for ( int i = 0; i < 2; i++ )
+            {
+                assertTrue( RpcDigest.structurallyEquals( response( 1 ), cache.get( call ) ) );
+            }
+            assertEquals( 2, cache.getHitCount() );
+            assertEquals( 1, cache.getDiskHitCount() );
+
+            cache.invalidate( call );
+            assertNull( cache.get( call ) );
+            assertEquals( 0, store.size() );
+        }
+    }
+
+    private RpcDigest key( int id ) throws Exception
+    {
+        MethodCall call = new MethodCall();
+        call.setMethodName( "getBuild" );
+        call.setParams( Collections.singletonList( id ) );
+        return ResponseCache.key( call );
+    }
+
+    private MethodResponse response( int id )
+    {
+        Map<String, Object> build = new HashMap<>();
+        build.put( "build_id", id );
+        build.put( "nvr", "foo-1.0-" + id );
+        MethodResponse response = new MethodResponse();
+        response.setParams( Collections.singletonList( build ) );
+        return response;
+    }
+}
@@ -0,0 +1,193 @@
+/**
+ * Copyright (C) 2010 Red Hat, Inc. (http://github.com/Commonjava/commonjava)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.commonjava.rwx.core;
+
+import org.commonjava.rwx.model.Fault;
+import org.commonjava.rwx.model.MethodCall;
+import org.commonjava.rwx.model.MethodResponse;
+import org.commonjava.rwx.util.RpcDigest;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static junit.framework.TestCase.assertEquals;
+import static junit.framework.TestCase.assertNotSame;
+import static junit.framework.TestCase.assertNull;
+import static junit.framework.TestCase.assertTrue;
+
+public class ResponseCacheTest
+{
+    @Test
+    public void ttlTest() throws Exception
+    {
+        AtomicLong now = new AtomicLong();
+        ResponseCache cache = new ResponseCache( 10 );
+        cache.setTicker( now::get );
+        cache.setTtl( "getBuild", 1, TimeUnit.MINUTES );
+
+        // not cached without a TTL
+        cache.put( call( "getLastEvent", 1 ), response( 1 ) );
+        assertNull( cache.get( call( "getLastEvent", 1 ) ) );
+
+        cache.put( call( "getBuild", 1 ), response( 1 ) );
+        assertTrue( RpcDigest.structurallyEquals( response( 1 ), cache.get( call( "getBuild", 1 ) ) ) );
+        assertNull( cache.get( call( "getBuild", 2 ) ) );
+
+        now.addAndGet( TimeUnit.SECONDS.toNanos( 61 ) );
+        assertNull( cache.get( call( "getBuild", 1 ) ) );
+        assertEquals( 0, cache.size() );
+
+        // faults are never cached
+        cache.setDefaultTtl( 1, TimeUnit.HOURS );
+        cache.put( call( "getLastEvent", 1 ), new Fault() );
+        assertNull( cache.get( call( "getLastEvent", 1 ) ) );
+        assertEquals( 1, cache.getHitCount() );
+        assertEquals( 4, cache.getMissCount() );
+    }
+
+    @Test
+    public void keyTest() throws Exception
+    {
+        Map<String, Object> a = new LinkedHashMap<>();
+        a.put( "name", "foo" );
+        a.put( "version", "1.0" );
+        Map<String, Object> b = new LinkedHashMap<>();
+        b.put( "version", "1.0" );
+        b.put( "name", "foo" );
+
+        MethodCall first = new MethodCall();
+        first.setMethodName( "getBuild" );
+        first.setParams( Collections.singletonList( a ) );
+        MethodCall second = new MethodCall();
+        second.setMethodName( "getBuild" );
+        second.setParams( Collections.singletonList( b ) );
+
+        assertEquals( ResponseCache.key( first ), ResponseCache.key( second ) );
+    }
+
+    @Test
+    public void segmentedEvictionTest() throws Exception
+    {
+        ResponseCache cache = new ResponseCache( 10 );
+        cache.setDefaultTtl( 1, TimeUnit.HOURS );
+        for ( int i = 0; i < 5; i++ )
+        {
+            cache.put( call( "getBuild", i ), response( i ) );
+            cache.get( call( "getBuild", i ) );
+        }
+
+        // a scan of one-off calls only churns the probation segment
+        for ( int i = 100; i < 200; i++ )
+        {
+            cache.put( call( "getBuild", i ), response( i ) );
+        }
+        assertEquals( 10, cache.size() );
+        assertEquals( 95, cache.getEvictionCount() );
+        for ( int i = 0; i < 5; i++ )
+        {
+            assertTrue( RpcDigest.structurallyEquals( response( i ), cache.get( call( "getBuild", i ) ) ) );
+        }
+        assertNull( cache.get( call( "getBuild", 100 ) ) );
+    }
+
+    @Test
+    public void offHeapTest() throws Exception
+    {
+        ResponseCache cache = new ResponseCache( 2, 1024 * 1024 );
+        cache.setDefaultTtl( 1, TimeUnit.HOURS );
+        for ( int i = 0; i < 100; i++ )
+        {
+            cache.put( call( "getBuild", i ), response( i ) );
+        }
+        assertEquals( 2, cache.size() );
+        assertEquals( 98, cache.getOffHeapSize() );
+        assertTrue( cache.getOffHeapBytes() > 0 );
+        assertEquals( 0, cache.getEvictionCount() );
+
+        for ( int i = 99; i >= 0; i-- )
+        {
+            assertTrue( RpcDigest.structurallyEquals( response( i ), cache.get( call( "getBuild", i ) ) ) );
+        }
+        assertEquals( 2, cache.size() );
+        assertEquals( 100, cache.getHitCount() );
+        assertEquals( 98, cache.getOffHeapHitCount() );
+
+        // a tier too small for all entries drops the least recently used ones
+        ResponseCache small = new ResponseCache( 1, 200 );
+        small.setDefaultTtl( 1, TimeUnit.HOURS );
+        for ( int i = 0; i < 100; i++ )
+        {
+            small.put( call( "getBuild", i ), response( i ) );
+        }
+        assertTrue( small.getOffHeapBytes() <= 200 );
+        assertEquals( 99 - small.getOffHeapSize(), small.getEvictionCount() );
+        assertTrue( RpcDigest.structurallyEquals( response( 98 ), small.get( call( "getBuild", 98 ) ) ) );
+        assertNull( small.get( call( "getBuild", 0 ) ) );
+    }
+
+    @Test
+    @SuppressWarnings( "unchecked" )
+    public void copiedHitsTest() throws Exception
+    {
+        ResponseCache cache = new ResponseCache( 10 );
+        cache.setDefaultTtl( 1, TimeUnit.HOURS );
+        MethodResponse put = response( 1 );
+        Map<String, Object> putBuild = (Map<String, Object>) put.getParams().get( 0 );
+        putBuild.put( "creation_time", new Date( 0 ) );
+        cache.put( call( "getBuild", 1 ), put );
+
+        // neither the caller which cached the response nor the ones hitting it share its values
+        putBuild.put( "nvr", "changed" );
+        ( (Date) putBuild.get( "creation_time" ) ).setTime( 1 );
+        MethodResponse first = (MethodResponse) cache.get( call( "getBuild", 1 ) );
+        Map<String, Object> build = (Map<String, Object>) first.getParams().get( 0 );
+        assertEquals( "foo-1.0-1", build.get( "nvr" ) );
+        assertEquals( new Date( 0 ), build.get( "creation_time" ) );
+
+        build.put( "nvr", "changed" );
+        ( (Date) build.get( "creation_time" ) ).setTime( 1 );
+        MethodResponse second = (MethodResponse) cache.get( call( "getBuild", 1 ) );
+        assertNotSame( first, second );
+        assertEquals( "foo-1.0-1", ( (Map<String, Object>) second.getParams().get( 0 ) ).get( "nvr" ) );
+        assertEquals( new Date( 0 ), ( (Map<String, Object>) second.getParams().get( 0 ) ).get( "creation_time" ) );
+    }
+
+    private MethodCall call( String methodName, int buildId )
+    {
+        MethodCall call = new MethodCall();
+        call.setMethodName( methodName );
+        call.setParams( Collections.singletonList( buildId ) );
+        return call;
+    }
+
+    private MethodResponse response( int buildId )
+    {
+        Map<String, Object> build = new HashMap<>();
+        build.put( "build_id", buildId );
+        build.put( "nvr", "foo-1.0-" + buildId );
+        build.put( "tags", Arrays.asList( "a", "b" ) );
+        MethodResponse response = new MethodResponse();
+        response.setParams( Collections.singletonList( build ) );
+        return response;
+    }
+}
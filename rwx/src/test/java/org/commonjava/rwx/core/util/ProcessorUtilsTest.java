@@ -17,8 +17,12 @@ package org.commonjava.rwx.core.util;
 
 import static org.commonjava.rwx.util.ProcessorUtils.getElementClassByType;
 import static org.commonjava.rwx.util.ProcessorUtils.getRegistryClassName;
+import static org.commonjava.rwx.util.ProcessorUtils.getRequestTemplate;
+import static org.commonjava.rwx.util.ProcessorUtils.getSourceType;
+import static org.commonjava.rwx.util.ProcessorUtils.toJavaLiteral;
 import org.junit.Test;
 
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.HashSet;
 import java.util.Set;
@@ -60,5 +64,37 @@ public class ProcessorUtilsTest
 
         type = "List";
         assertNull( getElementClassByType( type ) );
+
+        type = "java.util.stream.Stream<org.foo.Bar>";
+        assertEquals( "org.foo.Bar", getElementClassByType( type ) );
+    }
+
+    @Test
+    public void getSourceTypeTest()
+    {
+        assertEquals( "java.util.stream.Stream", getSourceType( "java.util.stream.Stream<org.foo.Bar>" ) );
+        assertEquals( "java.util.Iterator", getSourceType( "java.util.Iterator<java.lang.String>" ) );
+        assertEquals( "java.lang.Iterable", getSourceType( "java.lang.Iterable" ) );
+        assertNull( getSourceType( "java.util.List<java.lang.String>" ) );
+        assertNull( getSourceType( "java.util.IteratorHolder" ) );
+    }
+
+    @Test
+    public void getRequestTemplateTest()
+    {
+        assertEquals( Collections.singletonList(
+                        "<?xml version=\"1.0\" ?><methodCall><methodName>foo</methodName><params></params></methodCall>" ),
+                      getRequestTemplate( "foo", 0 ) );
+
+        assertEquals( Arrays.asList(
+                        "<?xml version=\"1.0\" ?><methodCall><methodName>a&lt;b&gt;&amp;</methodName><params><param>",
+                        "</param><param>", "</param></params></methodCall>" ), getRequestTemplate( "a<b>&", 2 ) );
+    }
+
+    @Test
+    public void toJavaLiteralTest()
+    {
+        assertEquals( "<?xml version=\\\"1.0\\\" ?>", toJavaLiteral( "<?xml version=\"1.0\" ?>" ) );
+        assertEquals( "a\\\\b\\012\\u00e9", toJavaLiteral( "a\\b\né" ) );
     }
 }
@@ -0,0 +1,204 @@
+/**
+ * Copyright (C) 2010 Red Hat, Inc. (http://github.com/Commonjava/commonjava)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.commonjava.rwx.util;
+
+import org.commonjava.rwx.error.XmlRpcException;
+import org.commonjava.rwx.model.Fault;
+import org.commonjava.rwx.model.MethodCall;
+import org.commonjava.rwx.model.MethodResponse;
+import org.commonjava.rwx.vocab.Nil;
+import org.commonjava.rwx.vocab.PayloadFormat;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import static junit.framework.TestCase.assertEquals;
+import static junit.framework.TestCase.assertTrue;
+
+public class BinaryRpcCodecTest
+{
+    @Test
+    public void edgeValuesTest() throws Exception
+    {
+        List<Object> params = Arrays.<Object>asList( Integer.MIN_VALUE, Integer.MAX_VALUE, 0, -1, Long.MIN_VALUE,
+                                                     Long.MAX_VALUE, -0.0, Double.NaN, Double.MIN_VALUE, true,
+                                                     false, "", "snow ☃ 😀 é", new Date( -1 ), new byte[0],
+                                                     new byte[] { -1, 0, 1 }, null, Nil.NIL_VALUE,
+                                                     Collections.emptyMap(), Collections.emptyList() );
+        MethodCall call = new MethodCall();
+        call.setMethodName( "edge" );
+        call.setParams( params );
+
+        MethodCall read = (MethodCall) roundTrip( call );
+        assertEquals( "edge", read.getMethodName() );
+        List<Object> readParams = read.getParams();
+        assertEquals( params.size(), readParams.size() );
+        for ( int i = 0; i < params.size(); i++ )
+        {
+            Object expected = params.get( i ) == null ? Nil.NIL_VALUE : params.get( i );
+            if ( expected instanceof byte[] )
+            {
+                assertTrue( Arrays.equals( (byte[]) expected, (byte[]) readParams.get( i ) ) );
+            }
+            else
+            {
+                assertEquals( expected, readParams.get( i ) );
+            }
+        }
+        // the exact bits, NaN and -0 included
+        assertEquals( Double.doubleToRawLongBits( -0.0 ), Double.doubleToRawLongBits( (Double) readParams.get( 6 ) ) );
+        // a lone surrogate cannot be encoded
+        assertEquals( "a?b", ( (List<?>) roundTrip( Arrays.asList( "a\ud83db" ) ) ).get( 0 ) );
+    }
+
+    @Test
+    public void randomTreesTest() throws Exception
+    {
+        Random random = new Random( 40 );
+        for ( int i = 0; i < 500; i++ )
+        {
+            MethodResponse response = new MethodResponse();
+            response.setParams( Collections.singletonList( randomValue( random, 3 ) ) );
+            MethodResponse read = (MethodResponse) roundTrip( response );
+            assertTrue( RpcDigest.structurallyEquals( response, read ) );
+        }
+
+        Fault fault = new Fault();
+        fault.setValue( Collections.singletonMap( "faultCode", 1 ) );
+        assertTrue( RpcDigest.structurallyEquals( fault, roundTrip( fault ) ) );
+    }
+
+    @Test
+    public void compactTest() throws Exception
+    {
+        List<Object> structs = new ArrayList<>();
+        for ( int i = 0; i < 1000; i++ )
+        {
+            Map<String, Object> build = new HashMap<>();
+            build.put( "build_id", i );
+            build.put( "package_name", "rwx" );
+            build.put( "completion_ts", 1505643330.123 + i );
+            structs.add( build );
+        }
+        MethodResponse response = new MethodResponse();
+        response.setParams( Collections.<Object>singletonList( structs ) );
+
+        byte[] binary = encode( response );
+        int xml = RenderUtils.toXMLString( response ).length();
+        // keys are written once, the rest refers to the dictionary
+        assertTrue( binary.length * 5 < xml );
+        assertTrue( RpcDigest.structurallyEquals( response, read( binary ) ) );
+
+        // streamed arrays are read as lists
+        assertEquals( Arrays.asList( 1, 2, 3 ), roundTrip( Arrays.asList( 1, 2, 3 ).iterator() ) );
+        assertEquals( PayloadFormat.BINARY, PayloadFormat.forContentType( "Application/X-RWX-Binary; q=1" ) );
+    }
+
+    @Test( expected = XmlRpcException.class )
+    public void notBinaryTest() throws Exception
+    {
+        read( "<?xml version=\"1.0\" ?>".getBytes() );
+    }
+
+    @Test( expected = EOFException.class )
+    public void truncatedTest() throws Exception
+    {
+        byte[] binary = encode( Collections.singletonMap( "name", "rwx" ) );
+        read( Arrays.copyOf( binary, binary.length - 1 ) );
+    }
+
+    private Object roundTrip( Object tree ) throws Exception
+    {
+        return read( encode( tree ) );
+    }
+
+    private byte[] encode( Object tree ) throws Exception
+    {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        BinaryRpcWriter writer = new BinaryRpcWriter( out, 16 );
+        writer.writePayload( tree );
+        writer.flush();
+        return out.toByteArray();
+    }
+
+    private Object read( byte[] binary ) throws Exception
+    {
+        return new BinaryRpcReader( new ByteArrayInputStream( binary ), 16 ).readPayload();
+    }
+
+    private Object randomValue( Random random, int depth )
+    {
+        switch ( random.nextInt( depth > 0 ? 11 : 9 ) )
+        {
+            case 0:
+                return random.nextInt();
+            case 1:
+                return random.nextLong();
+            case 2:
+                return random.nextBoolean();
+            case 3:
+                return random.nextGaussian() * 1e6;
+            case 4:
+                return new Date( random.nextLong() % 4000000000000L );
+            case 5:
+                return Nil.NIL_VALUE;
+            case 6:
+            {
+                byte[] bytes = new byte[random.nextInt( 40 )];
+                random.nextBytes( bytes );
+                return bytes;
+            }
+            case 7:
+            case 8:
+            {
+                StringBuilder sb = new StringBuilder();
+                for ( int i = random.nextInt( 30 ); i > 0; i-- )
+                {
+                    sb.append( "ab é☃😀".charAt( random.nextInt( 5 ) ) );
+                }
+                return sb.toString();
+            }
+            case 9:
+            {
+                List<Object> list = new ArrayList<>();
+                for ( int i = random.nextInt( 5 ); i > 0; i-- )
+                {
+                    list.add( randomValue( random, depth - 1 ) );
+                }
+                return list;
+            }
+            default:
+            {
+                Map<String, Object> map = new HashMap<>();
+                for ( int i = random.nextInt( 5 ); i > 0; i-- )
+                {
+                    map.put( "key" + random.nextInt( 8 ), randomValue( random, depth - 1 ) );
+                }
+                return map;
+            }
+        }
+    }
+}
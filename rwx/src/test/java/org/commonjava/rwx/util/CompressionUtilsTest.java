@@ -0,0 +1,191 @@
+/**
+ * Copyright (C) 2010 Red Hat, Inc. (http://github.com/Commonjava/commonjava)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.commonjava.rwx.util;
+
+import org.commonjava.rwx.vocab.ContentEncoding;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.PushbackInputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+import java.util.zip.InflaterInputStream;
+import java.util.zip.ZipException;
+
+import static junit.framework.TestCase.assertEquals;
+import static junit.framework.TestCase.assertTrue;
+
+public class CompressionUtilsTest
+{
+    private final byte[] payload = payload( new Random( 38 ), 200000 );
+
+    @Test
+    public void gzipInteropTest() throws Exception
+    {
+        for ( int level : new int[] { Deflater.DEFAULT_COMPRESSION, 0, 1, 9 } )
+        {
+            byte[] encoded = encode( payload, ContentEncoding.GZIP, level );
+            assertTrue( Arrays.equals( payload, readAll( new GZIPInputStream( new ByteArrayInputStream( encoded ) ) ) ) );
+        }
+
+        ByteArrayOutputStream gzipped = new ByteArrayOutputStream();
+        try (OutputStream out = new GZIPOutputStream( gzipped ))
+        {
+            out.write( payload );
+        }
+        assertDecodes( gzipped.toByteArray(), ContentEncoding.GZIP );
+    }
+
+    @Test
+    public void deflateInteropTest() throws Exception
+    {
+        byte[] encoded = encode( payload, ContentEncoding.DEFLATE, 5 );
+        assertTrue( Arrays.equals( payload, readAll( new InflaterInputStream( new ByteArrayInputStream( encoded ) ) ) ) );
+
+        ByteArrayOutputStream zlib = new ByteArrayOutputStream();
+        try (OutputStream out = new DeflaterOutputStream( zlib ))
+        {
+            out.write( payload );
+        }
+        assertDecodes( zlib.toByteArray(), ContentEncoding.DEFLATE );
+
+        // raw deflate without the zlib wrapper, as some servers send it
+        ByteArrayOutputStream raw = new ByteArrayOutputStream();
+        try (OutputStream out = new DeflaterOutputStream( raw, new Deflater( 6, true ) ))
+        {
+            out.write( payload );
+        }
+        assertTrue( Arrays.equals( payload, readAll(
+                        CompressionUtils.decode( new ByteArrayInputStream( raw.toByteArray() ),
+                                                 ContentEncoding.DEFLATE ) ) ) );
+    }
+
+    @Test
+    public void gzipMembersTest() throws Exception
+    {
+        ByteArrayOutputStream members = new ByteArrayOutputStream();
+        members.write( encode( Arrays.copyOf( payload, 1000 ), ContentEncoding.GZIP, 1 ) );
+        members.write( encode( Arrays.copyOfRange( payload, 1000, payload.length ), ContentEncoding.GZIP, 9 ) );
+        assertDecodes( members.toByteArray(), ContentEncoding.GZIP );
+    }
+
+    @Test
+    public void detectTest() throws Exception
+    {
+        assertDecodes( payload, ContentEncoding.IDENTITY );
+        assertDecodes( new byte[0], ContentEncoding.IDENTITY );
+        assertDecodes( "<".getBytes(), ContentEncoding.IDENTITY );
+        assertDecodes( "\ufeff<?xml version=\"1.0\"?>".getBytes( StandardCharsets.UTF_8 ), ContentEncoding.IDENTITY );
+        assertEquals( ContentEncoding.GZIP, ContentEncoding.forName( " X-GZip " ) );
+        assertEquals( ContentEncoding.IDENTITY, ContentEncoding.forName( null ) );
+    }
+
+    @Test
+    public void flushTest() throws Exception
+    {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        OutputStream encoded = CompressionUtils.encode( out, ContentEncoding.GZIP, 6 );
+        encoded.write( payload, 0, 100 );
+        encoded.flush();
+
+        // everything written so far can be decoded before the payload is finished
+        InputStream partial = new GZIPInputStream( new ByteArrayInputStream( out.toByteArray() ) );
+        byte[] head = new byte[100];
+        int n = 0;
+        while ( n < 100 )
+        {
+            n += partial.read( head, n, 100 - n );
+        }
+        assertTrue( Arrays.equals( Arrays.copyOf( payload, 100 ), head ) );
+        encoded.close();
+    }
+
+    @Test( expected = ZipException.class )
+    public void corruptTest() throws Exception
+    {
+        byte[] encoded = encode( payload, ContentEncoding.GZIP, 6 );
+        encoded[encoded.length - 6]++; // CRC
+        readAll( CompressionUtils.decode( new ByteArrayInputStream( encoded ), ContentEncoding.GZIP ) );
+    }
+
+    @Test( expected = EOFException.class )
+    public void truncatedTest() throws Exception
+    {
+        byte[] encoded = encode( payload, ContentEncoding.DEFLATE, 6 );
+        readAll( CompressionUtils.decodeDetected( new ByteArrayInputStream( encoded, 0, encoded.length / 2 ) ) );
+    }
+
+    private void assertDecodes( byte[] encoded, ContentEncoding encoding ) throws IOException
+    {
+        PushbackInputStream in = new PushbackInputStream( new ByteArrayInputStream( encoded ), 2 );
+        assertEquals( encoding, CompressionUtils.detect( in ) );
+
+        byte[] expected = encoding == ContentEncoding.IDENTITY ? encoded : payload;
+        assertTrue( Arrays.equals( expected, readAll( CompressionUtils.decode( in, encoding ) ) ) );
+        assertTrue( Arrays.equals( expected,
+                                   readAll( CompressionUtils.decodeDetected( new ByteArrayInputStream( encoded ) ) ) ) );
+    }
+
+    private static byte[] encode( byte[] data, ContentEncoding encoding, int level ) throws IOException
+    {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try (OutputStream encoded = CompressionUtils.encode( out, encoding, level ))
+        {
+            // odd sized writes
+            for ( int off = 0; off < data.length; off += 777 )
+            {
+                encoded.write( data, off, Math.min( 777, data.length - off ) );
+            }
+        }
+        return out.toByteArray();
+    }
+
+    private static byte[] readAll( InputStream in ) throws IOException
+    {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] buf = new byte[1000];
+        int n;
+        while ( ( n = in.read( buf ) ) >= 0 )
+        {
+            out.write( buf, 0, n );
+        }
+        in.close();
+        return out.toByteArray();
+    }
+
+    /**
+     * Something XML-like, which compresses well but not trivially.
+     */
+    private static byte[] payload( Random random, int size )
+    {
+        StringBuilder sb = new StringBuilder( "<?xml version=\"1.0\" ?><methodResponse><params>" );
+        while ( sb.length() < size )
+        {
+            sb.append( "<value><int>" ).append( random.nextInt( 100000 ) ).append( "</int></value>" );
+        }
+        return sb.toString().getBytes( StandardCharsets.UTF_8 );
+    }
+}
@@ -0,0 +1,118 @@
+/**
+ * Copyright (C) 2010 Red Hat, Inc. (http://github.com/Commonjava/commonjava)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.commonjava.rwx.util;
+
+import org.commonjava.rwx.error.CoercionException;
+import org.junit.Test;
+
+import java.text.SimpleDateFormat;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.OffsetDateTime;
+import java.time.ZoneOffset;
+import java.util.Date;
+import java.util.Random;
+
+import static junit.framework.TestCase.assertEquals;
+import static org.commonjava.rwx.vocab.XmlRpcConstants.DATETIME_FORMAT;
+import static org.junit.Assert.fail;
+
+public class Iso8601CodecTest
+{
+    @Test
+    public void parseLegacyFormatsTest() throws Exception
+    {
+        Date expected = new SimpleDateFormat( "yyyyMMdd'T'HHmmss" ).parse( "20170917T101530" );
+        assertEquals( expected, Iso8601Codec.parseDate( "20170917T101530" ) );
+        assertEquals( expected, Iso8601Codec.parseDate( "20170917T10:15:30" ) );
+        assertEquals( expected, Iso8601Codec.parseDate( "  20170917T10:15:30\n" ) );
+    }
+
+    @Test
+    public void parseExtendedFormsTest() throws Exception
+    {
+        LocalDateTime local = LocalDateTime.of( 2017, 9, 17, 10, 15, 30 );
+        assertEquals( local, Iso8601Codec.parse( "2017-09-17T10:15:30", LocalDateTime.class ) );
+        assertEquals( local.withNano( 123000000 ), Iso8601Codec.parse( "20170917T10:15:30.123", LocalDateTime.class ) );
+        assertEquals( local.withNano( 123456789 ),
+                      Iso8601Codec.parse( "20170917T10:15:30,1234567891", LocalDateTime.class ) );
+
+        Instant utc = local.toInstant( ZoneOffset.UTC );
+        assertEquals( utc, Iso8601Codec.parse( "20170917T10:15:30Z", Instant.class ) );
+        assertEquals( utc.minusSeconds( 3600 ), Iso8601Codec.parse( "20170917T10:15:30+01:00", Instant.class ) );
+        assertEquals( utc.plusSeconds( 5400 ), Iso8601Codec.parse( "20170917T10:15:30-0130", Instant.class ) );
+        assertEquals( utc.minusSeconds( 7200 ), Iso8601Codec.parse( "2017-09-17T10:15:30+02", Instant.class ) );
+
+        OffsetDateTime odt = Iso8601Codec.parse( "20170917T10:15:30+05:30", OffsetDateTime.class );
+        assertEquals( local, odt.toLocalDateTime() );
+        assertEquals( ZoneOffset.ofHoursMinutes( 5, 30 ), odt.getOffset() );
+    }
+
+    @Test
+    public void parseInvalidTest()
+    {
+        String[] invalid = { "", "2017", "20170917", "20170917T10:15", "20171317T10:15:30", "20170230T10:15:30",
+                        "20170917T24:00:00", "20170917X10:15:30", "20170917T10:15:30.", "20170917T10:15:30+19:00",
+                        "20170917T10:15:30 junk", "abcdefghTjklmno" };
+        for ( String value : invalid )
+        {
+            try
+            {
+                Iso8601Codec.parseDate( value );
+                fail( "Expected failure for '" + value + "'" );
+            }
+            catch ( CoercionException e )
+            {
+                // expected
+            }
+        }
+    }
+
+    @Test
+    public void formatMatchesSimpleDateFormatTest() throws Exception
+    {
+        Random random = new Random( 42 );
+        SimpleDateFormat sdf = new SimpleDateFormat( DATETIME_FORMAT[0] );
+        for ( int i = 0; i < 10000; i++ )
+        {
+            // 1900-01-01 .. 2100-01-01, whole seconds
+            long millis = -2208988800000L + (long) ( random.nextDouble() * 6311433600000L ) / 1000 * 1000;
+            Date date = new Date( millis );
+            String expected = sdf.format( date );
+            assertEquals( expected, Iso8601Codec.format( date ) );
+            assertEquals( sdf.parse( expected ), Iso8601Codec.parseDate( expected ) );
+        }
+    }
+
+    @Test
+    public void formatJavaTimeTest() throws Exception
+    {
+        LocalDateTime local = LocalDateTime.of( 2017, 9, 17, 10, 15, 30, 999000000 );
+        assertEquals( "20170917T101530", Iso8601Codec.format( local ) );
+
+        Date date = Iso8601Codec.parseDate( "20170917T10:15:30" );
+        assertEquals( "20170917T101530", Iso8601Codec.format( date.toInstant() ) );
+    }
+
+    @Test
+    public void convertTest()
+    {
+        Date date = new Date( 1505643330000L );
+        assertEquals( date.toInstant(), Iso8601Codec.convert( date, Instant.class ) );
+        assertEquals( date, Iso8601Codec.convert( date.toInstant(), Date.class ) );
+        assertEquals( date.toInstant(), Iso8601Codec.convert( "20170917T10:15:30Z", Instant.class ) );
+    }
+}
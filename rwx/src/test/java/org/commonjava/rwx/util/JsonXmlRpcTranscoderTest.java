@@ -0,0 +1,324 @@
+/**
+ * Copyright (C) 2010 Red Hat, Inc. (http://github.com/Commonjava/commonjava)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.commonjava.rwx.util;
+
+import org.commonjava.rwx.core.XmlRpcParser;
+import org.commonjava.rwx.error.CoercionException;
+import org.commonjava.rwx.error.XmlRpcException;
+import org.commonjava.rwx.model.RpcObject;
+import org.commonjava.rwx.vocab.ValueType;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.Reader;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+
+import static junit.framework.TestCase.assertEquals;
+import static junit.framework.TestCase.assertTrue;
+import static junit.framework.TestCase.fail;
+
+public class JsonXmlRpcTranscoderTest
+{
+    private static final String DECLARATION = "<?xml version=\"1.0\" ?>";
+
+    private final JsonXmlRpcTranscoder transcoder = new JsonXmlRpcTranscoder();
+
+    @Test
+    public void methodCallTest() throws Exception
+    {
+        String json = "{ \"methodName\" : \"getBuild\", \"id\": [1, {\"x\": null}],\n \"params\": [\n"
+                        + "  42, 3000000000, 99999999999999999999, -0.5, 1e2, true, false, null, \"a <&> b\",\n"
+                        + "  \"\\\"q\\\" \\\\ \\/ \\n\\t\\u00e9\\ud83d\\ude00\", \"\", [], {}\n] }";
+        String expected = DECLARATION + "<methodCall><methodName>getBuild</methodName><params>"
+                        + "<param><value><int>42</int></value></param>"
+                        + "<param><value><i8>3000000000</i8></value></param>"
+                        + "<param><value><double>100000000000000000000</double></value></param>"
+                        + "<param><value><double>-0.5</double></value></param>"
+                        + "<param><value><double>100</double></value></param>"
+                        + "<param><value><boolean>1</boolean></value></param>"
+                        + "<param><value><boolean>0</boolean></value></param>"
+                        + "<param><value><nil></nil></value></param>"
+                        + "<param><value><string>a &lt;&amp;&gt; b</string></value></param>"
+                        + "<param><value><string>\"q\" \\ / \n\t\u00e9\ud83d\ude00</string></value></param>"
+                        + "<param><value><string></string></value></param>"
+                        + "<param><value><array><data></data></array></value></param>"
+                        + "<param><value><struct></struct></value></param>"
+                        + "</params></methodCall>";
+        assertEquals( expected, transcode( json ) );
+        assertEquals( expected, transcodeBytes( json ) );
+
+        assertEquals( DECLARATION + "<methodCall><methodName>ping</methodName><params></params></methodCall>",
+                      transcode( "{\"methodName\":\"ping\"}" ) );
+    }
+
+    @Test
+    public void responseTest() throws Exception
+    {
+        assertEquals( DECLARATION + "<methodResponse><params><param><value><struct>"
+                                      + "<member><name>id</name><value><int>1</int></value></member>"
+                                      + "<member><name>tags</name><value><array><data>"
+                                      + "<value><string>a</string></value><value><int>2</int></value>"
+                                      + "</data></array></value></member>"
+                                      + "</struct></value></param></params></methodResponse>",
+                      transcode( "{\"params\":[{\"id\":1,\"tags\":[\"a\",2]}]}" ) );
+
+        assertEquals( DECLARATION + "<methodResponse><fault><value><struct>"
+                                      + "<member><name>faultCode</name><value><int>101</int></value></member>"
+                                      + "<member><name>faultString</name><value><string>foo</string></value></member>"
+                                      + "</struct></value></fault></methodResponse>",
+                      transcode( "{\"fault\":{\"faultCode\":101,\"faultString\":\"foo\"}}" ) );
+    }
+
+    @Test
+    public void typeHintsTest() throws Exception
+    {
+        transcoder.setTypeHint( "id", ValueType.LONG );
+        transcoder.setTypeHint( "ratio", ValueType.DOUBLE );
+        transcoder.setTypeHint( "count", ValueType.INT );
+        transcoder.setTypeHint( "ok", ValueType.BOOLEAN );
+        transcoder.setTypeHint( "ts", ValueType.DATETIME );
+        transcoder.setTypeHint( "raw", ValueType.BASE64 );
+        transcoder.setTypeHint( "code", ValueType.STRING );
+
+        String json = "{\"params\":[{\"id\":7,\"ratio\":2,\"count\":\" 12 \",\"ok\":\"false\",\"okList\":1,"
+                        + "\"ts\":[\"2017-09-17T10:15:30.5+02:00\",\"20170917T10:15:30\",\"\"],"
+                        + "\"raw\":\"SGVs\\nbG8=\",\"code\":[1.50,true,\"x\"]}]}";
+        String expected = DECLARATION + "<methodResponse><params><param><value><struct>"
+                        + "<member><name>id</name><value><i8>7</i8></value></member>"
+                        + "<member><name>ratio</name><value><double>2</double></value></member>"
+                        + "<member><name>count</name><value><int>12</int></value></member>"
+                        + "<member><name>ok</name><value><boolean>0</boolean></value></member>"
+                        + "<member><name>okList</name><value><int>1</int></value></member>"
+                        + "<member><name>ts</name><value><array><data>"
+                        + "<value><dateTime.iso8601>20170917T10:15:30.5+02:00</dateTime.iso8601></value>"
+                        + "<value><dateTime.iso8601>20170917T10:15:30</dateTime.iso8601></value>"
+                        + "<value><dateTime.iso8601></dateTime.iso8601></value>"
+                        + "</data></array></value></member>"
+                        + "<member><name>raw</name><value><base64>SGVsbG8=</base64></value></member>"
+                        + "<member><name>code</name><value><array><data>"
+                        + "<value><string>1.50</string></value><value><string>true</string></value>"
+                        + "<value><string>x</string></value>"
+                        + "</data></array></value></member>"
+                        + "</struct></value></param></params></methodResponse>";
+        assertEquals( expected, transcode( json ) );
+
+        // the XML-RPC parser reads back what the hints wrote
+        RpcObject parsed = new XmlRpcParser(
+                        new ByteArrayInputStream( transcodeBytes( json ).getBytes( StandardCharsets.UTF_8 ) ) ).parse();
+        Map<String, Object> struct = (Map<String, Object>) parsed.getParams().get( 0 );
+        assertEquals( 7L, struct.get( "id" ) );
+        assertEquals( 2.0, struct.get( "ratio" ) );
+        assertEquals( 12, struct.get( "count" ) );
+        assertEquals( Boolean.FALSE, struct.get( "ok" ) );
+        assertTrue( ( (List<Object>) struct.get( "ts" ) ).get( 0 ) instanceof Date );
+
+        transcoder.setTypeHint( "id", null );
+        transcoder.setIntegerType( ValueType.LONG );
+        assertTrue( transcode( "{\"params\":[{\"id\":7}]}" ).contains( "<i8>7</i8>" ) );
+        transcoder.setIntegerType( ValueType.DOUBLE );
+        assertTrue( transcode( "{\"params\":[{\"id\":7}]}" ).contains( "<double>7</double>" ) );
+    }
+
+    @Test
+    public void hintErrorsTest() throws Exception
+    {
+        transcoder.setTypeHint( "count", ValueType.INT );
+        transcoder.setTypeHint( "ts", ValueType.DATETIME );
+        transcoder.setTypeHint( "raw", ValueType.BASE64 );
+        transcoder.setTypeHint( "ok", ValueType.BOOLEAN );
+
+        assertCoercionFails( "{\"params\":[{\"count\":3000000000}]}" );
+        assertCoercionFails( "{\"params\":[{\"count\":1.5}]}" );
+        assertCoercionFails( "{\"params\":[{\"ts\":\"yesterday\"}]}" );
+        assertCoercionFails( "{\"params\":[{\"ts\":true}]}" );
+        assertCoercionFails( "{\"params\":[{\"raw\":\"not base64!\"}]}" );
+        assertCoercionFails( "{\"params\":[{\"raw\":12}]}" );
+        assertCoercionFails( "{\"params\":[{\"ok\":\"maybe\"}]}" );
+        assertCoercionFails( "{\"params\":[1e999]}" );
+        assertCoercionFails( "{\"params\":[\"bell \\u0007\"]}" );
+
+        try
+        {
+            transcoder.setTypeHint( "x", ValueType.STRUCT );
+            fail( "STRUCT is not a scalar type" );
+        }
+        catch ( IllegalArgumentException e )
+        {
+            // expected
+        }
+    }
+
+    @Test
+    public void invalidJsonTest() throws Exception
+    {
+        String[] invalid = { "", "[]", "{}", "{\"other\":1}", "{\"params\":[1,]}", "{\"params\":[01]}",
+                        "{\"params\":[1.]}", "{\"params\":[tru]}", "{\"params\":[\"open]}", "{\"params\":[1]} x",
+                        "{\"params\":[\"\\x\"]}", "{\"params\":[{\"a\" 1}]}", "{\"params\":{}}",
+                        "{\"methodName\":1}" };
+        for ( String json : invalid )
+        {
+            try
+            {
+                transcode( json );
+                fail( "Should fail: " + json );
+            }
+            catch ( XmlRpcException e )
+            {
+                assertTrue( json + ": " + e.getMessage(), !( e instanceof CoercionException ) );
+            }
+        }
+
+        StringBuilder deep = new StringBuilder( "{\"params\":[" );
+        for ( int i = 0; i <= JsonXmlRpcTranscoder.MAX_DEPTH; i++ )
+        {
+            deep.append( '[' );
+        }
+        try
+        {
+            transcode( deep.toString() );
+            fail( "Should fail on depth" );
+        }
+        catch ( XmlRpcException e )
+        {
+            assertTrue( e.getMessage(), e.getMessage().contains( "nested deeper" ) );
+        }
+    }
+
+    /**
+     * Stream a large array and long string from a generating Reader to a counting Writer, neither holds the
+     * document, and check the scalar buffer is not needed for them.
+     */
+    @Test
+    public void largeDocumentTest() throws Exception
+    {
+        final int elements = 200000;
+        final String longString = "\"" + repeat( "abc\\u00e9", 50000 ) + "\"";
+        Reader in = new Reader()
+        {
+            private int element = -1;
+
+            private String pending = "{\"params\":[" + longString + ",[";
+
+            private int pendingPos;
+
+            @Override
+            public int read( char[] cbuf, int off, int len )
+            {
+                if ( pendingPos == pending.length() )
+                {
+                    if ( element == elements )
+                    {
+                        return -1;
+                    }
+                    element++;
+                    pending = element == elements ? "]]}" : ( element > 0 ? "," : "" ) + element;
+                    pendingPos = 0;
+                }
+                int n = Math.min( len, pending.length() - pendingPos );
+                pending.getChars( pendingPos, pendingPos + n, cbuf, off );
+                pendingPos += n;
+                return n;
+            }
+
+            @Override
+            public void close()
+            {
+            }
+        };
+
+        final long[] count = new long[2];
+        Writer out = new Writer()
+        {
+            private final String marker = "<int>";
+
+            private int matched;
+
+            @Override
+            public void write( char[] cbuf, int off, int len )
+            {
+                count[0] += len;
+                for ( int i = off; i < off + len; i++ )
+                {
+                    matched = cbuf[i] == marker.charAt( matched ) ? matched + 1 : cbuf[i] == '<' ? 1 : 0;
+                    if ( matched == marker.length() )
+                    {
+                        count[1]++;
+                        matched = 0;
+                    }
+                }
+            }
+
+            @Override
+            public void flush()
+            {
+            }
+
+            @Override
+            public void close() throws IOException
+            {
+            }
+        };
+
+        transcoder.transcode( in, out );
+        assertEquals( elements, count[1] );
+        assertTrue( count[0] > 200000L * 20 + 50000L * 4 );
+    }
+
+    private void assertCoercionFails( String json ) throws Exception
+    {
+        try
+        {
+            transcode( json );
+            fail( "Should fail: " + json );
+        }
+        catch ( CoercionException e )
+        {
+            // expected
+        }
+    }
+
+    private String transcode( String json ) throws XmlRpcException
+    {
+        StringWriter out = new StringWriter();
+        transcoder.transcode( new StringReader( json ), out );
+        return out.toString();
+    }
+
+    private String transcodeBytes( String json ) throws XmlRpcException
+    {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        transcoder.transcode( new ByteArrayInputStream( json.getBytes( StandardCharsets.UTF_8 ) ), out );
+        return new String( out.toByteArray(), StandardCharsets.UTF_8 );
+    }
+
+    private static String repeat( String s, int times )
+    {
+        StringBuilder sb = new StringBuilder( s.length() * times );
+        for ( int i = 0; i < times; i++ )
+        {
+            sb.append( s );
+        }
+        return sb.toString();
+    }
+}
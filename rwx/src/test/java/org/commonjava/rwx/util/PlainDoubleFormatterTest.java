@@ -0,0 +1,121 @@
+/**
+ * Copyright (C) 2010 Red Hat, Inc. (http://github.com/Commonjava/commonjava)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.commonjava.rwx.util;
+
+import org.junit.Test;
+
+import java.text.DecimalFormat;
+import java.text.DecimalFormatSymbols;
+import java.util.Locale;
+import java.util.Random;
+
+import static junit.framework.TestCase.assertEquals;
+
+public class PlainDoubleFormatterTest
+{
+    private final DecimalFormat legacy = new DecimalFormat( "0", DecimalFormatSymbols.getInstance( Locale.ENGLISH ) );
+
+    {
+        legacy.setMaximumFractionDigits( 340 );
+    }
+
+    @Test
+    public void edgeCasesTest()
+    {
+        double[] values = { 0.0, -0.0, 1.0, -1.0, 0.1, 0.001, 0.0001, 1e-5, 1e7, 2.135E9, 18.24668429131,
+                        1473974644.95959, 123456789012345678.0, Double.MIN_VALUE, -Double.MIN_VALUE,
+                        Double.MIN_NORMAL, Double.MAX_VALUE, -Double.MAX_VALUE, Math.PI, Math.E, 1e22, 1e23,
+                        9007199254740993.0, 0.30000000000000004, Double.NaN, Double.POSITIVE_INFINITY,
+                        Double.NEGATIVE_INFINITY };
+        for ( double value : values )
+        {
+            assertSameAsLegacy( value );
+        }
+
+        assertEquals( "2135000000", PlainDoubleFormatter.format( 2.135E9 ) );
+        assertEquals( "0.00001", PlainDoubleFormatter.format( 1e-5 ) );
+        assertEquals( "1", PlainDoubleFormatter.format( 1.0 ) );
+        assertEquals( "-0", PlainDoubleFormatter.format( -0.0 ) );
+    }
+
+    @Test
+    public void randomBitsRoundTripTest()
+    {
+        Random random = new Random( 26 );
+        for ( int i = 0; i < 200000; i++ )
+        {
+            double value = Double.longBitsToDouble( random.nextLong() );
+            if ( Double.isNaN( value ) )
+            {
+                continue;
+            }
+            assertSameAsLegacy( value );
+        }
+    }
+
+    @Test
+    public void decimalRoundTripTest()
+    {
+        Random random = new Random( 27 );
+        for ( int i = 0; i < 200000; i++ )
+        {
+            // values like the ones seen in responses, e.g., timestamps with a few fraction digits
+            double value = Math.round( random.nextDouble() * 1e15 ) / Math.pow( 10, random.nextInt( 12 ) );
+            assertSameAsLegacy( value );
+        }
+    }
+
+    @Test
+    public void exponentSweepTest()
+    {
+        for ( int exp = -325; exp <= 308; exp++ )
+        {
+            assertSameAsLegacy( Math.pow( 10, exp ) );
+            assertSameAsLegacy( 1.2345678901234567 * Math.pow( 10, exp ) );
+        }
+    }
+
+    @Test
+    public void formatToTest()
+    {
+        StringBuilder sb = new StringBuilder( "<double>" );
+        PlainDoubleFormatter.formatTo( 18.24668429131, sb );
+        assertEquals( "<double>18.24668429131", sb.toString() );
+    }
+
+    @Test
+    public void maxLengthTest()
+    {
+        double[] values = { -Double.MIN_VALUE, -Double.MIN_NORMAL, -2.2250738585072009E-308, -Double.MAX_VALUE };
+        for ( double value : values )
+        {
+            char[] buf = new char[PlainDoubleFormatter.MAX_LENGTH];
+            int len = PlainDoubleFormatter.format( value, buf, 0 );
+            assertEquals( legacy.format( value ), new String( buf, 0, len ) );
+        }
+    }
+
+    private void assertSameAsLegacy( double value )
+    {
+        String rendered = PlainDoubleFormatter.format( value );
+        assertEquals( "Rendering " + value, legacy.format( value ), rendered );
+        if ( !Double.isNaN( value ) && !Double.isInfinite( value ) )
+        {
+            assertEquals( "Round trip " + rendered, Double.doubleToLongBits( value ),
+                          Double.doubleToLongBits( Double.parseDouble( rendered ) ) );
+        }
+    }
+}
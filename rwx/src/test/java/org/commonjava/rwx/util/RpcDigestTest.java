@@ -0,0 +1,231 @@
+/**
+ * Copyright (C) 2010 Red Hat, Inc. (http://github.com/Commonjava/commonjava)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.commonjava.rwx.util;
+
+import org.commonjava.rwx.error.CoercionException;
+import org.commonjava.rwx.model.MethodCall;
+import org.commonjava.rwx.vocab.Nil;
+import org.junit.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.TreeMap;
+
+import static junit.framework.TestCase.assertEquals;
+import static junit.framework.TestCase.assertFalse;
+import static junit.framework.TestCase.assertTrue;
+
+public class RpcDigestTest
+{
+    @Test
+    public void memberOrderTest() throws Exception
+    {
+        Map<String, Object> linked = new LinkedHashMap<>();
+        linked.put( "name", "rwx" );
+        linked.put( "id", 42 );
+        linked.put( "tags", Arrays.<Object>asList( "a", "b" ) );
+        Map<String, Object> reversed = new LinkedHashMap<>();
+        reversed.put( "tags", Arrays.<Object>asList( "a", "b" ) );
+        reversed.put( "id", 42 );
+        reversed.put( "name", "rwx" );
+
+        assertEquals( RpcDigest.of( linked ), RpcDigest.of( reversed ) );
+        assertEquals( RpcDigest.of( linked ), RpcDigest.of( new TreeMap<>( linked ) ) );
+        assertTrue( RpcDigest.structurallyEquals( linked, reversed ) );
+
+        reversed.put( "tags", Arrays.<Object>asList( "b", "a" ) );
+        assertFalse( RpcDigest.of( linked ).equals( RpcDigest.of( reversed ) ) );
+        assertFalse( RpcDigest.structurallyEquals( linked, reversed ) );
+    }
+
+    @Test
+    public void valueFormsTest() throws Exception
+    {
+        assertSame( null, Nil.NIL_VALUE );
+        assertSame( 0.0, -0.0 );
+        assertSame( 1.5f, 1.5 );
+        assertSame( new Date( 1000 ), new Date( 1999 ) );
+        assertSame( new Date( 1000 ), Instant.ofEpochSecond( 1 ) );
+        assertSame( Arrays.asList( "a", "b" ),
+                    XmlRpcWriter.ArraySource.of( new LinkedHashSet<>( Arrays.asList( "a", "b" ) ) ) );
+        assertSame( RenderUtils.toFragment( Collections.singletonMap( "a", 1 ) ), Collections.singletonMap( "a", 1 ) );
+
+        assertDifferent( 1, 1L );
+        assertDifferent( 1, 1.0 );
+        assertDifferent( 1, "1" );
+        assertDifferent( "", " " );
+        assertDifferent( "", null );
+        assertDifferent( true, 1 );
+        assertDifferent( new Date( 1000 ), new Date( 2000 ) );
+        assertDifferent( new byte[] { 1 }, new byte[] { 1, 0 } );
+        assertDifferent( Arrays.asList( "ab" ), Arrays.asList( "a", "b" ) );
+        assertDifferent( Arrays.asList(), new HashMap<>() );
+        assertDifferent( Collections.singletonMap( "a", "b" ), Collections.singletonMap( "b", "a" ) );
+
+        MethodCall call = new MethodCall();
+        call.setMethodName( "getBuild" );
+        call.setParams( Arrays.<Object>asList( "rwx-1.0" ) );
+        MethodCall other = new MethodCall();
+        other.setMethodName( "getBuild" );
+        other.setParams( new ArrayList<>( Arrays.<Object>asList( "rwx-1.0" ) ) );
+        assertSame( call, other );
+        other.setMethodName( "getTag" );
+        assertDifferent( call, other );
+    }
+
+    @Test
+    public void stableTest() throws Exception
+    {
+        Map<String, Object> map = new HashMap<>();
+        map.put( "name", "rwx" );
+        map.put( "id", 42 );
+        map.put( "size", 12345678901L );
+        map.put( "ratio", 0.25 );
+        map.put( "created", new Date( 1505643330000L ) );
+        map.put( "data", new byte[] { 1, 2, 3 } );
+        map.put( "none", null );
+
+        // must not change between releases or JVMs, digests may be stored
+        assertEquals( "b6f60be1e476fe1a6a182665f3cb6797", RpcDigest.of( Arrays.<Object>asList( map, true, "snow ☃" ) ).toString() );
+    }
+
+    @Test
+    public void sameAsCanonicalRenderingTest() throws Exception
+    {
+        Random random = new Random( 38 );
+        List<Object> trees = new ArrayList<>();
+        for ( int i = 0; i < 3000; i++ )
+        {
+            trees.add( randomValue( random, 2 ) );
+        }
+
+        Map<String, RpcDigest> byXml = new HashMap<>();
+        Map<RpcDigest, String> byDigest = new HashMap<>();
+        for ( Object tree : trees )
+        {
+            String xml = RenderUtils.toCanonicalXMLString( Collections.singletonList( tree ) );
+            RpcDigest digest = RpcDigest.of( Collections.singletonList( tree ) );
+            RpcDigest previous = byXml.put( xml, digest );
+            assertTrue( previous == null || previous.equals( digest ) );
+            String previousXml = byDigest.put( digest, xml );
+            assertEquals( previousXml == null ? xml : previousXml, xml );
+        }
+        // the small alphabet makes sure there are equal trees
+        assertTrue( byXml.size() < trees.size() );
+
+        for ( int i = 0; i < 500; i++ )
+        {
+            Object a = trees.get( random.nextInt( trees.size() ) );
+            Object b = trees.get( random.nextInt( trees.size() ) );
+            assertEquals( RenderUtils.toCanonicalXMLString( Collections.singletonList( a ) )
+                                          .equals( RenderUtils.toCanonicalXMLString( Collections.singletonList( b ) ) ),
+                          RpcDigest.structurallyEquals( a, b ) );
+        }
+    }
+
+    @Test
+    public void payloadDigestTest() throws Exception
+    {
+        // reference MurmurHash3 x64 128 values
+        byte[] hello = "hello".getBytes( StandardCharsets.US_ASCII );
+        assertEquals( "cbd8a7b341bd9b025b1e906a48ae1d19", RpcDigest.ofBytes( hello, 0, hello.length ).toString() );
+        byte[] fox = "The quick brown fox jumps over the lazy dog".getBytes( StandardCharsets.US_ASCII );
+        assertEquals( "e34bbc7bbc071b6c7a433ca9c49a9347", RpcDigest.ofBytes( fox, 0, fox.length ).toString() );
+
+        Random random = new Random( 43 );
+        byte[] payload = new byte[1000];
+        random.nextBytes( payload );
+        RpcDigest expected = RpcDigest.ofBytes( payload, 0, payload.length );
+        for ( int i = 0; i < 100; i++ )
+        {
+            RpcDigest.PayloadHasher hasher = new RpcDigest.PayloadHasher();
+            for ( int off = 0; off < payload.length; )
+            {
+                int len = Math.min( random.nextInt( 40 ), payload.length - off );
+                hasher.update( payload, off, len );
+                off += len;
+            }
+            assertEquals( expected, hasher.finish() );
+        }
+        payload[999]++;
+        assertFalse( expected.equals( RpcDigest.ofBytes( payload, 0, payload.length ) ) );
+    }
+
+    @Test( expected = CoercionException.class )
+    public void oneShotSourceTest() throws Exception
+    {
+        RpcDigest.of( Arrays.asList( 1, 2 ).iterator() );
+    }
+
+    private void assertSame( Object a, Object b ) throws Exception
+    {
+        assertEquals( RpcDigest.of( a ), RpcDigest.of( b ) );
+        assertTrue( RpcDigest.structurallyEquals( a, b ) );
+    }
+
+    private void assertDifferent( Object a, Object b ) throws Exception
+    {
+        assertFalse( RpcDigest.of( a ).equals( RpcDigest.of( b ) ) );
+        assertFalse( RpcDigest.structurallyEquals( a, b ) );
+    }
+
+    private Object randomValue( Random random, int depth )
+    {
+        switch ( random.nextInt( depth > 0 ? 8 : 6 ) )
+        {
+            case 0:
+                return random.nextInt( 3 );
+            case 1:
+                return (long) random.nextInt( 3 );
+            case 2:
+                return random.nextInt( 3 ) - 1.0;
+            case 3:
+                return new Date( random.nextInt( 3 ) * 500L );
+            case 4:
+                return random.nextBoolean() ? null : Nil.NIL_VALUE;
+            case 5:
+                return "ab".substring( random.nextInt( 3 ) );
+            case 6:
+            {
+                List<Object> list = new ArrayList<>();
+                for ( int i = random.nextInt( 3 ); i > 0; i-- )
+                {
+                    list.add( randomValue( random, depth - 1 ) );
+                }
+                return list;
+            }
+            default:
+            {
+                Map<String, Object> map = random.nextBoolean() ? new HashMap<>() : new LinkedHashMap<>();
+                for ( int i = random.nextInt( 3 ); i > 0; i-- )
+                {
+                    map.put( "k" + random.nextInt( 3 ), randomValue( random, depth - 1 ) );
+                }
+                return map;
+            }
+        }
+    }
+}
@@ -0,0 +1,126 @@
+/**
+ * Copyright (C) 2010 Red Hat, Inc. (http://github.com/Commonjava/commonjava)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.commonjava.rwx.util;
+
+import org.commonjava.rwx.error.CoercionException;
+import org.commonjava.rwx.vocab.ValueType;
+import org.junit.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Random;
+
+import static junit.framework.TestCase.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.fail;
+
+public class ScalarParserTest
+{
+    @Test
+    public void intFromCharsTest() throws Exception
+    {
+        String[] values = { "0", "1", "-1", "+42", " 123 ", "\n\t-2147483648\n", "2147483647", "007" };
+        for ( String value : values )
+        {
+            assertSameAsString( ValueType.INT, value );
+        }
+        assertNull( ValueType.INT.coercion().fromChars( "  ".toCharArray(), 0, 2 ) );
+
+        for ( String invalid : new String[] { "2147483648", "-2147483649", "1.0", "abc", "-", "+", "1 2" } )
+        {
+            assertFails( ValueType.INT, invalid );
+        }
+    }
+
+    @Test
+    public void longFromCharsTest() throws Exception
+    {
+        Random random = new Random( 28 );
+        for ( int i = 0; i < 10000; i++ )
+        {
+            assertSameAsString( ValueType.LONG, Long.toString( random.nextLong() ) );
+        }
+        assertSameAsString( ValueType.LONG, Long.toString( Long.MIN_VALUE ) );
+        assertSameAsString( ValueType.LONG, Long.toString( Long.MAX_VALUE ) );
+        assertFails( ValueType.LONG, "9223372036854775808" );
+        assertFails( ValueType.LONG, "-9223372036854775809" );
+    }
+
+    @Test
+    public void booleanFromCharsTest() throws Exception
+    {
+        for ( String value : new String[] { "1", "0", "true", "TRUE", " True ", "false", "yes", "", "10" } )
+        {
+            assertSameAsString( ValueType.BOOLEAN, value );
+        }
+    }
+
+    @Test
+    public void doubleFromCharsTest() throws Exception
+    {
+        String[] values = { "0", "-0.0", "1", "18.24668429131", "1473974644.95959", ".5", "1.", "-3.25", "1e10",
+                        "1.7976931348623157E308", "4.9E-324", "123456789012345678901234567890", "0.1",
+                        "0.30000000000000004", "9007199254740993", "NaN", "-Infinity", "0.0000000000000000000001",
+                        "0.00000000000000000000001" };
+        for ( String value : values )
+        {
+            assertSameAsString( ValueType.DOUBLE, value );
+        }
+
+        Random random = new Random( 28 );
+        for ( int i = 0; i < 100000; i++ )
+        {
+            assertSameAsString( ValueType.DOUBLE, Double.toString( random.nextDouble() * 1e6 ) );
+            assertSameAsString( ValueType.DOUBLE, PlainDoubleFormatter.format( random.nextDouble() * 1e6 ) );
+        }
+
+        for ( String invalid : new String[] { ".", "-", "1.2.3", "abc" } )
+        {
+            assertFails( ValueType.DOUBLE, invalid );
+        }
+    }
+
+    @Test
+    public void defaultFromCharsTest() throws Exception
+    {
+        assertSameAsString( ValueType.STRING, " test " );
+        assertSameAsString( ValueType.DATETIME, "20170917T10:15:30" );
+    }
+
+    private void assertSameAsString( ValueType type, String value ) throws CoercionException
+    {
+        // embed the value in a bigger buffer to check range handling
+        String padded = "<x>" + value + "</x>";
+        char[] chars = padded.toCharArray();
+        byte[] bytes = padded.getBytes( StandardCharsets.UTF_8 );
+
+        Object expected = type.coercion().fromString( value );
+        assertEquals( value, expected, type.coercion().fromChars( chars, 3, value.length() ) );
+        assertEquals( value, expected, type.coercion().fromBytes( bytes, 3, value.length() ) );
+    }
+
+    private void assertFails( ValueType type, String value )
+    {
+        try
+        {
+            type.coercion().fromChars( value.toCharArray(), 0, value.length() );
+            fail( "Expected failure for '" + value + "'" );
+        }
+        catch ( CoercionException e )
+        {
+            // expected
+        }
+    }
+}
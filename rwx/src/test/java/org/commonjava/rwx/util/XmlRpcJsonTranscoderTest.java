@@ -0,0 +1,141 @@
+/**
+ * Copyright (C) 2010 Red Hat, Inc. (http://github.com/Commonjava/commonjava)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.commonjava.rwx.util;
+
+import org.commonjava.rwx.error.CoercionException;
+import org.commonjava.rwx.error.XmlRpcException;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.nio.charset.StandardCharsets;
+
+import static junit.framework.TestCase.assertEquals;
+import static junit.framework.TestCase.assertTrue;
+import static junit.framework.TestCase.fail;
+
+public class XmlRpcJsonTranscoderTest
+{
+    private final XmlRpcJsonTranscoder transcoder = new XmlRpcJsonTranscoder();
+
+    @Test
+    public void responseTest() throws Exception
+    {
+        String xml = "<?xml version='1.0'?>\n<methodResponse><params><param><value><struct>\n"
+                        + "  <member><name>id</name><value><int> 42 </int></value></member>\n"
+                        + "  <member><name>big</name><value><i8>9007199254740993</i8></value></member>\n"
+                        + "  <member><name>small</name><value><i8>-12</i8></value></member>\n"
+                        + "  <member><name>ratio</name><value><double>2.135E9</double></value></member>\n"
+                        + "  <member><name>ok</name><value><boolean>1</boolean></value></member>\n"
+                        + "  <member><name>ts</name><value><dateTime.iso8601>20170917T10:15:30</dateTime.iso8601></value></member>\n"
+                        + "  <member><name>utc</name><value><dateTime.iso8601>20170917T101530.5Z</dateTime.iso8601></value></member>\n"
+                        + "  <member><name>raw</name><value><base64>SGVs\n  bG8=</base64></value></member>\n"
+                        + "  <member><name>none</name><value><nil/></value></member>\n"
+                        + "  <member><name>empty</name><value><string></string></value></member>\n"
+                        + "  <member><name>untyped</name><value>\n   a &amp; b  \n</value></member>\n"
+                        + "  <member><name>text</name><value><string> \"q\" \\ \n\t\u2028 </string></value></member>\n"
+                        + "  <member><name>list</name><value><array><data>\n"
+                        + "    <value><int>1</int></value><value>x</value><value><array><data/></array></value>\n"
+                        + "  </data></array></value></member>\n"
+                        + "</struct></value></param></params></methodResponse>";
+
+        String expected = "{\"params\":[{\"id\":42,\"big\":\"9007199254740993\",\"small\":-12,\"ratio\":2.135E9,"
+                        + "\"ok\":true,\"ts\":\"2017-09-17T10:15:30\",\"utc\":\"2017-09-17T10:15:30.5Z\","
+                        + "\"raw\":\"SGVsbG8=\",\"none\":null,\"empty\":\"\",\"untyped\":\"a & b\","
+                        + "\"text\":\" \\\"q\\\" \\\\ \\n\\t\\u2028 \",\"list\":[1,\"x\",[]]}]}";
+        assertEquals( expected, transcode( xml ) );
+
+        // the same from chars
+        StringWriter writer = new StringWriter();
+        transcoder.transcode( new StringReader( xml ), writer );
+        assertEquals( expected, writer.toString() );
+
+        transcoder.setSafeIntegers( false );
+        assertEquals( "{\"params\":[9007199254740993]}", transcode(
+                        "<methodResponse><params><param><value><i8>9007199254740993</i8></value></param></params>"
+                                        + "</methodResponse>" ) );
+    }
+
+    @Test
+    public void faultAndCallTest() throws Exception
+    {
+        assertEquals( "{\"fault\":{\"faultCode\":101,\"faultString\":\"foo\"}}", transcode(
+                        "<methodResponse><fault><value><struct><member><name>faultCode</name><value><int>101</int>"
+                                        + "</value></member><member><name>faultString</name><value><string>foo"
+                                        + "</string></value></member></struct></value></fault></methodResponse>" ) );
+
+        assertEquals( "{\"methodName\":\"getBuild\",\"params\":[\"foo-1.0-1\",null]}", transcode(
+                        "<methodCall><methodName> getBuild </methodName><params><param><value>foo-1.0-1</value>"
+                                        + "</param><param><value><nil/></value></param></params></methodCall>" ) );
+
+        assertEquals( "{\"methodName\":\"getLastEvent\",\"params\":[]}",
+                      transcode( "<methodCall><methodName>getLastEvent</methodName></methodCall>" ) );
+    }
+
+    @Test( expected = CoercionException.class )
+    public void nanTest() throws Exception
+    {
+        transcode( "<methodResponse><params><param><value><double>NaN</double></value></param></params>"
+                                   + "</methodResponse>" );
+    }
+
+    @Test( expected = XmlRpcException.class )
+    public void notXmlRpcTest() throws Exception
+    {
+        transcode( "<html><body/></html>" );
+    }
+
+    @Test
+    public void boundedTextTest() throws Exception
+    {
+        // a run of blanks is written as it grows past the pending limit, only the last ones held are trimmed
+        StringBuilder blanks = new StringBuilder();
+        for ( int i = 0; i < XmlRpcJsonTranscoder.MAX_PENDING_BLANKS * 3 + 5; i++ )
+        {
+            blanks.append( ' ' );
+        }
+        String written = blanks.substring( 0, XmlRpcJsonTranscoder.MAX_PENDING_BLANKS * 3 );
+        assertEquals( "{\"params\":[\"a" + blanks + "b" + written + "\"]}", transcode(
+                        "<methodResponse><params><param><value>a" + blanks + "b" + blanks + "</value></param>"
+                                        + "</params></methodResponse>" ) );
+
+        StringBuilder name = new StringBuilder();
+        for ( int i = 0; i <= XmlRpcJsonTranscoder.MAX_SCALAR_LENGTH; i++ )
+        {
+            name.append( 'n' );
+        }
+        try
+        {
+            transcode( "<methodResponse><params><param><value><struct><member><name>" + name
+                                       + "</name><value>x</value></member></struct></value></param></params>"
+                                       + "</methodResponse>" );
+            fail( "Member name over the limit" );
+        }
+        catch ( CoercionException e )
+        {
+            assertTrue( e.getMessage(), e.getMessage().contains( "longer than" ) );
+        }
+    }
+
+    private String transcode( String xml ) throws Exception
+    {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        transcoder.transcode( new ByteArrayInputStream( xml.getBytes( StandardCharsets.UTF_8 ) ), out );
+        return new String( out.toByteArray(), StandardCharsets.UTF_8 );
+    }
+}
@@ -0,0 +1,453 @@
+/**
+ * Copyright (C) 2010 Red Hat, Inc. (http://github.com/Commonjava/commonjava)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.commonjava.rwx.util;
+
+import org.commonjava.rwx.error.CoercionException;
+import org.commonjava.rwx.model.MethodCall;
+import org.commonjava.rwx.model.MethodResponse;
+import org.commonjava.rwx.vocab.Nil;
+import org.commonjava.rwx.vocab.ValueType;
+import org.junit.Test;
+
+import javax.xml.stream.XMLOutputFactory;
+import javax.xml.stream.XMLStreamWriter;
+import java.io.ByteArrayOutputStream;
+import java.io.OutputStreamWriter;
+import java.io.StringWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
+
+import static junit.framework.TestCase.assertEquals;
+import static junit.framework.TestCase.assertFalse;
+import static junit.framework.TestCase.assertNull;
+import static junit.framework.TestCase.assertTrue;
+import static org.apache.commons.lang3.StringUtils.isNotBlank;
+import static org.commonjava.rwx.vocab.XmlRpcConstants.*;
+
+public class XmlRpcWriterTest
+{
+    @Test
+    public void escapeTest() throws Exception
+    {
+        MethodCall call = new MethodCall();
+        call.setMethodName( "a<b>&c" );
+        call.setParams( Arrays.<Object>asList( "x < y && y > z \"'\r\n\t", "", null, "snow ☃ 😀 é" ) );
+
+        String expected = "<?xml version=\"1.0\" ?><methodCall><methodName>a&lt;b&gt;&amp;c</methodName><params>"
+                        + "<param><value><string>x &lt; y &amp;&amp; y &gt; z \"'\r\n\t</string></value></param>"
+                        + "<param><value><string></string></value></param>"
+                        + "<param><value><nil></nil></value></param>"
+                        + "<param><value><string>snow ☃ 😀 é</string></value></param>"
+                        + "</params></methodCall>";
+        assertEquals( expected, RenderUtils.toXMLString( call ) );
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        RenderUtils.writeXML( call, out );
+        assertEquals( expected, new String( out.toByteArray(), StandardCharsets.UTF_8 ) );
+    }
+
+    @Test
+    public void loneSurrogateTest() throws Exception
+    {
+        List<Object> params = Arrays.<Object>asList( "a\ud83db", "\ude00" );
+        MethodResponse response = new MethodResponse();
+        response.setParams( params );
+
+        assertSameAsStax( response );
+    }
+
+    @Test
+    public void randomTreesTest() throws Exception
+    {
+        Random random = new Random( 31 );
+        for ( int i = 0; i < 500; i++ )
+        {
+            MethodResponse response = new MethodResponse();
+            List<Object> params = new ArrayList<>();
+            for ( int p = random.nextInt( 4 ); p >= 0; p-- )
+            {
+                params.add( randomValue( random, 3 ) );
+            }
+            response.setParams( params );
+            assertSameAsStax( response );
+        }
+    }
+
+    @Test
+    public void smallBufferTest() throws Exception
+    {
+        Random random = new Random( 32 );
+        MethodCall call = new MethodCall();
+        call.setMethodName( "big" );
+        List<Object> params = new ArrayList<>();
+        for ( int i = 0; i < 200; i++ )
+        {
+            params.add( randomValue( random, 2 ) );
+        }
+        call.setParams( params );
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        RenderUtils.writeXML( call, out, 1 );
+        assertEquals( stax( call ), new String( out.toByteArray(), StandardCharsets.UTF_8 ) );
+    }
+
+    @Test
+    public void parallelArraysTest() throws Exception
+    {
+        Random random = new Random( 33 );
+        List<Object> big = new ArrayList<>();
+        for ( int i = 0; i < 5000; i++ )
+        {
+            big.add( randomValue( random, 2 ) );
+        }
+        MethodResponse response = new MethodResponse();
+        response.setParams( Arrays.<Object>asList( big, "tail" ) );
+
+        String expected = RenderUtils.toXMLString( response );
+        ByteArrayOutputStream expectedBytes = new ByteArrayOutputStream();
+        RenderUtils.writeXML( response, expectedBytes );
+
+        ForkJoinPool pool = new ForkJoinPool( 4 );
+        try
+        {
+            for ( int chunkSize : new int[] { 1, 7, 100, 5000 } )
+            {
+                StringWriter writer = new StringWriter();
+                RenderUtils.writeXML( response, XmlRpcWriter.forWriter( writer, 128 )
+                                                            .parallelArrays( pool, 10, chunkSize ) );
+                assertEquals( expected, writer.toString() );
+
+                ByteArrayOutputStream out = new ByteArrayOutputStream();
+                RenderUtils.writeXML( response, XmlRpcWriter.forStream( out, 128 )
+                                                            .parallelArrays( pool, 10, chunkSize ) );
+                assertTrue( Arrays.equals( expectedBytes.toByteArray(), out.toByteArray() ) );
+            }
+        }
+        finally
+        {
+            pool.shutdown();
+        }
+    }
+
+    @Test
+    public void parallelRenderedElementsTest() throws Exception
+    {
+        List<Integer> ids = new ArrayList<>();
+        for ( int i = 0; i < 1000; i++ )
+        {
+            ids.add( i );
+        }
+        Set<Thread> renderers = ConcurrentHashMap.newKeySet();
+        List<Object> elements = RenderUtils.renderedView( ids, id -> {
+            renderers.add( Thread.currentThread() );
+            return Collections.singletonMap( "id", id );
+        } );
+
+        StringWriter expected = new StringWriter();
+        XmlRpcWriter sequential = XmlRpcWriter.forWriter( expected, 128 );
+        sequential.array( elements );
+        sequential.flush();
+        renderers.clear();
+
+        ForkJoinPool pool = new ForkJoinPool( 2 );
+        try
+        {
+            XmlRpcWriter.ChunkPool chunks = new XmlRpcWriter.ChunkPool( 4 );
+            for ( int i = 0; i < 2; i++ )
+            {
+                StringWriter out = new StringWriter();
+                XmlRpcWriter writer = XmlRpcWriter.forWriter( out, 128 ).parallelArrays( pool, 10, 16, chunks );
+                writer.array( elements );
+                writer.flush();
+                assertEquals( expected.toString(), out.toString() );
+            }
+        }
+        finally
+        {
+            pool.shutdown();
+        }
+
+        // the elements were rendered by the chunk tasks
+        assertFalse( renderers.contains( Thread.currentThread() ) );
+    }
+
+    @Test
+    public void arraySourcesTest() throws Exception
+    {
+        assertNull( XmlRpcWriter.sourceIterator( Paths.get( "a", "b" ) ) );
+        assertNull( XmlRpcWriter.sourceIterator( new LinkedHashSet<>( Arrays.asList( "a", "b" ) ) ) );
+
+        StringWriter out = new StringWriter();
+        XmlRpcWriter writer = XmlRpcWriter.forWriter( out, 128 );
+        writer.valueContent( XmlRpcWriter.ArraySource.of( new LinkedHashSet<>( Arrays.asList( "a", "b" ) ) ) );
+        writer.flush();
+        assertEquals( "<array><data><value><string>a</string></value><value><string>b</string></value></data></array>",
+                      out.toString() );
+    }
+
+    @Test( expected = CoercionException.class )
+    public void parallelArraysFailureTest() throws Exception
+    {
+        List<Object> big = new ArrayList<>();
+        for ( int i = 0; i < 1000; i++ )
+        {
+            big.add( i == 500 ? new Date( Long.MAX_VALUE ) : i );
+        }
+
+        ForkJoinPool pool = new ForkJoinPool( 2 );
+        try
+        {
+            XmlRpcWriter writer = XmlRpcWriter.forStream( new ByteArrayOutputStream(), 128 )
+                                              .parallelArrays( pool, 10, 16 );
+            writer.array( big );
+        }
+        finally
+        {
+            pool.shutdown();
+        }
+    }
+
+    @Test
+    public void canonicalTest() throws Exception
+    {
+        Map<String, Object> linked = new LinkedHashMap<>();
+        linked.put( "zeta", -0.0 );
+        linked.put( "alpha", new Date( 1505643330123L ) );
+        linked.put( "mid", "  " );
+        Map<String, Object> hashed = new HashMap<>( linked );
+        Map<String, Object> sorted = new TreeMap<>( linked );
+
+        String expected = "<?xml version=\"1.0\" ?><methodResponse><params><param><value><struct>"
+                        + "<member><name>alpha</name><value><dateTime.iso8601>20170917T101530Z</dateTime.iso8601>"
+                        + "</value></member>"
+                        + "<member><name>mid</name><value><string>  </string></value></member>"
+                        + "<member><name>zeta</name><value><double>0</double></value></member>"
+                        + "</struct></value></param></params></methodResponse>";
+        for ( Map<String, Object> map : Arrays.asList( linked, hashed, sorted ) )
+        {
+            MethodResponse response = new MethodResponse();
+            response.setParams( Arrays.<Object>asList( map ) );
+            assertEquals( expected, RenderUtils.toCanonicalXMLString( response ) );
+
+            // a cached fragment is re-rendered from its tree
+            response.setParams( Arrays.<Object>asList( RenderUtils.toFragment( map ) ) );
+            assertEquals( expected, RenderUtils.toCanonicalXMLString( response ) );
+        }
+
+        // the default mode keeps the map order and the local time
+        assertTrue( RenderUtils.toXMLString( linked ).startsWith( "<struct><member><name>zeta</name>" ) );
+    }
+
+    @Test( expected = CoercionException.class )
+    public void canonicalNaNTest() throws Exception
+    {
+        XmlRpcWriter.forWriter( new StringWriter(), 64 ).canonical( true ).value( Double.NaN );
+    }
+
+    @Test
+    public void canonicalParallelTest() throws Exception
+    {
+        Random random = new Random( 37 );
+        List<Object> big = new ArrayList<>();
+        for ( int i = 0; i < 2000; i++ )
+        {
+            big.add( randomValue( random, 2 ) );
+        }
+
+        ForkJoinPool pool = new ForkJoinPool( 4 );
+        try
+        {
+            StringWriter writer = new StringWriter();
+            RenderUtils.writeXML( big, XmlRpcWriter.forWriter( writer, 128 )
+                                                   .canonical( true )
+                                                   .parallelArrays( pool, 10, 64 ) );
+            assertEquals( RenderUtils.toCanonicalXMLString( big ), writer.toString() );
+        }
+        finally
+        {
+            pool.shutdown();
+        }
+    }
+
+    private void assertSameAsStax( Object rpcObject ) throws Exception
+    {
+        String expected = stax( rpcObject );
+        assertEquals( expected, RenderUtils.toXMLString( rpcObject ) );
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        RenderUtils.writeXML( rpcObject, out );
+        ByteArrayOutputStream expectedBytes = new ByteArrayOutputStream();
+        Writer writer = new OutputStreamWriter( expectedBytes, StandardCharsets.UTF_8 );
+        writer.write( expected );
+        writer.flush();
+        assertEquals( new String( expectedBytes.toByteArray(), StandardCharsets.ISO_8859_1 ),
+                      new String( out.toByteArray(), StandardCharsets.ISO_8859_1 ) );
+    }
+
+    private Object randomValue( Random random, int depth )
+    {
+        int kind = random.nextInt( depth > 0 ? 10 : 8 );
+        switch ( kind )
+        {
+            case 0:
+                return random.nextInt();
+            case 1:
+                return random.nextLong();
+            case 2:
+                return random.nextBoolean();
+            case 3:
+                return random.nextDouble() * Math.pow( 10, random.nextInt( 20 ) - 10 );
+            case 4:
+                return new Date( random.nextLong() % 4000000000000L );
+            case 5:
+                return Nil.NIL_VALUE;
+            case 6:
+            case 7:
+                return randomString( random );
+            case 8:
+            {
+                List<Object> list = new ArrayList<>();
+                for ( int i = random.nextInt( 4 ); i > 0; i-- )
+                {
+                    list.add( randomValue( random, depth - 1 ) );
+                }
+                return list;
+            }
+            default:
+            {
+                Map<String, Object> map = new LinkedHashMap<>();
+                for ( int i = random.nextInt( 4 ); i > 0; i-- )
+                {
+                    map.put( randomString( random ), randomValue( random, depth - 1 ) );
+                }
+                return map;
+            }
+        }
+    }
+
+    private String randomString( Random random )
+    {
+        String alphabet = "abc XYZ 019 <>&\"'\t\né☃😀";
+        StringBuilder sb = new StringBuilder();
+        for ( int i = random.nextInt( 12 ); i > 0; i-- )
+        {
+            int idx = random.nextInt( alphabet.length() );
+            char c = alphabet.charAt( idx );
+            if ( Character.isHighSurrogate( c ) )
+            {
+                sb.append( c ).append( alphabet.charAt( idx + 1 ) );
+            }
+            else if ( !Character.isLowSurrogate( c ) )
+            {
+                sb.append( c );
+            }
+        }
+        return sb.toString();
+    }
+
+    /**
+     * The XMLStreamWriter based rendering RenderUtils used before.
+     */
+    private String stax( Object rpcObject ) throws Exception
+    {
+        StringWriter result = new StringWriter();
+        XMLStreamWriter w = XMLOutputFactory.newInstance().createXMLStreamWriter( result );
+        w.writeStartDocument();
+        if ( rpcObject instanceof MethodCall )
+        {
+            w.writeStartElement( REQUEST );
+            w.writeStartElement( METHOD_NAME );
+            w.writeCharacters( ( (MethodCall) rpcObject ).getMethodName() );
+            w.writeEndElement();
+        }
+        else
+        {
+            w.writeStartElement( RESPONSE );
+        }
+        w.writeStartElement( PARAMS );
+        List<Object> params = rpcObject instanceof MethodCall ?
+                        ( (MethodCall) rpcObject ).getParams() :
+                        ( (MethodResponse) rpcObject ).getParams();
+        for ( Object object : params )
+        {
+            w.writeStartElement( PARAM );
+            staxValue( w, object );
+            w.writeEndElement();
+        }
+        w.writeEndElement();
+        w.writeEndElement();
+        w.writeEndDocument();
+        w.close();
+        return result.toString();
+    }
+
+    private void staxValue( XMLStreamWriter w, Object object ) throws Exception
+    {
+        w.writeStartElement( VALUE );
+        if ( object instanceof List )
+        {
+            w.writeStartElement( ARRAY );
+            w.writeStartElement( DATA );
+            for ( Object o : (List<Object>) object )
+            {
+                staxValue( w, o );
+            }
+            w.writeEndElement();
+            w.writeEndElement();
+        }
+        else if ( object instanceof Map<?, ?> )
+        {
+            w.writeStartElement( STRUCT );
+            for ( Map.Entry<String, Object> entry : ( (Map<String, Object>) object ).entrySet() )
+            {
+                w.writeStartElement( MEMBER );
+                w.writeStartElement( NAME );
+                w.writeCharacters( entry.getKey() );
+                w.writeEndElement();
+                staxValue( w, entry.getValue() );
+                w.writeEndElement();
+            }
+            w.writeEndElement();
+        }
+        else
+        {
+            ValueType type = ValueType.safeTypeFor( object );
+            w.writeStartElement( type.getPrimaryTag() );
+            String chars = type.coercion().toString( object );
+            if ( isNotBlank( chars ) )
+            {
+                w.writeCharacters( chars );
+            }
+            w.writeEndElement();
+        }
+        w.writeEndElement();
+    }
+}
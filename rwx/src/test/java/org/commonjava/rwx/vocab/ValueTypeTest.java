@@ -0,0 +1,75 @@
+/**
+ * Copyright (C) 2010 Red Hat, Inc. (http://github.com/Commonjava/commonjava)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.commonjava.rwx.vocab;
+
+import org.junit.Test;
+
+import java.math.BigDecimal;
+import java.sql.Timestamp;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import static junit.framework.TestCase.assertEquals;
+import static org.junit.Assert.assertNull;
+
+public class ValueTypeTest
+{
+    @Test
+    public void typeOfTagTest()
+    {
+        for ( ValueType type : ValueType.values() )
+        {
+            assertEquals( type, ValueType.typeOf( type.getPrimaryTag() ) );
+        }
+        assertEquals( ValueType.INT, ValueType.typeOf( "i4" ) );
+        assertEquals( ValueType.STRING, ValueType.typeOf( null ) );
+        assertEquals( ValueType.STRING, ValueType.typeOf( " " ) );
+        assertEquals( ValueType.STRING, ValueType.typeOf( "unknown" ) );
+        assertEquals( ValueType.STRING, ValueType.typeOf( "Int" ) );
+    }
+
+    @Test
+    public void typeForValueTest()
+    {
+        assertEquals( ValueType.NIL, ValueType.typeFor( (Object) null ) );
+        assertEquals( ValueType.STRUCT, ValueType.typeFor( new LinkedHashMap<>() ) );
+        assertEquals( ValueType.ARRAY, ValueType.typeFor( new ArrayList<>() ) );
+        assertEquals( ValueType.INT, ValueType.typeFor( 1 ) );
+        assertEquals( ValueType.LONG, ValueType.typeFor( 1L ) );
+        assertEquals( ValueType.DOUBLE, ValueType.typeFor( 1.5 ) );
+        assertEquals( ValueType.DOUBLE, ValueType.typeFor( BigDecimal.ONE ) );
+        assertEquals( ValueType.DATETIME, ValueType.typeFor( new Timestamp( 0 ) ) );
+        assertEquals( ValueType.DATETIME, ValueType.typeFor( Instant.EPOCH ) );
+        assertEquals( ValueType.BASE64, ValueType.typeFor( new byte[0] ) );
+        assertEquals( ValueType.STRUCT, ValueType.typeFor( (Object) Map.class ) );
+        assertNull( ValueType.typeFor( new Object() ) );
+        assertEquals( ValueType.STRING, ValueType.safeTypeFor( new Object() ) );
+    }
+
+    @Test
+    public void typeForClassTest()
+    {
+        assertEquals( ValueType.LONG, ValueType.typeFor( Long.class ) );
+        assertEquals( ValueType.ARRAY, ValueType.typeFor( List.class ) );
+        assertEquals( ValueType.DATETIME, ValueType.typeFor( Date.class ) );
+        assertNull( ValueType.typeFor( ArrayList.class ) );
+        assertNull( ValueType.typeFor( long.class ) );
+    }
+}